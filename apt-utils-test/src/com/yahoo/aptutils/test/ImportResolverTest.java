@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.aptutils.test;
+
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.writer.ImportResolver;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImportResolverTest {
+
+    private static final String PACKAGE = "org.example";
+
+    private static final DeclaredTypeName LANG_STRING = new DeclaredTypeName("java.lang.String");
+    private static final DeclaredTypeName LOCAL_STRING = new DeclaredTypeName("org.example.String");
+    private static final DeclaredTypeName OTHER_STRING = new DeclaredTypeName("com.other.String");
+    private static final DeclaredTypeName UTIL_LIST = new DeclaredTypeName("java.util.List");
+    private static final DeclaredTypeName AWT_LIST = new DeclaredTypeName("java.awt.List");
+    private static final DeclaredTypeName LOCAL_LIST = new DeclaredTypeName("org.example.List");
+
+    @Test
+    public void testSamePackageBeatsJavaLang() {
+        for (List<DeclaredTypeName> imports : orders(LANG_STRING, LOCAL_STRING, OTHER_STRING)) {
+            ImportResolver resolver = new ImportResolver();
+            assertTrue(resolver.resolveImports(PACKAGE, imports).isEmpty());
+            assertTrue(resolver.canShorten(LOCAL_STRING));
+            assertFalse(resolver.canShorten(LANG_STRING));
+            assertFalse(resolver.canShorten(OTHER_STRING));
+        }
+    }
+
+    @Test
+    public void testJavaLangBeatsImports() {
+        for (List<DeclaredTypeName> imports : orders(OTHER_STRING, LANG_STRING)) {
+            ImportResolver resolver = new ImportResolver();
+            assertTrue(resolver.resolveImports(PACKAGE, imports).isEmpty());
+            assertTrue(resolver.canShorten(LANG_STRING));
+            assertFalse(resolver.canShorten(OTHER_STRING));
+        }
+    }
+
+    @Test
+    public void testSamePackageBeatsImports() {
+        for (List<DeclaredTypeName> imports : orders(UTIL_LIST, LOCAL_LIST, AWT_LIST)) {
+            ImportResolver resolver = new ImportResolver();
+            assertTrue(resolver.resolveImports(PACKAGE, imports).isEmpty());
+            assertTrue(resolver.canShorten(LOCAL_LIST));
+            assertFalse(resolver.canShorten(UTIL_LIST));
+        }
+    }
+
+    @Test
+    public void testSmallestQualifiedNameWinsAmongImports() {
+        for (List<DeclaredTypeName> imports : orders(UTIL_LIST, AWT_LIST)) {
+            ImportResolver resolver = new ImportResolver();
+            assertEquals(new TreeSet<String>(Arrays.asList("java.awt.List")), resolver.resolveImports(PACKAGE, imports));
+            assertTrue(resolver.canShorten(AWT_LIST));
+            assertFalse(resolver.canShorten(UTIL_LIST));
+        }
+    }
+
+    @Test
+    public void testRegisteredNames() {
+        ImportResolver resolver = new ImportResolver();
+        resolver.resolveImports(PACKAGE, Collections.singletonList(UTIL_LIST));
+        resolver.register(LOCAL_LIST);
+        assertTrue(resolver.canShorten(UTIL_LIST));
+        assertFalse(resolver.canShorten(LOCAL_LIST));
+        resolver.registerPreferred(LOCAL_LIST);
+        assertTrue(resolver.canShorten(LOCAL_LIST));
+        assertFalse(resolver.canShorten(UTIL_LIST));
+
+        assertTrue(resolver.canShorten(new DeclaredTypeName("java.lang.Integer")));
+        assertFalse(resolver.canShorten(new DeclaredTypeName("java.util.Map")));
+    }
+
+    /**
+     * @return every order of the given types, so the tests show the result doesn't depend on the order of imports
+     */
+    private static List<List<DeclaredTypeName>> orders(DeclaredTypeName... types) {
+        List<List<DeclaredTypeName>> orders = new ArrayList<List<DeclaredTypeName>>();
+        permute(Arrays.asList(types), 0, orders);
+        return orders;
+    }
+
+    private static void permute(List<DeclaredTypeName> types, int from, List<List<DeclaredTypeName>> orders) {
+        if (from == types.size()) {
+            orders.add(new ArrayList<DeclaredTypeName>(types));
+            return;
+        }
+        for (int i = from; i < types.size(); i++) {
+            Collections.swap(types, from, i);
+            permute(types, from + 1, orders);
+            Collections.swap(types, from, i);
+        }
+    }
+}
@@ -55,7 +55,7 @@ public class GenericName extends TypeName {
                 ((List<TypeName>) clone.extendsBound).add(t);
             }
         }
-        clone.superBound = superBound.clone();
+        clone.superBound = superBound == null ? null : superBound.clone();
         return clone;
     }
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.aptutils.writer;
+
+import com.yahoo.aptutils.model.DeclaredTypeName;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Decides which type names a generated file can refer to by their simple names, and which of them have to be
+ * imported to do so. At most one type per simple name is shortened; all other types with that simple name are
+ * written fully qualified.
+ *
+ * When several imported types share a simple name, a type in the package of the generated file is shortened first,
+ * since its simple name would refer to it even without an import and it shadows java.lang. Next comes a type in
+ * java.lang, which doesn't need an import either. Among the rest, the type with the lexicographically smallest
+ * qualified name is shortened, so the result doesn't depend on the order the imports were gathered in.
+ * Each name is resolved with a constant number of hash lookups.
+ */
+public class ImportResolver {
+
+    private final Map<String, DeclaredTypeName> shortNames = new HashMap<String, DeclaredTypeName>();
+
+    /**
+     * Resolves collisions between the given imports and returns the names that need import statements
+     *
+     * @param packageName the package of the generated file
+     * @param imports types the file refers to
+     * @return the qualified names to import, sorted
+     */
+    public SortedSet<String> resolveImports(String packageName, Collection<DeclaredTypeName> imports) {
+        for (DeclaredTypeName item : imports) {
+            DeclaredTypeName current = shortNames.get(item.getSimpleName());
+            if (current == null || (!current.equals(item) && takesPrecedence(packageName, item, current))) {
+                shortNames.put(item.getSimpleName(), item);
+            }
+        }
+        SortedSet<String> toImport = new TreeSet<String>();
+        for (DeclaredTypeName item : imports) {
+            if (!isImplicitlyVisible(packageName, item) && item.equals(shortNames.get(item.getSimpleName()))) {
+                toImport.add(item.toString());
+            }
+        }
+        return toImport;
+    }
+
+    private static boolean takesPrecedence(String packageName, DeclaredTypeName candidate, DeclaredTypeName current) {
+        int candidateRank = visibilityRank(packageName, candidate);
+        int currentRank = visibilityRank(packageName, current);
+        if (candidateRank != currentRank) {
+            return candidateRank < currentRank;
+        }
+        return candidate.toString().compareTo(current.toString()) < 0;
+    }
+
+    /**
+     * @return 0 for types in the package of the generated file, 1 for java.lang types and 2 for types that need an
+     * import, following the order in which Java resolves a simple name without single-type imports
+     */
+    private static int visibilityRank(String packageName, DeclaredTypeName type) {
+        String typePackage = type.getPackageName();
+        if (typePackage == null || typePackage.isEmpty() || typePackage.equals(packageName)) {
+            return 0;
+        }
+        return type.isJavaLangPackage() ? 1 : 2;
+    }
+
+    private static boolean isImplicitlyVisible(String packageName, DeclaredTypeName type) {
+        String typePackage = type.getPackageName();
+        return type.isJavaLangPackage() || typePackage == null || typePackage.isEmpty()
+                || typePackage.equals(packageName);
+    }
+
+    /**
+     * Registers a name that can be shortened without an import if no other type has claimed its simple name
+     *
+     * @param type the type name
+     */
+    public void register(DeclaredTypeName type) {
+        if (!shortNames.containsKey(type.getSimpleName())) {
+            shortNames.put(type.getSimpleName(), type);
+        }
+    }
+
+    /**
+     * Registers a name that is shortened even if another type had claimed its simple name, e.g. the name of the
+     * class being generated
+     *
+     * @param type the type name
+     */
+    public void registerPreferred(DeclaredTypeName type) {
+        shortNames.put(type.getSimpleName(), type);
+    }
+
+    /**
+     * @param type the type name
+     * @return true if the type can be referred to by its simple name
+     */
+    public boolean canShorten(DeclaredTypeName type) {
+        DeclaredTypeName shortName = shortNames.get(type.getSimpleName());
+        if (shortName == null) {
+            return type.isJavaLangPackage();
+        }
+        return shortName.equals(type);
+    }
+}
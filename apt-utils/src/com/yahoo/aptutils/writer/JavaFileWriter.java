@@ -39,8 +39,8 @@ import java.util.*;
  *
  * <ul>
  *     <li>Automatic imports handling and name shortening. Any references to type names will be
- *     shortened if they exist in the imports and are unique. Otherwise, fully qualified names
- *     will be used to prevent name conflicts.</li>
+ *     shortened if they exist in the imports and win the simple name (see {@link ImportResolver}).
+ *     Otherwise, fully qualified names will be used to prevent name conflicts.</li>
  *     <li>Automatic indentation. This file tracks the state of the java file being emitted
  *     to calculate a reasonable indent level for each statement written</li>
  *     <li>Seamlessly handles {@link com.yahoo.aptutils.writer.expressions.Expression} objects
@@ -53,8 +53,9 @@ public class JavaFileWriter {
 
     private Writer out;
     private String packageName;
-    private Map<String, List<DeclaredTypeName>> knownNames;
+    private final ImportResolver importResolver = new ImportResolver();
     private Type kind = null;
+    private Deque<Type> enclosingKinds = new LinkedList<Type>();
     private Deque<Scope> scopeStack = new LinkedList<Scope>();
 
     /**
@@ -94,7 +95,6 @@ public class JavaFileWriter {
             throw new IllegalArgumentException("Writer must be non-null");
         }
         this.out = out;
-        this.knownNames = new HashMap<String, List<DeclaredTypeName>>();
         scopeStack.push(Scope.PACKAGE);
     }
 
@@ -136,14 +136,9 @@ public class JavaFileWriter {
      */
     public JavaFileWriter writeImports(Collection<DeclaredTypeName> imports) throws IOException {
         checkScope(Scope.IMPORTS);
-        TreeSet<String> sortedImports = new TreeSet<String>();
+        SortedSet<String> sortedImports = null;
         if (!AptUtils.isEmpty(imports)) {
-            for (DeclaredTypeName item : imports) {
-                DeclaredTypeName toImport = addToKnownNames(item, item.isJavaLangPackage() || item.getPackageName().equals(packageName));
-                if (toImport != null && toImport.getPackageName() != null && !toImport.getPackageName().isEmpty()) {
-                    sortedImports.add(toImport.toString());
-                }
-            }
+            sortedImports = importResolver.resolveImports(packageName, imports);
         }
         if (!AptUtils.isEmpty(sortedImports)) {
             for (String item : sortedImports) {
@@ -166,7 +161,7 @@ public class JavaFileWriter {
     public JavaFileWriter registerOtherKnownNames(Collection<DeclaredTypeName> otherKnownNames) throws IOException {
         if (!AptUtils.isEmpty(otherKnownNames)) {
             for (DeclaredTypeName item : otherKnownNames) {
-                addToKnownNames(item, false);
+                importResolver.register(item);
             }
         }
         return this;
@@ -183,28 +178,6 @@ public class JavaFileWriter {
     public JavaFileWriter registerOtherKnownNames(DeclaredTypeName... otherKnownNames) throws IOException {
         return registerOtherKnownNames(AptUtils.asList(otherKnownNames));
     }
-    
-    // Returns a type name that needs to be added to the imports
-    private DeclaredTypeName addToKnownNames(DeclaredTypeName type, boolean highestPreference) {
-        String simpleName = type.getSimpleName();
-        List<DeclaredTypeName> allNames = knownNames.get(simpleName);
-        if (allNames == null) {
-            allNames = new ArrayList<DeclaredTypeName>();
-            knownNames.put(simpleName, allNames);
-        }
-
-        if (!allNames.contains(type)) {
-            if (highestPreference) {
-                DeclaredTypeName toReturn = allNames.size() > 0 ? allNames.get(0) : null;
-                allNames.add(0, type);
-                return toReturn;
-            } else {
-                allNames.add(type);
-                return type;
-            }
-        }
-        return null;
-    }
 
     /**
      * Begins a new type definition.
@@ -220,8 +193,9 @@ public class JavaFileWriter {
         boolean isRootClass = AptUtils.isEmpty(scopeStack);
         if (!isRootClass) {
             checkScope(Scope.TYPE_DEFINITION); // Begin a new inner type definition 
+            enclosingKinds.push(kind);
         } else {
-            addToKnownNames(typeDeclaration.getClassName(), true);
+            importResolver.registerPreferred(typeDeclaration.getClassName());
         }
         
         this.kind = typeDeclaration.getKind();
@@ -606,6 +580,51 @@ public class JavaFileWriter {
         return this;
     }
 
+    /**
+     * Begins a control flow block inside a method body, e.g. <pre>beginControlFlow("if (x > 0)")</pre> writes
+     * "if (x > 0) {" and indents the statements that follow until {@link #endControlFlow()} is called
+     *
+     * @param controlFlow the statement that opens the block, without the opening brace
+     * @return this
+     * @throws IOException if there was a problem writing to the file
+     */
+    public JavaFileWriter beginControlFlow(String controlFlow) throws IOException {
+        checkScope(Scope.METHOD_DEFINITION);
+        indent();
+        out.append(controlFlow).append(" {\n");
+        moveToScope(Scope.METHOD_DEFINITION);
+        return this;
+    }
+
+    /**
+     * Closes the current control flow block and opens the next one on the same line, e.g.
+     * <pre>nextControlFlow("else")</pre> writes "} else {"
+     *
+     * @param controlFlow the statement that opens the next block, without the braces
+     * @return this
+     * @throws IOException if there was a problem writing to the file
+     */
+    public JavaFileWriter nextControlFlow(String controlFlow) throws IOException {
+        finishScope(Scope.METHOD_DEFINITION);
+        indent();
+        out.append("} ").append(controlFlow).append(" {\n");
+        moveToScope(Scope.METHOD_DEFINITION);
+        return this;
+    }
+
+    /**
+     * Closes a control flow block started by {@link #beginControlFlow(String)}
+     *
+     * @return this
+     * @throws IOException if there was a problem writing to the file
+     */
+    public JavaFileWriter endControlFlow() throws IOException {
+        finishScope(Scope.METHOD_DEFINITION);
+        indent();
+        out.append("}\n");
+        return this;
+    }
+
     /**
      * Finishes a method definition
      *
@@ -648,6 +667,9 @@ public class JavaFileWriter {
      */
     public JavaFileWriter finishTypeDefinition() throws IOException {
         finishScope(Scope.TYPE_DEFINITION);
+        if (!enclosingKinds.isEmpty()) {
+            kind = enclosingKinds.pop();
+        }
         indent();
         out.append("}\n");
         return this;
@@ -730,18 +752,7 @@ public class JavaFileWriter {
 
         @Override
         public String visitClassName(DeclaredTypeName typeName, Boolean includeGenericBounds) {
-            String simpleName = typeName.getSimpleName();
-            List<DeclaredTypeName> allNames = knownNames.get(simpleName);
-            boolean simple;
-            if (typeName.isJavaLangPackage()) {
-                simple = true;
-            } else if (allNames == null || allNames.size() == 0) {
-                simple = false;
-            } else if (allNames.get(0).equals(typeName)) {
-                simple = true;
-            } else {
-                simple = false;
-            }
+            boolean simple = importResolver.canShorten(typeName);
             StringBuilder nameBuilder = new StringBuilder();
             String nameBase = simple ? typeName.getSimpleName() : typeName.toString();
             nameBuilder.append(nameBase);
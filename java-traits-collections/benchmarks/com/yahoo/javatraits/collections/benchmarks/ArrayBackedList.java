@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections.benchmarks;
+
+import com.yahoo.javatraits.annotations.DesiredSuperclass;
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.collections.IndexedList;
+
+import java.util.AbstractList;
+
+/**
+ * A fixed size list over an array that gets forEach, spliterator and the reductions from {@link IndexedList}
+ */
+@HasTraits(traits=IndexedList.class,
+        desiredSuperclass=@DesiredSuperclass(superclass=AbstractList.class, typeArgNames = "IndexedList_E"))
+public class ArrayBackedList<E> extends ArrayBackedListWithTraits<E> {
+
+    private final E[] elements;
+
+    public ArrayBackedList(E[] elements) {
+        this.elements = elements;
+    }
+
+    @Override
+    public E get(int index) {
+        return elements[index];
+    }
+
+    @Override
+    public E set(int index, E element) {
+        E previous = elements[index];
+        elements[index] = element;
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the methods IndexedList adds to a list with the JDK's default methods on the same list without the trait
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexedListBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    private ArrayBackedList<Integer> withTrait;
+    private PlainArrayBackedList<Integer> withoutTrait;
+
+    @Setup
+    public void setUp() {
+        Integer[] elements = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            elements[i] = i;
+        }
+        withTrait = new ArrayBackedList<Integer>(elements);
+        withoutTrait = new PlainArrayBackedList<Integer>(elements);
+    }
+
+    @Benchmark
+    public void forEachDefault(Blackhole blackhole) {
+        withoutTrait.forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void forEachIndexed(Blackhole blackhole) {
+        withTrait.forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public long sumStream() {
+        return withoutTrait.stream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long sumOfLong() {
+        return withTrait.sumOfLong(Integer::longValue);
+    }
+
+    @Benchmark
+    public long sumParallelStreamDefault() {
+        return withoutTrait.parallelStream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long sumParallelStreamIndexed() {
+        return withTrait.parallelStream().mapToLong(Integer::longValue).sum();
+    }
+}
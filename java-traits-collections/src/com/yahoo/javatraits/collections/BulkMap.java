@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A trait for maps with bulk operations on arrays of keys and values, which don't allocate entries, and reductions
+ * over the values to primitive values that don't box.
+ */
+@Trait
+public abstract class BulkMap<K, V> implements Map<K, V> {
+
+    /**
+     * Puts keys[i] -&gt; values[i] for each index of the arrays, which must have the same length
+     */
+    public void putAllPairs(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException(keys.length + " keys but " + values.length + " values");
+        }
+        for (int i = 0; i < keys.length; i++) {
+            put(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * @return the number of keys that were in the map
+     */
+    public int removeAllKeys(Iterable<? extends K> keys) {
+        int removed = 0;
+        for (K key : keys) {
+            if (containsKey(key)) {
+                remove(key);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int countMatching(BiPredicate<? super K, ? super V> predicate) {
+        int count = 0;
+        for (Map.Entry<K, V> entry : entrySet()) {
+            if (predicate.test(entry.getKey(), entry.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long sumOfLong(ToLongFunction<? super V> value) {
+        long sum = 0;
+        for (V v : values()) {
+            sum += value.applyAsLong(v);
+        }
+        return sum;
+    }
+
+    public double sumOfDouble(ToDoubleFunction<? super V> value) {
+        double sum = 0;
+        for (V v : values()) {
+            sum += value.applyAsDouble(v);
+        }
+        return sum;
+    }
+}
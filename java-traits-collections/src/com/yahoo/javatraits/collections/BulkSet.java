@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A trait for sets with bulk operations on arrays, which don't need the elements to be wrapped in a collection
+ * first, and reductions to primitive values that don't box.
+ */
+@Trait
+public abstract class BulkSet<E> implements Set<E> {
+
+    /**
+     * @return the number of elements that weren't in the set yet
+     */
+    public int addAllFrom(E[] elements) {
+        int added = 0;
+        for (E element : elements) {
+            if (add(element)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public boolean containsAllOf(E[] elements) {
+        for (E element : elements) {
+            if (!contains(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of elements that were in the set
+     */
+    public int removeAllFrom(E[] elements) {
+        int removed = 0;
+        for (E element : elements) {
+            if (remove(element)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Like removeIf, but returns the number of elements removed
+     */
+    public int removeMatching(Predicate<? super E> predicate) {
+        int removed = 0;
+        for (Iterator<E> iterator = iterator(); iterator.hasNext();) {
+            if (predicate.test(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int countMatching(Predicate<? super E> predicate) {
+        int count = 0;
+        for (E element : this) {
+            if (predicate.test(element)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long sumOfLong(ToLongFunction<? super E> value) {
+        long sum = 0;
+        for (E element : this) {
+            sum += value.applyAsLong(element);
+        }
+        return sum;
+    }
+
+    public double sumOfDouble(ToDoubleFunction<? super E> value) {
+        double sum = 0;
+        for (E element : this) {
+            sum += value.applyAsDouble(element);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A trait for random access lists that iterates with get(int) and size() instead of an Iterator, so loops over the
+ * list don't allocate. It replaces forEach and spliterator, which the JDK otherwise implements with an iterator for
+ * lists that don't override them. Only use it for lists whose get(int) takes constant time.
+ */
+@Trait
+public abstract class IndexedList<E> implements List<E> {
+
+    public abstract IIndexedList<E> getThis();
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            action.accept(get(i));
+        }
+    }
+
+    /**
+     * Calls the action with each element and its index
+     */
+    public void forEachIndexed(ObjIntConsumer<? super E> action) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            action.accept(get(i), i);
+        }
+    }
+
+    /**
+     * @return the index of the first element matching the predicate, or -1 if there is none
+     */
+    public int indexOfFirst(Predicate<? super E> predicate) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (predicate.test(get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int countMatching(Predicate<? super E> predicate) {
+        int count = 0;
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (predicate.test(get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the values of the elements, as a long so that it doesn't overflow for less than 2^32
+     * elements
+     */
+    public long sumOfInt(ToIntFunction<? super E> value) {
+        long sum = 0;
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            sum += value.applyAsInt(get(i));
+        }
+        return sum;
+    }
+
+    public long sumOfLong(ToLongFunction<? super E> value) {
+        long sum = 0;
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            sum += value.applyAsLong(get(i));
+        }
+        return sum;
+    }
+
+    public double sumOfDouble(ToDoubleFunction<? super E> value) {
+        double sum = 0;
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            sum += value.applyAsDouble(get(i));
+        }
+        return sum;
+    }
+
+    /**
+     * Copies the elements from index from (inclusive) to index to (exclusive) into the array
+     */
+    public void copyInto(int from, int to, Object[] destination, int destinationPosition) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", size " + size());
+        }
+        for (int i = from; i < to; i++) {
+            destination[destinationPosition++] = get(i);
+        }
+    }
+
+    /**
+     * Replaces each element with the result of calling the generator with its index
+     */
+    public void setAll(IntFunction<? extends E> generator) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            set(i, generator.apply(i));
+        }
+    }
+
+    /**
+     * @return a spliterator that splits the list's index range in halves, so parallel streams divide the work evenly
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new IndexedSpliterator<E>(getThis(), 0, -1);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a range of indices of a random access list, used by {@link IndexedList}. It splits the range in
+ * halves and reports its exact size. The size of the list is read when the spliterator is first used rather than
+ * when it's created. Changes to the list's size after that aren't detected.
+ */
+public final class IndexedSpliterator<E> implements Spliterator<E> {
+
+    private final List<E> list;
+    private int index;
+    private int fence; // -1 until first used
+
+    /**
+     * @param fence the end of the range (exclusive), or -1 for the end of the list
+     */
+    public IndexedSpliterator(List<E> list, int origin, int fence) {
+        this.list = list;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    private int getFence() {
+        if (fence < 0) {
+            fence = list.size();
+        }
+        return fence;
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        int hi = getFence();
+        int mid = (index + hi) >>> 1;
+        if (index >= mid) {
+            return null;
+        }
+        Spliterator<E> prefix = new IndexedSpliterator<E>(list, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        if (index < getFence()) {
+            action.accept(list.get(index++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        Objects.requireNonNull(action);
+        int hi = getFence();
+        for (int i = index; i < hi; i++) {
+            action.accept(list.get(i));
+        }
+        index = hi;
+    }
+
+    @Override
+    public long estimateSize() {
+        return getFence() - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED;
+    }
+}
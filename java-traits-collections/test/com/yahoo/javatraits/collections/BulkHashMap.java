@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import com.yahoo.javatraits.annotations.DesiredSuperclass;
+import com.yahoo.javatraits.annotations.HasTraits;
+
+import java.util.HashMap;
+
+@HasTraits(traits=BulkMap.class,
+        desiredSuperclass=@DesiredSuperclass(superclass=HashMap.class, typeArgNames = { "BulkMap_K", "BulkMap_V" }))
+public class BulkHashMap<K, V> extends BulkHashMapWithTraits<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CollectionTraitsTest {
+
+    @Test
+    public void testSpliteratorSplitsInHalves() {
+        FixedArrayList<Integer> list = new FixedArrayList<Integer>(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        Spliterator<Integer> suffix = list.spliterator();
+        assertTrue(suffix instanceof IndexedSpliterator);
+        assertEquals(Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED, suffix.characteristics());
+        assertEquals(10, suffix.estimateSize());
+
+        Spliterator<Integer> prefix = suffix.trySplit();
+        assertEquals(5, prefix.estimateSize());
+        assertEquals(5, suffix.estimateSize());
+        Spliterator<Integer> quarter = prefix.trySplit();
+        assertEquals(2, quarter.estimateSize());
+        assertEquals(3, prefix.estimateSize());
+
+        List<Integer> seen = new ArrayList<Integer>();
+        assertTrue(quarter.tryAdvance(seen::add));
+        assertEquals(1, quarter.estimateSize());
+        quarter.forEachRemaining(seen::add);
+        assertFalse(quarter.tryAdvance(seen::add));
+        assertEquals(0, quarter.estimateSize());
+        prefix.forEachRemaining(seen::add);
+        suffix.forEachRemaining(seen::add);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), seen);
+
+        Spliterator<Integer> single = new IndexedSpliterator<Integer>(list, 3, 4);
+        assertNull(single.trySplit());
+        assertEquals(1, single.estimateSize());
+
+        assertEquals(45, StreamSupport.stream(list.spliterator(), true).mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void testSpliteratorReadsSizeWhenFirstUsed() {
+        List<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+        Spliterator<String> spliterator = new IndexedSpliterator<String>(list, 0, -1);
+        list.add("c");
+        assertEquals(3, spliterator.estimateSize());
+        list.add("d");
+        assertEquals(3, spliterator.estimateSize());
+    }
+
+    @Test
+    public void testIndexedList() {
+        FixedArrayList<String> list = new FixedArrayList<String>("a", "bb", "ccc", "bb");
+        StringBuilder visited = new StringBuilder();
+        list.forEachIndexed((s, i) -> visited.append(i).append(s));
+        assertEquals("0a1bb2ccc3bb", visited.toString());
+        assertEquals(1, list.indexOfFirst(s -> s.startsWith("b")));
+        assertEquals(-1, list.indexOfFirst(String::isEmpty));
+        assertEquals(2, list.countMatching("bb"::equals));
+        assertEquals(8, list.sumOfInt(String::length));
+        assertEquals(8, list.sumOfLong(String::length));
+        assertEquals(8, list.sumOfDouble(String::length), 0);
+
+        Object[] copy = new Object[3];
+        list.copyInto(1, 3, copy, 1);
+        assertArrayEquals(new Object[] { null, "bb", "ccc" }, copy);
+        try {
+            list.copyInto(2, 5, copy, 0);
+            fail("Expected a range past the end of the list to be rejected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        list.setAll(Integer::toString);
+        assertEquals(Arrays.asList("0", "1", "2", "3"), list);
+    }
+
+    @Test
+    public void testBulkSet() {
+        BulkHashSet<String> set = new BulkHashSet<String>();
+        assertEquals(3, set.addAllFrom(new String[] { "a", "bb", "a", "ccc" }));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "bb", "ccc")), set);
+        assertTrue(set.containsAllOf(new String[] { "a", "ccc" }));
+        assertFalse(set.containsAllOf(new String[] { "a", "dddd" }));
+        assertEquals(1, set.countMatching(s -> s.length() > 2));
+        assertEquals(6, set.sumOfLong(String::length));
+        assertEquals(6, set.sumOfDouble(String::length), 0);
+
+        assertEquals(1, set.removeAllFrom(new String[] { "a", "dddd" }));
+        assertEquals(2, set.size());
+        assertEquals(1, set.removeMatching(s -> s.startsWith("b")));
+        assertEquals(Arrays.asList("ccc"), new ArrayList<String>(set));
+        assertEquals(0, set.removeMatching(String::isEmpty));
+    }
+
+    @Test
+    public void testBulkMap() {
+        BulkHashMap<String, Integer> map = new BulkHashMap<String, Integer>();
+        map.putAllPairs(new String[] { "a", "b", "c" }, new Integer[] { 1, 2, 3 });
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(2), map.get("b"));
+        try {
+            map.putAllPairs(new String[] { "d" }, new Integer[0]);
+            fail("Expected arrays of different lengths to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(map.containsKey("d"));
+
+        assertEquals(2, map.countMatching((k, v) -> v > 1));
+        assertEquals(6, map.sumOfLong(Integer::longValue));
+        assertEquals(6, map.sumOfDouble(Integer::doubleValue), 0);
+
+        assertEquals(2, map.removeAllKeys(Arrays.asList("a", "c", "z")));
+        assertEquals(1, map.size());
+        assertTrue(map.containsKey("b"));
+    }
+}
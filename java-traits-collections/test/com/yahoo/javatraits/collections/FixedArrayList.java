@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.collections;
+
+import com.yahoo.javatraits.annotations.DesiredSuperclass;
+import com.yahoo.javatraits.annotations.HasTraits;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+@HasTraits(traits=IndexedList.class,
+        desiredSuperclass=@DesiredSuperclass(superclass=AbstractList.class, typeArgNames = "IndexedList_E"))
+public class FixedArrayList<E> extends FixedArrayListWithTraits<E> {
+
+    private final List<E> elements;
+
+    @SafeVarargs
+    public FixedArrayList(E... elements) {
+        // Copied rather than kept so the varargs array never escapes the constructor
+        this.elements = new ArrayList<E>(elements.length);
+        for (E element : elements) {
+            this.elements.add(element);
+        }
+    }
+
+    @Override
+    public E get(int index) {
+        return elements.get(index);
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return elements.set(index, element);
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the traits of {@link GuardedService} when one instance is shared by 1 to 64 threads, next to the
+ * straightforward AtomicLong and synchronized implementations they replace. Run main() to go through all thread
+ * counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    private final GuardedService service = new GuardedService(Long.MAX_VALUE / 2);
+    private final AtomicLong atomicCount = new AtomicLong();
+    private final SynchronizedTokenBucket synchronizedBucket = new SynchronizedTokenBucket(Long.MAX_VALUE / 2, 100);
+
+    @Benchmark
+    public void countedIncrement() {
+        service.incrementCount();
+    }
+
+    @Benchmark
+    public long atomicLongIncrement() {
+        return atomicCount.incrementAndGet();
+    }
+
+    @Benchmark
+    public boolean rateLimitedTryAcquire() {
+        return service.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean synchronizedTokenBucketTryAcquire() {
+        return synchronizedBucket.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean circuitAllowAndRecordSuccess() {
+        boolean allowed = service.allowRequest();
+        service.recordSuccess();
+        return allowed;
+    }
+
+    @Benchmark
+    public void timedRecordLatency() {
+        service.recordLatencyNanos(1000);
+    }
+
+    /**
+     * A token bucket that refills on each call under a lock
+     */
+    private static final class SynchronizedTokenBucket {
+
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private SynchronizedTokenBucket(long permitsPerSecond, int capacity) {
+            this.permitsPerNano = permitsPerSecond / 1e9;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .include(ContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent.benchmarks;
+
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.concurrent.CircuitBroken;
+import com.yahoo.javatraits.concurrent.Counted;
+import com.yahoo.javatraits.concurrent.RateLimited;
+import com.yahoo.javatraits.concurrent.Timed;
+
+/**
+ * A service class that gets counting, rate limiting, circuit breaking and latency tracking from traits
+ */
+@HasTraits(traits={Counted.class, RateLimited.class, CircuitBroken.class, Timed.class})
+public class GuardedService extends GuardedServiceWithTraits {
+
+    private final long permitsPerSecond;
+
+    public GuardedService(long permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    @Override
+    public long getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    @Override
+    public int getBurstPermits() {
+        return 100;
+    }
+
+    @Override
+    public int getFailureThreshold() {
+        return 5;
+    }
+
+    @Override
+    public long getOpenMillis() {
+        return 1000;
+    }
+
+    /**
+     * @return the request handled, or null if it was rejected
+     */
+    public String handle(String request) {
+        incrementCount();
+        if (!tryAcquire()) {
+            return null;
+        }
+        return callThroughCircuit(() -> timeCall(request::trim), () -> null);
+    }
+}
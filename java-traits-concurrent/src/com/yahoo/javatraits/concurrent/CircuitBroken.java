@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A circuit breaker that opens after getFailureThreshold() consecutive failures, rejects requests for
+ * getOpenMillis(), and then lets a single trial request through. State changes are compare-and-sets, and calls in
+ * the closed state only read the state, so successful calls don't write shared memory unless they follow a
+ * failure.
+ */
+@Trait
+public abstract class CircuitBroken {
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final AtomicInteger circuitState = new AtomicInteger(CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAtNanos = new AtomicLong();
+
+    public abstract int getFailureThreshold();
+
+    public abstract long getOpenMillis();
+
+    /**
+     * @return true if a request may be made. Callers that get true must report the result with recordSuccess() or
+     * recordFailure(), since the circuit stays half open until the trial request's result is known.
+     */
+    public boolean allowRequest() {
+        int state = circuitState.get();
+        if (state == CLOSED) {
+            return true;
+        } else if (state == OPEN
+                && System.nanoTime() - openedAtNanos.get() >= TimeUnit.MILLISECONDS.toNanos(getOpenMillis())) {
+            return circuitState.compareAndSet(OPEN, HALF_OPEN);
+        }
+        return false;
+    }
+
+    /**
+     * Resets the failure count while closed, and closes the circuit if this was the half-open trial request. A
+     * success reported while open comes from a request admitted before the circuit opened, so it's ignored.
+     */
+    public void recordSuccess() {
+        int state = circuitState.get();
+        if (state == CLOSED) {
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+        } else if (state == HALF_OPEN && circuitState.compareAndSet(HALF_OPEN, CLOSED)) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    public void recordFailure() {
+        int state = circuitState.get();
+        if (state == HALF_OPEN
+                || (state == CLOSED && consecutiveFailures.incrementAndGet() >= getFailureThreshold())) {
+            // written before the state, so a thread that sees the circuit open sees when it opened
+            openedAtNanos.set(System.nanoTime());
+            if (circuitState.compareAndSet(state, OPEN)) {
+                consecutiveFailures.set(0);
+            }
+        }
+    }
+
+    public CircuitState getCircuitState() {
+        return CircuitState.values()[circuitState.get()];
+    }
+
+    /**
+     * Makes the call if the circuit allows it and records its result. Exceptions count as failures and are
+     * rethrown.
+     *
+     * @return the result of the call, or of the fallback if the circuit is open
+     */
+    public <T> T callThroughCircuit(Supplier<T> call, Supplier<T> fallback) {
+        if (!allowRequest()) {
+            return fallback.get();
+        }
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            recordFailure();
+            throw e;
+        }
+        recordSuccess();
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+/**
+ * The states of a {@link CircuitBroken} circuit breaker
+ */
+public enum CircuitState {
+    /** Requests are allowed */
+    CLOSED,
+    /** Requests are rejected until the open period is over */
+    OPEN,
+    /** A single trial request has been allowed and its result decides whether the circuit closes again */
+    HALF_OPEN
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A trait that counts events, e.g. requests handled, in a LongAdder, so threads incrementing the count concurrently
+ * update different cells instead of contending for one
+ */
+@Trait
+public abstract class Counted {
+
+    private final LongAdder count = new LongAdder();
+
+    public void incrementCount() {
+        count.increment();
+    }
+
+    public void addToCount(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * @return the count, which isn't an atomic snapshot if the count is being updated concurrently
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the count before resetting it to 0. Increments made concurrently may be lost.
+     */
+    public long getCountAndReset() {
+        return count.sumThenReset();
+    }
+}
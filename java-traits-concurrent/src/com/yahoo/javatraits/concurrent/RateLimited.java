@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket rate limiter. The bucket refills at getPermitsPerSecond() and holds at most getBurstPermits()
+ * permits. Instead of a token count and a refill timestamp, the trait keeps the single time at which the bucket will
+ * next be full (the "theoretical arrival time" of the generic cell rate algorithm), so acquiring permits is one
+ * compare-and-set without locks or a refill thread.
+ */
+@Trait
+public abstract class RateLimited {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong fullAtNanos = new AtomicLong(System.nanoTime());
+
+    public abstract long getPermitsPerSecond();
+
+    public abstract int getBurstPermits();
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * @return true if the permits were available, in which case they are taken. Never blocks.
+     */
+    public boolean tryAcquire(int permits) {
+        long interval = Math.max(1, NANOS_PER_SECOND / getPermitsPerSecond());
+        long cost = interval * permits;
+        long capacity = interval * getBurstPermits();
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = fullAtNanos.get();
+            long next = (fullAt - now < 0 ? now : fullAt) + cost;
+            if (next - now > capacity) {
+                return false;
+            }
+            if (fullAtNanos.compareAndSet(fullAt, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return how long until the given number of permits will be available, or 0 if they are available now
+     */
+    public long getNanosUntilAvailable(int permits) {
+        long interval = Math.max(1, NANOS_PER_SECOND / getPermitsPerSecond());
+        long now = System.nanoTime();
+        long fullAt = fullAtNanos.get();
+        long wait = (fullAt - now < 0 ? now : fullAt) + interval * permits - now - interval * getBurstPermits();
+        return Math.max(0, wait);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.function.Supplier;
+
+/**
+ * A trait that records latencies in a fixed size {@link LatencyHistogram}, so percentiles are available without
+ * keeping samples
+ */
+@Trait
+public abstract class Timed {
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    public void recordLatencyNanos(long nanos) {
+        latencies.record(nanos);
+    }
+
+    /**
+     * Runs the action and records how long it took, even if it throws
+     */
+    public void timeRun(Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Makes the call and records how long it took, even if it throws
+     */
+    public <T> T timeCall(Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    public long getLatencyCount() {
+        return latencies.getCount();
+    }
+
+    public double getMeanLatencyNanos() {
+        return latencies.getMeanNanos();
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        return latencies.getPercentileNanos(percentile);
+    }
+
+    public void resetLatencies() {
+        latencies.reset();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentTraitsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        long[] values = { 0, 15, 16, 31, 32, 1000, 123456789 };
+        long[] upperBounds = { 0, 15, 16, 31, 33, 1023, 125829119 };
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            histogram.reset();
+            histogram.record(values[i]);
+            assertEquals(upperBounds[i], histogram.getPercentileNanos(50));
+        }
+
+        histogram.reset();
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentileNanos(100));
+        histogram.reset();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 44) - 1, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testHistogramRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value < (1L << 44); value = value * 3 / 2 + 1) {
+            histogram.reset();
+            histogram.record(value);
+            long upperBound = histogram.getPercentileNanos(100);
+            assertTrue(upperBound >= value);
+            assertTrue(value + " was counted up to " + upperBound, upperBound - value < Math.max(1, value / 16));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanNanos(), 0);
+        assertEquals(1, histogram.getPercentileNanos(0));
+        assertEquals(10, histogram.getPercentileNanos(10));
+        assertEquals(51, histogram.getPercentileNanos(50));
+        assertEquals(103, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void testRateLimitedBurst() {
+        Throttle throttle = new Throttle(1, 3);
+        assertEquals(0, throttle.getNanosUntilAvailable(3));
+        assertFalse(throttle.tryAcquire(4));
+        assertTrue(throttle.tryAcquire(2));
+        assertTrue(throttle.tryAcquire());
+        assertFalse(throttle.tryAcquire());
+        long wait = throttle.getNanosUntilAvailable(1);
+        assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testRateLimitedRefill() throws InterruptedException {
+        Throttle throttle = new Throttle(10, 1);
+        assertTrue(throttle.tryAcquire());
+        assertFalse(throttle.tryAcquire());
+        long wait = throttle.getNanosUntilAvailable(1);
+        assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+        TimeUnit.NANOSECONDS.sleep(wait + TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(0, throttle.getNanosUntilAvailable(1));
+        assertTrue(throttle.tryAcquire());
+    }
+
+    @Test
+    public void testCircuitTransitions() {
+        Breaker breaker = new Breaker(3, TimeUnit.HOURS.toMillis(1));
+        assertEquals(CircuitState.CLOSED, breaker.getCircuitState());
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitState.CLOSED, breaker.getCircuitState());
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitState.OPEN, breaker.getCircuitState());
+        assertFalse(breaker.allowRequest());
+
+        // A success from a request admitted before the circuit opened doesn't close it
+        breaker.recordSuccess();
+        assertEquals(CircuitState.OPEN, breaker.getCircuitState());
+
+        breaker.setOpenMillis(0);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitState.HALF_OPEN, breaker.getCircuitState());
+        assertFalse(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitState.OPEN, breaker.getCircuitState());
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitState.CLOSED, breaker.getCircuitState());
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitState.CLOSED, breaker.getCircuitState());
+    }
+
+    @Test
+    public void testCallThroughCircuit() {
+        Breaker breaker = new Breaker(1, TimeUnit.HOURS.toMillis(1));
+        assertEquals("ok", breaker.callThroughCircuit(() -> "ok", () -> "fallback"));
+        try {
+            breaker.callThroughCircuit(() -> {
+                throw new IllegalStateException("down");
+            }, () -> "fallback");
+            fail("Expected the call's exception to be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("down", e.getMessage());
+        }
+        assertEquals(CircuitState.OPEN, breaker.getCircuitState());
+        assertEquals("fallback", breaker.callThroughCircuit(() -> "ok", () -> "fallback"));
+    }
+}
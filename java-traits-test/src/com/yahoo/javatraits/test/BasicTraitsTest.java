@@ -16,24 +16,98 @@
 package com.yahoo.javatraits.test;
 
 import com.yahoo.javatraits.test.classes.BetterArrayList;
+import com.yahoo.javatraits.test.classes.CallCounter;
+import com.yahoo.javatraits.test.classes.Crate;
+import com.yahoo.javatraits.test.classes.DevirtualizedField;
+import com.yahoo.javatraits.test.classes.DevirtualizedLyingRectangle;
+import com.yahoo.javatraits.test.classes.DevirtualizedList;
+import com.yahoo.javatraits.test.classes.FlakyCalculator;
 import com.yahoo.javatraits.test.classes.FootballField;
 import com.yahoo.javatraits.test.classes.LyingRectangle;
+import com.yahoo.javatraits.test.classes.Mailbox;
+import com.yahoo.javatraits.test.classes.Particle;
+import com.yahoo.javatraits.test.classes.RequestStats;
+import com.yahoo.javatraits.test.classes.ResizableRectangle;
+import com.yahoo.javatraits.test.classes.Sample;
+import com.yahoo.javatraits.test.classes.Scoreboard;
 import com.yahoo.javatraits.test.classes.SomeClass;
+import com.yahoo.javatraits.test.classes.Square;
+import com.yahoo.javatraits.runtime.AsyncSupport;
+import com.yahoo.javatraits.runtime.TraitChangeListener;
+import com.yahoo.javatraits.runtime.TraitComposer;
+import com.yahoo.javatraits.runtime.TraitInstrumentation;
+import com.yahoo.javatraits.runtime.TraitMethodProbe;
+import com.yahoo.javatraits.runtime.MemoStats;
+import com.yahoo.javatraits.runtime.RegistersTraits;
+import com.yahoo.javatraits.runtime.TraitSet;
+import com.yahoo.javatraits.runtime.Traits;
+import com.yahoo.javatraits.processor.utils.TraitIndex;
+import com.yahoo.javatraits.processor.utils.TraitLint;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+import com.yahoo.javatraits.tools.InliningVerifier;
 import com.yahoo.javatraits.test.traits.*;
 import org.junit.Test;
 
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.junit.Assert.assertTrue;
 
 public class BasicTraitsTest {
 
     private SomeClass<Number, Integer, String, Long> instance = new SomeClass<Number, Integer, String, Long>();
 
+    private static volatile boolean plainClassInitialized;
+
+    private static class PlainClass {
+        static {
+            plainClassInitialized = true;
+        }
+    }
+
     @Test
     public void testBasicTraitFunctions() {
         FootballField field = new FootballField();
@@ -58,6 +132,21 @@ public class BasicTraitsTest {
         assertEquals(0, lyingRect.getVolumeWithHeight(3));
     }
     
+    @Test
+    public void testDevirtualizedCallbacks() throws Exception {
+        // DevirtualizedField is final, so the trait's calls to getWidth() and getHeight() are made on it
+        DevirtualizedField field = new DevirtualizedField();
+        assertEquals(2 * (DevirtualizedField.WIDTH + DevirtualizedField.HEIGHT), field.getPerimeter());
+        assertEquals(DevirtualizedField.WIDTH * DevirtualizedField.HEIGHT, field.getArea());
+        // Overrides in a non-final class are still seen by the trait
+        assertEquals(0, new DevirtualizedLyingRectangle().getVolumeWithHeight(5));
+        // Generic classes get the class-typed callbacks too
+        IBetterList<String, IRectangular> list = new DevirtualizedList<>();
+        assertTrue(list.isEmpty());
+        list.add("a");
+        assertFalse(list.isEmpty());
+    }
+
     @Test
     public void testSuperclassSpecification() {
         assertTrue(instance instanceof HashMap<?, ?>);
@@ -90,6 +179,9 @@ public class BasicTraitsTest {
         IBetterList<String, IRectangular> list = new BetterArrayList<>();
         assertTrue(list instanceof List);
         assertTrue(list instanceof IBetterList);
+        assertTrue(list.isEmpty());
+        list.add("a");
+        assertFalse(list.isEmpty());
     }
 
     @Test
@@ -98,10 +190,979 @@ public class BasicTraitsTest {
         assertEquals(5, instance.getTestVariable());
     }
 
+    @Test
+    public void testTraitExtendingTrait() {
+        Crate crate = new Crate();
+        assertEquals(Crate.SIDE * Crate.SIDE * Crate.DEPTH, crate.getVolume());
+        assertEquals(4 * Crate.SIDE, crate.getPerimeter());
+        // Cuboid's override of isSquare() calls Rectangular's
+        assertFalse(crate.isSquare());
+        assertTrue(Traits.has(crate, Cuboid.class));
+        assertTrue(Traits.has(crate, Rectangular.class));
+    }
+
+    @Test
+    public void testStateOfExtendedTrait() {
+        // hits is declared by Tally, which WeightedTally extends
+        Scoreboard scoreboard = new Scoreboard();
+        scoreboard.hit(5);
+        scoreboard.hit(2);
+        assertEquals(2, scoreboard.getHits());
+        assertEquals(3L, scoreboard.dirtyMask());
+
+        Scoreboard copy = new Scoreboard();
+        copy.copyTraitStateFrom(scoreboard);
+        assertEquals(2, copy.getHits());
+        assertEquals(scoreboard, copy);
+        assertEquals(scoreboard.hashCode(), copy.hashCode());
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        scoreboard.writeState(buffer);
+        buffer.flip();
+        Scoreboard decoded = new Scoreboard();
+        decoded.readState(buffer);
+        assertEquals(scoreboard, decoded);
+
+        scoreboard.resetAllTraits();
+        assertEquals(0, scoreboard.getHits());
+        assertEquals(0L, scoreboard.getWeight());
+
+        // Only delegates with state that a class compares or encodes get the state methods
+        assertFalse(declaresMethod(TallyDelegateWrapper.class, "traitStateEquals"));
+        assertFalse(declaresMethod(TallyDelegateWrapper.class, "writeTraitState"));
+        assertFalse(declaresMethod(RectangularDelegateWrapper.class, "traitStateHashCode"));
+    }
+
     @Test
     public void testCopyAnnotations() throws NoSuchMethodException {
         Method method=SomeClass.class.getMethod("intToStringV2", int.class);
         assertNotNull(method.getAnnotation(Deprecated.class));
+        // The renamed default__ method only drops @Override
+        Method renamed = AnotherTraitDelegateWrapper.class.getMethod("default__intToStringV2", int.class);
+        assertNotNull(renamed.getAnnotation(Deprecated.class));
+    }
+
+    @Test
+    public void testTraitRegistry() {
+        assertTrue(Traits.has(new FootballField(), Rectangular.class));
+        assertFalse(Traits.has(new FootballField(), MathTrait.class));
+        assertFalse(Traits.has(null, Rectangular.class));
+        assertFalse(Traits.has("not a class with traits", Rectangular.class));
+
+        TraitSet traits = Traits.of(SomeClass.class);
+        assertEquals(2, traits.size());
+        assertTrue(traits.contains(MathTrait.class));
+        assertTrue(traits.contains(AnotherTrait.class));
+        assertFalse(traits.contains(Rectangular.class));
+        assertTrue(Traits.of(BetterArrayList.class).containsId(Traits.idOf(BetterList.class)));
+        assertTrue(Traits.of(Object.class).isEmpty());
+
+        // Only generated superclasses are initialized to look up their traits
+        assertTrue(Traits.of(PlainClass.class).isEmpty());
+        assertFalse(plainClassInitialized);
+    }
+
+    @Test
+    public void testDispatcher() throws Exception {
+        FootballField field = new FootballField();
+        assertEquals(field.getArea(), RectangularDispatcher.invokeInt(field, RectangularDispatcher.GET_AREA));
+        assertEquals(field.getVolumeWithHeight(3),
+                RectangularDispatcher.invokeInt(field, RectangularDispatcher.GET_VOLUME_WITH_HEIGHT, 3));
+        assertEquals(field.getPerimeter(),
+                RectangularDispatcher.invoke(field, RectangularDispatcher.methodId("getPerimeter")));
+
+        assertEquals(RectangularDispatcher.NO_SUCH_METHOD, RectangularDispatcher.methodId("noSuchMethod"));
+        assertEquals(5, MathTraitDispatcher.invoke(instance, MathTraitDispatcher.ADD, 2, 3));
+        assertEquals("abc", MathTraitDispatcher.invoke(instance, MathTraitDispatcher.INT_TO_STRING_V1, 0xabc));
+        assertEquals(6, MathTraitDispatcher.invoke(instance, MathTraitDispatcher.SUM, new int[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void testRuntimeComposition() {
+        Class<? extends Square> composed = TraitComposer.compose(Square.class, Rectangular.class);
+        assertSame(composed, TraitComposer.compose(Square.class, Rectangular.class));
+
+        Square square = TraitComposer.factory(Square.class, Rectangular.class).get();
+        assertTrue(square instanceof IRectangular);
+        assertTrue(Traits.has(square, Rectangular.class));
+
+        IRectangular rectangular = (IRectangular) square;
+        assertEquals(Square.SIDE * Square.SIDE, rectangular.getArea());
+        assertEquals(Square.SIDE * Square.SIDE * 2, rectangular.getVolumeWithHeight(2));
+        assertTrue(rectangular.isSquare());
+
+        try {
+            TraitComposer.compose(Square.class, Rectangular.class, MathTrait.class);
+            fail("Square doesn't implement the abstract MathTrait methods");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMemoize() {
+        MemoStats areaStats = MemoStats.forMethod(Surface.class, "getArea");
+        long misses = areaStats.getMisses();
+        long hits = areaStats.getHits();
+
+        ResizableRectangle rect = new ResizableRectangle(2, 3);
+        assertEquals(6, rect.getArea());
+        assertEquals(6, rect.getArea());
+        assertEquals(misses + 1, areaStats.getMisses());
+        assertEquals(hits + 1, areaStats.getHits());
+
+        rect.setWidth(4);
+        assertEquals(12, rect.getArea());
+        assertEquals(misses + 2, areaStats.getMisses());
+
+        // A result computed while the memos were invalidated mustn't be cached
+        final boolean[] invalidateDuringCall = { true };
+        ResizableRectangle changing = new ResizableRectangle(2, 3) {
+            @Override
+            public int getHeight() {
+                if (invalidateDuringCall[0]) {
+                    invalidateDuringCall[0] = false;
+                    invalidateSurfaceMemos();
+                }
+                return super.getHeight();
+            }
+        };
+        assertEquals(6, changing.getArea());
+        assertEquals(6, changing.getArea());
+        assertEquals(6, changing.getArea());
+        assertEquals(misses + 4, areaStats.getMisses());
+
+        MemoStats hexStats = MemoStats.forMethod(Arithmetic.class, "toHex");
+        long hexHits = hexStats.getHits();
+        assertEquals("7b", new FlakyCalculator().toHex(123));
+        assertEquals("7b", new FlakyCalculator().toHex(123));
+        assertEquals(hexHits + 1, hexStats.getHits());
+    }
+
+    @Test
+    public void testBatch() {
+        ISurface[] rects = new ISurface[2500];
+        int[] heights = new int[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            rects[i] = new ResizableRectangle(i, 2);
+            heights[i] = i % 3;
+        }
+
+        int[] areas = new int[rects.length];
+        SurfaceBatch.getArea(rects, areas);
+        assertEquals(2 * 1234, areas[1234]);
+
+        int[] volumes = new int[rects.length];
+        int[] parallelVolumes = new int[rects.length];
+        SurfaceBatch.getVolumeWithHeight(rects, heights, volumes);
+        SurfaceBatch.getVolumeWithHeightParallel(rects, heights, parallelVolumes);
+        assertEquals(2 * 1234 * 1, volumes[1234]);
+        assertArrayEquals(volumes, parallelVolumes);
+
+        int[] rangeAreas = new int[rects.length];
+        SurfaceBatch.getArea(rects, 10, 20, rangeAreas);
+        assertEquals(0, rangeAreas[9]);
+        assertEquals(2 * 10, rangeAreas[10]);
+        assertEquals(0, rangeAreas[20]);
+        try {
+            SurfaceBatch.getArea(rects, new int[rects.length - 1]);
+            fail("Expected a results array that's too short to be rejected");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+
+        int[] sums = new int[2];
+        FlakyCalculator calculator = new FlakyCalculator();
+        ArithmeticBatch.add(Arrays.<IArithmetic<Integer, Integer>>asList(calculator, calculator), new int[] { 1, 2 },
+                new int[] { 3, 4 }, sums);
+        assertArrayEquals(new int[] { 4, 6 }, sums);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ResizableRectangle field = new ResizableRectangle(3, 4);
+        FlakyCalculator calculator = new FlakyCalculator();
+        assertEquals(5, field.getDiagonalAsync().get(), 0);
+        assertEquals(8, calculator.multiplyByTwoAndThenSomeWeirdOpAsync(1, 2).get().intValue());
+
+        final AtomicInteger executed = new AtomicInteger();
+        AsyncSupport.setExecutor(Surface.class, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        });
+        try {
+            CompletableFuture<Double> diagonal = field.getDiagonalAsync();
+            assertTrue(diagonal.isDone());
+            assertEquals(field.getDiagonal(), diagonal.get(), 0);
+            assertEquals(1, executed.get());
+
+            calculator.doSomeListThingAsync().get();
+            assertEquals(1, executed.get());
+        } finally {
+            AsyncSupport.setExecutor(Surface.class, null);
+        }
+        assertSame(AsyncSupport.getDefaultExecutor(), AsyncSupport.getExecutor(Surface.class));
+    }
+
+    @Test
+    public void testInterceptors() throws Exception {
+        FlakyCalculator calculator = new FlakyCalculator();
+        int addCalls = CallCounter.getCalls("Arithmetic.add");
+        assertEquals(5, calculator.add(2, 3));
+        assertEquals(addCalls + 1, CallCounter.getCalls("Arithmetic.add"));
+        assertEquals(0, CallCounter.getCalls("Arithmetic.subtract"));
+        calculator.subtract(3, 2);
+        assertEquals(0, CallCounter.getCalls("Arithmetic.subtract"));
+
+        String multiply = "Arithmetic.multiplyByTwoAndThenSomeWeirdOp";
+        int multiplyCalls = CallCounter.getCalls(multiply);
+        int multiplyFailures = CallCounter.getFailures(multiply);
+        calculator.failNextCalls(2);
+        assertEquals(24, calculator.multiplyByTwoAndThenSomeWeirdOp(2, 3));
+        assertEquals(multiplyCalls + 1, CallCounter.getCalls(multiply));
+
+        calculator.failNextCalls(3);
+        try {
+            calculator.multiplyByTwoAndThenSomeWeirdOp(2, 3);
+            fail("Expected the call to fail after three attempts");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(multiplyFailures + 1, CallCounter.getFailures(multiply));
+        assertEquals(24, calculator.multiplyByTwoAndThenSomeWeirdOp(2, 3));
+        assertEquals(multiplyCalls + 2, CallCounter.getCalls(multiply));
+    }
+
+    @Test
+    public void testInstrumentationProbes() throws Exception {
+        TraitMethodProbe probe = TraitInstrumentation.probe(Rectangular.class, "getPerimeter", true, false);
+        assertSame(probe, TraitInstrumentation.probe(Rectangular.class, "getPerimeter", false, false));
+        long calls = probe.getCalls();
+        long start = probe.begin();
+        probe.end(start);
+        assertEquals(calls + 1, probe.getCalls());
+        assertSame(probe, TraitInstrumentation.getProbes().get(Rectangular.class.getName() + ".getPerimeter"));
+
+        ObjectName name = new ObjectName(TraitInstrumentation.OBJECT_NAME);
+        TabularData counts = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CallCounts");
+        assertTrue(counts.containsKey(new Object[] { Rectangular.class.getName() + ".getPerimeter" }));
+    }
+
+    @Test
+    public void testFactories() {
+        final int[] width = { 2 };
+        IRectangular rectangle = RectangularFactory.of(() -> width[0], () -> 3);
+        assertEquals(6, rectangle.getArea());
+        assertEquals(10, rectangle.getPerimeter());
+        width[0] = 3;
+        assertEquals(9, rectangle.getArea());
+        assertTrue(rectangle.isSquare());
+
+        IAnotherTrait<String, Integer> another = AnotherTraitFactory.of((a, n) -> new String[n],
+                (b, n) -> new Integer[n]);
+        assertEquals(2, another.countAs("a", "b"));
+        assertEquals(3, another.copyBNTimes(1, 3).length);
+
+        try {
+            RectangularFactory.of(() -> 1, null);
+            fail("Expected a null function to be rejected");
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testResetTraitState() {
+        RequestStats stats = new RequestStats();
+        stats.record(10);
+        stats.record(20);
+        RequestStats copy = new RequestStats();
+        copy.copyTraitStateFrom(stats);
+        assertEquals(2, copy.getCount());
+        assertEquals(15, copy.getAverage(), 0);
+
+        stats.resetAllTraits();
+        assertEquals(0, stats.getCount());
+        assertEquals(2, copy.getCount());
+
+        Particle particle = new Particle();
+        particle.setX(3);
+        particle.setVisible(true);
+        Particle other = new Particle();
+        other.copyTraitStateFrom(particle);
+        assertEquals(3, other.getX(), 0);
+        assertTrue(other.isVisible());
+        other.resetAllTraits();
+        assertEquals(0, other.getX(), 0);
+        assertFalse(other.isVisible());
+        assertEquals(3, particle.getX(), 0);
+        particle.releasePositionedSlot();
+        other.releasePositionedSlot();
+    }
+
+    @Test
+    public void testResetMutableTraitState() {
+        // The list isn't copied from the prototype, the trait's @OnReset method replaces it
+        Mailbox first = new Mailbox();
+        Mailbox second = new Mailbox();
+        first.receive("a");
+        first.resetAllTraits();
+        second.resetAllTraits();
+        assertEquals(0, first.getUnread());
+        assertTrue(first.getMessages().isEmpty());
+        first.receive("b");
+        assertEquals(1, first.getMessages().size());
+        assertTrue(second.getMessages().isEmpty());
+        assertNotSame(first.getMessages(), second.getMessages());
+        // Copying would share the list between the two objects
+        assertFalse(declaresMethod(Mailbox.class, "copyTraitStateFrom"));
+    }
+
+    @Test
+    public void testMutableTraitStateWithoutResetHook() throws Exception {
+        JavaFileObject trait = source("pooled.Log", "package pooled;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Log {\n"
+                + "    private java.util.List<String> lines = new java.util.ArrayList<String>();\n"
+                + "    public void log(String line) { lines.add(line); }\n"
+                + "}\n");
+        JavaFileObject host = source("pooled.Service", "package pooled;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits=Log.class)\n"
+                + "public class Service extends ServiceWithTraits {\n"
+                + "}\n");
+        Path output = Files.createTempDirectory("pooled");
+        try {
+            compile(output, Collections.<String>emptyList(), trait, host);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                    BasicTraitsTest.class.getClassLoader())) {
+                // Without an @OnReset method the list can't be reset, and copying it would share it
+                Class<?> hostClass = loader.loadClass("pooled.Service");
+                assertFalse(declaresMethod(hostClass, "resetAllTraits"));
+                assertFalse(declaresMethod(hostClass, "copyTraitStateFrom"));
+                Class<?> delegateClass = loader.loadClass("pooled.LogDelegateWrapper");
+                assertFalse(declaresMethod(delegateClass, "resetTraitState"));
+                assertFalse(declaresMethod(delegateClass, "copyTraitStateFrom"));
+            }
+        } finally {
+            deleteRecursively(output);
+        }
+    }
+
+    private static boolean declaresMethod(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testDirtyTracking() {
+        RequestStats stats = new RequestStats();
+        final List<Long> changes = new ArrayList<Long>();
+        stats.addTraitChangeListener(new TraitChangeListener() {
+            @Override
+            public void traitStateChanged(Object source, long changedMask) {
+                changes.add(changedMask);
+            }
+        });
+        assertEquals(0, stats.dirtyMask());
+
+        stats.getAverage();
+        assertEquals(0, stats.dirtyMask());
+        stats.record(5);
+        long both = RequestStats.DIRTY_COUNTER_COUNT | RequestStats.DIRTY_COUNTER_TOTAL;
+        assertEquals(both, stats.dirtyMask());
+        stats.record(7);
+        assertEquals(Arrays.asList(both), changes);
+
+        stats.clearDirty();
+        stats.record(0);
+        assertEquals(RequestStats.DIRTY_COUNTER_COUNT, stats.dirtyMask());
+        assertEquals(Arrays.asList(both, RequestStats.DIRTY_COUNTER_COUNT), changes);
+
+        stats.resetAllTraits();
+        assertEquals(0, stats.dirtyMask());
+
+        // Copying overwrites every field, so listeners hear about all of them
+        changes.clear();
+        RequestStats other = new RequestStats();
+        other.record(1);
+        stats.copyTraitStateFrom(other);
+        assertEquals(Arrays.asList(both), changes);
+    }
+
+    @Test
+    public void testValueSemantics() {
+        Sample a = new Sample("a", 1);
+        Sample b = new Sample("a", 1);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        a.record(3);
+        assertNotEquals(a, b);
+        b.record(3);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        a.moveBy(1.5, 0);
+        assertNotEquals(a, b);
+        b.setX(1.5);
+        assertEquals(a, b);
+
+        b.setPriority(2);
+        assertNotEquals(a, b);
+        a.setPriority(2);
+        a.setLastSeen(42);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(new Sample("b", 2)));
+
+        HashSet<Sample> samples = new HashSet<Sample>(Arrays.asList(a, b));
+        assertEquals(1, samples.size());
+        int hash = a.hashCode();
+        a.reset();
+        assertNotEquals(hash, a.hashCode());
+        a.copyTraitStateFrom(b);
+        assertEquals(hash, a.hashCode());
+        a.releasePositionedSlot();
+        b.releasePositionedSlot();
+    }
+
+    @Test
+    public void testCodec() throws IOException {
+        Sample sample = new Sample("caf\u00e9", 7);
+        sample.record(4);
+        sample.moveBy(1, 2);
+        sample.setVisible(true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sample.writeState(new DataOutputStream(bytes));
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.size());
+        sample.writeState(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(bytes.toByteArray(), buffer.array());
+
+        Sample copy = new Sample(null, 0);
+        copy.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sample, copy);
+        assertEquals(4.0, copy.getAverage(), 0);
+        assertEquals(sample.hashCode(), copy.hashCode());
+
+        Sample other = new Sample("x", 1);
+        buffer.flip();
+        other.readState(buffer);
+        assertEquals(sample, other);
+
+        buffer.putInt(0, buffer.getInt(0) + 1);
+        buffer.rewind();
+        try {
+            other.readState(buffer);
+            fail("Expected a layout mismatch");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        sample.releasePositionedSlot();
+        copy.releasePositionedSlot();
+        other.releasePositionedSlot();
+    }
+
+    @Test
+    public void testTraitIndex() throws IOException {
+        String resource = "/" + TraitIndex.resourceName(Counter.class.getName());
+        InputStream stream = BasicTraitsTest.class.getResourceAsStream(resource);
+        assertNotNull(stream);
+        TraitIndex index;
+        try {
+            index = TraitIndex.readFrom(stream);
+        } finally {
+            stream.close();
+        }
+        assertNotNull(index);
+        assertEquals(Counter.class.getName(), index.getTraitName());
+        assertTrue(index.getGeneratedClasses().contains(ICounter.class.getName()));
+        assertTrue(index.getGeneratedClasses().contains(CounterDelegateWrapper.class.getName()));
+    }
+
+    @Test
+    public void testForwardersFitInliningBudget() throws IOException {
+        String className = "com.yahoo.javatraits.test.classes.FootballFieldWithTraits";
+        InputStream stream = BasicTraitsTest.class.getResourceAsStream("/" + className.replace('.', '/') + ".class");
+        Map<String, Integer> sizes;
+        try {
+            sizes = InliningVerifier.measure(className, stream);
+        } finally {
+            stream.close();
+        }
+        assertTrue(sizes.containsKey(className + "#getPerimeter()I"));
+        for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            assertTrue(entry.getKey(), entry.getValue() <= InliningVerifier.DEFAULT_MAX_INLINE_SIZE);
+        }
+    }
+
+    @Test
+    public void testOptimisticReadConcurrency() throws InterruptedException {
+        final RequestStats stats = new RequestStats();
+        final int threads = 4;
+        final int recordsPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger inconsistentReads = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < recordsPerThread; j++) {
+                        stats.record(2);
+                        if (stats.getAverage() != 2) {
+                            inconsistentReads.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(0, inconsistentReads.get());
+        assertEquals(threads * recordsPerThread, stats.getCount());
+        assertEquals(2.0, stats.getAverage(), 0);
+        stats.reset();
+        assertEquals(0, stats.getCount());
+    }
+
+    @Test
+    public void testConcurrentHashCode() throws InterruptedException {
+        final Sample sample = new Sample("a", 1);
+        final int threads = 4;
+        final int recordsPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < recordsPerThread; j++) {
+                        sample.record(1);
+                        sample.hashCode();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        Sample expected = new Sample("a", 1);
+        for (int i = 0; i < threads * recordsPerThread; i++) {
+            expected.record(1);
+        }
+        assertEquals(expected, sample);
+        assertEquals(expected.hashCode(), sample.hashCode());
+        sample.releasePositionedSlot();
+        expected.releasePositionedSlot();
+    }
+
+    @Test
+    public void testInPlaceMixingKeepsTraitOverloads() throws Exception {
+        JavaFileObject trait = source("inplace.Greeter", "package inplace;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Greeter {\n"
+                + "    public String greet(int times) { return \"trait \" + times; }\n"
+                + "    public String greet(String name) { return \"trait \" + name; }\n"
+                + "}\n");
+        JavaFileObject host = source("inplace.Host", "package inplace;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits=Greeter.class, inPlace=true)\n"
+                + "public class Host {\n"
+                + "    public String greet(String name) { return \"host \" + name; }\n"
+                + "}\n");
+        Path output = Files.createTempDirectory("inplace");
+        try {
+            compile(output, Arrays.asList("-Xplugin:JavaTraits"), trait, host);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                    BasicTraitsTest.class.getClassLoader())) {
+                Class<?> hostClass = loader.loadClass("inplace.Host");
+                Object instance = hostClass.newInstance();
+                // The class's greet(String) replaces the trait's, but greet(int) still comes from the trait
+                assertEquals("host a", hostClass.getMethod("greet", String.class).invoke(instance, "a"));
+                assertEquals("trait 2", hostClass.getMethod("greet", int.class).invoke(instance, 2));
+                assertEquals(Object.class, hostClass.getSuperclass());
+            }
+        } finally {
+            deleteRecursively(output);
+        }
+    }
+
+    @Test
+    public void testInPlaceMixing() throws Exception {
+        JavaFileObject counter = source("inplace.Counter", "package inplace;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Counter {\n"
+                + "    private int count;\n"
+                + "    public abstract int step();\n"
+                + "    public int increment() { count += step(); return count; }\n"
+                + "    public int getCount() { return count; }\n"
+                + "}\n");
+        JavaFileObject labeled = source("inplace.Labeled", "package inplace;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Labeled {\n"
+                + "    public abstract String name();\n"
+                + "    public String label() { return \"labeled \" + name(); }\n"
+                + "}\n");
+        JavaFileObject base = source("inplace.Base", "package inplace;\n"
+                + "public class Base {\n"
+                + "    public String base() { return \"base\"; }\n"
+                + "}\n");
+        JavaFileObject host = source("inplace.Tally", "package inplace;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits={Counter.class, Labeled.class}, inPlace=true)\n"
+                + "public class Tally extends Base {\n"
+                + "    public int step() { return 2; }\n"
+                + "    public String name() { return \"tally\"; }\n"
+                + "}\n");
+        // Compiled with the host, so the mixed in methods and interfaces have to be there when it's attributed
+        JavaFileObject client = source("inplace.Client", "package inplace;\n"
+                + "public class Client {\n"
+                + "    public static String use(Tally tally) {\n"
+                + "        tally.increment();\n"
+                + "        ICounter counter = tally;\n"
+                + "        return counter.increment() + \" \" + tally.label() + \" \" + tally.base();\n"
+                + "    }\n"
+                + "}\n");
+        Path output = Files.createTempDirectory("inplace");
+        try {
+            compile(output, Arrays.asList("-Xplugin:JavaTraits"), counter, labeled, base, host, client);
+            assertFalse(Files.exists(output.resolve("inplace/TallyWithTraits.class")));
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                    BasicTraitsTest.class.getClassLoader())) {
+                Class<?> tallyClass = loader.loadClass("inplace.Tally");
+                Class<?> counterClass = loader.loadClass("inplace.Counter");
+                Class<?> labeledClass = loader.loadClass("inplace.Labeled");
+                assertEquals(loader.loadClass("inplace.Base"), tallyClass.getSuperclass());
+                List<Class<?>> interfaces = Arrays.asList(tallyClass.getInterfaces());
+                assertTrue(interfaces.toString(), interfaces.contains(loader.loadClass("inplace.ICounter")));
+                assertTrue(interfaces.toString(), interfaces.contains(loader.loadClass("inplace.ILabeled")));
+                assertTrue(interfaces.toString(), interfaces.contains(RegistersTraits.class));
+
+                Object tally = tallyClass.newInstance();
+                assertTrue(Traits.has(tally, counterClass));
+                assertTrue(Traits.has(tally, labeledClass));
+                assertFalse(Traits.has(tally, Rectangular.class));
+                assertTrue(Traits.of(tallyClass).contains(counterClass));
+
+                Method use = loader.loadClass("inplace.Client").getMethod("use", tallyClass);
+                assertEquals("4 labeled tally base", use.invoke(null, tally));
+                assertEquals(4, tallyClass.getMethod("getCount").invoke(tally));
+                assertEquals(6, tallyClass.getMethod("increment").invoke(tally));
+                tallyClass.getMethod("resetAllTraits").invoke(tally);
+                assertEquals(0, tallyClass.getMethod("getCount").invoke(tally));
+            }
+        } finally {
+            deleteRecursively(output);
+        }
+    }
+
+    @Test
+    public void testLint() throws Exception {
+        List<JavaFileObject> sources = Arrays.asList(
+                source("lint.Boxed", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.Trait\n"
+                        + "public abstract class Boxed<T> {\n"
+                        + "    public T identity(T value) { return value; }\n"
+                        + "}\n"),
+                source("lint.Shape", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.Trait\n"
+                        + "public abstract class Shape implements Runnable {\n"
+                        + "    public abstract int sides();\n"
+                        + "    public boolean isPolygon() { return sides() > 2; }\n"
+                        + "}\n"),
+                source("lint.Tagged", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.Trait\n"
+                        + "public abstract class Tagged {\n"
+                        + "    private int tag;\n"
+                        + "    public int getTag() { return tag; }\n"
+                        + "    public void setTag(int tag) { this.tag = tag; }\n"
+                        + "}\n"),
+                source("lint.Triangle", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.HasTraits(traits={Shape.class, Boxed.class})\n"
+                        + "public class Triangle extends TriangleWithTraits<Integer> {\n"
+                        + "    public int sides() { return 3; }\n"
+                        + "    public void run() { }\n"
+                        + "}\n"),
+                source("lint.Square", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.HasTraits(traits=Shape.class)\n"
+                        + "public class Square extends SquareWithTraits {\n"
+                        + "    public int sides() { return 4; }\n"
+                        + "    public void run() { }\n"
+                        + "}\n"),
+                source("lint.Point", "package lint;\n"
+                        + "@com.yahoo.javatraits.annotations.HasTraits(traits=Tagged.class, valueSemantics=true)\n"
+                        + "public class Point extends PointWithTraits {\n"
+                        + "}\n"));
+        Path output = Files.createTempDirectory("lint");
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = compile(output, Arrays.asList("-Ajavatraits.lint",
+                    "-Ajavatraits.lint.maxHosts=1", "-Ajavatraits.lint.maxForwarders=0",
+                    "-Ajavatraits.lint.maxDelegates=1"), sources.toArray(new JavaFileObject[0]));
+            List<String> warnings = lintWarnings(diagnostics);
+            assertEquals(warnings.toString(), 5, warnings.size());
+            assertTrue(warnings.contains("Each instance of Triangle allocates 2 trait delegates (lint limit 1); "
+                    + "consider merging traits that are always used together"));
+            assertTrue(warnings.contains("Delegate of trait Shape forwards 1 superinterface methods (lint limit 0); "
+                    + "consider declaring a narrower superinterface"));
+            assertTrue(warnings.contains("Triangle binds type parameter T of trait Boxed to java.lang.Integer, so "
+                    + "calls to [identity] box; consider a primitive specialization of the trait"));
+            assertTrue(warnings.contains("Abstract methods of trait Shape are implemented by more than 1 classes, "
+                    + "so the calls to them from the trait's methods are megamorphic"));
+            assertTrue(warnings.contains("Trait Tagged has state and is used by value class Point, so every "
+                    + "instance allocates its delegate; consider columnar storage or pooling with resetAllTraits()"));
+
+            String usage = new String(Files.readAllBytes(output.resolve(TraitLint.USAGE_GRAPH_RESOURCE)),
+                    StandardCharsets.UTF_8);
+            assertTrue(usage, usage.contains("{\"name\": \"lint.Shape\", \"stateful\": false, "
+                    + "\"abstractMethods\": 2, \"forwarders\": 1, \"hosts\": [\"lint.Square\", \"lint.Triangle\"]}"));
+            assertTrue(usage, usage.contains("{\"name\": \"lint.Tagged\", \"stateful\": true, "
+                    + "\"abstractMethods\": 0, \"forwarders\": 0, \"hosts\": [\"lint.Point\"]}"));
+            assertTrue(usage, usage.contains("{\"name\": \"lint.Triangle\", \"superclass\": \"java.lang.Object\", "
+                    + "\"traits\": [\"lint.Boxed\", \"lint.Shape\"]}"));
+
+            // Without the option, nothing is reported or written
+            deleteRecursively(output);
+            Files.createDirectory(output);
+            diagnostics = compile(output, Arrays.asList("-Ajavatraits.lint.maxHosts=1"),
+                    sources.toArray(new JavaFileObject[0]));
+            assertTrue(lintWarnings(diagnostics).isEmpty());
+            assertFalse(Files.exists(output.resolve(TraitLint.USAGE_GRAPH_RESOURCE)));
+        } finally {
+            deleteRecursively(output);
+        }
+    }
+
+    @Test
+    public void testInstrumentedForwarders() throws Exception {
+        JavaFileObject trait = source("instrumented.Doubler", "package instrumented;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Doubler {\n"
+                + "    public abstract int base();\n"
+                + "    public int twice() { return 2 * base(); }\n"
+                + "    public void fail() { throw new IllegalStateException(); }\n"
+                + "}\n");
+        JavaFileObject host = source("instrumented.Host", "package instrumented;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits=Doubler.class)\n"
+                + "public class Host extends HostWithTraits {\n"
+                + "    public int base() { return 21; }\n"
+                + "}\n");
+        Path output = Files.createTempDirectory("instrumented");
+        try {
+            compile(output, Arrays.asList("-Ajavatraits.instrument=jfr,jmx"), trait, host);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { output.toUri().toURL() },
+                    BasicTraitsTest.class.getClassLoader())) {
+                Class<?> hostClass = loader.loadClass("instrumented.Host");
+                Object instance = hostClass.newInstance();
+                assertEquals(42, hostClass.getMethod("twice").invoke(instance));
+                assertEquals(42, hostClass.getMethod("twice").invoke(instance));
+                try {
+                    hostClass.getMethod("fail").invoke(instance);
+                    fail("Expected the trait method to throw");
+                } catch (InvocationTargetException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+
+                // Only the concrete trait methods are timed, and a call that throws still counts
+                Map<String, TraitMethodProbe> probes = TraitInstrumentation.getProbes();
+                assertEquals(2, probes.get("instrumented.Doubler.twice").getCalls());
+                assertEquals(1, probes.get("instrumented.Doubler.fail").getCalls());
+                assertFalse(probes.containsKey("instrumented.Doubler.base"));
+
+                ObjectName name = new ObjectName(TraitInstrumentation.OBJECT_NAME);
+                TabularData counts = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+                        "CallCounts");
+                assertEquals(2L, counts.get(new Object[] { "instrumented.Doubler.twice" }).get("value"));
+            }
+        } finally {
+            deleteRecursively(output);
+        }
+    }
+
+    @Test
+    public void testLibraryTraitWithStaticInitializer() throws Exception {
+        // A non-constant static field gives the trait's class file a static initializer, which its source lacks
+        JavaFileObject trait = source("library.Clock", "package library;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Clock {\n"
+                + "    private static final long NANOS_PER_SECOND = java.util.concurrent.TimeUnit.SECONDS.toNanos(1);\n"
+                + "    public long toNanos(long seconds) { return seconds * NANOS_PER_SECOND; }\n"
+                + "}\n");
+        JavaFileObject host = source("library.Timer", "package library;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits=Clock.class)\n"
+                + "public class Timer extends TimerWithTraits {\n"
+                + "}\n");
+        Path library = Files.createTempDirectory("library");
+        Path output = Files.createTempDirectory("host");
+        try {
+            compile(library, Collections.<Path>emptyList(), Collections.<String>emptyList(), trait);
+            DiagnosticCollector<JavaFileObject> diagnostics = compile(output, Collections.singletonList(library),
+                    Collections.<String>emptyList(), host);
+            assertTrue(lintWarnings(diagnostics).toString(), lintWarnings(diagnostics).isEmpty());
+        } finally {
+            deleteRecursively(library);
+            deleteRecursively(output);
+        }
+    }
+
+    @Test
+    public void testLibraryTraitStateMethods() throws Exception {
+        JavaFileObject trait = source("scoring.Score", "package scoring;\n"
+                + "@com.yahoo.javatraits.annotations.Trait\n"
+                + "public abstract class Score {\n"
+                + "    private int points;\n"
+                + "    public void add(int amount) { points += amount; }\n"
+                + "}\n");
+        JavaFileObject host = source("scoring.Game", "package scoring;\n"
+                + "@com.yahoo.javatraits.annotations.HasTraits(traits=Score.class, valueSemantics=true)\n"
+                + "public class Game extends GameWithTraits {\n"
+                + "}\n");
+        Path plainLibrary = Files.createTempDirectory("library");
+        Path library = Files.createTempDirectory("library");
+        Path output = Files.createTempDirectory("host");
+        try {
+            // Nothing in the library compares Scores, so its delegate has no traitStateEquals
+            compile(plainLibrary, Collections.<String>emptyList(), trait);
+            String diagnostics = tryCompile(output, Collections.singletonList(plainLibrary),
+                    Collections.<String>emptyList(), host).getDiagnostics().toString();
+            assertTrue(diagnostics, diagnostics.contains("-A" + TraitProcessorAptUtils.STATE_METHODS_OPTION));
+
+            compile(library, Arrays.asList("-A" + TraitProcessorAptUtils.STATE_METHODS_OPTION + "=all"), trait);
+            compile(output, Collections.singletonList(library), Collections.<String>emptyList(), host);
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { library.toUri().toURL(),
+                    output.toUri().toURL() }, BasicTraitsTest.class.getClassLoader())) {
+                Class<?> gameClass = loader.loadClass("scoring.Game");
+                Object a = gameClass.newInstance();
+                Object b = gameClass.newInstance();
+                gameClass.getMethod("add", int.class).invoke(a, 3);
+                assertNotEquals(a, b);
+                gameClass.getMethod("add", int.class).invoke(b, 3);
+                assertEquals(a, b);
+            }
+        } finally {
+            deleteRecursively(plainLibrary);
+            deleteRecursively(library);
+            deleteRecursively(output);
+        }
+    }
+
+    private static DiagnosticCollector<JavaFileObject> compile(Path output, List<String> options,
+            JavaFileObject... sources) {
+        return compile(output, Collections.<Path>emptyList(), options, sources);
+    }
+
+    /**
+     * Compiles the sources into the output directory with the processors and the javac plugin on the test class path
+     * and the given libraries on the class path
+     *
+     * @return the diagnostics, after checking that the sources compiled
+     */
+    private static DiagnosticCollector<JavaFileObject> compile(Path output, List<Path> libraries,
+            List<String> options, JavaFileObject... sources) {
+        DiagnosticCollector<JavaFileObject> diagnostics = tryCompile(output, libraries, options, sources);
+        assertTrue(diagnostics.getDiagnostics().toString(), diagnostics.getDiagnostics().stream()
+                .noneMatch(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR));
+        return diagnostics;
+    }
+
+    /**
+     * @return the diagnostics of compiling the sources, whether or not they compiled
+     */
+    private static DiagnosticCollector<JavaFileObject> tryCompile(Path output, List<Path> libraries,
+            List<String> options, JavaFileObject... sources) {
+        String processorPath = System.getProperty("java.class.path");
+        StringBuilder classPath = new StringBuilder(processorPath);
+        for (Path library : libraries) {
+            classPath.append(File.pathSeparator).append(library);
+        }
+        List<String> arguments = new ArrayList<String>(options);
+        arguments.addAll(Arrays.asList("-classpath", classPath.toString(), "-processorpath", processorPath,
+                "-d", output.toString()));
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        ToolProvider.getSystemJavaCompiler().getTask(null, null, diagnostics, arguments, null,
+                Arrays.asList(sources)).call();
+        return diagnostics;
+    }
+
+    /**
+     * @return the messages of the warnings reported at the compiled classes, leaving out javac's own warnings
+     */
+    private static List<String> lintWarnings(DiagnosticCollector<JavaFileObject> diagnostics) {
+        List<String> warnings = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.WARNING && diagnostic.getSource() != null) {
+                warnings.add(diagnostic.getMessage(null));
+            }
+        }
+        return warnings;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static JavaFileObject source(String className, final String code) {
+        URI uri = URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    @Test
+    public void testColumnarStorage() {
+        Particle[] particles = new Particle[100];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = new Particle();
+            particles[i].setX(i);
+            particles[i].setVisible(true);
+        }
+        particles[3].moveBy(1, 4);
+        assertEquals(4.0, particles[3].getX(), 0);
+        assertEquals(4.0, particles[3].getY(), 0);
+        assertEquals(Math.sqrt(32), particles[3].distanceFromOrigin(), 0);
+
+        PositionedStore store = PositionedStore.getInstance();
+        double sum = 0;
+        for (int page = 0; page < store.getPageCount(); page++) {
+            for (double x : store.getXPage(page)) {
+                sum += x;
+            }
+        }
+        assertEquals(99 * 100 / 2 + 1, sum, 0);
+
+        int slot = particles[0].getPositionedSlot();
+        assertTrue(store.isVisible(slot));
+        particles[0].releasePositionedSlot();
+        assertFalse(store.isVisible(slot));
+        Particle reused = new Particle();
+        assertEquals(slot, reused.getPositionedSlot());
+
+        // Releasing again mustn't free the slot out from under the object that reuses it
+        int live = store.getLiveSlotCount();
+        particles[0].releasePositionedSlot();
+        assertEquals(live, store.getLiveSlotCount());
+        particles[1].releasePositionedSlot();
+        try {
+            store.release(particles[1].getPositionedSlot());
+            fail("Expected a slot to be released only once");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(live - 1, store.getLiveSlotCount());
     }
 
 }
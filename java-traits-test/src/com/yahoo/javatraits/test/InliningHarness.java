@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test;
+
+import com.yahoo.javatraits.test.classes.DevirtualizedField;
+import com.yahoo.javatraits.test.classes.FootballField;
+import com.yahoo.javatraits.test.classes.LyingRectangle;
+import com.yahoo.javatraits.test.classes.RequestStats;
+import com.yahoo.javatraits.test.classes.ResizableRectangle;
+
+/**
+ * Calls trait methods through generated superclasses often enough for HotSpot to compile the call sites, so that
+ * {@link com.yahoo.javatraits.tools.InliningVerifier} can check the forwarders were inlined. Run by the
+ * verify-inlining profile.
+ */
+public class InliningHarness {
+
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) {
+        long sink = 0;
+        for (int round = 0; round < 5; round++) {
+            sink += rectangles();
+            sink += counters();
+        }
+        System.out.println("Harness checksum " + sink);
+    }
+
+    private static long rectangles() {
+        FootballField field = new FootballField();
+        LyingRectangle lying = new LyingRectangle();
+        ResizableRectangle resizable = new ResizableRectangle(3, 4);
+        DevirtualizedField devirtualized = new DevirtualizedField();
+        long sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += field.getPerimeter() + lying.getVolumeWithHeight(i) + resizable.getArea();
+            sum += devirtualized.getPerimeter();
+        }
+        return sum;
+    }
+
+    private static long counters() {
+        RequestStats stats = new RequestStats();
+        long sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            stats.record(i);
+            sum += stats.getCount();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.traits;
+
+import com.yahoo.javatraits.annotations.Async;
+import com.yahoo.javatraits.annotations.Batch;
+import com.yahoo.javatraits.annotations.Memoize;
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Trait
+public abstract class Arithmetic<A extends Number, B extends A> {
+
+    @Async
+    public void doSomeListThing(List<? super ArrayList<? extends CharSequence>>[][]... strings) {
+        //
+    }
+
+    @Batch
+    public int add(int arg1, int arg2) {
+        return arg1 + arg2;
+    }
+
+    public int subtract(int arg1, int arg2) {
+        return arg1 - arg2;
+    }
+
+    public abstract int someWeirdOp(int arg1, int arg2) throws Exception;
+
+    @Async
+    @Batch
+    public int multiplyByTwoAndThenSomeWeirdOp(int arg1, int arg2) throws Exception {
+        arg1 *= 2;
+        arg2 *= 2;
+        return someWeirdOp(arg1, arg2);
+    }
+
+    @Batch
+    public int sum(int... args) {
+        int sum = 0;
+        if (args != null) {
+            for (int i : args)
+                sum += i;
+        }
+        return sum;
+    }
+
+    @Batch
+    public abstract B transform(A a);
+
+    @Memoize(shared = true)
+    public String toHex(int someArg) {
+        return Integer.toHexString(someArg);
+    }
+}
@@ -17,10 +17,16 @@ package com.yahoo.javatraits.test.traits;
 
 import com.yahoo.javatraits.annotations.Trait;
 
+import java.util.Collection;
 import java.util.List;
 
 @Trait
-public abstract class BetterList<T extends CharSequence, S extends IRectangular> implements List<T> {
+public abstract class BetterList<T extends CharSequence, S extends IRectangular> implements List<T>, Collection<T> {
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
 
     public void printAll() {
         for (int i = 0; i < size(); i++) {
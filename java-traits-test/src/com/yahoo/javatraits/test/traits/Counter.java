@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.traits;
+
+import com.yahoo.javatraits.annotations.ReadOnly;
+import com.yahoo.javatraits.annotations.Trait;
+import com.yahoo.javatraits.annotations.Trait.Concurrency;
+import com.yahoo.javatraits.annotations.Tracked;
+
+@Trait(concurrency = Concurrency.OPTIMISTIC_READ)
+@Tracked(listeners = true)
+public abstract class Counter {
+
+    private long count;
+    private long total;
+
+    public void record(long amount) {
+        count++;
+        total += amount;
+    }
+
+    @ReadOnly
+    public long getCount() {
+        return count;
+    }
+
+    @ReadOnly
+    public double getAverage() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    public void reset() {
+        count = 0;
+        total = 0;
+    }
+}
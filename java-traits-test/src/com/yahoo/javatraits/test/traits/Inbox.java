@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.traits;
+
+import com.yahoo.javatraits.annotations.OnReset;
+import com.yahoo.javatraits.annotations.Trait;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Trait
+public abstract class Inbox {
+
+    private int unread;
+    private List<String> messages = new ArrayList<String>();
+
+    public void receive(String message) {
+        messages.add(message);
+        unread++;
+    }
+
+    public void markAllRead() {
+        unread = 0;
+    }
+
+    public int getUnread() {
+        return unread;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    @OnReset
+    void clearMessages() {
+        messages = new ArrayList<String>();
+    }
+}
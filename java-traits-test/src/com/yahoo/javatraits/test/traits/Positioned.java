@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.traits;
+
+import com.yahoo.javatraits.annotations.Trait;
+import com.yahoo.javatraits.annotations.Trait.Storage;
+
+@Trait(storage = Storage.COLUMNAR)
+public abstract class Positioned {
+
+    public abstract double getX();
+
+    public abstract void setX(double x);
+
+    public abstract double getY();
+
+    public abstract void setY(double y);
+
+    public abstract boolean isVisible();
+
+    public abstract void setVisible(boolean visible);
+
+    public void moveBy(double dx, double dy) {
+        setX(getX() + dx);
+        setY(getY() + dy);
+    }
+
+    public double distanceFromOrigin() {
+        return Math.sqrt(getX() * getX() + getY() * getY());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.classes;
+
+import com.yahoo.javatraits.annotations.Batch;
+import com.yahoo.javatraits.annotations.Interceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Interceptor(annotatedWith = Batch.class)
+public class CallCounter {
+
+    private static final Map<String, AtomicInteger> CALLS = new ConcurrentHashMap<String, AtomicInteger>();
+    private static final Map<String, AtomicInteger> FAILURES = new ConcurrentHashMap<String, AtomicInteger>();
+
+    public static long before(String method) {
+        return System.nanoTime();
+    }
+
+    public static void after(String method, long startNanos, Throwable thrown) {
+        counter(thrown == null ? CALLS : FAILURES, method).incrementAndGet();
+    }
+
+    public static int getCalls(String method) {
+        return counter(CALLS, method).get();
+    }
+
+    public static int getFailures(String method) {
+        return counter(FAILURES, method).get();
+    }
+
+    private static AtomicInteger counter(Map<String, AtomicInteger> counters, String method) {
+        AtomicInteger counter = counters.get(method);
+        if (counter == null) {
+            counters.putIfAbsent(method, new AtomicInteger());
+            counter = counters.get(method);
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.classes;
+
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.test.traits.Rectangular;
+
+/**
+ * Final, so the trait's calls to getWidth() and getHeight() are made on this class
+ */
+@HasTraits(traits=Rectangular.class, devirtualize=true)
+public final class DevirtualizedField extends DevirtualizedFieldWithTraits {
+
+    public static final int WIDTH = 40;
+    public static final int HEIGHT = 20;
+
+    @Override
+    public int getWidth() {
+        return WIDTH;
+    }
+
+    @Override
+    public int getHeight() {
+        return HEIGHT;
+    }
+}
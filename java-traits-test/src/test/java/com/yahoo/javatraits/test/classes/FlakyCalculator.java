@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.test.classes;
+
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.test.traits.Arithmetic;
+
+@HasTraits(traits=Arithmetic.class, interceptors={CallCounter.class, RetryTwice.class})
+public class FlakyCalculator extends FlakyCalculatorWithTraits<Integer, Integer> {
+
+    private int failuresLeft;
+
+    public void failNextCalls(int failures) {
+        this.failuresLeft = failures;
+    }
+
+    @Override
+    public int someWeirdOp(int arg1, int arg2) {
+        if (failuresLeft > 0) {
+            failuresLeft--;
+            throw new IllegalStateException("Flaky");
+        }
+        return arg1 * arg2;
+    }
+
+    @Override
+    public Integer transform(Integer a) {
+        return a;
+    }
+}
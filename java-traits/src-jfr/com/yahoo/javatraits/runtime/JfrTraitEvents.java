@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+/**
+ * The {@link TraitEvents} that records {@link TraitCallEvent}s. {@link TraitEvents#load()} instantiates it
+ * reflectively, since it can only be loaded on runtimes that have JFR.
+ */
+final class JfrTraitEvents extends TraitEvents {
+
+    @Override
+    Object begin(String trait, String method) {
+        TraitCallEvent event = new TraitCallEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.trait = trait;
+        event.method = method;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void commit(Object event) {
+        ((TraitCallEvent) event).commit();
+    }
+}
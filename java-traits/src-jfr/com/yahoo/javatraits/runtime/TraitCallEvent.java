@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JFR event for a call to an instrumented trait method. It begins when the forwarder calls the trait method and
+ * is committed when the call returns or throws, so the event's duration is the time spent in the call. JFR only
+ * records calls that take at least the event's threshold, 10 ms unless the recording's settings change it.
+ */
+@Name("javatraits.TraitCall")
+@Label("Trait Call")
+@Category("Java Traits")
+@Description("A call to a trait method through a generated forwarder")
+@StackTrace(false)
+@Threshold("10 ms")
+final class TraitCallEvent extends Event {
+
+    @Label("Trait")
+    String trait;
+
+    @Label("Method")
+    String method;
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a trait method that should also get an asynchronous variant on the generated trait interface.
+ *
+ * <br/><br/>
+ *
+ * For a method "R m(args)", the interface gets "CompletableFuture&lt;R&gt; mAsync(args)" (with R boxed, or Void
+ * for void methods), which calls m on the class using the trait from another thread. Exceptions thrown by m,
+ * checked or not, complete the future exceptionally. The executor is chosen per trait by
+ * {@link com.yahoo.javatraits.runtime.AsyncSupport}, and defaults to one virtual thread per call on runtimes
+ * that have virtual threads, or to the common fork/join pool otherwise.
+ */
+@Target(ElementType.METHOD)
+public @interface Async {
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a trait method that should get static bulk variants on the generated "{TraitName}Batch" class,
+ * which apply the method to every element of an array or collection of trait instances.
+ *
+ * <br/><br/>
+ *
+ * For a method "int getArea()" on trait Rectangular, RectangularBatch gets
+ * "getArea(IRectangular[] targets, int[] results)", a variant over an index range, a variant over a
+ * Collection, and "getAreaParallel(IRectangular[] targets, int[] results)", which splits the work across
+ * the common fork/join pool when there are at least {@link #parallelThreshold()} elements. Arguments are
+ * passed as one array per parameter, indexed like the targets. Void methods take no results array.
+ * Methods that throw checked exceptions don't get a parallel variant.
+ */
+@Target(ElementType.METHOD)
+public @interface Batch {
+    /**
+     * The minimum number of elements for which the parallel variant forks; smaller batches run on the calling thread
+     */
+    int parallelThreshold() default 8192;
+}
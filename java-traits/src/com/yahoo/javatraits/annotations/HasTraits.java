@@ -68,4 +68,45 @@ public @interface HasTraits {
      * when resolving method naming conflicts.
      */
     Prefer[] prefer() default {};
+
+    /**
+     * Optional list of {@literal @}{@link Interceptor} classes whose hooks are woven into the
+     * methods this class gets from its traits.
+     */
+    Class<?>[] interceptors() default {};
+
+    /**
+     * If true, the generated superclass implements equals and hashCode over the non-static, non-transient fields
+     * declared by the annotated class and the state of all its traits. Two instances are equal only if they are of
+     * the same class. The part of the hash covering trait state is cached and invalidated by every trait method
+     * that isn't {@literal @}{@link ReadOnly}, so hashing doesn't re-read unchanged trait state. Fields declared by
+     * the desired superclass aren't compared.
+     */
+    boolean valueSemantics() default false;
+
+    /**
+     * If true, the generated superclass gets writeState and readState methods for DataOutput/DataInput and
+     * ByteBuffer, which encode the non-static, non-transient fields declared by the annotated class and the state
+     * of all its traits in a fixed binary layout, without reflection or Java serialization. Only primitive and
+     * String fields are supported.
+     */
+    boolean codec() default false;
+
+    /**
+     * If true, the delegate wrappers of the annotated class call back into it through the generated superclass
+     * rather than through the traits' generated interfaces, so calls a trait makes to its own methods (e.g. to
+     * abstract accessors) compile to invokevirtual instead of invokeinterface. If the annotated class is final and
+     * not generic, the calls are made on the annotated class itself, so they can be bound to the exact
+     * implementation.
+     */
+    boolean devirtualize() default false;
+
+    /**
+     * If true, no superclass is generated. Instead the JavaTraits javac plugin (enabled with -Xplugin:JavaTraits)
+     * adds the trait interfaces and the members the generated superclass would have declared to the annotated class
+     * itself, so the class is free to extend any class and desiredSuperclass isn't used. Only traits without type
+     * parameters are supported. Methods the annotated class declares itself take precedence over the ones added
+     * for its traits.
+     */
+    boolean inPlace() default false;
 }
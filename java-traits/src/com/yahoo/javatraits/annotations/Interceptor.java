@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose static hooks are woven into the generated forwarders of trait methods, for cross-cutting
+ * behavior like timing, retries or access checks. Interceptors are listed in
+ * {@literal @}{@link HasTraits#interceptors()} and apply to the concrete trait methods that class gets from its
+ * traits and that match both {@link #methods()} and {@link #annotatedWith()}.
+ *
+ * <br/><br/>
+ *
+ * An interceptor declares any of these public static hooks, which receive the intercepted method's name as
+ * "{TraitName}.{methodName}":
+ * <pre>
+ * static void before(String method)              // or static S before(String method), to pass state to after
+ * static void after(String method, Throwable thrown)   // or after(String method, S state, Throwable thrown)
+ * static boolean retry(String method, Throwable thrown, int attempt)
+ * </pre>
+ *
+ * before is called before the trait method and may throw to prevent the call. after is always called afterwards,
+ * with the exception thrown by the call or null. If retry is declared, a call that throws is made again for as long
+ * as retry returns true. Because the hooks are static calls in the generated code, intercepting a method doesn't
+ * allocate or use reflection. With several interceptors, the first one listed is outermost.
+ */
+@Target(ElementType.TYPE)
+public @interface Interceptor {
+    /**
+     * Patterns for the names of the methods to intercept, where '*' matches any characters
+     */
+    String[] methods() default "*";
+
+    /**
+     * If not empty, only methods carrying one of these annotations are intercepted
+     */
+    Class<? extends Annotation>[] annotatedWith() default {};
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a concrete trait method whose result should be cached by the generated code.
+ *
+ * <br/><br/>
+ *
+ * Methods without arguments are cached in a per-instance field of the generated delegate.
+ * Methods with arguments are cached in a bounded, least-recently-used cache keyed by the
+ * argument values (arrays are compared by content). By default each instance has its own cache;
+ * set {@link #shared()} for methods that depend only on their arguments so all instances share one.
+ *
+ * <br/><br/>
+ *
+ * Traits with memoized methods get an extra "invalidate{TraitName}Memos()" method on their
+ * generated interface, which clears the per-instance caches and should be called whenever the
+ * state a memoized method depends on changes. Hit and miss counts for each memoized method are
+ * available from {@link com.yahoo.javatraits.runtime.MemoStats#forMethod(Class, String)}.
+ */
+@Target(ElementType.METHOD)
+public @interface Memoize {
+    /**
+     * The maximum number of results to keep for a method with arguments
+     */
+    int maxSize() default 256;
+
+    /**
+     * True if the results of a method with arguments should be cached once for all instances
+     */
+    boolean shared() default false;
+}
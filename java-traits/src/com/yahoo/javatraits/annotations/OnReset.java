@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a trait method that the generated resetTraitState() calls after restoring the trait's other fields. Fields
+ * holding mutable objects, e.g. a {@code List}, aren't restored from the prototype the other fields are copied from,
+ * since every reset instance would then share that object, so a trait declaring such fields has to reinitialize them
+ * here. The classes using a trait that declares them without an {@literal @}OnReset method don't get resetAllTraits().
+ * The method must be concrete, not private, take no arguments and return void.
+ */
+@Target(ElementType.METHOD)
+public @interface OnReset {}
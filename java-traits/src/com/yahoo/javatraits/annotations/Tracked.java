@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a trait whose private fields should be tracked for changes, e.g. so that a persistence layer only writes
+ * what changed.
+ *
+ * <br/><br/>
+ *
+ * Each private instance field of the trait gets a bit in a dirty mask. Whenever a trait method that isn't
+ * {@literal @}{@link ReadOnly} returns, the bits of the fields whose values differ from before the call are set.
+ * Fields holding references are compared by identity, so changes inside a referenced object aren't seen. The
+ * generated trait interface gets "long dirtyMask()" and "void clearDirty()". On a class using several tracked
+ * traits, dirtyMask() combines their masks, and the generated superclass declares a DIRTY_TRAIT_FIELD constant for
+ * each bit. A class can use at most 64 tracked fields.
+ *
+ * <br/><br/>
+ *
+ * With {@link #listeners()}, the generated superclass also accepts
+ * {@link com.yahoo.javatraits.runtime.TraitChangeListener}s.
+ */
+@Target(ElementType.TYPE)
+public @interface Tracked {
+
+    /**
+     * If true, the generated superclass gets addTraitChangeListener and removeTraitChangeListener. Listeners are
+     * called once per outermost trait method call that dirtied fields, with the bits that weren't already reported
+     * since the last clearDirty(), rather than once per write.
+     */
+    boolean listeners() default false;
+}
@@ -40,8 +40,65 @@ import java.lang.annotation.Target;
  * guarantee that any classes using traits will implement those 
  * interfaces, so you can/should feel free to reference the interfaces
  * elsewhere in your code. (See {@literal @}{@link HasTraits})
+ *
+ * <br/><br/>
+ *
+ * Traits whose private state is shared between threads can ask the code generator
+ * to guard their concrete methods with {@link #concurrency()}, so that classes using
+ * the trait don't need to know how its state is protected. Traits whose state is a
+ * handful of primitive properties can instead have it stored in columns shared by
+ * all instances with {@link #storage()}.
  * 
  * @author Sam Bosley
  */
 @Target(ElementType.TYPE)
-public @interface Trait {}
+public @interface Trait {
+
+    /**
+     * How the generated delegate guards the trait's concrete methods
+     */
+    Concurrency concurrency() default Concurrency.NONE;
+
+    /**
+     * Where the state behind the trait's abstract property accessors is kept
+     */
+    Storage storage() default Storage.OBJECT;
+
+    enum Concurrency {
+        /**
+         * No locking. Callers are responsible for any synchronization.
+         */
+        NONE,
+
+        /**
+         * Every concrete trait method runs while holding the monitor of the trait's delegate,
+         * so each instance's trait state is only accessed by one thread at a time.
+         */
+        SYNCHRONIZED,
+
+        /**
+         * Concrete methods annotated with {@literal @}{@link ReadOnly} first run without locking and
+         * are retried under the lock only if a write happened concurrently; all other concrete methods
+         * are writes and run exclusively. Suited to state that is read far more often than it is written.
+         * Read-only methods must not modify state, and must tolerate seeing it half-updated during
+         * the optimistic attempt (runtime exceptions thrown then are discarded and the read retried).
+         */
+        OPTIMISTIC_READ
+    }
+
+    enum Storage {
+        /**
+         * The class using the trait implements the abstract methods, usually with its own fields.
+         */
+        OBJECT,
+
+        /**
+         * Abstract primitive properties -- a no-argument "getX()" or "isX()" method returning a primitive,
+         * optionally paired with an abstract "void setX(value)" -- are implemented by the generated superclass
+         * and stored in a generated "{TraitName}Store" of paged primitive arrays, indexed by a slot each
+         * instance allocates when it is constructed. Scanning a column touches only that property's values,
+         * and instances carry an int slot instead of the fields themselves.
+         */
+        COLUMNAR
+    }
+}
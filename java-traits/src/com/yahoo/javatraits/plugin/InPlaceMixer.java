@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.plugin;
+
+import com.sun.source.tree.ImportTree;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.parser.ParserFactory;
+import com.sun.tools.javac.processing.JavacProcessingEnvironment;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.JCAnnotatedType;
+import com.sun.tools.javac.tree.JCTree.JCArrayTypeTree;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
+import com.sun.tools.javac.tree.JCTree.JCExpression;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCMethodDecl;
+import com.sun.tools.javac.tree.JCTree.JCTypeApply;
+import com.sun.tools.javac.tree.JCTree.JCTypeParameter;
+import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.tree.TreeTranslator;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.processor.data.ClassWithTraits;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+import com.yahoo.javatraits.processor.writers.ClassWithTraitsSuperclassWriter;
+
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic.Kind;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mixes traits into the classes annotated with {@literal @}HasTraits(inPlace = true) once they have been entered.
+ * The source of the superclass HasTraitsProcessor would have generated is written with
+ * ClassWithTraitsSuperclassWriter and parsed, and its interfaces and members (other than those the class declares
+ * itself) are moved into the class's tree. Types the generated source imported are qualified, and references to the
+ * generated superclass refer to the class instead.
+ *
+ * <br/><br/>
+ *
+ * Members added to a tree after it was entered only become part of the class when javac enters the tree again,
+ * which it does at the start of each annotation processing round. The trees are rewritten when they are first
+ * entered, so the annotation processors have to run for the added members to be compiled.
+ */
+final class InPlaceMixer implements TaskListener {
+
+    private static final Messager SILENT_MESSAGER = new Messager() {
+        @Override
+        public void printMessage(Kind kind, CharSequence msg) {
+            // reported by the annotation processors
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e) {
+            // reported by the annotation processors
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a) {
+            // reported by the annotation processors
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
+            // reported by the annotation processors
+        }
+    };
+
+    private final Context context;
+    private final Set<JCClassDecl> mixed = Collections.newSetFromMap(new IdentityHashMap<JCClassDecl, Boolean>());
+
+    InPlaceMixer(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+        // nothing to do before a task
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (e.getKind() == TaskEvent.Kind.ENTER && e.getCompilationUnit() instanceof JCCompilationUnit) {
+            JCCompilationUnit unit = (JCCompilationUnit) e.getCompilationUnit();
+            for (JCTree def : unit.defs) {
+                if (def instanceof JCClassDecl) {
+                    mixClasses(unit, (JCClassDecl) def);
+                }
+            }
+        }
+    }
+
+    private void mixClasses(JCCompilationUnit unit, JCClassDecl tree) {
+        for (JCTree def : tree.defs) {
+            if (def instanceof JCClassDecl) {
+                mixClasses(unit, (JCClassDecl) def);
+            }
+        }
+        if (tree.sym == null || mixed.contains(tree)) {
+            return;
+        }
+        HasTraits hasTraits = tree.sym.getAnnotation(HasTraits.class);
+        if (hasTraits != null && hasTraits.inPlace()) {
+            mixed.add(tree);
+            mixClass(unit, tree);
+        }
+    }
+
+    private void mixClass(JCCompilationUnit unit, JCClassDecl tree) {
+        ProcessingEnvironment env = JavacProcessingEnvironment.instance(context);
+        // HasTraitsProcessor reports the problems with the class and its traits
+        TraitProcessorAptUtils utils = new TraitProcessorAptUtils(env) {
+            @Override
+            public Messager getMessager() {
+                return SILENT_MESSAGER;
+            }
+        };
+        ClassWithTraits cls = new ClassWithTraits(tree.sym, utils);
+        if (!cls.canMixInPlace()) {
+            return;
+        }
+        String source;
+        try {
+            source = new ClassWithTraitsSuperclassWriter(cls, utils).writeToString();
+        } catch (IOException e) {
+            env.getMessager().printMessage(Kind.ERROR, "IOException mixing traits into " + tree.sym + ": "
+                    + e.getMessage(), tree.sym);
+            return;
+        }
+        JCCompilationUnit generated = ParserFactory.instance(context).newParser(source, false, false, false)
+                .parseCompilationUnit();
+        JCClassDecl generatedClass = null;
+        for (JCTree def : generated.defs) {
+            if (def instanceof JCClassDecl) {
+                generatedClass = (JCClassDecl) def;
+            }
+        }
+        if (generatedClass == null) {
+            env.getMessager().printMessage(Kind.ERROR, "Couldn't parse the members to mix into " + tree.sym, tree.sym);
+            return;
+        }
+
+        Names names = Names.instance(context);
+        Map<Name, String> imports = new HashMap<Name, String>();
+        for (ImportTree importTree : generated.getImports()) {
+            String qualifiedName = importTree.getQualifiedIdentifier().toString();
+            if (!importTree.isStatic() && !qualifiedName.endsWith(".*")) {
+                imports.put(names.fromString(qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1)),
+                        qualifiedName);
+            }
+        }
+        TreeMaker make = TreeMaker.instance(context).forToplevel(unit).at(tree.pos);
+        Set<Name> hostNames = new HashSet<Name>();
+        hostNames.add(names.fromString(cls.getGeneratedSuperclassName().getSimpleName()));
+        hostNames.add(names.fromString(cls.getSimpleName())); // e.g. Outer_Inner for nested classes
+        Relocator relocator = new Relocator(make, names, imports, hostNames, tree.name);
+
+        Set<Name> typeVariables = new HashSet<Name>();
+        for (JCTypeParameter typeParameter : tree.typarams) {
+            typeVariables.add(typeParameter.name);
+        }
+        List<List<String>> declared = new ArrayList<List<String>>();
+        for (JCTree def : tree.defs) {
+            if (def instanceof JCMethodDecl) {
+                declared.add(signature((JCMethodDecl) def, typeVariables));
+            }
+        }
+        ListBuffer<JCTree> defs = new ListBuffer<JCTree>();
+        defs.appendList(tree.defs);
+        for (JCTree def : generatedClass.defs) {
+            if (def instanceof JCMethodDecl && (((JCMethodDecl) def).name == names.init
+                    || isDeclared(declared, signature((JCMethodDecl) def, Collections.<Name>emptySet())))) {
+                continue;
+            }
+            defs.append(relocator.relocate(def));
+        }
+        tree.defs = defs.toList();
+        for (JCExpression implemented : generatedClass.implementing) {
+            tree.implementing = tree.implementing.append(relocator.relocate(implemented));
+        }
+    }
+
+    /**
+     * @return the name of a method followed by the simple names of its erased parameter types, with null for type
+     * variables. Types aren't resolved before attribution, so simple names are all that can be compared.
+     */
+    private static List<String> signature(JCMethodDecl method, Set<Name> classTypeVariables) {
+        Set<Name> typeVariables = new HashSet<Name>(classTypeVariables);
+        for (JCTypeParameter typeParameter : method.typarams) {
+            typeVariables.add(typeParameter.name);
+        }
+        List<String> signature = new ArrayList<String>();
+        signature.add(method.name.toString());
+        for (JCVariableDecl param : method.params) {
+            signature.add(typeName(param.vartype, typeVariables));
+        }
+        return signature;
+    }
+
+    private static String typeName(JCTree type, Set<Name> typeVariables) {
+        if (type instanceof JCTypeApply) {
+            return typeName(((JCTypeApply) type).clazz, typeVariables);
+        } else if (type instanceof JCAnnotatedType) {
+            return typeName(((JCAnnotatedType) type).underlyingType, typeVariables);
+        } else if (type instanceof JCArrayTypeTree) {
+            String elementType = typeName(((JCArrayTypeTree) type).elemtype, typeVariables);
+            return elementType == null ? null : elementType + "[]";
+        } else if (type instanceof JCFieldAccess) {
+            return ((JCFieldAccess) type).name.toString();
+        } else if (type instanceof JCIdent) {
+            Name name = ((JCIdent) type).name;
+            return typeVariables.contains(name) ? null : name.toString();
+        }
+        return type.toString(); // a primitive type
+    }
+
+    /**
+     * @return true if the class declares a method with the given signature, which hides the one from its traits.
+     * A type variable in the class's method may stand for any type.
+     */
+    private static boolean isDeclared(List<List<String>> declared, List<String> signature) {
+        for (List<String> candidate : declared) {
+            if (candidate.size() != signature.size()) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 0; i < candidate.size() && match; i++) {
+                match = candidate.get(i) == null || candidate.get(i).equals(signature.get(i));
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites trees parsed from the generated superclass to compile inside the annotated class, replacing the
+     * names the generated source used for the superclass and for the annotated class with the class's simple name
+     */
+    private static final class Relocator extends TreeTranslator {
+
+        private final TreeMaker make;
+        private final Names names;
+        private final Map<Name, String> imports;
+        private final Set<Name> hostNames;
+        private final Name hostName;
+
+        private Relocator(TreeMaker make, Names names, Map<Name, String> imports, Set<Name> hostNames,
+                Name hostName) {
+            this.make = make;
+            this.names = names;
+            this.imports = imports;
+            this.hostNames = hostNames;
+            this.hostName = hostName;
+        }
+
+        private <T extends JCTree> T relocate(T tree) {
+            T result = translate(tree);
+            new TreeScanner() {
+                @Override
+                public void scan(JCTree node) {
+                    if (node != null) {
+                        node.pos = make.pos; // report problems at the annotated class
+                        super.scan(node);
+                    }
+                }
+            }.scan(result);
+            return result;
+        }
+
+        @Override
+        public void visitIdent(JCIdent tree) {
+            if (hostNames.contains(tree.name)) {
+                result = make.Ident(hostName);
+            } else if (imports.containsKey(tree.name)) {
+                result = qualifiedName(imports.get(tree.name));
+            } else {
+                result = tree;
+            }
+        }
+
+        private JCExpression qualifiedName(String name) {
+            String[] parts = name.split("\\.");
+            JCExpression expression = make.Ident(names.fromString(parts[0]));
+            for (int i = 1; i < parts.length; i++) {
+                expression = make.Select(expression, names.fromString(parts[i]));
+            }
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.plugin;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.tools.javac.api.BasicJavacTask;
+
+/**
+ * A javac plugin, enabled with -Xplugin:JavaTraits, that mixes traits into classes annotated with
+ * {@literal @}HasTraits(inPlace = true) instead of having them extend a generated superclass. The annotation
+ * processors still generate the classes of each trait; the plugin adds the trait interfaces and the members the
+ * generated superclass would have declared to the annotated class's syntax tree. See {@link InPlaceMixer}.
+ *
+ * <br/><br/>
+ *
+ * The plugin uses javac's internal tree API. On JDK 9 and later, javac has to be run with
+ * -J--add-exports=jdk.compiler/com.sun.tools.javac.&lt;package&gt;=ALL-UNNAMED for the api, code, parser,
+ * processing, tree and util packages.
+ */
+public class JavaTraitsPlugin implements Plugin {
+
+    public static final String NAME = "JavaTraits";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void init(JavacTask task, String... args) {
+        task.addTaskListener(new InPlaceMixer(((BasicJavacTask) task).getContext()));
+    }
+}
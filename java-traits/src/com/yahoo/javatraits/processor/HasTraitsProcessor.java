@@ -17,13 +17,23 @@ package com.yahoo.javatraits.processor;
 
 import com.yahoo.javatraits.annotations.HasTraits;
 import com.yahoo.javatraits.processor.data.ClassWithTraits;
+import com.yahoo.javatraits.processor.utils.TraitLint;
 import com.yahoo.javatraits.processor.writers.ClassWithTraitsSuperclassWriter;
 
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.TypeElement;
 import java.lang.annotation.Annotation;
 
 public class HasTraitsProcessor extends JavaTraitsProcessor<ClassWithTraits> {
 
+    private TraitLint lint;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment env) {
+        super.init(env);
+        this.lint = new TraitLint(env);
+    }
+
     @Override
     protected Class<? extends Annotation> getAnnotationClass() {
         return HasTraits.class;
@@ -36,6 +46,14 @@ public class HasTraitsProcessor extends JavaTraitsProcessor<ClassWithTraits> {
 
     @Override
     protected void processItem(ClassWithTraits item) {
-        new ClassWithTraitsSuperclassWriter(item, utils).writeClass(filer);
+        if (!item.isInPlace()) { // the plugin mixes the traits into the class itself
+            new ClassWithTraitsSuperclassWriter(item, utils).writeClass(filer);
+        }
+        lint.checkHost(item);
+    }
+
+    @Override
+    protected void processingOver() {
+        lint.writeUsageGraph(filer);
     }
 }
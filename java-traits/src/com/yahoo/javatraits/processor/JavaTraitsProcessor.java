@@ -16,6 +16,7 @@
 package com.yahoo.javatraits.processor;
 
 import com.yahoo.javatraits.processor.data.TypeElementWrapper;
+import com.yahoo.javatraits.processor.utils.TraitLint;
 import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
 
 import javax.annotation.processing.*;
@@ -26,6 +27,7 @@ import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic.Kind;
 import java.lang.annotation.Annotation;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 public abstract class JavaTraitsProcessor<T extends TypeElementWrapper> extends AbstractProcessor {
@@ -38,11 +40,26 @@ public abstract class JavaTraitsProcessor<T extends TypeElementWrapper> extends
     protected abstract T itemFromTypeElement(TypeElement typeElem);
     protected abstract void processItem(T item);
 
+    /**
+     * Called after the last round, once all items have been processed
+     */
+    protected void processingOver() {
+        // nothing by default
+    }
+
     @Override
     public Set<String> getSupportedAnnotationTypes() {
         return Collections.singleton(getAnnotationClass().getCanonicalName());
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> options = new HashSet<String>(TraitLint.getSupportedOptions());
+        options.add(TraitProcessorAptUtils.INSTRUMENT_OPTION);
+        options.add(TraitProcessorAptUtils.STATE_METHODS_OPTION);
+        return options;
+    }
+
     @Override
     public SourceVersion getSupportedSourceVersion() {
         return SourceVersion.RELEASE_6;
@@ -60,8 +77,12 @@ public abstract class JavaTraitsProcessor<T extends TypeElementWrapper> extends
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
         try {
+            utils.beginRound(env);
             Set<? extends Element> annotatedElements = env.getElementsAnnotatedWith(getAnnotationClass());
             processElements(annotatedElements);
+            if (env.processingOver()) {
+                processingOver();
+            }
         } catch (Exception e) {
             messager.printMessage(Kind.ERROR, "Uncaught exception in annotation processor " + this + ": " + e + ", message " + e.getMessage());
             throw new RuntimeException(e);
@@ -16,11 +16,22 @@
 package com.yahoo.javatraits.processor;
 
 import com.yahoo.javatraits.annotations.Trait;
+import com.yahoo.javatraits.annotations.Trait.Storage;
 import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.processor.utils.TraitIndex;
+import com.yahoo.javatraits.processor.writers.TraitBatchWriter;
 import com.yahoo.javatraits.processor.writers.TraitDelegateWriter;
+import com.yahoo.javatraits.processor.writers.TraitDispatcherWriter;
+import com.yahoo.javatraits.processor.writers.TraitFactoryWriter;
 import com.yahoo.javatraits.processor.writers.TraitInterfaceWriter;
+import com.yahoo.javatraits.processor.writers.TraitStoreWriter;
 
 import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 
 public class TraitProcessor extends JavaTraitsProcessor<TraitElement> {
@@ -39,5 +50,30 @@ public class TraitProcessor extends JavaTraitsProcessor<TraitElement> {
     protected void processItem(TraitElement item) {
         new TraitInterfaceWriter(item, utils).writeClass(filer);
         new TraitDelegateWriter(item, utils).writeClass(filer);
+        new TraitDispatcherWriter(item, utils).writeClass(filer);
+        if (item.getStorage() == Storage.COLUMNAR) {
+            new TraitStoreWriter(item, utils).writeClass(filer);
+        }
+        if (item.hasBatchMethods()) {
+            new TraitBatchWriter(item, utils).writeClass(filer);
+        }
+        if (item.hasFactory()) {
+            new TraitFactoryWriter(item, utils).writeClass(filer);
+        }
+        writeIndex(item);
+    }
+
+    private void writeIndex(TraitElement item) {
+        String resourceName = TraitIndex.resourceName(item.getSourceElement().getQualifiedName().toString());
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resourceName,
+                    item.getSourceElement());
+            try (OutputStream out = resource.openOutputStream()) {
+                TraitIndex.fromTraitElement(item, utils).writeTo(out);
+            }
+        } catch (IOException e) {
+            messager.printMessage(Kind.ERROR, "IOException writing trait index " + resourceName + ": " + e.getMessage(),
+                    item.getSourceElement());
+        }
     }
 }
@@ -20,17 +20,27 @@ import com.yahoo.aptutils.model.DeclaredTypeName;
 import com.yahoo.aptutils.model.GenericName;
 import com.yahoo.aptutils.utils.AptUtils;
 import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.annotations.Trait.Concurrency;
+import com.yahoo.javatraits.processor.utils.TraitIndex;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
 
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic.Kind;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ClassWithTraits extends TypeElementWrapper {
 
@@ -40,14 +50,30 @@ public class ClassWithTraits extends TypeElementWrapper {
 
     private DeclaredTypeName desiredSuperclass;
     private DeclaredTypeName generatedSuperclass;
+    private boolean serializableSuperclass;
 
     private Map<String, DeclaredTypeName> prefer;
 
-    public ClassWithTraits(TypeElement elem, AptUtils aptUtils) {
-        super(elem, aptUtils);
+    private List<InterceptorElement> interceptors;
+
+    private boolean valueSemantics;
+    private boolean codec;
+    private boolean inPlace;
+    private List<VariableElement> stateFields;
+
+    private final TraitProcessorAptUtils utils;
+
+    public ClassWithTraits(TypeElement elem, TraitProcessorAptUtils utils) {
+        super(elem, utils);
+        this.utils = utils;
         initTraitClasses();
         initSuperclasses();
         initPreferValues();
+        initInterceptors();
+        initTracking();
+        initValueSemantics();
+        initCodec();
+        initInPlace();
     }
 
     private void initTraitClasses() {
@@ -59,10 +85,23 @@ public class ClassWithTraits extends TypeElementWrapper {
                     aptUtils.getMessager().printMessage(Kind.ERROR, "Type mirror " + arg + " for trait argument is not a DeclaredType");
                     return null;
                 } else {
-                    return new TraitElement((TypeElement) ((DeclaredType) arg).asElement(), aptUtils);
+                    return utils.getTraitElement((TypeElement) ((DeclaredType) arg).asElement(), elem);
                 }
             }
         });
+        for (TraitElement trait : traitClasses) {
+            if (trait == null) {
+                continue;
+            }
+            for (TypeElement superTrait : trait.getSuperTraits()) {
+                for (TraitElement other : traitClasses) {
+                    if (other != null && other.getSourceElement().getQualifiedName().equals(superTrait.getQualifiedName())) {
+                        aptUtils.getMessager().printMessage(Kind.ERROR, "Trait " + trait.getSimpleName()
+                                + " already includes trait " + other.getSimpleName() + ", which it extends", elem);
+                    }
+                }
+            }
+        }
     }
 
     private void initSuperclasses() {
@@ -76,6 +115,11 @@ public class ClassWithTraits extends TypeElementWrapper {
 
                 List<DeclaredTypeName> superclassNames = aptUtils.getTypeNamesFromAnnotationValue(superclassValue);
                 desiredSuperclass = superclassNames.size() > 0 ? superclassNames.get(0) : CoreTypes.JAVA_OBJECT;
+                if (superclassValue != null && superclassValue.getValue() instanceof TypeMirror) {
+                    TypeMirror serializable = aptUtils.getElements().getTypeElement(Serializable.class.getName()).asType();
+                    serializableSuperclass = aptUtils.getTypes().isAssignable(
+                            aptUtils.getTypes().erasure((TypeMirror) superclassValue.getValue()), serializable);
+                }
 
                 AnnotationValue typeArgClassesValue = aptUtils.getAnnotationValueFromMirror(desiredSuperclassMirror, "typeArgClasses");
                 List<DeclaredTypeName> superclassTypeArgs = aptUtils.getTypeNamesFromAnnotationValue(typeArgClassesValue);
@@ -132,6 +176,111 @@ public class ClassWithTraits extends TypeElementWrapper {
         }
     }
 
+    private void initInterceptors() {
+        interceptors = new ArrayList<InterceptorElement>();
+        for (TypeMirror mirror : aptUtils.getClassMirrorsFromAnnotation(elem, HasTraits.class, "interceptors")) {
+            if (!(mirror instanceof DeclaredType)) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "Type mirror " + mirror + " for interceptor argument is not a DeclaredType", elem);
+            } else {
+                interceptors.add(new InterceptorElement((TypeElement) ((DeclaredType) mirror).asElement(), aptUtils));
+            }
+        }
+    }
+
+    private void initTracking() {
+        int trackedFields = 0;
+        for (TraitElement trait : traitClasses) {
+            if (trait.isTracked()) {
+                trackedFields += trait.getStateFields().size();
+            }
+        }
+        if (trackedFields > Long.SIZE) {
+            aptUtils.getMessager().printMessage(Kind.ERROR, "Classes can use at most " + Long.SIZE
+                    + " fields of @Tracked traits, but the traits of this class have " + trackedFields, elem);
+        }
+    }
+
+    private void initValueSemantics() {
+        valueSemantics = elem.getAnnotation(HasTraits.class).valueSemantics();
+        stateFields = new ArrayList<VariableElement>();
+        for (Element enclosed : elem.getEnclosedElements()) {
+            Set<Modifier> modifiers = enclosed.getModifiers();
+            if (enclosed.getKind() == ElementKind.FIELD && !modifiers.contains(Modifier.STATIC)
+                    && !modifiers.contains(Modifier.TRANSIENT)) {
+                stateFields.add((VariableElement) enclosed);
+            } else if (valueSemantics && enclosed.getKind() == ElementKind.METHOD
+                    && isEqualsOrHashCode((ExecutableElement) enclosed)) {
+                aptUtils.getMessager().printMessage(Kind.WARNING, "Classes with valueSemantics = true shouldn't "
+                        + "declare their own " + enclosed.getSimpleName() + ", it overrides the generated one", enclosed);
+            }
+        }
+        if (valueSemantics) {
+            checkLibraryStateMethods(TraitIndex.VALUE_SEMANTICS, "valueSemantics");
+        }
+    }
+
+    /**
+     * Reports traits from libraries whose delegates lack the state methods this class needs, because no class in
+     * the library's compilation needed them
+     */
+    private void checkLibraryStateMethods(String stateMethods, String attribute) {
+        for (TraitElement trait : traitClasses) {
+            if (trait != null && !trait.getStateFields().isEmpty()
+                    && !utils.libraryHasStateMethods(trait, stateMethods)) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "Trait " + trait.getSimpleName() + " was compiled "
+                        + "without the methods classes with " + attribute + " = true need, since no class in its "
+                        + "library used it that way; compile the library with -A"
+                        + TraitProcessorAptUtils.STATE_METHODS_OPTION + "=all", elem);
+            }
+        }
+    }
+
+    private void initCodec() {
+        codec = elem.getAnnotation(HasTraits.class).codec();
+        if (!codec) {
+            return;
+        }
+        for (VariableElement field : stateFields) {
+            if (field.getModifiers().contains(Modifier.FINAL)) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "Classes with codec = true can't have final instance "
+                        + "fields; make the field non-final or transient", field);
+            } else if (!TraitProcessorAptUtils.isCodecType(field.asType())) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "The generated codec can only encode primitive and "
+                        + "String fields; make the field transient to exclude it", field);
+            }
+        }
+        for (TraitElement trait : traitClasses) {
+            if (!trait.isCodecCompatible()) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "Trait " + trait.getSimpleName() + " has state fields "
+                        + "that the generated codec can't encode; only primitive and String fields are supported", elem);
+            }
+        }
+        checkLibraryStateMethods(TraitIndex.CODEC, "codec");
+    }
+
+    private void initInPlace() {
+        inPlace = elem.getAnnotation(HasTraits.class).inPlace();
+        if (!inPlace) {
+            return;
+        }
+        if (!CoreTypes.JAVA_OBJECT.equals(desiredSuperclass)) {
+            aptUtils.getMessager().printMessage(Kind.ERROR, "Classes with inPlace = true extend their superclass "
+                    + "directly; remove desiredSuperclass", elem);
+        }
+        for (TraitElement trait : traitClasses) {
+            if (trait != null && !AptUtils.isEmpty(trait.getTypeParameters())) {
+                aptUtils.getMessager().printMessage(Kind.ERROR, "Trait " + trait.getSimpleName() + " has type "
+                        + "parameters, which classes with inPlace = true can't bind", elem);
+            }
+        }
+    }
+
+    private static boolean isEqualsOrHashCode(ExecutableElement exec) {
+        String name = exec.getSimpleName().toString();
+        int parameters = exec.getParameters().size();
+        return ("equals".equals(name) && parameters == 1) || ("hashCode".equals(name) && parameters == 0);
+    }
+
     public DeclaredTypeName getGeneratedSuperclassName() {
         return generatedSuperclass;
     }
@@ -144,6 +293,14 @@ public class ClassWithTraits extends TypeElementWrapper {
         return desiredSuperclass;
     }
 
+    /**
+     * @return true if desiredSuperclass implements Serializable, so the generated superclass and the annotated class
+     * inherit a serial form
+     */
+    public boolean hasSerializableSuperclass() {
+        return serializableSuperclass;
+    }
+
     public boolean superclassHasTypeArgs() {
         return !AptUtils.isEmpty(desiredSuperclass.getTypeArgs());
     }
@@ -151,4 +308,115 @@ public class ClassWithTraits extends TypeElementWrapper {
     public Map<String, DeclaredTypeName> getPreferMap() {
         return prefer;
     }
+
+    public List<InterceptorElement> getInterceptors() {
+        return interceptors;
+    }
+
+    public boolean hasValueSemantics() {
+        return valueSemantics;
+    }
+
+    public boolean hasCodec() {
+        return codec;
+    }
+
+    /**
+     * @return true if the traits are mixed into the annotated class by the javac plugin instead of a generated
+     * superclass
+     */
+    public boolean isInPlace() {
+        return inPlace;
+    }
+
+    /**
+     * @return true if the class can have its traits mixed in place: inPlace is set, desiredSuperclass isn't, and
+     * none of its traits have type parameters
+     */
+    public boolean canMixInPlace() {
+        if (!inPlace || !CoreTypes.JAVA_OBJECT.equals(desiredSuperclass)) {
+            return false;
+        }
+        for (TraitElement trait : traitClasses) {
+            if (trait == null || !AptUtils.isEmpty(trait.getTypeParameters())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isDevirtualized() {
+        return elem.getAnnotation(HasTraits.class).devirtualize();
+    }
+
+    /**
+     * @return true if the annotated class is final and has no type parameters, so calls made on it are exact-type
+     */
+    public boolean isExactHost() {
+        return elem.getModifiers().contains(Modifier.FINAL) && elem.getTypeParameters().isEmpty();
+    }
+
+    /**
+     * @return the non-static, non-transient fields declared by this class, which the generated equals, hashCode and
+     * codec cover
+     */
+    public List<VariableElement> getStateFields() {
+        return stateFields;
+    }
+
+    public boolean hasTrackedTraits() {
+        for (TraitElement trait : traitClasses) {
+            if (trait.isTracked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasTrackingListeners() {
+        for (TraitElement trait : traitClasses) {
+            if (trait.hasTrackingListeners()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if one of the traits may be called from several threads at once
+     */
+    public boolean hasConcurrentTraits() {
+        for (TraitElement trait : traitClasses) {
+            if (trait.getConcurrency() != Concurrency.NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a trait whose changes are reported to listeners may be called from several threads at once, in
+     * which case the nesting depth of its writes has to be kept per thread
+     */
+    public boolean hasConcurrentTracking() {
+        for (TraitElement trait : traitClasses) {
+            if (trait.hasTrackingListeners() && trait.getConcurrency() != Concurrency.NONE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the interceptors whose hooks apply to the given trait method, outermost first
+     */
+    public List<InterceptorElement> getInterceptorsFor(ExecutableElement exec) {
+        List<InterceptorElement> result = new ArrayList<InterceptorElement>();
+        for (InterceptorElement interceptor : interceptors) {
+            if (interceptor.intercepts(exec)) {
+                result.add(interceptor);
+            }
+        }
+        return result;
+    }
 }
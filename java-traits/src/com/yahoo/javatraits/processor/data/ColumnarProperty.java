@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.data;
+
+import com.yahoo.aptutils.model.DeclaredTypeName;
+
+import javax.lang.model.element.ExecutableElement;
+
+public class ColumnarProperty {
+
+    private final String name;
+    private final DeclaredTypeName type;
+    private final ExecutableElement getter;
+    private ExecutableElement setter;
+
+    public ColumnarProperty(String name, DeclaredTypeName type, ExecutableElement getter) {
+        this.name = name;
+        this.type = type;
+        this.getter = getter;
+    }
+
+    /**
+     * @return the property name with its first letter capitalized, e.g. "Width" for getWidth()
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getFieldName() {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * @return the primitive type of the property
+     */
+    public DeclaredTypeName getType() {
+        return type;
+    }
+
+    public ExecutableElement getGetter() {
+        return getter;
+    }
+
+    public ExecutableElement getSetter() {
+        return setter;
+    }
+
+    void setSetter(ExecutableElement setter) {
+        this.setter = setter;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.data;
+
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.aptutils.utils.AptUtils;
+import com.yahoo.javatraits.annotations.Interceptor;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class InterceptorElement extends TypeElementWrapper {
+
+    private static final String BEFORE = "before";
+    private static final String AFTER = "after";
+    private static final String RETRY = "retry";
+
+    private ExecutableElement before;
+    private ExecutableElement after;
+    private ExecutableElement retry;
+    private List<Pattern> methodPatterns = new ArrayList<Pattern>();
+    private Set<String> annotationNames = new HashSet<String>();
+    private boolean valid = true;
+
+    public InterceptorElement(TypeElement elem, AptUtils aptUtils) {
+        super(elem, aptUtils);
+        initializeSelection();
+        initializeHooks();
+    }
+
+    private void initializeSelection() {
+        Interceptor interceptor = elem.getAnnotation(Interceptor.class);
+        if (interceptor == null) {
+            error("Interceptor classes must be annotated with @Interceptor", elem);
+            return;
+        }
+        for (String pattern : interceptor.methods()) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : pattern.split("\\*", -1)) {
+                regex.append(regex.length() > 0 ? ".*" : "").append(Pattern.quote(part));
+            }
+            methodPatterns.add(Pattern.compile(regex.toString()));
+        }
+        for (TypeMirror annotation : aptUtils.getClassMirrorsFromAnnotation(elem, Interceptor.class, "annotatedWith")) {
+            annotationNames.add(annotation.toString());
+        }
+    }
+
+    private void initializeHooks() {
+        for (Element e : elem.getEnclosedElements()) {
+            if (e.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement exec = (ExecutableElement) e;
+            String name = exec.getSimpleName().toString();
+            if (!BEFORE.equals(name) && !AFTER.equals(name) && !RETRY.equals(name)) {
+                continue;
+            }
+            if (!exec.getModifiers().contains(Modifier.STATIC) || !exec.getModifiers().contains(Modifier.PUBLIC)) {
+                error("Interceptor hooks must be public and static", exec);
+            } else if (BEFORE.equals(name)) {
+                before = checkHook(before, exec, "before(String)", TypeKind.DECLARED);
+            } else if (AFTER.equals(name)) {
+                after = exec;
+            } else {
+                retry = checkHook(retry, exec, "boolean retry(String, Throwable, int)", TypeKind.DECLARED,
+                        TypeKind.DECLARED, TypeKind.INT);
+                if (retry != null && retry.getReturnType().getKind() != TypeKind.BOOLEAN) {
+                    error("Interceptor hook retry must return boolean", exec);
+                }
+            }
+        }
+        if (after != null) {
+            if (hasBeforeState()) {
+                after = checkHook(null, after, "after(String, " + before.getReturnType() + ", Throwable)",
+                        TypeKind.DECLARED, null, TypeKind.DECLARED);
+                if (after != null && !aptUtils.getTypes().isAssignable(before.getReturnType(),
+                        after.getParameters().get(1).asType())) {
+                    error("The state parameter of after must accept the type returned by before", after);
+                }
+            } else {
+                after = checkHook(null, after, "after(String, Throwable)", TypeKind.DECLARED, TypeKind.DECLARED);
+            }
+        }
+        if (valid && before == null && after == null && retry == null) {
+            aptUtils.getMessager().printMessage(Kind.WARNING, "Interceptor declares no before, after or retry hooks", elem);
+        }
+    }
+
+    private ExecutableElement checkHook(ExecutableElement existing, ExecutableElement exec, String expected,
+            TypeKind... parameterKinds) {
+        if (existing != null) {
+            error("Interceptor hooks can't be overloaded", exec);
+            return null;
+        }
+        boolean matches = exec.getParameters().size() == parameterKinds.length && exec.getTypeParameters().isEmpty();
+        for (int i = 0; matches && i < parameterKinds.length; i++) {
+            matches = parameterKinds[i] == null || exec.getParameters().get(i).asType().getKind() == parameterKinds[i];
+        }
+        if (!matches) {
+            error("Interceptor hook should be declared as " + expected, exec);
+            return null;
+        }
+        return exec;
+    }
+
+    private void error(String message, Element e) {
+        valid = false;
+        aptUtils.getMessager().printMessage(Kind.ERROR, message, e);
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return true if this interceptor's hooks should be woven into the given trait method
+     */
+    public boolean intercepts(ExecutableElement exec) {
+        if (!valid) {
+            return false;
+        }
+        boolean nameMatches = false;
+        String name = exec.getSimpleName().toString();
+        for (Pattern pattern : methodPatterns) {
+            nameMatches |= pattern.matcher(name).matches();
+        }
+        if (!nameMatches) {
+            return false;
+        }
+        if (annotationNames.isEmpty()) {
+            return true;
+        }
+        for (AnnotationMirror annotation : exec.getAnnotationMirrors()) {
+            if (annotationNames.contains(annotation.getAnnotationType().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasBefore() {
+        return before != null;
+    }
+
+    public boolean hasBeforeState() {
+        return before != null && before.getReturnType().getKind() != TypeKind.VOID;
+    }
+
+    /**
+     * @return the type of the state returned by the before hook and passed to the after hook
+     */
+    public TypeName getBeforeStateType() {
+        return aptUtils.getTypeNameFromTypeMirror(before.getReturnType());
+    }
+
+    public boolean hasAfter() {
+        return after != null;
+    }
+
+    public boolean hasRetry() {
+        return retry != null;
+    }
+}
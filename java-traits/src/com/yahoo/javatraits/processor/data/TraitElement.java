@@ -19,10 +19,26 @@ import com.yahoo.aptutils.model.DeclaredTypeName;
 import com.yahoo.aptutils.model.GenericName;
 import com.yahoo.aptutils.model.TypeName;
 import com.yahoo.aptutils.utils.AptUtils;
+import com.yahoo.javatraits.annotations.Async;
+import com.yahoo.javatraits.annotations.Batch;
+import com.yahoo.javatraits.annotations.Memoize;
+import com.yahoo.javatraits.annotations.OnReset;
+import com.yahoo.javatraits.annotations.ReadOnly;
+import com.yahoo.javatraits.annotations.Trait;
+import com.yahoo.javatraits.annotations.Trait.Concurrency;
+import com.yahoo.javatraits.annotations.Trait.Storage;
+import com.yahoo.javatraits.annotations.Tracked;
+import com.yahoo.javatraits.processor.utils.TraitFieldWrites;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
 
+import javax.annotation.processing.Messager;
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic.Kind;
 import java.util.*;
 
@@ -30,56 +46,382 @@ public class TraitElement extends TypeElementWrapper {
 
     private static final String INTERFACE_PREFIX = "I";
     private static final String DELEGATE_SUFFIX = "DelegateWrapper";
+    private static final String DISPATCHER_SUFFIX = "Dispatcher";
+    private static final String STORE_SUFFIX = "Store";
+    private static final String BATCH_SUFFIX = "Batch";
+    private static final String FACTORY_SUFFIX = "Factory";
+    private static final String ASYNC_SUFFIX = "Async";
+    private static final String INVALIDATE_MEMOS_PREFIX = "invalidate";
+    private static final String INVALIDATE_MEMOS_SUFFIX = "Memos";
 
+    private static final Messager SILENT_MESSAGER = new Messager() {
+        @Override
+        public void printMessage(Kind kind, CharSequence msg) {
+            // diagnostics are disabled
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e) {
+            // diagnostics are disabled
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a) {
+            // diagnostics are disabled
+        }
+
+        @Override
+        public void printMessage(Kind kind, CharSequence msg, Element e, AnnotationMirror a, AnnotationValue v) {
+            // diagnostics are disabled
+        }
+    };
+
+    private List<TypeElement> superTraits = new ArrayList<TypeElement>();
+    private Set<String> superTraitOverrides = new HashSet<String>();
     private List<ExecutableElement> declaredMethods = new ArrayList<ExecutableElement>();
     private List<TypeName> interfaceNames;
     private List<VariableElement> constants = new ArrayList<VariableElement>();
+    private List<VariableElement> stateFields = new ArrayList<VariableElement>();
+    private TraitFieldWrites fieldWrites;
+    private boolean fieldWritesAnalyzed;
+    private List<ExecutableElement> resetHooks = new ArrayList<ExecutableElement>();
+    private List<ExecutableElement> memoizedMethods = new ArrayList<ExecutableElement>();
+    private List<ExecutableElement> batchMethods = new ArrayList<ExecutableElement>();
+    private List<ExecutableElement> asyncMethods = new ArrayList<ExecutableElement>();
+    private Concurrency concurrency;
+    private Storage storage;
+    private boolean tracked;
+    private boolean trackedListeners;
+    private List<ColumnarProperty> columnarProperties = new ArrayList<ColumnarProperty>();
     private List<List<ExecutableElement>> interfaceMethods = new ArrayList<List<ExecutableElement>>();
     private List<Map<String, TypeName>> interfaceGenericNameMaps;
 
     private DeclaredTypeName generatedInterfaceName;
     private DeclaredTypeName delegateName;
+    private DeclaredTypeName dispatcherName;
+    private DeclaredTypeName storeName;
+    private DeclaredTypeName batchName;
+    private DeclaredTypeName factoryName;
+
+    private final Messager messager;
 
     public TraitElement(TypeElement elem, AptUtils aptUtils) {
+        this(elem, aptUtils, true);
+    }
+
+    /**
+     * @param reportDiagnostics false to skip reporting errors and warnings about the trait, e.g. because they were
+     * already reported when the trait library it comes from was compiled
+     */
+    public TraitElement(TypeElement elem, AptUtils aptUtils, boolean reportDiagnostics) {
         super(elem, aptUtils);
+        this.messager = reportDiagnostics ? aptUtils.getMessager() : SILENT_MESSAGER;
         initializeElement();
     }
 
     private void initializeElement() {
-        if (!AptUtils.OBJECT_CLASS_NAME.equals(elem.getSuperclass().toString())) {
-            aptUtils.getMessager().printMessage(Kind.ERROR, "Trait elements must have java.lang.Object as their superclass", elem);
-        }
-        accumulateMethods(elem, declaredMethods);
+        initializeSuperTraits();
+        accumulateMethods(elem, declaredMethods, messager);
+        accumulateInheritedMembers();
         generatedInterfaceName = new DeclaredTypeName(elementName.getPackageName(), INTERFACE_PREFIX + elementName.getSimpleName());
         generatedInterfaceName.setTypeArgs(getTypeParameters());
 
         delegateName = new DeclaredTypeName(elementName.getPackageName(), elementName.getSimpleName() + DELEGATE_SUFFIX);
         delegateName.setTypeArgs(getTypeParameters());
 
+        dispatcherName = new DeclaredTypeName(elementName.getPackageName(), elementName.getSimpleName() + DISPATCHER_SUFFIX);
+
+        batchName = new DeclaredTypeName(elementName.getPackageName(), elementName.getSimpleName() + BATCH_SUFFIX);
+
+        factoryName = new DeclaredTypeName(elementName.getPackageName(), elementName.getSimpleName() + FACTORY_SUFFIX);
+
+        initializeMemoizedMethods();
+        initializeBatchMethods();
+        initializeAsyncMethods();
+        initializeConcurrency();
+        initializeStorage();
+        initializeTracking();
         initializeInterfaces();
     }
 
-    private void accumulateMethods(Element element, List<ExecutableElement> methods) {
+    /**
+     * Collects the traits this trait extends, nearest first. Their methods and state are flattened into this trait,
+     * so that it only needs a single generated interface and delegate.
+     */
+    private void initializeSuperTraits() {
+        TypeMirror superclass = elem.getSuperclass();
+        while (superclass.getKind() == TypeKind.DECLARED
+                && !AptUtils.OBJECT_CLASS_NAME.equals(superclass.toString())) {
+            TypeElement superElement = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (superElement.getAnnotation(Trait.class) == null) {
+                messager.printMessage(Kind.ERROR, "Trait elements must have java.lang.Object or another trait as "
+                        + "their superclass", elem);
+                return;
+            } else if (!superElement.getTypeParameters().isEmpty()) {
+                messager.printMessage(Kind.ERROR, "Traits can only extend traits without type parameters", elem);
+                return;
+            }
+            superTraits.add(superElement);
+            superclass = superElement.getSuperclass();
+        }
+    }
+
+    /**
+     * Adds the methods, constants and state fields of the traits this trait extends, except those this trait or a
+     * nearer trait overrides or hides. Problems with the inherited members are reported when their own trait is
+     * processed.
+     */
+    private void accumulateInheritedMembers() {
+        Set<String> signatures = new HashSet<String>();
+        Set<String> constantNames = new HashSet<String>();
+        Set<String> fieldNames = new HashSet<String>();
+        for (ExecutableElement exec : declaredMethods) {
+            signatures.add(erasedSignature(exec));
+        }
+        for (VariableElement constant : constants) {
+            constantNames.add(constant.getSimpleName().toString());
+        }
+        for (VariableElement field : stateFields) {
+            fieldNames.add(field.getSimpleName().toString());
+        }
+        for (TypeElement superTrait : superTraits) {
+            List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+            int constantCount = constants.size();
+            int fieldCount = stateFields.size();
+            accumulateMethods(superTrait, methods, SILENT_MESSAGER);
+            if (declaresGetThis(methods)) {
+                messager.printMessage(Kind.ERROR, "Trait " + superTrait.getSimpleName() + " declares getThis(), so "
+                        + "other traits can't extend it", elem);
+            }
+            for (ExecutableElement exec : methods) {
+                String signature = erasedSignature(exec);
+                if (signatures.add(signature)) {
+                    declaredMethods.add(exec);
+                } else {
+                    superTraitOverrides.add(signature);
+                }
+            }
+            Iterator<VariableElement> inheritedConstants = constants.subList(constantCount, constants.size()).iterator();
+            while (inheritedConstants.hasNext()) {
+                if (!constantNames.add(inheritedConstants.next().getSimpleName().toString())) {
+                    inheritedConstants.remove();
+                }
+            }
+            for (VariableElement field : stateFields.subList(fieldCount, stateFields.size())) {
+                if (!fieldNames.add(field.getSimpleName().toString())) {
+                    messager.printMessage(Kind.ERROR, "Field " + field.getSimpleName() + " of trait "
+                            + superTrait.getSimpleName() + " has the same name as a field of a trait extending it; "
+                            + "rename one of them", elem);
+                }
+            }
+        }
+    }
+
+    private static boolean declaresGetThis(List<ExecutableElement> methods) {
+        for (ExecutableElement exec : methods) {
+            if (TraitProcessorAptUtils.GET_THIS.equals(exec.getSimpleName().toString())
+                    && exec.getParameters().isEmpty() && exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void initializeTracking() {
+        Tracked tracked = elem.getAnnotation(Tracked.class);
+        if (tracked == null) {
+            return;
+        }
+        if (storage == Storage.COLUMNAR) {
+            messager.printMessage(Kind.ERROR, "@Tracked traits can't use columnar storage", elem);
+        } else if (stateFields.size() > Long.SIZE) {
+            messager.printMessage(Kind.ERROR, "@Tracked traits can have at most " + Long.SIZE
+                    + " private instance fields", elem);
+        } else {
+            trackedListeners = tracked.listeners();
+            this.tracked = true;
+        }
+    }
+
+    private void initializeStorage() {
+        Trait trait = elem.getAnnotation(Trait.class);
+        storage = trait != null ? trait.storage() : Storage.OBJECT;
+        if (storage != Storage.COLUMNAR) {
+            return;
+        }
+        storeName = new DeclaredTypeName(elementName.getPackageName(), elementName.getSimpleName() + STORE_SUFFIX);
+
+        Map<String, ColumnarProperty> properties = new LinkedHashMap<String, ColumnarProperty>();
+        for (ExecutableElement exec : declaredMethods) {
+            String propertyName = getColumnarPropertyName(exec);
+            if (propertyName != null && !properties.containsKey(propertyName)) {
+                DeclaredTypeName type = (DeclaredTypeName) aptUtils.getTypeNameFromTypeMirror(exec.getReturnType());
+                properties.put(propertyName, new ColumnarProperty(propertyName, type, exec));
+            }
+        }
+        for (ExecutableElement exec : declaredMethods) {
+            String name = exec.getSimpleName().toString();
+            if (name.startsWith("set") && exec.getModifiers().contains(Modifier.ABSTRACT)
+                    && exec.getReturnType().getKind() == TypeKind.VOID && exec.getParameters().size() == 1) {
+                ColumnarProperty property = properties.get(name.substring(3));
+                if (property != null && exec.getParameters().get(0).asType().getKind()
+                        == property.getGetter().getReturnType().getKind()) {
+                    property.setSetter(exec);
+                }
+            }
+        }
+        columnarProperties.addAll(properties.values());
+        if (columnarProperties.isEmpty()) {
+            messager.printMessage(Kind.WARNING, "Columnar traits should declare abstract primitive "
+                    + "getters, e.g. \"abstract int getWidth()\"", elem);
+        }
+    }
+
+    private String getColumnarPropertyName(ExecutableElement exec) {
+        if (!exec.getModifiers().contains(Modifier.ABSTRACT) || !exec.getParameters().isEmpty()
+                || !exec.getTypeParameters().isEmpty() || !exec.getReturnType().getKind().isPrimitive()) {
+            return null;
+        }
+        String name = exec.getSimpleName().toString();
+        if (name.startsWith("get") && name.length() > 3) {
+            return name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2 && exec.getReturnType().getKind() == TypeKind.BOOLEAN) {
+            return name.substring(2);
+        }
+        return null;
+    }
+
+    private void initializeConcurrency() {
+        Trait trait = elem.getAnnotation(Trait.class);
+        concurrency = trait != null ? trait.concurrency() : Concurrency.NONE;
+        for (ExecutableElement exec : declaredMethods) {
+            if (exec.getAnnotation(ReadOnly.class) == null) {
+                continue;
+            }
+            if (exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                messager.printMessage(Kind.ERROR, "Only concrete trait methods can be @ReadOnly", exec);
+            } else if (concurrency != Concurrency.OPTIMISTIC_READ && elem.getAnnotation(Tracked.class) == null) {
+                messager.printMessage(Kind.WARNING, "@ReadOnly has no effect unless the trait uses "
+                        + "concurrency = OPTIMISTIC_READ or is @Tracked", exec);
+            }
+        }
+    }
+
+    private void initializeMemoizedMethods() {
+        for (ExecutableElement exec : declaredMethods) {
+            Memoize memoize = exec.getAnnotation(Memoize.class);
+            if (memoize == null) {
+                continue;
+            }
+            if (exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                messager.printMessage(Kind.ERROR, "Only concrete trait methods can be memoized", exec);
+            } else if (exec.getReturnType().getKind() == TypeKind.VOID) {
+                messager.printMessage(Kind.ERROR, "Memoized methods must return a value", exec);
+            } else if (memoize.shared() && exec.getParameters().isEmpty()) {
+                messager.printMessage(Kind.ERROR, "Only memoized methods with arguments can be shared", exec);
+            } else if (memoize.maxSize() <= 0) {
+                messager.printMessage(Kind.ERROR, "Memoize maxSize must be positive", exec);
+            } else {
+                memoizedMethods.add(exec);
+            }
+        }
+    }
+
+    private void initializeBatchMethods() {
+        for (ExecutableElement exec : declaredMethods) {
+            Batch batch = exec.getAnnotation(Batch.class);
+            if (batch == null) {
+                continue;
+            }
+            if (TraitProcessorAptUtils.GET_THIS.equals(exec.getSimpleName().toString()) && exec.getParameters().isEmpty()) {
+                messager.printMessage(Kind.ERROR, "getThis() can't be batched", exec);
+            } else if (batch.parallelThreshold() <= 0) {
+                messager.printMessage(Kind.ERROR, "Batch parallelThreshold must be positive", exec);
+            } else {
+                batchMethods.add(exec);
+            }
+        }
+    }
+
+    private void initializeAsyncMethods() {
+        Set<String> declaredNames = new HashSet<String>();
+        for (ExecutableElement exec : declaredMethods) {
+            declaredNames.add(exec.getSimpleName().toString());
+        }
+        for (ExecutableElement exec : declaredMethods) {
+            if (exec.getAnnotation(Async.class) == null) {
+                continue;
+            }
+            if (TraitProcessorAptUtils.GET_THIS.equals(exec.getSimpleName().toString()) && exec.getParameters().isEmpty()) {
+                messager.printMessage(Kind.ERROR, "getThis() can't be async", exec);
+            } else if (declaredNames.contains(getAsyncMethodName(exec))) {
+                messager.printMessage(Kind.ERROR, "The async variant of this method would conflict with "
+                        + "the declared method " + getAsyncMethodName(exec), exec);
+            } else {
+                asyncMethods.add(exec);
+            }
+        }
+    }
+
+    private void accumulateMethods(Element element, List<ExecutableElement> methods, Messager messager) {
         List<? extends Element> enclosedElements = element.getEnclosedElements();
         for (Element e : enclosedElements) {
             if (e.getKind() != ElementKind.METHOD || !(e instanceof ExecutableElement)) {
                 if (e.getKind() == ElementKind.CONSTRUCTOR && (e instanceof ExecutableElement)) {
                     if (((ExecutableElement) e).getParameters().size() > 0) {
-                        aptUtils.getMessager().printMessage(Kind.ERROR, "Trait constructors cannot have arguments", e);
+                        messager.printMessage(Kind.ERROR, "Trait constructors cannot have arguments", e);
                     }
+                } else if (e.getKind() == ElementKind.STATIC_INIT || e.getKind() == ElementKind.INSTANCE_INIT) {
+                    // only visible when the trait is read from a class file, e.g. for non-constant static fields
                 } else if (elementIsConstant(e)) {
                     constants.add((VariableElement) e);
                 } else if (e.getModifiers().contains(Modifier.PRIVATE)) {
-                    //do nothing
+                    if (e.getKind() == ElementKind.FIELD && !e.getModifiers().contains(Modifier.STATIC)
+                            && !e.getModifiers().contains(Modifier.FINAL)) {
+                        stateFields.add((VariableElement) e);
+                    }
                 } else {
-                    aptUtils.getMessager().printMessage(Kind.ERROR, "Trait elements may only declare methods, abstract methods, private fields or public static final variables", e);
+                    messager.printMessage(Kind.ERROR, "Trait elements may only declare methods, abstract methods, private fields or public static final variables", e);
                 }
+            } else if (e.getAnnotation(OnReset.class) != null) {
+                addResetHook((ExecutableElement) e, messager);
             } else {
                 methods.add((ExecutableElement) e);
             }
         }
     }
 
+    private void addResetHook(ExecutableElement exec, Messager messager) {
+        Set<Modifier> modifiers = exec.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE)
+                || modifiers.contains(Modifier.STATIC) || !exec.getParameters().isEmpty()
+                || exec.getReturnType().getKind() != TypeKind.VOID) {
+            messager.printMessage(Kind.ERROR, "@OnReset methods must be concrete, non-private instance methods "
+                    + "without arguments that return void", exec);
+            return;
+        }
+        for (ExecutableElement hook : resetHooks) {
+            if (hook.getSimpleName().equals(exec.getSimpleName())) {
+                return; // overridden by a nearer trait, which is called instead
+            }
+        }
+        resetHooks.add(exec);
+    }
+
+    private boolean isImmutableType(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        } else if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+        if (typeElement.getKind() == ElementKind.ENUM) {
+            return true;
+        }
+        String name = typeElement.getQualifiedName().toString();
+        return String.class.getName().equals(name) || TraitProcessorAptUtils.isBoxedTypeName(name);
+    }
+
     private boolean elementIsConstant(Element e) {
         if (!(e instanceof VariableElement)) {
             return false;
@@ -90,7 +432,18 @@ public class TraitElement extends TypeElementWrapper {
     }
 
     private void initializeInterfaces() {
-        List<? extends TypeMirror> interfaces = elem.getInterfaces();
+        List<TypeMirror> interfaces = new ArrayList<TypeMirror>(elem.getInterfaces());
+        Set<String> seen = new HashSet<String>();
+        for (TypeMirror interfaceMirror : interfaces) {
+            seen.add(interfaceMirror.toString());
+        }
+        for (TypeElement superTrait : superTraits) {
+            for (TypeMirror interfaceMirror : superTrait.getInterfaces()) {
+                if (seen.add(interfaceMirror.toString())) {
+                    interfaces.add(interfaceMirror);
+                }
+            }
+        }
         if (!AptUtils.isEmpty(interfaces)) {
             initializeInterfaceMappings(interfaces);
         }
@@ -99,20 +452,41 @@ public class TraitElement extends TypeElementWrapper {
     private void initializeInterfaceMappings(List<? extends TypeMirror> interfaces) {
         interfaceGenericNameMaps = new ArrayList<Map<String, TypeName>>();
         interfaceNames = aptUtils.getTypeNamesFromTypeMirrors(interfaces, getSimpleName());
+        Set<String> forwardedSignatures = new HashSet<String>();
+        for (ExecutableElement exec : declaredMethods) {
+            forwardedSignatures.add(erasedSignature(exec));
+        }
         for (int i = 0; i < interfaces.size(); i++) {
             TypeMirror interfaceMirror = interfaces.get(i);
             if (interfaceMirror instanceof DeclaredType) {
-                initializeSingleInterfaceMapping((DeclaredType) interfaceMirror, (DeclaredTypeName) interfaceNames.get(i));
+                initializeSingleInterfaceMapping((DeclaredType) interfaceMirror, (DeclaredTypeName) interfaceNames.get(i),
+                        forwardedSignatures);
             } else {
-                aptUtils.getMessager().printMessage(Kind.WARNING, "Interface " + interfaceMirror + " from trait is not a DeclaredType", elem);
+                messager.printMessage(Kind.WARNING, "Interface " + interfaceMirror + " from trait is not a DeclaredType", elem);
             }
         }
     }
 
-    private void initializeSingleInterfaceMapping(DeclaredType interfaceMirror, DeclaredTypeName interfaceName) {
+    /**
+     * Collects the methods of a superinterface that the delegate wrapper has to forward. Static and private
+     * interface methods (Java 9+, e.g. List.of) aren't inherited, and methods the trait declares itself or that an
+     * earlier superinterface already contributed are forwarded once already.
+     */
+    private void initializeSingleInterfaceMapping(DeclaredType interfaceMirror, DeclaredTypeName interfaceName,
+            Set<String> forwardedSignatures) {
         TypeElement interfaceElement = (TypeElement) interfaceMirror.asElement();
-        List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
-        accumulateMethods(interfaceElement, methods);
+        // only the methods: superinterfaces may declare nested types, and their constants aren't the trait's
+        List<ExecutableElement> methods = new ArrayList<ExecutableElement>(
+                ElementFilter.methodsIn(interfaceElement.getEnclosedElements()));
+        Iterator<ExecutableElement> iterator = methods.iterator();
+        while (iterator.hasNext()) {
+            ExecutableElement exec = iterator.next();
+            Set<Modifier> modifiers = exec.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+                    || !forwardedSignatures.add(erasedSignature(exec))) {
+                iterator.remove();
+            }
+        }
         interfaceMethods.add(methods);
 
         List<? extends TypeName> args = interfaceName.getTypeArgs();
@@ -131,6 +505,20 @@ public class TraitElement extends TypeElementWrapper {
         interfaceGenericNameMaps.add(genericNameMap);
     }
 
+    /**
+     * @return the method's name and erased parameter types as seen from this trait, so that a superinterface method
+     * and the trait method overriding it have the same signature
+     */
+    private String erasedSignature(ExecutableElement exec) {
+        Types types = aptUtils.getTypes();
+        ExecutableType asMember = (ExecutableType) types.asMemberOf((DeclaredType) elem.asType(), exec);
+        StringBuilder signature = new StringBuilder(exec.getSimpleName()).append('(');
+        for (TypeMirror parameter : asMember.getParameterTypes()) {
+            signature.append(types.erasure(parameter)).append(';');
+        }
+        return signature.append(')').toString();
+    }
+
     public DeclaredTypeName getGeneratedInterfaceName() {
         return generatedInterfaceName;
     }
@@ -139,6 +527,24 @@ public class TraitElement extends TypeElementWrapper {
         return delegateName;
     }
 
+    public DeclaredTypeName getDispatcherName() {
+        return dispatcherName;
+    }
+
+    /**
+     * @return the traits this trait extends, nearest first
+     */
+    public List<TypeElement> getSuperTraits() {
+        return superTraits;
+    }
+
+    /**
+     * @return true if the method is declared by this trait and overrides a method of a trait it extends
+     */
+    public boolean overridesSuperTraitMethod(ExecutableElement exec) {
+        return exec.getEnclosingElement().equals(elem) && superTraitOverrides.contains(erasedSignature(exec));
+    }
+
     public List<ExecutableElement> getDeclaredMethods() {
         return declaredMethods;
     }
@@ -159,8 +565,218 @@ public class TraitElement extends TypeElementWrapper {
         return interfaceGenericNameMaps.get(ith);
     }
 
+    /**
+     * @return the name of the generated class holding the bulk variants of this trait's {@literal @}Batch methods
+     */
+    public DeclaredTypeName getBatchName() {
+        return batchName;
+    }
+
+    public List<ExecutableElement> getBatchMethods() {
+        return batchMethods;
+    }
+
+    public boolean hasBatchMethods() {
+        return !batchMethods.isEmpty();
+    }
+
+    /**
+     * @return the name of the generated companion class holding this trait's lambda-backed factory
+     */
+    public DeclaredTypeName getFactoryName() {
+        return factoryName;
+    }
+
+    /**
+     * @return true if every abstract method of this trait can be implemented by a lambda, i.e. none of them are
+     * generic and none are inherited from a superinterface
+     */
+    public boolean hasFactory() {
+        if (getNumSuperinterfaces() > 0) {
+            return false;
+        }
+        for (ExecutableElement exec : declaredMethods) {
+            if (exec.getModifiers().contains(Modifier.ABSTRACT) && !exec.getTypeParameters().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<ExecutableElement> getAsyncMethods() {
+        return asyncMethods;
+    }
+
+    public boolean isAsync(ExecutableElement exec) {
+        return asyncMethods.contains(exec);
+    }
+
+    /**
+     * @return the name of the generated asynchronous variant of an {@literal @}Async method
+     */
+    public String getAsyncMethodName(ExecutableElement exec) {
+        return exec.getSimpleName() + ASYNC_SUFFIX;
+    }
+
     public List<VariableElement> getConstants() {
         return constants;
     }
 
+    /**
+     * @return the private instance fields holding this trait's per-object state, excluding final fields
+     */
+    public List<VariableElement> getStateFields() {
+        return stateFields;
+    }
+
+    /**
+     * @return the state fields that resetTraitState() restores by copying them from a prototype instance, i.e. those
+     * of primitive or immutable types, which instances can share
+     */
+    public List<VariableElement> getPrototypeResetFields() {
+        List<VariableElement> result = new ArrayList<VariableElement>();
+        for (VariableElement field : stateFields) {
+            if (isImmutableType(field.asType())) {
+                result.add(field);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the state fields that only the trait's {@literal @}OnReset methods can reinitialize
+     */
+    public List<VariableElement> getMutableStateFields() {
+        List<VariableElement> result = new ArrayList<VariableElement>(stateFields);
+        result.removeAll(getPrototypeResetFields());
+        return result;
+    }
+
+    /**
+     * @return the {@literal @}OnReset methods of this trait and the traits it extends, nearest first
+     */
+    public List<ExecutableElement> getResetHooks() {
+        return resetHooks;
+    }
+
+    /**
+     * @return true if resetTraitState() can reinitialize every state field, which takes an {@literal @}OnReset
+     * method when some of them hold mutable objects
+     */
+    public boolean isResettable() {
+        return getMutableStateFields().isEmpty() || !resetHooks.isEmpty();
+    }
+
+    /**
+     * @return true if copyTraitStateFrom(other) can copy every state field, which it can't for fields holding mutable
+     * objects since the two instances would then share them
+     */
+    public boolean isCopyable() {
+        return getMutableStateFields().isEmpty();
+    }
+
+    /**
+     * @return true if the generated binary codec can encode all of this trait's state fields
+     */
+    public boolean isCodecCompatible() {
+        for (VariableElement field : stateFields) {
+            if (!TraitProcessorAptUtils.isCodecType(field.asType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isTracked() {
+        return tracked;
+    }
+
+    /**
+     * @return true if classes using this trait should accept listeners for changes to its fields
+     */
+    public boolean hasTrackingListeners() {
+        return trackedListeners;
+    }
+
+    /**
+     * @return true if calls to the given method may change tracked fields, i.e. it's a concrete method of a
+     * {@literal @}Tracked trait that isn't {@literal @}ReadOnly and may assign one of the trait's fields
+     */
+    public boolean isTrackedWrite(ExecutableElement exec) {
+        return tracked && !stateFields.isEmpty() && !exec.getModifiers().contains(Modifier.ABSTRACT)
+                && !isReadOnly(exec) && !getWrittenFieldIndices(exec).isEmpty();
+    }
+
+    /**
+     * @return the indices in {@link #getStateFields()} of the fields the given method may assign, or of all of them
+     * if the trait's source isn't available to tell
+     */
+    public List<Integer> getWrittenFieldIndices(ExecutableElement exec) {
+        if (!fieldWritesAnalyzed) {
+            List<TypeElement> traits = new ArrayList<TypeElement>();
+            traits.add(elem);
+            traits.addAll(superTraits);
+            fieldWrites = TraitFieldWrites.analyze(traits, aptUtils.getProcessingEnvironment());
+            fieldWritesAnalyzed = true;
+        }
+        Set<String> assigned = fieldWrites == null ? null : fieldWrites.getAssignedNames(exec.getSimpleName().toString());
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < stateFields.size(); i++) {
+            if (assigned == null || assigned.contains(stateFields.get(i).getSimpleName().toString())) {
+                indices.add(i);
+            }
+        }
+        return indices;
+    }
+
+    public List<ExecutableElement> getMemoizedMethods() {
+        return memoizedMethods;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the name of the generated columnar store, or null if the trait doesn't use columnar storage
+     */
+    public DeclaredTypeName getStoreName() {
+        return storeName;
+    }
+
+    public List<ColumnarProperty> getColumnarProperties() {
+        return columnarProperties;
+    }
+
+    /**
+     * @return the columnar property the given method reads or writes, or null if it isn't a columnar accessor
+     */
+    public ColumnarProperty getColumnarPropertyForAccessor(ExecutableElement exec) {
+        for (ColumnarProperty property : columnarProperties) {
+            if (exec.equals(property.getGetter()) || exec.equals(property.getSetter())) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isReadOnly(ExecutableElement exec) {
+        return exec.getAnnotation(ReadOnly.class) != null;
+    }
+
+    public boolean hasMemoizedMethods() {
+        return !memoizedMethods.isEmpty();
+    }
+
+    /**
+     * @return the name of the generated method that clears this trait's per-instance memoized results
+     */
+    public String getInvalidateMemosMethodName() {
+        return INVALIDATE_MEMOS_PREFIX + getSimpleName() + INVALIDATE_MEMOS_SUFFIX;
+    }
+
 }
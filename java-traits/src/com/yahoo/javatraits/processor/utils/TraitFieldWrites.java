@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.utils;
+
+import com.sun.source.tree.AssignmentTree;
+import com.sun.source.tree.CompoundAssignmentTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.UnaryTree;
+import com.sun.source.util.TreeScanner;
+import com.sun.source.util.Trees;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the fields each method of a trait may assign, so change tracking only snapshots and compares those. A method
+ * is charged with the names it assigns directly, including inside lambdas and anonymous classes, plus those assigned
+ * by the methods of the trait it calls on itself. The analysis is conservative by name: a local variable shadowing a
+ * field or an overload of a called method only makes it charge more fields. It needs the trait's source, so traits
+ * read from class files, or compiled by something other than javac, aren't analyzed.
+ */
+public final class TraitFieldWrites {
+
+    private final Map<String, Set<String>> assigned = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> called = new HashMap<String, Set<String>>();
+
+    private TraitFieldWrites() {
+    }
+
+    /**
+     * @param traits a trait and the traits it extends, whose methods and fields it inherits
+     * @return the analysis of the traits, or null if the source of one of their methods isn't available
+     */
+    public static TraitFieldWrites analyze(List<TypeElement> traits, ProcessingEnvironment env) {
+        Trees trees;
+        try {
+            trees = Trees.instance(env);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        TraitFieldWrites writes = new TraitFieldWrites();
+        for (TypeElement trait : traits) {
+            for (Element e : trait.getEnclosedElements()) {
+                if (e.getKind() != ElementKind.METHOD || e.getModifiers().contains(Modifier.ABSTRACT)) {
+                    continue;
+                }
+                MethodTree tree = trees.getTree((ExecutableElement) e);
+                if (tree == null || tree.getBody() == null) {
+                    return null;
+                }
+                String name = e.getSimpleName().toString();
+                Set<String> methodAssigned = getOrCreate(writes.assigned, name);
+                Set<String> methodCalled = getOrCreate(writes.called, name);
+                tree.getBody().accept(new WriteScanner(methodAssigned, methodCalled), null);
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * @return the names of the fields the trait method named methodName may assign, directly or through the other
+     * methods of the trait it calls
+     */
+    public Set<String> getAssignedNames(String methodName) {
+        Set<String> result = new HashSet<String>();
+        Set<String> visited = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push(methodName);
+        while (!pending.isEmpty()) {
+            String method = pending.pop();
+            if (!visited.add(method) || !assigned.containsKey(method)) {
+                continue;
+            }
+            result.addAll(assigned.get(method));
+            for (String callee : called.get(method)) {
+                pending.push(callee);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> getOrCreate(Map<String, Set<String>> map, String key) {
+        Set<String> set = map.get(key);
+        if (set == null) {
+            set = new HashSet<String>();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    private static class WriteScanner extends TreeScanner<Void, Void> {
+
+        private final Set<String> assigned;
+        private final Set<String> called;
+
+        WriteScanner(Set<String> assigned, Set<String> called) {
+            this.assigned = assigned;
+            this.called = called;
+        }
+
+        @Override
+        public Void visitAssignment(AssignmentTree node, Void p) {
+            addTarget(node.getVariable());
+            return super.visitAssignment(node, p);
+        }
+
+        @Override
+        public Void visitCompoundAssignment(CompoundAssignmentTree node, Void p) {
+            addTarget(node.getVariable());
+            return super.visitCompoundAssignment(node, p);
+        }
+
+        @Override
+        public Void visitUnary(UnaryTree node, Void p) {
+            switch (node.getKind()) {
+                case PREFIX_INCREMENT:
+                case PREFIX_DECREMENT:
+                case POSTFIX_INCREMENT:
+                case POSTFIX_DECREMENT:
+                    addTarget(node.getExpression());
+                    break;
+                default:
+                    break;
+            }
+            return super.visitUnary(node, p);
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree node, Void p) {
+            ExpressionTree select = node.getMethodSelect();
+            if (select.getKind() == Tree.Kind.IDENTIFIER) {
+                called.add(((IdentifierTree) select).getName().toString());
+            } else if (select.getKind() == Tree.Kind.MEMBER_SELECT && isThis(((MemberSelectTree) select).getExpression())) {
+                called.add(((MemberSelectTree) select).getIdentifier().toString());
+            }
+            return super.visitMethodInvocation(node, p);
+        }
+
+        private void addTarget(ExpressionTree target) {
+            if (target.getKind() == Tree.Kind.IDENTIFIER) {
+                assigned.add(((IdentifierTree) target).getName().toString());
+            } else if (target.getKind() == Tree.Kind.MEMBER_SELECT) {
+                // Also covers fields of other instances of the trait, e.g. "other.count = 0"
+                assigned.add(((MemberSelectTree) target).getIdentifier().toString());
+            }
+        }
+
+        private static boolean isThis(ExpressionTree expression) {
+            if (expression.getKind() == Tree.Kind.IDENTIFIER) {
+                Name name = ((IdentifierTree) expression).getName();
+                return name.contentEquals("this") || name.contentEquals("super");
+            }
+            // Trait.this
+            return expression.getKind() == Tree.Kind.MEMBER_SELECT
+                    && ((MemberSelectTree) expression).getIdentifier().contentEquals("this");
+        }
+    }
+}
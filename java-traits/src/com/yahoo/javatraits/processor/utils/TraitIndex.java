@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.utils;
+
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.javatraits.annotations.Trait;
+import com.yahoo.javatraits.annotations.Trait.Storage;
+import com.yahoo.javatraits.processor.data.TraitElement;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metadata TraitProcessor records for each trait it processes, written to
+ * META-INF/javatraits/&lt;qualified trait name&gt;.bin in the class output so that it's packaged with the trait
+ * library. It lists the generated classes, the optional state methods of the delegate and the declarations the
+ * generated code was based on.
+ *
+ * <br/><br/>
+ *
+ * When a class in another module uses the trait, the processor reads the index instead of trusting the trait's
+ * class file blindly: if the declarations still match, the trait was already validated when its library was
+ * compiled, so its diagnostics aren't reported again, and the generated classes the index lists must be on the
+ * classpath. The model of the trait is still built from its elements, since the writers need them to generate
+ * code. Each trait gets its own resource rather than sharing one index per library because a resource name
+ * resolves to a single file on the classpath, so one library's index would hide another's.
+ */
+public final class TraitIndex {
+
+    public static final String RESOURCE_DIRECTORY = "META-INF/javatraits/";
+    public static final String RESOURCE_SUFFIX = ".bin";
+
+    /**
+     * The optional state methods of the trait's delegate, which are only generated when a class in the same
+     * compilation needs them
+     */
+    public static final String VALUE_SEMANTICS = "valueSemantics";
+    public static final String CODEC = "codec";
+
+    private static final String ANNOTATIONS_PACKAGE = Trait.class.getPackage().getName() + ".";
+    private static final int MAGIC = 0x4a54494e;
+    private static final int FORMAT_VERSION = 4;
+    private static final String SEPARATOR = ";";
+    private static final String UNRESOLVED = "?";
+
+    private final String traitName;
+    private final List<String> generatedClasses;
+    private final List<String> stateMethods;
+    private final List<String> declarations;
+
+    private TraitIndex(String traitName, List<String> generatedClasses, List<String> stateMethods,
+            List<String> declarations) {
+        this.traitName = traitName;
+        this.generatedClasses = generatedClasses;
+        this.stateMethods = stateMethods;
+        this.declarations = declarations;
+    }
+
+    /**
+     * @return the name of the index resource for the given trait, relative to the root of the class path
+     */
+    public static String resourceName(String qualifiedTraitName) {
+        return RESOURCE_DIRECTORY + qualifiedTraitName + RESOURCE_SUFFIX;
+    }
+
+    public static TraitIndex fromTraitElement(TraitElement trait, TraitProcessorAptUtils utils) {
+        List<String> generatedClasses = new ArrayList<String>();
+        generatedClasses.add(qualifiedName(trait.getGeneratedInterfaceName()));
+        generatedClasses.add(qualifiedName(trait.getDelegateName()));
+        generatedClasses.add(qualifiedName(trait.getDispatcherName()));
+        if (trait.getStorage() == Storage.COLUMNAR) {
+            generatedClasses.add(qualifiedName(trait.getStoreName()));
+        }
+        if (trait.hasBatchMethods()) {
+            generatedClasses.add(qualifiedName(trait.getBatchName()));
+        }
+        if (trait.hasFactory()) {
+            generatedClasses.add(qualifiedName(trait.getFactoryName()));
+        }
+        List<String> stateMethods = new ArrayList<String>();
+        if (utils.generatesValueSemantics(trait)) {
+            stateMethods.add(VALUE_SEMANTICS);
+        }
+        if (utils.generatesCodec(trait)) {
+            stateMethods.add(CODEC);
+        }
+        return new TraitIndex(qualifiedName(trait.getElementName()), generatedClasses, stateMethods,
+                declarations(trait.getSourceElement()));
+    }
+
+    private static String qualifiedName(DeclaredTypeName name) {
+        return name.getPackageName().isEmpty() ? name.getSimpleName()
+                : name.getPackageName() + "." + name.getSimpleName();
+    }
+
+    /**
+     * @return a sorted description of everything in the trait's declaration that affects the generated code, with
+     * the parts of each declaration separated by semicolons. Types that couldn't be resolved, which happens for
+     * classes generated in the same compilation like the return type of getThis(), are written as "?".
+     */
+    public static List<String> declarations(TypeElement trait) {
+        List<String> declarations = new ArrayList<String>();
+        declarations.add(declaration(trait) + SEPARATOR + typeString(trait.getTypeParameters().toString(), false)
+                + SEPARATOR + typeString(trait.getInterfaces().toString(), containsError(trait.getInterfaces()))
+                + SEPARATOR + typeString(trait.getSuperclass()));
+        accumulateMemberDeclarations(declarations, trait, "");
+        // members of the traits this one extends are flattened into its generated classes
+        TypeMirror superclass = trait.getSuperclass();
+        while (superclass instanceof DeclaredType
+                && !Object.class.getName().equals(((TypeElement) ((DeclaredType) superclass).asElement())
+                        .getQualifiedName().toString())) {
+            TypeElement superTrait = (TypeElement) ((DeclaredType) superclass).asElement();
+            accumulateMemberDeclarations(declarations, superTrait, superTrait.getQualifiedName() + SEPARATOR);
+            superclass = superTrait.getSuperclass();
+        }
+        Collections.sort(declarations);
+        return declarations;
+    }
+
+    private static void accumulateMemberDeclarations(List<String> declarations, TypeElement trait, String prefix) {
+        for (Element enclosed : trait.getEnclosedElements()) {
+            if (enclosed.getSimpleName().toString().contains("$")) {
+                continue; // synthetic, e.g. lambda bodies
+            }
+            if (enclosed.getKind() == ElementKind.STATIC_INIT || enclosed.getKind() == ElementKind.INSTANCE_INIT) {
+                continue; // only visible when the trait is read from a class file
+            }
+            StringBuilder builder = new StringBuilder(prefix).append(declaration(enclosed));
+            if (enclosed instanceof ExecutableElement) {
+                ExecutableElement exec = (ExecutableElement) enclosed;
+                builder.append(SEPARATOR).append(exec.getTypeParameters());
+                for (VariableElement parameter : exec.getParameters()) {
+                    builder.append(SEPARATOR).append(typeString(parameter.asType()));
+                }
+                builder.append(SEPARATOR).append(typeString(exec.getReturnType()));
+            } else {
+                builder.append(SEPARATOR).append(typeString(enclosed.asType()));
+            }
+            declarations.add(builder.toString());
+        }
+    }
+
+    /**
+     * Only java-traits annotations are included, since annotations with source retention aren't visible when the
+     * trait is read from its class file
+     */
+    private static String declaration(Element element) {
+        StringBuilder builder = new StringBuilder().append(element.getKind()).append(' ')
+                .append(element.getModifiers()).append(' ').append(element.getSimpleName());
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (annotation.getAnnotationType().toString().startsWith(ANNOTATIONS_PACKAGE)) {
+                builder.append(' ').append(annotation);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String typeString(TypeMirror type) {
+        return typeString(type.toString(), containsError(Collections.singletonList(type)));
+    }
+
+    private static String typeString(String type, boolean unresolved) {
+        return unresolved ? UNRESOLVED : type.replace(SEPARATOR, ",");
+    }
+
+    private static boolean containsError(List<? extends TypeMirror> types) {
+        for (TypeMirror type : types) {
+            if (type.getKind() == TypeKind.ERROR || type.toString().contains("<any>")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the trait's current declarations are those the index was written for, treating types that
+     * were unresolved when the index was written as matching anything
+     */
+    public boolean matches(TypeElement trait) {
+        List<String> current = declarations(trait);
+        if (current.size() != declarations.size()) {
+            return false;
+        }
+        List<String> unmatched = new ArrayList<String>(current);
+        for (String indexed : declarations) {
+            if (!unmatched.remove(indexed) && !removeMatch(unmatched, indexed)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean removeMatch(List<String> candidates, String indexed) {
+        String[] indexedParts = indexed.split(SEPARATOR, -1);
+        for (int i = 0; i < candidates.size(); i++) {
+            String[] parts = candidates.get(i).split(SEPARATOR, -1);
+            boolean match = parts.length == indexedParts.length;
+            for (int j = 0; match && j < parts.length; j++) {
+                match = indexedParts[j].equals(parts[j]) || (j > 0 && UNRESOLVED.equals(indexedParts[j]));
+            }
+            if (match) {
+                candidates.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(traitName);
+        writeStrings(out, generatedClasses);
+        writeStrings(out, stateMethods);
+        writeStrings(out, declarations);
+        out.flush();
+    }
+
+    /**
+     * @return the index read from the stream, or null if it was written in a different format version
+     * @throws IOException if the stream doesn't contain a trait index
+     */
+    public static TraitIndex readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a java-traits index");
+        }
+        if (in.readUnsignedShort() != FORMAT_VERSION) {
+            return null;
+        }
+        String traitName = in.readUTF();
+        return new TraitIndex(traitName, readStrings(in), readStrings(in), readStrings(in));
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeShort(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        List<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(strings);
+    }
+
+    public String getTraitName() {
+        return traitName;
+    }
+
+    /**
+     * @return the qualified names of the classes generated for the trait
+     */
+    public List<String> getGeneratedClasses() {
+        return generatedClasses;
+    }
+
+    /**
+     * @return which of {@link #VALUE_SEMANTICS} and {@link #CODEC} the trait's delegate was generated with
+     */
+    public List<String> getStateMethods() {
+        return stateMethods;
+    }
+}
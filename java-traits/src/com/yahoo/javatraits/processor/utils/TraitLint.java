@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.utils;
+
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.GenericName;
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.javatraits.annotations.Trait.Storage;
+import com.yahoo.javatraits.processor.data.ClassWithTraits;
+import com.yahoo.javatraits.processor.data.TraitElement;
+
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The optional analysis HasTraitsProcessor runs with "-Ajavatraits.lint". It warns about uses of traits that are
+ * known to be slow at runtime:
+ * <ul>
+ * <li>trait methods taking or returning a type parameter that a class binds to a primitive wrapper, so every call
+ * boxes</li>
+ * <li>traits with state mixed into value classes (valueSemantics or codec), which tend to be allocated in large
+ * numbers and allocate the trait's delegate each time</li>
+ * <li>traits whose abstract methods are implemented by more hosts than HotSpot inlines at a single call site, making
+ * the calls from the trait's methods megamorphic</li>
+ * <li>traits whose delegate wrapper forwards more superinterface methods than the forwarder limit</li>
+ * <li>classes allocating more delegates per instance than the delegate limit</li>
+ * </ul>
+ * Hosts are counted across all rounds, and a trait is reported at the host that takes it over the limit. When
+ * processing is over, the trait to host graph is written to META-INF/javatraits/trait-usage.json in the class
+ * output. Only names are kept between rounds.
+ */
+public class TraitLint {
+
+    public static final String LINT_OPTION = "javatraits.lint";
+    public static final String MAX_HOSTS_OPTION = "javatraits.lint.maxHosts";
+    public static final String MAX_FORWARDERS_OPTION = "javatraits.lint.maxForwarders";
+    public static final String MAX_DELEGATES_OPTION = "javatraits.lint.maxDelegates";
+
+    public static final String USAGE_GRAPH_RESOURCE = TraitIndex.RESOURCE_DIRECTORY + "trait-usage.json";
+
+    // C2 inlines through a call site that sees at most two receiver classes
+    private static final int DEFAULT_MAX_HOSTS = 2;
+    private static final int DEFAULT_MAX_FORWARDERS = 32;
+    private static final int DEFAULT_MAX_DELEGATES = 4;
+
+    private static final Set<String> WRAPPER_TYPES = new HashSet<String>(Arrays.asList(
+            Boolean.class.getName(), Byte.class.getName(), Character.class.getName(), Short.class.getName(),
+            Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName()));
+
+    private final Messager messager;
+    private final Types types;
+    private final boolean enabled;
+    private final int maxHosts;
+    private final int maxForwarders;
+    private final int maxDelegates;
+
+    private final Map<String, TraitNode> traits = new TreeMap<String, TraitNode>();
+    private final Map<String, HostNode> hosts = new TreeMap<String, HostNode>();
+
+    public TraitLint(ProcessingEnvironment env) {
+        this.messager = env.getMessager();
+        this.types = env.getTypeUtils();
+        Map<String, String> options = env.getOptions();
+        String lint = options.get(LINT_OPTION);
+        this.enabled = options.containsKey(LINT_OPTION) && !"false".equals(lint);
+        this.maxHosts = intOption(options, MAX_HOSTS_OPTION, DEFAULT_MAX_HOSTS);
+        this.maxForwarders = intOption(options, MAX_FORWARDERS_OPTION, DEFAULT_MAX_FORWARDERS);
+        this.maxDelegates = intOption(options, MAX_DELEGATES_OPTION, DEFAULT_MAX_DELEGATES);
+    }
+
+    public static Set<String> getSupportedOptions() {
+        return new HashSet<String>(Arrays.asList(LINT_OPTION, MAX_HOSTS_OPTION, MAX_FORWARDERS_OPTION,
+                MAX_DELEGATES_OPTION));
+    }
+
+    private int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            messager.printMessage(Kind.WARNING, "Option " + name + " should be a number, was \"" + value + "\"");
+            return defaultValue;
+        }
+    }
+
+    public void checkHost(ClassWithTraits host) {
+        if (!enabled) {
+            return;
+        }
+        List<TraitElement> hostTraits = new ArrayList<TraitElement>();
+        for (TraitElement trait : host.getTraitClasses()) {
+            if (trait != null) {
+                hostTraits.add(trait);
+            }
+        }
+        DeclaredTypeName superclass = host.getDesiredSuperclass();
+        HostNode hostNode = new HostNode(qualifiedName(host.getElementName()),
+                superclass != null ? qualifiedName(superclass) : Object.class.getName());
+        hosts.put(hostNode.name, hostNode);
+
+        if (hostTraits.size() > maxDelegates) {
+            messager.printMessage(Kind.WARNING, "Each instance of " + host.getSimpleName() + " allocates "
+                    + hostTraits.size() + " trait delegates (lint limit " + maxDelegates + "); consider merging "
+                    + "traits that are always used together", host.getSourceElement());
+        }
+
+        Map<TypeParameterElement, TypeMirror> bindings = getTypeParameterBindings(host, hostTraits);
+        for (TraitElement trait : hostTraits) {
+            TraitNode traitNode = getTraitNode(trait);
+            hostNode.traits.add(traitNode.name);
+            traitNode.hosts.add(hostNode.name);
+
+            checkBoxing(host, trait, bindings);
+            if (traitNode.stateful && trait.getStorage() != Storage.COLUMNAR
+                    && (host.hasValueSemantics() || host.hasCodec())) {
+                messager.printMessage(Kind.WARNING, "Trait " + trait.getSimpleName() + " has state and is used by "
+                        + "value class " + host.getSimpleName() + ", so every instance allocates its delegate; "
+                        + "consider columnar storage or pooling with resetAllTraits()", host.getSourceElement());
+            }
+            if (traitNode.abstractMethods > 0 && traitNode.hosts.size() == maxHosts + 1) {
+                messager.printMessage(Kind.WARNING, "Abstract methods of trait " + trait.getSimpleName()
+                        + " are implemented by more than " + maxHosts + " classes, so the calls to them from the "
+                        + "trait's methods are megamorphic", host.getSourceElement());
+            }
+            if (traitNode.forwarders > maxForwarders && !traitNode.forwardersReported) {
+                traitNode.forwardersReported = true;
+                messager.printMessage(Kind.WARNING, "Delegate of trait " + trait.getSimpleName() + " forwards "
+                        + traitNode.forwarders + " superinterface methods (lint limit " + maxForwarders + "); "
+                        + "consider declaring a narrower superinterface", host.getSourceElement());
+            }
+        }
+    }
+
+    private TraitNode getTraitNode(TraitElement trait) {
+        String name = qualifiedName(trait.getElementName());
+        TraitNode node = traits.get(name);
+        if (node == null) {
+            node = new TraitNode(name);
+            node.stateful = !trait.getStateFields().isEmpty();
+            for (ExecutableElement exec : trait.getDeclaredMethods()) {
+                if (exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                    node.abstractMethods++;
+                }
+            }
+            for (int i = 0; i < trait.getNumSuperinterfaces(); i++) {
+                for (ExecutableElement exec : trait.getExecutableElementsForInterface(i)) {
+                    node.forwarders++;
+                    if (exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                        node.abstractMethods++;
+                    }
+                }
+            }
+            traits.put(name, node);
+        }
+        return node;
+    }
+
+    /**
+     * @return the types the host binds the type parameters of its traits to, read from the type arguments of its
+     * generated superclass. These are laid out as in ClassWithTraitsSuperclassWriter: the generic names of the
+     * desired superclass, then each trait's type parameters unless the superclass already declared the name.
+     */
+    private Map<TypeParameterElement, TypeMirror> getTypeParameterBindings(ClassWithTraits host,
+            List<TraitElement> hostTraits) {
+        Map<TypeParameterElement, TypeMirror> bindings = new HashMap<TypeParameterElement, TypeMirror>();
+        TypeMirror superclass = host.getSourceElement().getSuperclass();
+        if (!(superclass instanceof DeclaredType)) {
+            return bindings;
+        }
+        List<? extends TypeMirror> typeArgs = ((DeclaredType) superclass).getTypeArguments();
+
+        List<String> genericNames = new ArrayList<String>();
+        if (host.superclassHasTypeArgs()) {
+            for (TypeName t : host.getDesiredSuperclass().getTypeArgs()) {
+                if (t instanceof GenericName) {
+                    genericNames.add(((GenericName) t).getGenericName());
+                }
+            }
+        }
+        Map<TypeParameterElement, String> parameterNames = new HashMap<TypeParameterElement, String>();
+        for (TraitElement trait : hostTraits) {
+            List<? extends TypeParameterElement> parameters = trait.getSourceElement().getTypeParameters();
+            List<TypeName> names = trait.getTypeParameters();
+            for (int i = 0; i < parameters.size() && i < names.size(); i++) {
+                String name = names.get(i) instanceof GenericName ? ((GenericName) names.get(i)).getGenericName()
+                        : names.get(i).toString();
+                parameterNames.put(parameters.get(i), name);
+                if (!genericNames.contains(name)) {
+                    genericNames.add(name);
+                }
+            }
+        }
+        if (typeArgs.size() != genericNames.size()) {
+            return bindings; // e.g. a raw superclass
+        }
+        for (Map.Entry<TypeParameterElement, String> entry : parameterNames.entrySet()) {
+            bindings.put(entry.getKey(), typeArgs.get(genericNames.indexOf(entry.getValue())));
+        }
+        return bindings;
+    }
+
+    private void checkBoxing(ClassWithTraits host, TraitElement trait,
+            Map<TypeParameterElement, TypeMirror> bindings) {
+        for (TypeParameterElement parameter : trait.getSourceElement().getTypeParameters()) {
+            TypeMirror binding = bindings.get(parameter);
+            if (binding == null || !WRAPPER_TYPES.contains(types.erasure(binding).toString())) {
+                continue;
+            }
+            List<String> boxingMethods = new ArrayList<String>();
+            for (ExecutableElement exec : trait.getDeclaredMethods()) {
+                if (usesTypeParameter(exec, parameter)) {
+                    boxingMethods.add(exec.getSimpleName().toString());
+                }
+            }
+            if (!boxingMethods.isEmpty()) {
+                messager.printMessage(Kind.WARNING, host.getSimpleName() + " binds type parameter "
+                        + parameter.getSimpleName() + " of trait " + trait.getSimpleName() + " to " + binding
+                        + ", so calls to " + boxingMethods + " box; consider a primitive "
+                        + "specialization of the trait", host.getSourceElement());
+            }
+        }
+    }
+
+    private boolean usesTypeParameter(ExecutableElement exec, TypeParameterElement parameter) {
+        if (isTypeParameter(exec.getReturnType(), parameter)) {
+            return true;
+        }
+        for (VariableElement argument : exec.getParameters()) {
+            if (isTypeParameter(argument.asType(), parameter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isTypeParameter(TypeMirror type, TypeParameterElement parameter) {
+        return type.getKind() == TypeKind.TYPEVAR && ((TypeVariable) type).asElement().equals(parameter);
+    }
+
+    /**
+     * Writes the trait to host graph collected over all rounds
+     */
+    public void writeUsageGraph(Filer filer) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", USAGE_GRAPH_RESOURCE);
+            try (Writer out = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                out.write(toJson());
+            }
+        } catch (IOException e) {
+            messager.printMessage(Kind.ERROR, "IOException writing trait usage graph " + USAGE_GRAPH_RESOURCE + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"traits\": [");
+        String separator = "\n";
+        for (TraitNode trait : traits.values()) {
+            json.append(separator).append("    {\"name\": ").append(quote(trait.name))
+                    .append(", \"stateful\": ").append(trait.stateful)
+                    .append(", \"abstractMethods\": ").append(trait.abstractMethods)
+                    .append(", \"forwarders\": ").append(trait.forwarders)
+                    .append(", \"hosts\": ").append(array(trait.hosts)).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ],\n  \"hosts\": [");
+        separator = "\n";
+        for (HostNode host : hosts.values()) {
+            json.append(separator).append("    {\"name\": ").append(quote(host.name))
+                    .append(", \"superclass\": ").append(quote(host.superclass))
+                    .append(", \"traits\": ").append(array(host.traits)).append('}');
+            separator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private static String array(Collection<String> values) {
+        StringBuilder array = new StringBuilder("[");
+        for (String value : values) {
+            array.append(array.length() > 1 ? ", " : "").append(quote(value));
+        }
+        return array.append(']').toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String qualifiedName(DeclaredTypeName name) {
+        return name.getPackageName().isEmpty() ? name.getSimpleName()
+                : name.getPackageName() + "." + name.getSimpleName();
+    }
+
+    private static class TraitNode {
+        private final String name;
+        private final Set<String> hosts = new TreeSet<String>();
+        private boolean stateful;
+        private int abstractMethods;
+        private int forwarders;
+        private boolean forwardersReported;
+
+        private TraitNode(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class HostNode {
+        private final String name;
+        private final String superclass;
+        private final Set<String> traits = new TreeSet<String>();
+
+        private HostNode(String name, String superclass) {
+            this.name = name;
+            this.superclass = superclass;
+        }
+    }
+}
@@ -15,22 +15,294 @@
  */
 package com.yahoo.javatraits.processor.utils;
 
+import com.yahoo.aptutils.model.CoreTypes;
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.TypeName;
 import com.yahoo.aptutils.utils.AptUtils;
+import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
+import com.yahoo.javatraits.annotations.HasTraits;
+import com.yahoo.javatraits.annotations.Trait;
 import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.runtime.AsyncSupport;
+import com.yahoo.javatraits.runtime.BatchSupport;
+import com.yahoo.javatraits.runtime.ColumnStore;
+import com.yahoo.javatraits.runtime.MemoCache;
+import com.yahoo.javatraits.runtime.MemoStats;
+import com.yahoo.javatraits.runtime.RegistersTraits;
+import com.yahoo.javatraits.runtime.TraitChangeListener;
+import com.yahoo.javatraits.runtime.TraitChangeSupport;
+import com.yahoo.javatraits.runtime.TraitCodec;
+import com.yahoo.javatraits.runtime.TraitFields;
+import com.yahoo.javatraits.runtime.TraitHashCache;
+import com.yahoo.javatraits.runtime.TraitInstrumentation;
+import com.yahoo.javatraits.runtime.TraitLock;
+import com.yahoo.javatraits.runtime.TraitMethodProbe;
+import com.yahoo.javatraits.runtime.TraitWriteDepth;
+import com.yahoo.javatraits.runtime.Traits;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.ErrorType;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class TraitProcessorAptUtils extends AptUtils {
 
+    public static final String INSTRUMENT_OPTION = "javatraits.instrument";
+    private static final String INSTRUMENT_JFR = "jfr";
+    private static final String INSTRUMENT_JMX = "jmx";
+
+    public static final String STATE_METHODS_OPTION = "javatraits.stateMethods";
+    private static final String STATE_METHODS_ALL = "all";
+
+    private boolean instrumentJfr;
+    private boolean instrumentJmx;
+    private boolean allStateMethods;
+
+    private final Map<String, TraitElement> traitElements = new HashMap<String, TraitElement>();
+    private Set<String> sourceTraits = Collections.emptySet();
+    private final Set<String> valueSemanticsTraits = new HashSet<String>();
+    private final Set<String> codecTraits = new HashSet<String>();
+    private final Map<String, List<String>> libraryStateMethods = new HashMap<String, List<String>>();
+
     public TraitProcessorAptUtils(ProcessingEnvironment processingEnvironment) {
         super(processingEnvironment);
+        initializeInstrumentation(processingEnvironment.getOptions().get(INSTRUMENT_OPTION));
+        initializeStateMethods(processingEnvironment.getOptions().get(STATE_METHODS_OPTION));
+    }
+
+    private void initializeStateMethods(String option) {
+        if (STATE_METHODS_ALL.equals(option)) {
+            allStateMethods = true;
+        } else if (option != null) {
+            getMessager().printMessage(Kind.WARNING, "Unknown value \"" + option + "\" for option "
+                    + STATE_METHODS_OPTION + ", expected all");
+        }
+    }
+
+    private void initializeInstrumentation(String option) {
+        if (option == null) {
+            return;
+        }
+        for (String value : option.split(",")) {
+            String trimmed = value.trim();
+            if (INSTRUMENT_JFR.equals(trimmed)) {
+                instrumentJfr = true;
+            } else if (INSTRUMENT_JMX.equals(trimmed)) {
+                instrumentJmx = true;
+            } else if (!trimmed.isEmpty()) {
+                getMessager().printMessage(Kind.WARNING, "Unknown value \"" + trimmed + "\" for option "
+                        + INSTRUMENT_OPTION + ", expected jfr and/or jmx");
+            }
+        }
     }
 
     public static final String GET_THIS = "getThis";
+    public static final String DIRTY_MASK = "dirtyMask";
+    public static final String CLEAR_DIRTY = "clearDirty";
+
+    public static final DeclaredTypeName TRAITS_RUNTIME = new DeclaredTypeName(Traits.class.getName());
+    public static final DeclaredTypeName REGISTERS_TRAITS = new DeclaredTypeName(RegistersTraits.class.getName());
+    public static final DeclaredTypeName MEMO_CACHE = new DeclaredTypeName(MemoCache.class.getName());
+    public static final DeclaredTypeName MEMO_STATS = new DeclaredTypeName(MemoStats.class.getName());
+    public static final DeclaredTypeName TRAIT_LOCK = new DeclaredTypeName(TraitLock.class.getName());
+    public static final DeclaredTypeName COLUMN_STORE = new DeclaredTypeName(ColumnStore.class.getName());
+    public static final DeclaredTypeName ARRAYS = new DeclaredTypeName(Arrays.class.getName());
+    public static final DeclaredTypeName BATCH_SUPPORT = new DeclaredTypeName(BatchSupport.class.getName());
+    public static final DeclaredTypeName COLLECTION = new DeclaredTypeName(Collection.class.getName());
+    public static final DeclaredTypeName ASYNC_SUPPORT = new DeclaredTypeName(AsyncSupport.class.getName());
+    public static final DeclaredTypeName COMPLETABLE_FUTURE = new DeclaredTypeName(CompletableFuture.class.getName());
+    public static final DeclaredTypeName OBJECTS = new DeclaredTypeName(Objects.class.getName());
+    public static final DeclaredTypeName JAVA_VOID = new DeclaredTypeName(CoreTypes.JAVA_LANG, "Void");
+    public static final DeclaredTypeName TRAIT_INSTRUMENTATION = new DeclaredTypeName(TraitInstrumentation.class.getName());
+    public static final DeclaredTypeName TRAIT_METHOD_PROBE = new DeclaredTypeName(TraitMethodProbe.class.getName());
+    public static final DeclaredTypeName TRAIT_CHANGE_LISTENER = new DeclaredTypeName(TraitChangeListener.class.getName());
+    public static final DeclaredTypeName TRAIT_CHANGE_SUPPORT = new DeclaredTypeName(TraitChangeSupport.class.getName());
+    public static final DeclaredTypeName TRAIT_WRITE_DEPTH = new DeclaredTypeName(TraitWriteDepth.class.getName());
+    public static final DeclaredTypeName TRAIT_HASH_CACHE = new DeclaredTypeName(TraitHashCache.class.getName());
+    public static final DeclaredTypeName TRAIT_FIELDS = new DeclaredTypeName(TraitFields.class.getName());
+    public static final DeclaredTypeName METHOD_HANDLE = new DeclaredTypeName(MethodHandle.class.getName());
+    public static final DeclaredTypeName TRAIT_CODEC = new DeclaredTypeName(TraitCodec.class.getName());
+    public static final DeclaredTypeName DATA_INPUT = new DeclaredTypeName(DataInput.class.getName());
+    public static final DeclaredTypeName DATA_OUTPUT = new DeclaredTypeName(DataOutput.class.getName());
+    public static final DeclaredTypeName IO_EXCEPTION = new DeclaredTypeName(IOException.class.getName());
+    public static final DeclaredTypeName BYTE_BUFFER = new DeclaredTypeName(ByteBuffer.class.getName());
+    public static final DeclaredTypeName THROWABLE = new DeclaredTypeName(CoreTypes.JAVA_LANG, "Throwable");
+
+    /**
+     * @return true if trait method forwarders should record JFR events, from "-Ajavatraits.instrument=jfr"
+     */
+    public boolean isInstrumentingJfr() {
+        return instrumentJfr;
+    }
+
+    /**
+     * @return true if trait method forwarders should count calls for JMX, from "-Ajavatraits.instrument=jmx"
+     */
+    public boolean isInstrumentingJmx() {
+        return instrumentJmx;
+    }
+
+    public boolean isInstrumenting() {
+        return instrumentJfr || instrumentJmx;
+    }
+
+    /**
+     * Starts a processing round. Trait models are only shared within a round, since elements shouldn't be carried
+     * over from one round to the next.
+     */
+    public void beginRound(RoundEnvironment env) {
+        traitElements.clear();
+        sourceTraits = new HashSet<String>();
+        for (Element element : env.getElementsAnnotatedWith(Trait.class)) {
+            if (element instanceof TypeElement) {
+                sourceTraits.add(((TypeElement) element).getQualifiedName().toString());
+            }
+        }
+        for (Element element : env.getElementsAnnotatedWith(HasTraits.class)) {
+            HasTraits hasTraits = element.getAnnotation(HasTraits.class);
+            if (!hasTraits.valueSemantics() && !hasTraits.codec()) {
+                continue;
+            }
+            for (TypeMirror trait : getClassMirrorsFromAnnotation(element, HasTraits.class, "traits")) {
+                Element traitElement = getTypes().asElement(trait);
+                if (traitElement instanceof TypeElement) {
+                    String name = ((TypeElement) traitElement).getQualifiedName().toString();
+                    if (hasTraits.valueSemantics()) {
+                        valueSemanticsTraits.add(name);
+                    }
+                    if (hasTraits.codec()) {
+                        codecTraits.add(name);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the trait's delegate should get traitStateEquals and traitStateHashCode, because the trait
+     * has state and a class with valueSemantics = true in this compilation uses it, or because of
+     * "-Ajavatraits.stateMethods=all"
+     */
+    public boolean generatesValueSemantics(TraitElement trait) {
+        String name = trait.getSourceElement().getQualifiedName().toString();
+        return !trait.getStateFields().isEmpty() && (allStateMethods || valueSemanticsTraits.contains(name));
+    }
+
+    /**
+     * @return true if the trait's delegate should get writeTraitState and readTraitState, because the trait has
+     * state the codec can encode and a class with codec = true in this compilation uses it, or because of
+     * "-Ajavatraits.stateMethods=all"
+     */
+    public boolean generatesCodec(TraitElement trait) {
+        String name = trait.getSourceElement().getQualifiedName().toString();
+        return !trait.getStateFields().isEmpty() && trait.isCodecCompatible()
+                && (allStateMethods || codecTraits.contains(name));
+    }
+
+    /**
+     * @return false if the trait comes from a library whose index says its delegate was generated without the given
+     * state methods, see {@link TraitIndex#VALUE_SEMANTICS} and {@link TraitIndex#CODEC}
+     */
+    public boolean libraryHasStateMethods(TraitElement trait, String stateMethods) {
+        List<String> generated = libraryStateMethods.get(trait.getSourceElement().getQualifiedName().toString());
+        return generated == null || generated.contains(stateMethods);
+    }
+
+    /**
+     * Accumulates the imports needed for a trait's type parameters. Types the bounds refer to by their simple names
+     * are in the trait's package, so they are qualified with it.
+     */
+    public void accumulateImportsFromTypeParameters(Set<DeclaredTypeName> imports, TraitElement trait) {
+        Set<DeclaredTypeName> typeParameterImports = new HashSet<DeclaredTypeName>();
+        accumulateImportsFromTypeNames(typeParameterImports, trait.getTypeParameters());
+        for (DeclaredTypeName name : typeParameterImports) {
+            if (name.getPackageName().isEmpty()) {
+                DeclaredTypeName qualified = new DeclaredTypeName(trait.getPackageName(), name.getSimpleName());
+                qualified.setTypeArgs(name.getTypeArgs());
+                imports.add(qualified);
+            } else {
+                imports.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return the model of the given trait, shared by all classes using it in this round. Traits that come from a
+     * library compiled with their index aren't validated again if the index still matches.
+     * @param user the class using the trait, where problems with the trait's library are reported
+     */
+    public TraitElement getTraitElement(TypeElement trait, Element user) {
+        String name = trait.getQualifiedName().toString();
+        TraitElement result = traitElements.get(name);
+        if (result == null) {
+            result = createTraitElement(trait, name, user);
+            traitElements.put(name, result);
+        }
+        return result;
+    }
+
+    private TraitElement createTraitElement(TypeElement trait, String name, Element user) {
+        TraitIndex index = sourceTraits.contains(name) ? null : readTraitIndex(name);
+        if (index == null) {
+            return new TraitElement(trait, this);
+        } else if (!index.matches(trait)) {
+            getMessager().printMessage(Kind.WARNING, "Trait " + name + " has changed since the classes generated for "
+                    + "it were compiled; rebuild the library it comes from", user);
+            return new TraitElement(trait, this);
+        }
+        for (String generatedClass : index.getGeneratedClasses()) {
+            if (getElements().getTypeElement(generatedClass) == null) {
+                getMessager().printMessage(Kind.ERROR, "Class " + generatedClass + " generated for trait " + name
+                        + " is missing from the classpath", user);
+            }
+        }
+        libraryStateMethods.put(name, index.getStateMethods());
+        return new TraitElement(trait, this, false);
+    }
+
+    /**
+     * @return the index of a trait compiled in another module, or null if its library doesn't have a readable
+     * index, e.g. because it was compiled with an older version of the processor
+     */
+    private TraitIndex readTraitIndex(String name) {
+        try {
+            FileObject resource = getFiler().getResource(StandardLocation.CLASS_PATH, "", TraitIndex.resourceName(name));
+            try (InputStream in = resource.openInputStream()) {
+                return TraitIndex.readFrom(in);
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null; // the filer doesn't support reading from the class path
+        }
+    }
 
     public boolean isGetThis(TraitElement element, ExecutableElement exec) {
         return GET_THIS.equals(exec.getSimpleName().toString())
@@ -39,6 +311,38 @@ public class TraitProcessorAptUtils extends AptUtils {
                 && exec.getParameters().size() == 0;
     }
     
+    /**
+     * Replaces the generic names in the return, argument and throws types of params using genericNameMap, e.g. to
+     * declare a method inherited from one of a trait's superinterfaces in terms of the trait's own type parameters
+     */
+    public void remapMethodDeclarationGenerics(MethodDeclarationParameters params,
+            Map<String, TypeName> genericNameMap) {
+        if (!AptUtils.isEmpty(genericNameMap)) {
+            params.setReturnType(remapGenericNames(params.getReturnType(), genericNameMap));
+            params.setArgumentTypes(remapGenericNames(params.getArgumentTypes(), genericNameMap));
+            params.setThrowsTypes(remapGenericNames(params.getThrowsTypes(), genericNameMap));
+        }
+    }
+
+    /**
+     * Removes {@literal @}Override from the annotations params copied from a trait method, for generated methods that
+     * don't override it, e.g. because they are renamed. The other annotations, like {@literal @}Deprecated, are kept.
+     *
+     * @return params, for chaining
+     */
+    public static MethodDeclarationParameters removeOverride(MethodDeclarationParameters params) {
+        if (!AptUtils.isEmpty(params.getAnnotations())) {
+            List<AnnotationMirror> annotations = new ArrayList<AnnotationMirror>();
+            for (AnnotationMirror annotation : params.getAnnotations()) {
+                if (!Override.class.getName().equals(annotation.getAnnotationType().toString())) {
+                    annotations.add(annotation);
+                }
+            }
+            params.setAnnotations(annotations);
+        }
+        return params;
+    }
+
     private boolean checkReturnType(TraitElement element, ExecutableElement exec) {
         TypeMirror returnType = exec.getReturnType();
         if (returnType instanceof ErrorType) { // It may not exist yet
@@ -47,4 +351,194 @@ public class TraitProcessorAptUtils extends AptUtils {
             return element.getGeneratedInterfaceName().equals(getTypeNameFromTypeMirror(returnType, null));
         }
     }
+
+    /**
+     * @return the declaration of the asynchronous variant of an {@literal @}Async trait method, which takes the same
+     * arguments and returns a CompletableFuture of the boxed return type
+     */
+    public MethodDeclarationParameters asyncMethodDeclarationParams(TraitElement element, ExecutableElement exec,
+            String nameOverride, Modifier... modifiers) {
+        MethodDeclarationParameters params = methodDeclarationParamsFromExecutableElement(exec,
+                nameOverride != null ? nameOverride : element.getAsyncMethodName(exec), element.getSimpleName(), modifiers);
+        TypeKind returnKind = exec.getReturnType().getKind();
+        TypeName resultType = returnKind == TypeKind.VOID ? JAVA_VOID : params.getReturnType();
+        if (returnKind.isPrimitive()) {
+            resultType = getBoxedTypeName(returnKind);
+        }
+        DeclaredTypeName futureType = COMPLETABLE_FUTURE.clone();
+        futureType.setTypeArgs(Collections.singletonList(resultType));
+        return params.setReturnType(futureType)
+                .setThrowsTypes(null)
+                .setAnnotations(null);
+    }
+
+    /**
+     * @return the type name of the erasure of the given type, e.g. Number for a type variable
+     * declared as {@literal <A extends Number>}
+     */
+    public TypeName getErasedTypeName(TypeMirror mirror) {
+        return getTypeNameFromTypeMirror(getTypes().erasure(mirror));
+    }
+
+    /**
+     * @return the wrapper class name for a primitive type kind, or null if the kind is not primitive
+     */
+    public static DeclaredTypeName getBoxedTypeName(TypeKind kind) {
+        switch (kind) {
+            case INT:
+                return CoreTypes.JAVA_INTEGER;
+            case LONG:
+                return CoreTypes.JAVA_LONG;
+            case DOUBLE:
+                return CoreTypes.JAVA_DOUBLE;
+            case FLOAT:
+                return CoreTypes.JAVA_FLOAT;
+            case SHORT:
+                return CoreTypes.JAVA_SHORT;
+            case BYTE:
+                return CoreTypes.JAVA_BYTE;
+            case BOOLEAN:
+                return CoreTypes.JAVA_BOOLEAN;
+            case CHAR:
+                return CoreTypes.JAVA_CHARACTER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the fully qualified name is that of a primitive wrapper class, e.g. java.lang.Integer
+     */
+    public static boolean isBoxedTypeName(String qualifiedName) {
+        for (TypeKind kind : TypeKind.values()) {
+            DeclaredTypeName boxed = kind.isPrimitive() ? getBoxedTypeName(kind) : null;
+            if (boxed != null && boxed.toString().equals(qualifiedName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the name converted from camel case to upper snake case, e.g. getVolumeWithHeight becomes
+     * GET_VOLUME_WITH_HEIGHT
+     */
+    public static String toConstantName(String camelCase) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < camelCase.length(); i++) {
+            char c = camelCase.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(camelCase.charAt(i - 1))) {
+                builder.append('_');
+            }
+            builder.append(Character.toUpperCase(c));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the string with its first character upper cased, e.g. getArea becomes GetArea
+     */
+    public static String capitalize(String str) {
+        return str.isEmpty() ? str : Character.toUpperCase(str.charAt(0)) + str.substring(1);
+    }
+
+    /**
+     * @return an int expression hashing value without boxing it, using the same hash as the boxed type for
+     * primitives, {@link Arrays} for arrays and {@link Objects#hashCode(Object)} otherwise. Generated code that
+     * uses this must import {@link Arrays} and {@link Objects}.
+     */
+    public static String valueHashCode(TypeMirror type, String value) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "Boolean.hashCode(" + value + ")";
+            case LONG:
+                return "Long.hashCode(" + value + ")";
+            case FLOAT:
+                return "Float.hashCode(" + value + ")";
+            case DOUBLE:
+                return "Double.hashCode(" + value + ")";
+            case BYTE:
+            case SHORT:
+            case CHAR:
+            case INT:
+                return value;
+            case ARRAY:
+                return (((ArrayType) type).getComponentType().getKind().isPrimitive()
+                        ? "Arrays.hashCode(" : "Arrays.deepHashCode(") + value + ")";
+            default:
+                return "Objects.hashCode(" + value + ")";
+        }
+    }
+
+    /**
+     * @return a boolean expression comparing two values of the given type without boxing them, consistent with
+     * {@link #valueHashCode(TypeMirror, String)}
+     */
+    public static String valuesEqual(TypeMirror type, String left, String right) {
+        switch (type.getKind()) {
+            case FLOAT:
+                return "Float.floatToIntBits(" + left + ") == Float.floatToIntBits(" + right + ")";
+            case DOUBLE:
+                return "Double.doubleToLongBits(" + left + ") == Double.doubleToLongBits(" + right + ")";
+            case ARRAY:
+                return (((ArrayType) type).getComponentType().getKind().isPrimitive()
+                        ? "Arrays.equals(" : "Arrays.deepEquals(") + left + ", " + right + ")";
+            default:
+                return type.getKind().isPrimitive() ? left + " == " + right
+                        : "Objects.equals(" + left + ", " + right + ")";
+        }
+    }
+
+    /**
+     * @return true if the generated binary codec can encode values of the given type, i.e. it's a primitive or a
+     * String
+     */
+    public static boolean isCodecType(TypeMirror type) {
+        return type.getKind().isPrimitive() || (type.getKind() == TypeKind.DECLARED
+                && String.class.getName().equals(type.toString()));
+    }
+
+    /**
+     * @param buffer true if target is a ByteBuffer, false if it's a DataOutput
+     * @return a statement writing value of a {@link #isCodecType(TypeMirror) codec type} to target. Generated
+     * code that uses this must import {@link TraitCodec}.
+     */
+    public static String writeValue(TypeMirror type, String target, boolean buffer, String value) {
+        TypeKind kind = type.getKind();
+        if (!kind.isPrimitive()) {
+            return "TraitCodec.writeString(" + target + ", " + value + ")";
+        } else if (!buffer) {
+            return target + ".write" + capitalize(kind.name().toLowerCase()) + "(" + value + ")";
+        }
+        switch (kind) {
+            case BOOLEAN:
+                return target + ".put((byte) (" + value + " ? 1 : 0))";
+            case BYTE:
+                return target + ".put(" + value + ")";
+            default:
+                return target + ".put" + capitalize(kind.name().toLowerCase()) + "(" + value + ")";
+        }
+    }
+
+    /**
+     * @param buffer true if source is a ByteBuffer, false if it's a DataInput
+     * @return an expression reading a value of a {@link #isCodecType(TypeMirror) codec type} written by
+     * {@link #writeValue(TypeMirror, String, boolean, String)} from source
+     */
+    public static String readValue(TypeMirror type, String source, boolean buffer) {
+        TypeKind kind = type.getKind();
+        if (!kind.isPrimitive()) {
+            return "TraitCodec.readString(" + source + ")";
+        } else if (!buffer) {
+            return source + ".read" + capitalize(kind.name().toLowerCase()) + "()";
+        }
+        switch (kind) {
+            case BOOLEAN:
+                return source + ".get() != 0";
+            case BYTE:
+                return source + ".get()";
+            default:
+                return source + ".get" + capitalize(kind.name().toLowerCase()) + "()";
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.yahoo.javatraits.processor.writers;
 
+import com.yahoo.aptutils.model.CoreTypes;
 import com.yahoo.aptutils.model.DeclaredTypeName;
 import com.yahoo.aptutils.model.GenericName;
 import com.yahoo.aptutils.model.MethodSignature;
@@ -26,12 +27,16 @@ import com.yahoo.aptutils.writer.expressions.Expression;
 import com.yahoo.aptutils.writer.expressions.Expressions;
 import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
 import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.annotations.Trait.Storage;
 import com.yahoo.javatraits.processor.data.ClassWithTraits;
+import com.yahoo.javatraits.processor.data.ColumnarProperty;
+import com.yahoo.javatraits.processor.data.InterceptorElement;
 import com.yahoo.javatraits.processor.data.TraitElement;
 import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
 
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
 import java.io.IOException;
@@ -39,6 +44,13 @@ import java.util.*;
 
 public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithTraits> {
 
+    private static final String TRAIT_CHANGES = "traitChanges";
+    private static final String TRAIT_WRITE_DEPTH = "traitWriteDepth";
+    private static final String TRAIT_HASH = "traitHash";
+    private static final String STATE_LAYOUT = "STATE_LAYOUT";
+    private static final String READ_PREFIX = "read__";
+    private static final String WRITE_PREFIX = "write__";
+
     private List<TraitElement> allTraits;
 
     public ClassWithTraitsSuperclassWriter(ClassWithTraits cls, TraitProcessorAptUtils utils) {
@@ -54,18 +66,66 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
     @Override
     protected void gatherImports(Set<DeclaredTypeName> imports) {
         for (TraitElement elem : allTraits) {
-            utils.accumulateImportsFromTypeNames(imports, elem.getTypeParameters());
-            new HashSet<>(imports).stream().filter(n -> n.getPackageName().isEmpty()).forEach(n -> {
-                DeclaredTypeName n2 = new DeclaredTypeName(elem.getPackageName(), n.getSimpleName());
-                n2.setTypeArgs(n.getTypeArgs());
-                imports.remove(n);
-                imports.add(n2);
-            });
+            utils.accumulateImportsFromTypeParameters(imports, elem);
             utils.accumulateImportsFromElements(imports, elem.getDeclaredMethods());
             imports.add(elem.getDelegateName());
             imports.add(elem.getGeneratedInterfaceName());
-            if (elem.getConstants().size() > 0) {
-                imports.add(elem.getElementName());
+            imports.add(elem.getElementName());
+            for (TypeElement superTrait : elem.getSuperTraits()) {
+                imports.add((DeclaredTypeName) utils.getTypeNameFromTypeMirror(superTrait.asType()));
+            }
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                imports.add(elem.getStoreName());
+            }
+            if (!elem.getAsyncMethods().isEmpty()) {
+                imports.add(TraitProcessorAptUtils.COMPLETABLE_FUTURE);
+            }
+        }
+        imports.add(TraitProcessorAptUtils.TRAITS_RUNTIME);
+        imports.add(TraitProcessorAptUtils.REGISTERS_TRAITS);
+        if (element.hasTrackingListeners()) {
+            imports.add(TraitProcessorAptUtils.TRAIT_CHANGE_LISTENER);
+            imports.add(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT);
+            if (element.hasConcurrentTracking()) {
+                imports.add(TraitProcessorAptUtils.TRAIT_WRITE_DEPTH);
+            }
+        }
+        if (cachesHashConcurrently()) {
+            imports.add(TraitProcessorAptUtils.TRAIT_HASH_CACHE);
+        }
+        if (accessesHostFields()) {
+            imports.add(TraitProcessorAptUtils.TRAIT_FIELDS);
+            imports.add(TraitProcessorAptUtils.METHOD_HANDLE);
+            imports.add(element.getElementName());
+            for (VariableElement field : element.getStateFields()) {
+                utils.accumulateImportsFromTypeNames(imports,
+                        Collections.singletonList(utils.getErasedTypeName(field.asType())));
+                TypeKind kind = field.asType().getKind();
+                if (element.hasValueSemantics() && kind == TypeKind.ARRAY) {
+                    imports.add(TraitProcessorAptUtils.ARRAYS);
+                } else if (element.hasValueSemantics() && !kind.isPrimitive()) {
+                    imports.add(TraitProcessorAptUtils.OBJECTS);
+                }
+            }
+        }
+        if (element.isDevirtualized() && element.isExactHost()) {
+            imports.add(element.getElementName());
+        }
+        if (element.hasCodec()) {
+            imports.add(TraitProcessorAptUtils.DATA_INPUT);
+            imports.add(TraitProcessorAptUtils.DATA_OUTPUT);
+            imports.add(TraitProcessorAptUtils.IO_EXCEPTION);
+            imports.add(TraitProcessorAptUtils.BYTE_BUFFER);
+            imports.add(TraitProcessorAptUtils.TRAIT_CODEC);
+        }
+        if (utils.isInstrumenting()) {
+            imports.add(TraitProcessorAptUtils.TRAIT_INSTRUMENTATION);
+            imports.add(TraitProcessorAptUtils.TRAIT_METHOD_PROBE);
+        }
+        for (InterceptorElement interceptor : element.getInterceptors()) {
+            imports.add(interceptor.getElementName());
+            if (interceptor.hasBeforeState()) {
+                utils.accumulateImportsFromTypeNames(imports, Collections.singletonList(interceptor.getBeforeStateType()));
             }
         }
         DeclaredTypeName desiredSuperclass = element.getDesiredSuperclass();
@@ -112,12 +172,14 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
         DeclaredTypeName superclassName = element.getGeneratedSuperclassName().clone();
         superclassName.setTypeArgs(generics);
 
-        List<DeclaredTypeName> interfaces = AptUtils.map(allTraits, new AptUtils.Function<TraitElement, DeclaredTypeName>() {
+        List<DeclaredTypeName> interfaces = new ArrayList<DeclaredTypeName>(AptUtils.map(allTraits,
+                new AptUtils.Function<TraitElement, DeclaredTypeName>() {
             @Override
             public DeclaredTypeName map(TraitElement arg) {
                 return arg.getGeneratedInterfaceName();
             }
-        });
+        }));
+        interfaces.add(TraitProcessorAptUtils.REGISTERS_TRAITS);
 
         TypeDeclarationParameters params = new TypeDeclarationParameters()
             .setName(superclassName)
@@ -126,11 +188,30 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
             .setSuperclass(element.getDesiredSuperclass())
             .setInterfaces(interfaces);
 
+        if (element.hasSerializableSuperclass()) {
+            // The delegate wrappers aren't serializable, so there's no serial form worth pinning a serialVersionUID to
+            writer.writeString("@SuppressWarnings(\"serial\")\n");
+        }
         writer.beginTypeDefinition(params);
 
         emitConstants();
+        emitDirtyBitConstants();
+        emitTraitRegistration();
         emitDelegateFields();
+        emitColumnarSlotFields();
+        emitProbeFields();
+        emitTrackingFields();
+        emitValueSemanticsFields();
+        emitHostFieldHandles();
         emitDelegateMethods();
+        emitInvalidateMemosMethods();
+        emitColumnarSlotMethods();
+        emitTraitStateMethods(superclassName);
+        emitTrackingMethods();
+        emitValueSemanticsMethods(superclassName);
+        emitCodecMethods();
+        emitHostFieldAccessors();
+        emitDevirtualizedDelegates(superclassName);
 
         writer.finishTypeDefinition();
     }
@@ -166,21 +247,706 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
         }
     }
 
+    private void emitDirtyBitConstants() throws IOException {
+        int bit = 0;
+        for (TraitElement elem : allTraits) {
+            if (elem.isTracked()) {
+                for (VariableElement field : elem.getStateFields()) {
+                    String name = "DIRTY_" + TraitProcessorAptUtils.toConstantName(elem.getSimpleName()) + "_"
+                            + TraitProcessorAptUtils.toConstantName(field.getSimpleName().toString());
+                    writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, name,
+                            Expressions.fromString(bit == 0 ? "1L" : "1L << " + bit),
+                            Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+                    bit++;
+                }
+            }
+        }
+        if (bit > 0) {
+            writer.writeNewline();
+        }
+    }
+
+    private void emitTraitRegistration() throws IOException {
+        List<Object> arguments = new ArrayList<Object>();
+        arguments.add(Expressions.classObject(element.getGeneratedSuperclassName()));
+        for (TraitElement elem : allTraits) {
+            arguments.add(Expressions.classObject(elem.getElementName()));
+            for (TypeElement superTrait : elem.getSuperTraits()) {
+                arguments.add(Expressions.classObject((DeclaredTypeName) utils.getTypeNameFromTypeMirror(superTrait.asType())));
+            }
+        }
+        writer.beginInitializerBlock(true, true)
+            .writeStatement(Expressions.staticMethod(TraitProcessorAptUtils.TRAITS_RUNTIME, "register", arguments))
+            .finishInitializerBlock(false, true);
+        writer.writeNewline();
+    }
+
     private void emitDelegateFields() throws IOException {
         for (TraitElement elem : allTraits) {
             DeclaredTypeName delegateClass = elem.getDelegateName();
-            Expression init = Expressions.callConstructor(delegateClass, "this");
+            Expression init = element.isDevirtualized()
+                    ? Expressions.fromString("new " + getDevirtualizedClassName(elem) + "()")
+                    : Expressions.callConstructor(delegateClass, "this");
             writer.writeFieldDeclaration(delegateClass, getDelegateVariableName(elem), init, Modifier.PRIVATE);
         }
         writer.writeNewline();
     }
 
+    private void emitColumnarSlotFields() throws IOException {
+        boolean hasColumnarTraits = false;
+        for (TraitElement elem : allTraits) {
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                hasColumnarTraits = true;
+                DeclaredTypeName storeName = elem.getStoreName();
+                writer.writeFieldDeclaration(storeName, getStoreVariableName(elem),
+                        Expressions.staticMethod(storeName, "getInstance"),
+                        Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, getSlotVariableName(elem),
+                        Expressions.callMethodOn(getStoreVariableName(elem), "allocate"),
+                        Modifier.PRIVATE, Modifier.FINAL);
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_BOOLEAN, getSlotReleasedVariableName(elem), null,
+                        Modifier.PRIVATE);
+            }
+        }
+        if (hasColumnarTraits) {
+            writer.writeNewline();
+        }
+    }
+
+    private void emitProbeFields() throws IOException {
+        if (!utils.isInstrumenting()) {
+            return;
+        }
+        Set<String> probeNames = new TreeSet<String>();
+        for (List<Pair<TraitElement, ExecutableElement>> executablePairList : getForwardedMethods().values()) {
+            TraitElement elem = executablePairList.get(0).getLeft();
+            ExecutableElement exec = executablePairList.get(0).getRight();
+            if (isInstrumented(elem, exec)) {
+                probeNames.add(getProbeVariableName(elem, exec));
+            }
+        }
+        for (TraitElement elem : allTraits) {
+            for (ExecutableElement exec : elem.getDeclaredMethods()) {
+                String probeName = getProbeVariableName(elem, exec);
+                if (probeNames.remove(probeName)) {
+                    writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_METHOD_PROBE, probeName,
+                            Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_INSTRUMENTATION, "probe",
+                                    Expressions.classObject(elem.getElementName()), "\"" + exec.getSimpleName() + "\"",
+                                    utils.isInstrumentingJmx(), utils.isInstrumentingJfr()),
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+                }
+            }
+        }
+        writer.writeNewline();
+    }
+
+    private void emitTrackingFields() throws IOException {
+        if (element.hasTrackingListeners()) {
+            if (element.hasConcurrentTracking()) {
+                writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT, TRAIT_CHANGES, null,
+                        Modifier.PRIVATE, Modifier.VOLATILE);
+            } else {
+                writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT, TRAIT_CHANGES, null,
+                        Modifier.PRIVATE);
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, TRAIT_WRITE_DEPTH, null, Modifier.PRIVATE);
+            }
+            writer.writeNewline();
+        }
+    }
+
+    /**
+     * Emits dirtyMask() and clearDirty(), combining the masks of all tracked traits with each trait's bits
+     * shifted past those of the traits before it, and the listener registration methods
+     */
+    private void emitTrackingMethods() throws IOException {
+        if (!element.hasTrackedTraits()) {
+            return;
+        }
+        StringBuilder mask = new StringBuilder();
+        int shift = 0;
+        for (TraitElement elem : allTraits) {
+            if (elem.isTracked()) {
+                String traitMask = getDelegateVariableName(elem) + ".default__" + TraitProcessorAptUtils.DIRTY_MASK
+                        + "()";
+                if (mask.length() > 0) {
+                    mask.append(" | ");
+                }
+                mask.append(shift == 0 ? traitMask : "(" + traitMask + " << " + shift + ")");
+                shift += elem.getStateFields().size();
+            }
+        }
+        writer.beginMethodDefinition(new MethodDeclarationParameters()
+                .setMethodName(TraitProcessorAptUtils.DIRTY_MASK)
+                .setModifiers(Modifier.PUBLIC)
+                .setReturnType(CoreTypes.PRIMITIVE_LONG))
+                .writeStringStatement("return " + mask)
+                .finishMethodDefinition();
+
+        writer.beginMethodDefinition(new MethodDeclarationParameters()
+                .setMethodName(TraitProcessorAptUtils.CLEAR_DIRTY)
+                .setModifiers(Modifier.PUBLIC));
+        for (TraitElement elem : allTraits) {
+            if (elem.isTracked()) {
+                writer.writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem),
+                        "default__" + TraitProcessorAptUtils.CLEAR_DIRTY));
+            }
+        }
+        emitClearReportedChanges();
+        writer.finishMethodDefinition();
+
+        if (!element.hasTrackingListeners()) {
+            return;
+        }
+        MethodDeclarationParameters add = new MethodDeclarationParameters()
+                .setMethodName("addTraitChangeListener")
+                .setModifiers(Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED)
+                .setArgumentTypes(TraitProcessorAptUtils.TRAIT_CHANGE_LISTENER)
+                .setArgumentNames("listener");
+        writer.beginMethodDefinition(add)
+                .beginControlFlow("if (" + TRAIT_CHANGES + " == null)")
+                .writeStatement(Expressions.assign(Expressions.reference(TRAIT_CHANGES),
+                        Expressions.callConstructor(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT, "this")))
+                .endControlFlow()
+                .writeStatement(Expressions.callMethodOn(TRAIT_CHANGES, "addListener", "listener"))
+                .finishMethodDefinition();
+
+        MethodDeclarationParameters remove = new MethodDeclarationParameters()
+                .setMethodName("removeTraitChangeListener")
+                .setModifiers(Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED)
+                .setArgumentTypes(TraitProcessorAptUtils.TRAIT_CHANGE_LISTENER)
+                .setArgumentNames("listener");
+        writer.beginMethodDefinition(remove)
+                .beginControlFlow("if (" + TRAIT_CHANGES + " != null)")
+                .writeStatement(Expressions.callMethodOn(TRAIT_CHANGES, "removeListener", "listener"))
+                .endControlFlow()
+                .finishMethodDefinition();
+    }
+
+    private void emitClearReportedChanges() throws IOException {
+        if (element.hasTrackingListeners()) {
+            writer.beginControlFlow("if (" + TRAIT_CHANGES + " != null)")
+                    .writeStatement(Expressions.callMethodOn(TRAIT_CHANGES, "clear"))
+                    .endControlFlow();
+        }
+    }
+
+    /**
+     * Notifies change listeners of the bits set by methods that overwrite trait state wholesale, such as
+     * copyTraitStateFrom and readState, which don't go through the forwarders of tracked writes
+     */
+    private void emitFireReportedChanges() throws IOException {
+        if (element.hasTrackingListeners()) {
+            // Read the field once, since listeners may be added concurrently
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT, "__changes",
+                    Expressions.reference(TRAIT_CHANGES));
+            writer.beginControlFlow("if (__changes != null)")
+                    .writeStatement(Expressions.callMethodOn("__changes", "fire",
+                            Expressions.callMethod(TraitProcessorAptUtils.DIRTY_MASK)))
+                    .endControlFlow();
+        }
+    }
+
+    private boolean isInstrumented(TraitElement elem, ExecutableElement exec) {
+        return utils.isInstrumenting() && !exec.getModifiers().contains(Modifier.ABSTRACT)
+                && elem.getColumnarPropertyForAccessor(exec) == null;
+    }
+
+    private String getProbeVariableName(TraitElement elem, ExecutableElement exec) {
+        return TraitProcessorAptUtils.toConstantName(elem.getSimpleName()
+                + TraitProcessorAptUtils.capitalize(exec.getSimpleName().toString())) + "_PROBE";
+    }
+
+    private void emitColumnarSlotMethods() throws IOException {
+        for (TraitElement elem : allTraits) {
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                MethodDeclarationParameters getSlot = new MethodDeclarationParameters()
+                        .setMethodName("get" + elem.getSimpleName() + "Slot")
+                        .setModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                        .setReturnType(CoreTypes.PRIMITIVE_INT);
+                writer.beginMethodDefinition(getSlot)
+                        .writeStatement(Expressions.reference(getSlotVariableName(elem)).returnExpr())
+                        .finishMethodDefinition();
+
+                // Releasing twice would otherwise free the slot again after another object was given it
+                String released = getSlotReleasedVariableName(elem);
+                MethodDeclarationParameters release = new MethodDeclarationParameters()
+                        .setMethodName("release" + elem.getSimpleName() + "Slot")
+                        .setModifiers(Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED);
+                writer.beginMethodDefinition(release)
+                        .beginControlFlow("if (!" + released + ")")
+                        .writeStringStatement(released + " = true")
+                        .writeStatement(Expressions.callMethodOn(getStoreVariableName(elem), "release",
+                                getSlotVariableName(elem)))
+                        .endControlFlow()
+                        .finishMethodDefinition();
+            }
+        }
+    }
+
+    /**
+     * Emits resetAllTraits() and copyTraitStateFrom(other), which let pooled objects be recycled without
+     * recreating their delegates. Both are overridable so that subclasses can reset their own state too. Each is
+     * only emitted if the delegates of all the traits have it.
+     */
+    private void emitTraitStateMethods(DeclaredTypeName superclassName) throws IOException {
+        boolean resettable = true;
+        boolean copyable = true;
+        for (TraitElement elem : allTraits) {
+            resettable &= elem.isResettable();
+            copyable &= elem.isCopyable();
+        }
+        if (resettable) {
+            MethodDeclarationParameters reset = new MethodDeclarationParameters()
+                    .setMethodName("resetAllTraits")
+                    .setModifiers(Modifier.PUBLIC);
+            writer.beginMethodDefinition(reset);
+            for (TraitElement elem : allTraits) {
+                writer.writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem), "resetTraitState"));
+                if (elem.getStorage() == Storage.COLUMNAR) {
+                    writer.writeStatement(Expressions.callMethodOn(getStoreVariableName(elem), "resetSlot",
+                            getSlotVariableName(elem)));
+                }
+            }
+            emitClearReportedChanges();
+            emitInvalidateHash();
+            writer.finishMethodDefinition();
+        }
+        if (copyable) {
+            MethodDeclarationParameters copy = new MethodDeclarationParameters()
+                    .setMethodName("copyTraitStateFrom")
+                    .setModifiers(Modifier.PUBLIC)
+                    .setArgumentTypes(superclassName)
+                    .setArgumentNames("other");
+            writer.beginMethodDefinition(copy);
+            for (TraitElement elem : allTraits) {
+                writer.writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem), "copyTraitStateFrom",
+                        "other." + getDelegateVariableName(elem)));
+                if (elem.getStorage() == Storage.COLUMNAR) {
+                    writer.writeStatement(Expressions.callMethodOn(getStoreVariableName(elem), "copySlot",
+                            "other." + getSlotVariableName(elem), getSlotVariableName(elem)));
+                }
+            }
+            emitInvalidateHash();
+            emitFireReportedChanges();
+            writer.finishMethodDefinition();
+        }
+    }
+
+    private void emitValueSemanticsFields() throws IOException {
+        if (cachesHashConcurrently()) {
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_HASH_CACHE, TRAIT_HASH,
+                    Expressions.callConstructor(TraitProcessorAptUtils.TRAIT_HASH_CACHE),
+                    Modifier.PRIVATE, Modifier.FINAL);
+        } else if (element.hasValueSemantics()) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, TRAIT_HASH, null, Modifier.PRIVATE);
+        }
+        if (element.hasCodec()) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, STATE_LAYOUT,
+                    Expressions.fromString("0x" + Integer.toHexString(getStateLayout())),
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+        }
+        if (element.hasValueSemantics() || element.hasCodec()) {
+            writer.writeNewline();
+        }
+    }
+
+    /**
+     * @return true if the generated superclass reads or writes the fields declared by the class using it
+     */
+    private boolean accessesHostFields() {
+        return (element.hasValueSemantics() || element.hasCodec()) && !element.getStateFields().isEmpty();
+    }
+
+    /**
+     * Emits handles for the private fields of the class using the traits, which its generated superclass can't
+     * access directly
+     */
+    private void emitHostFieldHandles() throws IOException {
+        if (!accessesHostFields()) {
+            return;
+        }
+        for (VariableElement field : element.getStateFields()) {
+            Expression hostClass = Expressions.classObject(element.getElementName());
+            String fieldName = "\"" + field.getSimpleName() + "\"";
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.METHOD_HANDLE, getFieldGetterName(field),
+                    Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_FIELDS, "getter", hostClass, fieldName),
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+            if (element.hasCodec()) {
+                writer.writeFieldDeclaration(TraitProcessorAptUtils.METHOD_HANDLE, getFieldSetterName(field),
+                        Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_FIELDS, "setter", hostClass, fieldName),
+                        Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+            }
+        }
+        writer.writeNewline();
+    }
+
+    private void emitHostFieldAccessors() throws IOException {
+        if (!accessesHostFields()) {
+            return;
+        }
+        String hostCast = "(" + writer.shortenName(element.getElementName(), false) + ") this";
+        for (VariableElement field : element.getStateFields()) {
+            TypeName fieldType = utils.getErasedTypeName(field.asType());
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(READ_PREFIX + field.getSimpleName())
+                    .setModifiers(Modifier.PRIVATE)
+                    .setReturnType(fieldType))
+                    .beginControlFlow("try")
+                    .writeStringStatement("return (" + writer.shortenName(fieldType, false) + ") "
+                            + getFieldGetterName(field) + ".invokeExact(" + hostCast + ")");
+            emitPropagate();
+            writer.finishMethodDefinition();
+
+            if (element.hasCodec()) {
+                writer.beginMethodDefinition(new MethodDeclarationParameters()
+                        .setMethodName(WRITE_PREFIX + field.getSimpleName())
+                        .setModifiers(Modifier.PRIVATE)
+                        .setArgumentTypes(fieldType)
+                        .setArgumentNames("value"))
+                        .beginControlFlow("try")
+                        .writeStatement(Expressions.callMethodOn(getFieldSetterName(field), "invokeExact", hostCast,
+                                "value"));
+                emitPropagate();
+                writer.finishMethodDefinition();
+            }
+        }
+    }
+
+    private void emitPropagate() throws IOException {
+        writer.nextControlFlow("catch (Throwable __t)")
+                .writeStringStatement("throw " + writer.shortenName(TraitProcessorAptUtils.TRAIT_FIELDS, false)
+                        + ".propagate(__t)")
+                .endControlFlow();
+    }
+
+    /**
+     * Emits writeState and readState for DataOutput/DataInput and ByteBuffer. The layout is a hash of the encoded
+     * fields and their types, followed by the fields of the class, then the state of each trait in order.
+     */
+    private void emitCodecMethods() throws IOException {
+        if (!element.hasCodec()) {
+            return;
+        }
+        for (boolean buffer : new boolean[] { false, true }) {
+            String target = buffer ? "buffer" : "out";
+            MethodDeclarationParameters write = new MethodDeclarationParameters()
+                    .setMethodName("writeState")
+                    .setModifiers(Modifier.PUBLIC)
+                    .setArgumentTypes(buffer ? TraitProcessorAptUtils.BYTE_BUFFER : TraitProcessorAptUtils.DATA_OUTPUT)
+                    .setArgumentNames(target);
+            if (!buffer) {
+                write.setThrowsTypes(Collections.singletonList(TraitProcessorAptUtils.IO_EXCEPTION));
+            }
+            writer.beginMethodDefinition(write)
+                    .writeStringStatement(buffer ? target + ".putInt(" + STATE_LAYOUT + ")"
+                            : target + ".writeInt(" + STATE_LAYOUT + ")");
+            for (VariableElement field : element.getStateFields()) {
+                writer.writeStringStatement(TraitProcessorAptUtils.writeValue(field.asType(), target, buffer,
+                        READ_PREFIX + field.getSimpleName() + "()"));
+            }
+            for (TraitElement elem : allTraits) {
+                if (!elem.getStateFields().isEmpty()) {
+                    writer.writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem), "writeTraitState",
+                            target));
+                }
+                if (elem.getStorage() == Storage.COLUMNAR) {
+                    for (ColumnarProperty property : elem.getColumnarProperties()) {
+                        writer.writeStringStatement(TraitProcessorAptUtils.writeValue(
+                                property.getGetter().getReturnType(), target, buffer,
+                                readColumn(elem, property, getSlotVariableName(elem))));
+                    }
+                }
+            }
+            writer.finishMethodDefinition();
+
+            String source = buffer ? "buffer" : "in";
+            MethodDeclarationParameters read = new MethodDeclarationParameters()
+                    .setMethodName("readState")
+                    .setModifiers(Modifier.PUBLIC)
+                    .setArgumentTypes(buffer ? TraitProcessorAptUtils.BYTE_BUFFER : TraitProcessorAptUtils.DATA_INPUT)
+                    .setArgumentNames(source);
+            if (!buffer) {
+                read.setThrowsTypes(Collections.singletonList(TraitProcessorAptUtils.IO_EXCEPTION));
+            }
+            writer.beginMethodDefinition(read)
+                    .writeStatement(Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_CODEC, "checkLayout",
+                            Expressions.classObject(element.getElementName()), STATE_LAYOUT,
+                            buffer ? source + ".getInt()" : source + ".readInt()"));
+            for (VariableElement field : element.getStateFields()) {
+                writer.writeStatement(Expressions.callMethod(WRITE_PREFIX + field.getSimpleName(),
+                        TraitProcessorAptUtils.readValue(field.asType(), source, buffer)));
+            }
+            for (TraitElement elem : allTraits) {
+                if (!elem.getStateFields().isEmpty()) {
+                    writer.writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem), "readTraitState",
+                            source));
+                }
+                if (elem.getStorage() == Storage.COLUMNAR) {
+                    for (ColumnarProperty property : elem.getColumnarProperties()) {
+                        writer.writeStatement(Expressions.callMethodOn(getStoreVariableName(elem),
+                                "set" + property.getName(), getSlotVariableName(elem),
+                                TraitProcessorAptUtils.readValue(property.getGetter().getReturnType(), source, buffer)));
+                    }
+                }
+            }
+            emitInvalidateHash();
+            emitFireReportedChanges();
+            writer.finishMethodDefinition();
+        }
+    }
+
+    /**
+     * @return a hash of the names and types of everything the codec encodes, in order, so that readState can
+     * reject input written by a different version of the class or its traits
+     */
+    private int getStateLayout() {
+        StringBuilder layout = new StringBuilder();
+        for (VariableElement field : element.getStateFields()) {
+            layout.append(field.getSimpleName()).append(':').append(field.asType()).append(';');
+        }
+        for (TraitElement elem : allTraits) {
+            layout.append(elem.getElementName()).append('{');
+            for (VariableElement field : elem.getStateFields()) {
+                layout.append(field.getSimpleName()).append(':').append(field.asType()).append(';');
+            }
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                for (ColumnarProperty property : elem.getColumnarProperties()) {
+                    layout.append(property.getName()).append(':').append(property.getGetter().getReturnType())
+                            .append(';');
+                }
+            }
+            layout.append('}');
+        }
+        return layout.toString().hashCode();
+    }
+
+    /**
+     * Emits equals(Object) and hashCode() over the fields declared by the class and the state of its traits. The
+     * trait part of the hash is cached in traitHash, with 0 meaning not computed. If a trait is thread-safe the cache
+     * is stamped by writes, so a hash computed while another thread was writing isn't kept.
+     */
+    private void emitValueSemanticsMethods(DeclaredTypeName superclassName) throws IOException {
+        if (!element.hasValueSemantics()) {
+            return;
+        }
+        DeclaredTypeName otherType = superclassName.clone();
+        if (!AptUtils.isEmpty(superclassName.getTypeArgs())) {
+            List<TypeName> wildcards = new ArrayList<TypeName>();
+            for (int i = 0; i < superclassName.getTypeArgs().size(); i++) {
+                wildcards.add(GenericName.DEFAULT_WILDCARD);
+            }
+            otherType.setTypeArgs(wildcards);
+        }
+        List<String> comparisons = new ArrayList<String>();
+        for (VariableElement field : element.getStateFields()) {
+            String read = READ_PREFIX + field.getSimpleName() + "()";
+            comparisons.add(TraitProcessorAptUtils.valuesEqual(field.asType(), read, "other." + read));
+        }
+        for (TraitElement elem : allTraits) {
+            if (!elem.getStateFields().isEmpty()) {
+                comparisons.add(getDelegateVariableName(elem) + ".traitStateEquals(other."
+                        + getDelegateVariableName(elem) + ")");
+            }
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                for (ColumnarProperty property : elem.getColumnarProperties()) {
+                    comparisons.add(TraitProcessorAptUtils.valuesEqual(property.getGetter().getReturnType(),
+                            readColumn(elem, property, getSlotVariableName(elem)),
+                            readColumn(elem, property, "other." + getSlotVariableName(elem))));
+                }
+            }
+        }
+        StringBuilder equal = new StringBuilder();
+        for (String comparison : comparisons) {
+            equal.append(equal.length() > 0 ? " && " : "").append(comparison);
+        }
+
+        MethodDeclarationParameters equals = new MethodDeclarationParameters()
+                .setMethodName("equals")
+                .setModifiers(Modifier.PUBLIC)
+                .setReturnType(CoreTypes.PRIMITIVE_BOOLEAN)
+                .setArgumentTypes(CoreTypes.JAVA_OBJECT)
+                .setArgumentNames("obj");
+        writer.writeAnnotation(CoreTypes.OVERRIDE);
+        writer.beginMethodDefinition(equals)
+                .beginControlFlow("if (this == obj)")
+                .writeStringStatement("return true")
+                .endControlFlow()
+                .beginControlFlow("if (obj == null || obj.getClass() != getClass())")
+                .writeStringStatement("return false")
+                .endControlFlow()
+                .writeFieldDeclaration(otherType, "other", Expressions.cast(otherType, Expressions.reference("obj")))
+                .writeStringStatement("return " + (equal.length() > 0 ? equal : "true"))
+                .finishMethodDefinition();
+
+        MethodDeclarationParameters hashCode = new MethodDeclarationParameters()
+                .setMethodName("hashCode")
+                .setModifiers(Modifier.PUBLIC)
+                .setReturnType(CoreTypes.PRIMITIVE_INT);
+        writer.writeAnnotation(CoreTypes.OVERRIDE);
+        writer.beginMethodDefinition(hashCode);
+        if (cachesHashConcurrently()) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__stamp", Expressions.callMethodOn(TRAIT_HASH, "stamp"))
+                    .writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__hash",
+                            Expressions.callMethodOn(TRAIT_HASH, "get", "__stamp"));
+        } else {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__hash", Expressions.reference(TRAIT_HASH));
+        }
+        writer.beginControlFlow("if (__hash == 0)")
+                .writeStringStatement("__hash = 1");
+        for (TraitElement elem : allTraits) {
+            if (!elem.getStateFields().isEmpty()) {
+                writer.writeStringStatement("__hash = 31 * __hash + " + getDelegateVariableName(elem)
+                        + ".traitStateHashCode()");
+            }
+            if (elem.getStorage() == Storage.COLUMNAR) {
+                for (ColumnarProperty property : elem.getColumnarProperties()) {
+                    writer.writeStringStatement("__hash = 31 * __hash + " + TraitProcessorAptUtils.valueHashCode(
+                            property.getGetter().getReturnType(), readColumn(elem, property, getSlotVariableName(elem))));
+                }
+            }
+        }
+        if (cachesHashConcurrently()) {
+            writer.writeStatement(Expressions.callMethodOn(TRAIT_HASH, "set", "__stamp", "__hash"));
+        } else {
+            writer.writeStringStatement(TRAIT_HASH + " = __hash");
+        }
+        writer.endControlFlow();
+        for (VariableElement field : element.getStateFields()) {
+            writer.writeStringStatement("__hash = 31 * __hash + " + TraitProcessorAptUtils.valueHashCode(field.asType(),
+                    READ_PREFIX + field.getSimpleName() + "()"));
+        }
+        writer.writeStatement(Expressions.reference("__hash").returnExpr())
+                .finishMethodDefinition();
+    }
+
+    private String readColumn(TraitElement elem, ColumnarProperty property, String slot) {
+        return getStoreVariableName(elem) + "." + property.getGetter().getSimpleName() + "(" + slot + ")";
+    }
+
+    private String getFieldGetterName(VariableElement field) {
+        return TraitProcessorAptUtils.toConstantName(field.getSimpleName().toString()) + "_GETTER";
+    }
+
+    private String getFieldSetterName(VariableElement field) {
+        return TraitProcessorAptUtils.toConstantName(field.getSimpleName().toString()) + "_SETTER";
+    }
+
+    private void emitInvalidateHash() throws IOException {
+        if (cachesHashConcurrently()) {
+            writer.writeStatement(Expressions.callMethodOn(TRAIT_HASH, "invalidate"));
+        } else if (element.hasValueSemantics()) {
+            writer.writeStringStatement(TRAIT_HASH + " = 0");
+        }
+    }
+
+    /**
+     * @return true if the cached hash may be computed while another thread writes trait state, in which case it's
+     * kept in a {@link com.yahoo.javatraits.runtime.TraitHashCache} that only returns it if nothing was written since
+     */
+    private boolean cachesHashConcurrently() {
+        return element.hasValueSemantics() && element.hasConcurrentTraits();
+    }
+
+    /**
+     * For devirtualize = true, emits an inner subclass of each trait's delegate wrapper that overrides the methods
+     * the wrapper forwards to the trait's interface, calling them on this class (or on the annotated class if it's
+     * final) instead. The trait's own calls to those methods then stay class-typed all the way back to the object.
+     */
+    private void emitDevirtualizedDelegates(DeclaredTypeName superclassName) throws IOException {
+        if (!element.isDevirtualized()) {
+            return;
+        }
+        String host = element.isExactHost()
+                ? "((" + writer.shortenName(element.getElementName(), false) + ") "
+                        + superclassName.getSimpleName() + ".this)"
+                : superclassName.getSimpleName() + ".this";
+        for (TraitElement elem : allTraits) {
+            TypeDeclarationParameters params = new TypeDeclarationParameters()
+                .setName(new DeclaredTypeName("", getDevirtualizedClassName(elem)))
+                .setKind(Type.CLASS)
+                .setModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .setSuperclass(elem.getDelegateName());
+            writer.beginTypeDefinition(params);
+
+            MethodDeclarationParameters constructor = new MethodDeclarationParameters()
+                    .setConstructorName(params.getClassName());
+            writer.beginConstructorDeclaration(constructor)
+                    .writeStringStatement("super(" + superclassName.getSimpleName() + ".this)")
+                    .finishMethodDefinition();
+
+            for (ExecutableElement exec : elem.getDeclaredMethods()) {
+                emitDevirtualizedMethod(elem, exec, null, host);
+            }
+            for (int i = 0; i < elem.getNumSuperinterfaces(); i++) {
+                for (ExecutableElement exec : elem.getExecutableElementsForInterface(i)) {
+                    emitDevirtualizedMethod(elem, exec, elem.getGenericNameMapForInterface(i), host);
+                }
+            }
+            writer.finishTypeDefinition();
+        }
+    }
+
+    private void emitDevirtualizedMethod(TraitElement elem, ExecutableElement exec,
+            Map<String, TypeName> genericNameMap, String host) throws IOException {
+        boolean isGetThis = utils.isGetThis(elem, exec);
+        MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                elem.getSimpleName(), Modifier.PUBLIC);
+        utils.remapMethodDeclarationGenerics(methodDeclaration, genericNameMap);
+        TraitProcessorAptUtils.removeOverride(methodDeclaration);
+        if (isGetThis) {
+            methodDeclaration.setReturnType(elem.getGeneratedInterfaceName());
+        }
+        writer.writeAnnotation(CoreTypes.OVERRIDE);
+        writer.beginMethodDefinition(methodDeclaration);
+        if (isGetThis) {
+            writer.writeStringStatement("return " + host);
+        } else {
+            Expression call = Expressions.callMethodOn(host, exec.getSimpleName().toString(),
+                    methodDeclaration.getArgumentNames());
+            writer.writeStatement(exec.getReturnType().getKind() == TypeKind.VOID ? call : call.returnExpr());
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private String getDevirtualizedClassName(TraitElement elem) {
+        return elem.getSimpleName() + "Callbacks";
+    }
+
+    private String getStoreVariableName(TraitElement elem) {
+        return TraitProcessorAptUtils.toConstantName(elem.getStoreName().getSimpleName());
+    }
+
+    private String getSlotVariableName(TraitElement elem) {
+        String base = elem.getSimpleName();
+        return base.substring(0, 1).toLowerCase() + base.substring(1) + "Slot";
+    }
+
+    private String getSlotReleasedVariableName(TraitElement elem) {
+        return getSlotVariableName(elem) + "Released";
+    }
+
     private String getDelegateVariableName(TraitElement elem) {
         String base = elem.getDelegateName().getSimpleName();
         return base.substring(0, 1).toLowerCase() + base.substring(1);
     }
 
     private void emitDelegateMethods() throws IOException {
+        for (List<Pair<TraitElement, ExecutableElement>> executablePairList : getForwardedMethods().values()) {
+            Pair<TraitElement, ExecutableElement> executablePair = executablePairList.get(0);
+            emitMethodDefinition(executablePair.getLeft(), executablePair.getRight());
+            for (Pair<TraitElement, ExecutableElement> pair : executablePairList) {
+                if (pair.getLeft().isAsync(pair.getRight())) {
+                    emitAsyncMethodDefinition(pair.getLeft(), pair.getRight());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the trait methods by signature, with the implementation to forward to first in each list
+     */
+    private Map<MethodSignature, List<Pair<TraitElement, ExecutableElement>>> getForwardedMethods() {
         Set<MethodSignature> duplicateMethods = new HashSet<MethodSignature>();
         Map<MethodSignature, List<Pair<TraitElement, ExecutableElement>>> methodToExecElements = new HashMap<MethodSignature, List<Pair<TraitElement, ExecutableElement>>>();
         
@@ -189,11 +955,7 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
         if (!duplicateMethods.isEmpty()) {
             reorderDuplicatesForPreferValues(duplicateMethods, methodToExecElements);
         }
-
-        for (List<Pair<TraitElement, ExecutableElement>> executablePairList : methodToExecElements.values()) {
-            Pair<TraitElement, ExecutableElement> executablePair = executablePairList.get(0);
-            emitMethodDefinition(executablePair.getLeft(), executablePair.getRight());
-        }
+        return methodToExecElements;
     }
 
     private void accumulateMethods(Set<MethodSignature> duplicateMethods, 
@@ -239,6 +1001,20 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
         }
     }
     
+    private void emitInvalidateMemosMethods() throws IOException {
+        for (TraitElement elem : allTraits) {
+            if (elem.hasMemoizedMethods()) {
+                MethodDeclarationParameters params = new MethodDeclarationParameters()
+                        .setMethodName(elem.getInvalidateMemosMethodName())
+                        .setModifiers(Modifier.PUBLIC);
+                writer.beginMethodDefinition(params)
+                        .writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem),
+                                "default__" + elem.getInvalidateMemosMethodName()))
+                        .finishMethodDefinition();
+            }
+        }
+    }
+
     private void emitMethodDefinition(TraitElement elem, ExecutableElement exec) throws IOException {
         if (utils.isGetThis(elem, exec)) {
             return;
@@ -246,6 +1022,11 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
 
         Set<Modifier> modifiers = exec.getModifiers();
         boolean isAbstract = modifiers.contains(Modifier.ABSTRACT);
+        ColumnarProperty columnarProperty = elem.getColumnarPropertyForAccessor(exec);
+        if (columnarProperty != null) {
+            emitColumnarAccessor(elem, exec, columnarProperty);
+            return;
+        }
         MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec, null, elem.getSimpleName(), modifiers.toArray(new Modifier[modifiers.size()]));
         writer.beginMethodDefinition(methodDeclaration);
         
@@ -254,14 +1035,169 @@ public class ClassWithTraitsSuperclassWriter extends JavaTraitsWriter<ClassWithT
         }
     }
     
+    private void emitAsyncMethodDefinition(TraitElement elem, ExecutableElement exec) throws IOException {
+        MethodDeclarationParameters methodDeclaration = utils.asyncMethodDeclarationParams(elem, exec, null,
+                Modifier.PUBLIC);
+        writer.beginMethodDefinition(methodDeclaration)
+            .writeStatement(Expressions.callMethodOn(getDelegateVariableName(elem),
+                    "default__" + elem.getAsyncMethodName(exec), methodDeclaration.getArgumentNames()).returnExpr())
+            .finishMethodDefinition();
+    }
+
+    private void emitColumnarAccessor(TraitElement elem, ExecutableElement exec, ColumnarProperty property)
+            throws IOException {
+        MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                elem.getSimpleName(), Modifier.PUBLIC);
+        writer.beginMethodDefinition(methodDeclaration);
+        List<Object> arguments = new ArrayList<Object>();
+        arguments.add(getSlotVariableName(elem));
+        arguments.addAll(methodDeclaration.getArgumentNames());
+        Expression body = Expressions.callMethodOn(getStoreVariableName(elem), exec.getSimpleName().toString(), arguments);
+        if (exec.equals(property.getGetter())) {
+            body = body.returnExpr();
+        }
+        writer.writeStatement(body);
+        if (!exec.equals(property.getGetter())) {
+            emitInvalidateHash();
+        }
+        writer.finishMethodDefinition();
+    }
+
     private void emitMethodBody(TraitElement elem, ExecutableElement exec, List<?> arguments) throws IOException {
         String delegateVariableName = getDelegateVariableName(elem);
         
         Expression body = Expressions.callMethodOn(delegateVariableName, "default__" + exec.getSimpleName(), arguments);
-        if (exec.getReturnType().getKind() != TypeKind.VOID) {
+        boolean isVoid = exec.getReturnType().getKind() == TypeKind.VOID;
+        if (!isVoid) {
             body = body.returnExpr();
         }
-        writer.writeStatement(body)
-            .finishMethodDefinition();
+        boolean instrumented = isInstrumented(elem, exec);
+        String probe = getProbeVariableName(elem, exec);
+        if (instrumented) {
+            if (utils.isInstrumentingJmx()) {
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, "__start",
+                        Expressions.callMethodOn(probe, "begin"));
+            }
+            if (utils.isInstrumentingJfr()) {
+                writer.writeFieldDeclaration(CoreTypes.JAVA_OBJECT, "__event", Expressions.callMethodOn(probe, "beginEvent"));
+            }
+            writer.beginControlFlow("try");
+        }
+        boolean notifying = elem.hasTrackingListeners() && elem.isTrackedWrite(exec);
+        if (notifying) {
+            writer.writeStringStatement(element.hasConcurrentTracking()
+                    ? writeDepthCall("enter") : TRAIT_WRITE_DEPTH + "++");
+            writer.beginControlFlow("try");
+        }
+        boolean invalidating = element.hasValueSemantics() && !elem.isReadOnly(exec);
+        if (invalidating) {
+            writer.beginControlFlow("try");
+        }
+        List<InterceptorElement> interceptors = element.getInterceptorsFor(exec);
+        if (interceptors.isEmpty()) {
+            writer.writeStatement(body);
+        } else {
+            emitInterceptedBody(interceptors, 0, "\"" + elem.getSimpleName() + "." + exec.getSimpleName() + "\"", body,
+                    isVoid);
+        }
+        if (invalidating) {
+            writer.nextControlFlow("finally");
+            emitInvalidateHash();
+            writer.endControlFlow();
+        }
+        if (notifying) {
+            String outermost = element.hasConcurrentTracking()
+                    ? writeDepthCall("exit") : "--" + TRAIT_WRITE_DEPTH + " == 0";
+            writer.nextControlFlow("finally");
+            if (element.hasConcurrentTracking()) {
+                // Read the field once, since listeners may be added concurrently
+                writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_CHANGE_SUPPORT, "__changes",
+                        Expressions.reference(TRAIT_CHANGES));
+                writer.beginControlFlow("if (" + outermost + " && __changes != null)")
+                        .writeStatement(Expressions.callMethodOn("__changes", "fire",
+                                Expressions.callMethod(TraitProcessorAptUtils.DIRTY_MASK)));
+            } else {
+                writer.beginControlFlow("if (" + outermost + " && " + TRAIT_CHANGES + " != null)")
+                        .writeStatement(Expressions.callMethodOn(TRAIT_CHANGES, "fire",
+                                Expressions.callMethod(TraitProcessorAptUtils.DIRTY_MASK)));
+            }
+            writer.endControlFlow()
+                    .endControlFlow();
+        }
+        if (instrumented) {
+            writer.nextControlFlow("finally");
+            if (utils.isInstrumentingJfr()) {
+                writer.writeStatement(Expressions.callMethodOn(probe, "endEvent", "__event"));
+            }
+            if (utils.isInstrumentingJmx()) {
+                writer.writeStatement(Expressions.callMethodOn(probe, "end", "__start"));
+            }
+            writer.endControlFlow();
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private String writeDepthCall(String method) {
+        return writer.shortenName(TraitProcessorAptUtils.TRAIT_WRITE_DEPTH, false) + "." + method + "(this)";
+    }
+
+    /**
+     * Weaves the hooks of the interceptors from index onwards around the call in body, nesting each interceptor
+     * inside the previous one
+     */
+    private void emitInterceptedBody(List<InterceptorElement> interceptors, int index, String methodName,
+            Expression body, boolean isVoid) throws IOException {
+        if (index == interceptors.size()) {
+            writer.writeStatement(body);
+            if (isVoid) {
+                writer.writeStringStatement("return");
+            }
+            return;
+        }
+        InterceptorElement interceptor = interceptors.get(index);
+        DeclaredTypeName interceptorName = interceptor.getElementName();
+        String state = "__state" + index;
+        String thrown = "__thrown" + index;
+        String caught = "__t" + index;
+        String attempt = "__attempt" + index;
+
+        if (interceptor.hasBeforeState()) {
+            writer.writeFieldDeclaration(interceptor.getBeforeStateType(), state,
+                    Expressions.staticMethod(interceptorName, "before", methodName));
+        } else if (interceptor.hasBefore()) {
+            writer.writeStatement(Expressions.staticMethod(interceptorName, "before", methodName));
+        }
+        if (interceptor.hasAfter()) {
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.THROWABLE, thrown, Expressions.fromString("null"));
+            writer.beginControlFlow("try");
+        }
+        if (interceptor.hasRetry()) {
+            writer.beginControlFlow("for (int " + attempt + " = 1; ; " + attempt + "++)")
+                    .beginControlFlow("try");
+            emitInterceptedBody(interceptors, index + 1, methodName, body, isVoid);
+            writer.nextControlFlow("catch (Throwable " + caught + ")")
+                    .beginControlFlow("if (!" + writer.shortenNameForStaticReference(interceptorName) + ".retry("
+                            + methodName + ", " + caught + ", " + attempt + "))")
+                    .writeStringStatement("throw " + caught)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow();
+        } else {
+            emitInterceptedBody(interceptors, index + 1, methodName, body, isVoid);
+        }
+        if (interceptor.hasAfter()) {
+            List<Object> afterArguments = new ArrayList<Object>();
+            afterArguments.add(methodName);
+            if (interceptor.hasBeforeState()) {
+                afterArguments.add(state);
+            }
+            afterArguments.add(thrown);
+            writer.nextControlFlow("catch (Throwable " + caught + ")")
+                    .writeStringStatement(thrown + " = " + caught)
+                    .writeStringStatement("throw " + caught)
+                    .nextControlFlow("finally")
+                    .writeStatement(Expressions.staticMethod(interceptorName, "after", afterArguments))
+                    .endControlFlow();
+        }
     }
 }
@@ -25,6 +25,7 @@ import javax.annotation.processing.FilerException;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileObject;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -55,6 +56,21 @@ public abstract class JavaTraitsWriter<T extends TypeElementWrapper> {
         }
     }
 
+    /**
+     * @return the source of the generated class, for callers that don't write it to a file, e.g. the plugin that
+     * mixes traits into classes in place
+     */
+    public String writeToString() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("Already wrote source for " + getClassNameToGenerate());
+        }
+        StringWriter out = new StringWriter();
+        writer = new JavaFileWriter(out);
+        writeFile();
+        writer.close();
+        return out.toString();
+    }
+
     protected abstract DeclaredTypeName getClassNameToGenerate();
 
     private void writeFile() throws IOException {
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.writers;
+
+import com.yahoo.aptutils.model.CoreTypes;
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.GenericName;
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.aptutils.writer.JavaFileWriter.Type;
+import com.yahoo.aptutils.writer.expressions.Expression;
+import com.yahoo.aptutils.writer.expressions.Expressions;
+import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
+import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.annotations.Batch;
+import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the static bulk variants of a trait's {@literal @}Batch methods. Each variant checks the bounds of
+ * every array once up front and then runs a plain counted loop over the targets, which the JIT can unroll.
+ */
+public class TraitBatchWriter extends JavaTraitsWriter<TraitElement> {
+
+    private static final String TARGETS = "targets";
+    private static final String TARGET = "target";
+    private static final String RESULTS = "results";
+    private static final String FROM_INDEX = "fromIndex";
+    private static final String TO_INDEX = "toIndex";
+    private static final String INDEX = "i";
+    private static final String VALUES_SUFFIX = "Values";
+    private static final String PARALLEL_SUFFIX = "Parallel";
+
+    private final DeclaredTypeName batchName;
+
+    public TraitBatchWriter(TraitElement element, TraitProcessorAptUtils utils) {
+        super(element, utils);
+        this.batchName = element.getBatchName();
+    }
+
+    @Override
+    protected DeclaredTypeName getClassNameToGenerate() {
+        return batchName;
+    }
+
+    @Override
+    protected void gatherImports(Set<DeclaredTypeName> imports) {
+        imports.add(element.getGeneratedInterfaceName());
+        imports.add(TraitProcessorAptUtils.BATCH_SUPPORT);
+        imports.add(TraitProcessorAptUtils.COLLECTION);
+        utils.accumulateImportsFromTypeNames(imports, element.getTypeParameters());
+        utils.accumulateImportsFromElements(imports, element.getBatchMethods());
+    }
+
+    @Override
+    protected void writeClassDefinition() throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(batchName)
+            .setKind(Type.CLASS)
+            .setModifiers(Modifier.PUBLIC, Modifier.FINAL);
+
+        writer.beginTypeDefinition(params);
+
+        MethodDeclarationParameters constructor = new MethodDeclarationParameters().setConstructorName(batchName)
+                .setModifiers(Modifier.PRIVATE);
+        writer.beginConstructorDeclaration(constructor)
+                .writeComment("no instances")
+                .finishMethodDefinition();
+
+        for (ExecutableElement exec : element.getBatchMethods()) {
+            emitArrayVariant(exec);
+            emitRangeVariant(exec);
+            emitCollectionVariant(exec);
+            if (exec.getThrownTypes().isEmpty()) {
+                emitParallelVariant(exec);
+            }
+        }
+
+        writer.finishTypeDefinition();
+    }
+
+    private void emitArrayVariant(ExecutableElement exec) throws IOException {
+        MethodDeclarationParameters params = batchMethodParams(exec, arrayOf(element.getGeneratedInterfaceName()), false);
+        writer.beginMethodDefinition(params)
+                .writeStatement(Expressions.callMethod(exec.getSimpleName().toString(), rangeCallArguments(exec, "0",
+                        TARGETS + ".length")))
+                .finishMethodDefinition();
+    }
+
+    private void emitRangeVariant(ExecutableElement exec) throws IOException {
+        MethodDeclarationParameters params = batchMethodParams(exec, arrayOf(element.getGeneratedInterfaceName()), true);
+        writer.beginMethodDefinition(params);
+        writer.writeStatement(checkRange(TARGETS + ".length", FROM_INDEX, TO_INDEX));
+        for (String array : valueAndResultArrays(exec)) {
+            writer.writeStatement(checkRange(array + ".length", FROM_INDEX, TO_INDEX));
+        }
+        writer.beginControlFlow("for (int " + INDEX + " = " + FROM_INDEX + "; " + INDEX + " < " + TO_INDEX + "; "
+                + INDEX + "++)");
+        writer.writeStringStatement(elementStatement(exec, TARGETS + "[" + INDEX + "]"));
+        writer.endControlFlow();
+        writer.finishMethodDefinition();
+    }
+
+    private void emitCollectionVariant(ExecutableElement exec) throws IOException {
+        GenericName wildcard = new GenericName(GenericName.WILDCARD_CHAR,
+                Collections.<TypeName>singletonList(element.getGeneratedInterfaceName()), null);
+        DeclaredTypeName collection = TraitProcessorAptUtils.COLLECTION.clone();
+        collection.setTypeArgs(Collections.singletonList(wildcard));
+
+        MethodDeclarationParameters params = batchMethodParams(exec, collection, false);
+        writer.beginMethodDefinition(params);
+        for (String array : valueAndResultArrays(exec)) {
+            writer.writeStatement(checkRange(array + ".length", "0", TARGETS + ".size()"));
+        }
+        writer.writeStringStatement("int " + INDEX + " = 0");
+        writer.beginControlFlow("for (" + writer.shortenName(element.getGeneratedInterfaceName(), false) + " "
+                + TARGET + " : " + TARGETS + ")");
+        writer.writeStringStatement(elementStatement(exec, TARGET));
+        writer.writeStringStatement(INDEX + "++");
+        writer.endControlFlow();
+        writer.finishMethodDefinition();
+    }
+
+    private void emitParallelVariant(ExecutableElement exec) throws IOException {
+        String name = exec.getSimpleName().toString();
+        MethodDeclarationParameters params = batchMethodParams(exec, arrayOf(element.getGeneratedInterfaceName()), false)
+                .setMethodName(name + PARALLEL_SUFFIX);
+        writer.beginMethodDefinition(params);
+        for (String array : valueAndResultArrays(exec)) {
+            writer.writeStatement(checkRange(array + ".length", "0", TARGETS + ".length"));
+        }
+        StringBuilder rangeCall = new StringBuilder("(" + FROM_INDEX + ", " + TO_INDEX + ") -> " + name + "(");
+        List<String> arguments = rangeCallArguments(exec, FROM_INDEX, TO_INDEX);
+        for (int i = 0; i < arguments.size(); i++) {
+            rangeCall.append(i > 0 ? ", " : "").append(arguments.get(i));
+        }
+        rangeCall.append(")");
+        int threshold = exec.getAnnotation(Batch.class).parallelThreshold();
+        writer.writeStatement(Expressions.staticMethod(TraitProcessorAptUtils.BATCH_SUPPORT, "forEachRange", "0",
+                TARGETS + ".length", Integer.toString(threshold), rangeCall.toString()));
+        writer.finishMethodDefinition();
+    }
+
+    /**
+     * @return the parameters for a bulk variant of exec: the targets, optionally an index range, one array of
+     * values per argument of exec and, unless exec is void, an array for the results
+     */
+    private MethodDeclarationParameters batchMethodParams(ExecutableElement exec, TypeName targetsType,
+            boolean withRange) {
+        MethodDeclarationParameters original = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                element.getSimpleName());
+
+        List<TypeName> generics = new ArrayList<TypeName>(element.getTypeParameters());
+        generics.addAll(original.getMethodGenerics());
+
+        List<TypeName> argumentTypes = new ArrayList<TypeName>();
+        List<String> argumentNames = new ArrayList<String>();
+        argumentTypes.add(targetsType);
+        argumentNames.add(TARGETS);
+        if (withRange) {
+            argumentTypes.add(CoreTypes.PRIMITIVE_INT);
+            argumentNames.add(FROM_INDEX);
+            argumentTypes.add(CoreTypes.PRIMITIVE_INT);
+            argumentNames.add(TO_INDEX);
+        }
+        for (int i = 0; i < original.getArgumentTypes().size(); i++) {
+            argumentTypes.add(arrayOf(original.getArgumentTypes().get(i)));
+            argumentNames.add(valuesName(original.getArgumentNames().get(i)));
+        }
+        if (!isVoid(exec)) {
+            argumentTypes.add(arrayOf(original.getReturnType()));
+            argumentNames.add(RESULTS);
+        }
+
+        return new MethodDeclarationParameters()
+                .setMethodName(original.getMethodName())
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setMethodGenerics(generics)
+                .setArgumentTypes(argumentTypes)
+                .setArgumentNames(argumentNames)
+                .setThrowsTypes(original.getThrowsTypes());
+    }
+
+    private List<String> rangeCallArguments(ExecutableElement exec, String fromIndex, String toIndex) {
+        List<String> arguments = new ArrayList<String>();
+        arguments.add(TARGETS);
+        arguments.add(fromIndex);
+        arguments.add(toIndex);
+        arguments.addAll(valueAndResultArrays(exec));
+        return arguments;
+    }
+
+    private List<String> valueAndResultArrays(ExecutableElement exec) {
+        List<String> arrays = new ArrayList<String>();
+        for (int i = 0; i < exec.getParameters().size(); i++) {
+            arrays.add(valuesName(exec.getParameters().get(i).getSimpleName().toString()));
+        }
+        if (!isVoid(exec)) {
+            arrays.add(RESULTS);
+        }
+        return arrays;
+    }
+
+    private String elementStatement(ExecutableElement exec, String target) {
+        StringBuilder call = new StringBuilder(target).append(".").append(exec.getSimpleName()).append("(");
+        for (int i = 0; i < exec.getParameters().size(); i++) {
+            call.append(i > 0 ? ", " : "")
+                    .append(valuesName(exec.getParameters().get(i).getSimpleName().toString()))
+                    .append("[").append(INDEX).append("]");
+        }
+        call.append(")");
+        return isVoid(exec) ? call.toString() : RESULTS + "[" + INDEX + "] = " + call;
+    }
+
+    private Expression checkRange(String length, String fromIndex, String toIndex) {
+        return Expressions.staticMethod(TraitProcessorAptUtils.BATCH_SUPPORT, "checkRange", length, fromIndex, toIndex);
+    }
+
+    private static String valuesName(String argumentName) {
+        return argumentName + VALUES_SUFFIX;
+    }
+
+    private static boolean isVoid(ExecutableElement exec) {
+        return exec.getReturnType().getKind() == TypeKind.VOID;
+    }
+
+    private static TypeName arrayOf(TypeName type) {
+        TypeName array = type.clone();
+        array.setArrayDepth(type.getArrayDepth() + 1);
+        array.setIsVarArgs(false);
+        return array;
+    }
+}
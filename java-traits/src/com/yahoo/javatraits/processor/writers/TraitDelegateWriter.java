@@ -15,35 +15,68 @@
  */
 package com.yahoo.javatraits.processor.writers;
 
+import com.yahoo.aptutils.model.CoreTypes;
 import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.GenericName;
 import com.yahoo.aptutils.model.TypeName;
-import com.yahoo.aptutils.utils.AptUtils;
 import com.yahoo.aptutils.writer.JavaFileWriter.Type;
 import com.yahoo.aptutils.writer.expressions.Expression;
 import com.yahoo.aptutils.writer.expressions.Expressions;
 import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
 import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.annotations.Memoize;
+import com.yahoo.javatraits.annotations.Trait.Concurrency;
 import com.yahoo.javatraits.processor.data.TraitElement;
 import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
 
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
 
+    private static final String TRAIT_LOCK = "traitLock";
+    private static final String TRAIT_PROTOTYPE = "traitPrototype";
+    private static final String TRAIT_DIRTY = "traitDirty";
+    private static final String MEMO_GENERATION = "traitMemoGeneration";
+    private static final String TRACKED_PREFIX = "tracked__";
+    private static final String READ_PREFIX = "read__";
+
     private DeclaredTypeName traitDelegateClass;
     private DeclaredTypeName delegateInterface;
+    private Map<ExecutableElement, String> memoNames = new HashMap<ExecutableElement, String>();
 
     public TraitDelegateWriter(TraitElement traitElement, TraitProcessorAptUtils utils) {
         super(traitElement, utils);
         this.traitDelegateClass = traitElement.getDelegateName();
         this.delegateInterface = traitElement.getGeneratedInterfaceName();
+        initializeMemoNames();
+    }
+
+    private void initializeMemoNames() {
+        Set<String> usedNames = new HashSet<String>();
+        for (ExecutableElement exec : element.getMemoizedMethods()) {
+            String name = exec.getSimpleName().toString();
+            String memoName = name;
+            for (int i = 2; !usedNames.add(memoName); i++) {
+                memoName = name + i;
+            }
+            memoNames.put(exec, memoName);
+        }
     }
 
     @Override
@@ -53,17 +86,46 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
 
     @Override
     protected void gatherImports(Set<DeclaredTypeName> imports) {
-        utils.accumulateImportsFromTypeNames(imports, element.getTypeParameters());
-        new HashSet<>(imports).stream().filter(n -> n.getPackageName().isEmpty()).forEach(n -> {
-            DeclaredTypeName n2 = new DeclaredTypeName(element.getPackageName(), n.getSimpleName());
-            n2.setTypeArgs(n.getTypeArgs());
-            imports.remove(n);
-            imports.add(n2);
-        });
+        utils.accumulateImportsFromTypeParameters(imports, element);
         utils.accumulateImportsFromElements(imports, element.getDeclaredMethods());
         for (int i = 0; i < element.getNumSuperinterfaces(); i++) {
             utils.accumulateImportsFromElements(imports, element.getExecutableElementsForInterface(i));
         }
+        if (element.hasMemoizedMethods()) {
+            imports.add(TraitProcessorAptUtils.MEMO_CACHE);
+            imports.add(TraitProcessorAptUtils.MEMO_STATS);
+        }
+        if (element.getConcurrency() == Concurrency.OPTIMISTIC_READ) {
+            imports.add(TraitProcessorAptUtils.TRAIT_LOCK);
+        }
+        if (!element.getAsyncMethods().isEmpty()) {
+            imports.add(TraitProcessorAptUtils.ASYNC_SUPPORT);
+            imports.add(TraitProcessorAptUtils.COMPLETABLE_FUTURE);
+        }
+        if (!element.getStateFields().isEmpty()) {
+            imports.add(TraitProcessorAptUtils.METHOD_HANDLE);
+            imports.add(TraitProcessorAptUtils.TRAIT_FIELDS);
+            for (TypeElement superTrait : element.getSuperTraits()) {
+                imports.add((DeclaredTypeName) utils.getTypeNameFromTypeMirror(superTrait.asType()));
+            }
+            boolean comparing = utils.generatesValueSemantics(element);
+            for (VariableElement field : element.getStateFields()) {
+                utils.accumulateImportsFromTypeNames(imports, Collections.singletonList(getFieldTypeName(field)));
+                TypeKind kind = field.asType().getKind();
+                if (comparing && kind == TypeKind.ARRAY) {
+                    imports.add(TraitProcessorAptUtils.ARRAYS);
+                } else if (comparing && !kind.isPrimitive()) {
+                    imports.add(TraitProcessorAptUtils.OBJECTS);
+                }
+            }
+            if (utils.generatesCodec(element)) {
+                imports.add(TraitProcessorAptUtils.DATA_INPUT);
+                imports.add(TraitProcessorAptUtils.DATA_OUTPUT);
+                imports.add(TraitProcessorAptUtils.IO_EXCEPTION);
+                imports.add(TraitProcessorAptUtils.BYTE_BUFFER);
+                imports.add(TraitProcessorAptUtils.TRAIT_CODEC);
+            }
+        }
     }
 
     protected void writeClassDefinition() throws IOException {
@@ -71,14 +133,23 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
         superclass.setTypeArgs(element.getTypeParameters());
 
         TypeDeclarationParameters params = new TypeDeclarationParameters().setName(traitDelegateClass)
-                .setKind(Type.CLASS).setModifiers(Modifier.PUBLIC, Modifier.FINAL).setSuperclass(superclass);
+                .setKind(Type.CLASS).setModifiers(Modifier.PUBLIC).setSuperclass(superclass);
 
         writer.registerOtherKnownNames(delegateInterface, element.getElementName());
         writer.beginTypeDefinition(params);
 
         emitDelegateInstance();
+        emitTraitLock();
+        emitMemoFields();
+        emitStateFieldHandles();
         emitConstructor();
         emitDefaultMethodImplementations();
+        emitInvalidateMemos();
+        emitTraitStateMethods();
+        emitCodecMethods();
+        emitTrackingMethods();
+        emitFieldReaders();
+        emitAsyncMethods();
         emitDelegateMethodImplementations();
 
         writer.finishTypeDefinition();
@@ -88,6 +159,61 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
         writer.writeFieldDeclaration(delegateInterface, "delegate", null, Modifier.PRIVATE);
     }
 
+    private void emitTraitLock() throws IOException {
+        if (element.getConcurrency() == Concurrency.OPTIMISTIC_READ) {
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.TRAIT_LOCK, TRAIT_LOCK,
+                    Expressions.callConstructor(TraitProcessorAptUtils.TRAIT_LOCK), Modifier.PRIVATE, Modifier.FINAL);
+        }
+    }
+
+    private void emitMemoFields() throws IOException {
+        for (ExecutableElement exec : element.getMemoizedMethods()) {
+            String memoName = memoNames.get(exec);
+            Memoize memoize = exec.getAnnotation(Memoize.class);
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.MEMO_STATS, getMemoStatsName(exec),
+                    Expressions.staticMethod(TraitProcessorAptUtils.MEMO_STATS, "forMethod",
+                            Expressions.classObject(element.getElementName()), "\"" + exec.getSimpleName() + "\""),
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+            if (exec.getParameters().isEmpty()) {
+                TypeName returnType = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                        element.getSimpleName()).getReturnType();
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_BOOLEAN, memoName + "Memoized", null,
+                        Modifier.PRIVATE, Modifier.VOLATILE);
+                writer.writeFieldDeclaration(returnType, memoName + "Memo", null, Modifier.PRIVATE);
+            } else {
+                Expression cache = Expressions.callConstructor(TraitProcessorAptUtils.MEMO_CACHE, memoize.maxSize(),
+                        memoize.shared(), getMemoStatsName(exec));
+                if (memoize.shared()) {
+                    writer.writeFieldDeclaration(TraitProcessorAptUtils.MEMO_CACHE, memoName + "Memo", cache,
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+                } else {
+                    writer.writeFieldDeclaration(TraitProcessorAptUtils.MEMO_CACHE, memoName + "Memo", cache,
+                            Modifier.PRIVATE, Modifier.FINAL);
+                }
+            }
+        }
+        if (hasSimpleMemos()) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, MEMO_GENERATION, null,
+                    Modifier.PRIVATE, Modifier.VOLATILE);
+        }
+        if (element.hasMemoizedMethods()) {
+            writer.writeNewline();
+        }
+    }
+
+    private boolean hasSimpleMemos() {
+        for (ExecutableElement exec : element.getMemoizedMethods()) {
+            if (exec.getParameters().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getMemoStatsName(ExecutableElement exec) {
+        return TraitProcessorAptUtils.toConstantName(memoNames.get(exec)) + "_MEMO_STATS";
+    }
+
     private void emitConstructor() throws IOException {
         MethodDeclarationParameters params = new MethodDeclarationParameters().setConstructorName(traitDelegateClass)
                 .setModifiers(Modifier.PUBLIC).setArgumentTypes(delegateInterface).setArgumentNames("delegate");
@@ -101,9 +227,617 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
     private void emitDefaultMethodImplementations() throws IOException {
         List<? extends ExecutableElement> allMethods = element.getDeclaredMethods();
         for (ExecutableElement exec : allMethods) {
-            if (!exec.getModifiers().contains(Modifier.ABSTRACT)) {
+            if (memoNames.containsKey(exec)) {
+                emitMemoizedMethodDeclaration(exec);
+            } else if (!exec.getModifiers().contains(Modifier.ABSTRACT)) {
+                emitDefaultMethodDeclaration(exec);
+            }
+        }
+    }
+
+    private void emitDefaultMethodDeclaration(ExecutableElement exec) throws IOException {
+        switch (element.getConcurrency()) {
+            case SYNCHRONIZED:
+                emitMethodDeclaration(exec, null, true, Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED);
+                break;
+            case OPTIMISTIC_READ:
+                emitGuardedMethodDeclaration(exec, "default__" + exec.getSimpleName(), Modifier.PUBLIC, Modifier.FINAL);
+                break;
+            default:
                 emitMethodDeclaration(exec, null, true, Modifier.PUBLIC, Modifier.FINAL);
+        }
+    }
+
+    private void emitGuardedMethodDeclaration(ExecutableElement exec, String name, Modifier... modifiers)
+            throws IOException {
+        MethodDeclarationParameters methodDeclaration = TraitProcessorAptUtils.removeOverride(
+                utils.methodDeclarationParamsFromExecutableElement(exec, name, element.getSimpleName(), modifiers));
+        writer.beginMethodDefinition(methodDeclaration);
+
+        boolean isVoid = exec.getReturnType().getKind() == TypeKind.VOID;
+        Expression superCall = superCall(exec, methodDeclaration.getArgumentNames());
+        Expression stamp = Expressions.reference("__stamp");
+        if (element.isReadOnly(exec)) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, "__stamp",
+                    Expressions.callMethodOn(TRAIT_LOCK, "tryOptimisticRead"));
+            writer.beginControlFlow("if (__stamp != 0L)").beginControlFlow("try");
+            if (isVoid) {
+                writer.writeStatement(superCall);
+            } else {
+                writer.writeFieldDeclaration(methodDeclaration.getReturnType(), "__result", superCall);
             }
+            writer.beginControlFlow("if (" + TRAIT_LOCK + ".validate(__stamp))")
+                    .writeStringStatement(isVoid ? "return" : "return __result")
+                    .endControlFlow();
+            writer.nextControlFlow("catch (RuntimeException __e)")
+                    .writeComment("The state may have been inconsistent, so only rethrow if nothing was written")
+                    .beginControlFlow("if (" + TRAIT_LOCK + ".validate(__stamp))")
+                    .writeStringStatement("throw __e")
+                    .endControlFlow();
+            writer.endControlFlow().endControlFlow();
+            writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")")
+                    .writeStatement(isVoid ? superCall : superCall.returnExpr())
+                    .endControlFlow();
+        } else {
+            writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")")
+                    .writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, "__stamp",
+                            Expressions.callMethodOn(TRAIT_LOCK, "beginWrite"))
+                    .beginControlFlow("try")
+                    .writeStatement(isVoid ? superCall : superCall.returnExpr())
+                    .nextControlFlow("finally")
+                    .writeStatement(Expressions.callMethodOn(TRAIT_LOCK, "endWrite", stamp))
+                    .endControlFlow()
+                    .endControlFlow();
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private void emitMemoizedMethodDeclaration(ExecutableElement exec) throws IOException {
+        String memoName = memoNames.get(exec);
+        String memoField = memoName + "Memo";
+        String statsField = getMemoStatsName(exec);
+        Modifier[] modifiers = element.getConcurrency() == Concurrency.SYNCHRONIZED
+                ? new Modifier[] { Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED }
+                : new Modifier[] { Modifier.PUBLIC, Modifier.FINAL };
+        MethodDeclarationParameters methodDeclaration = TraitProcessorAptUtils.removeOverride(
+                utils.methodDeclarationParamsFromExecutableElement(exec, "default__" + exec.getSimpleName(),
+                        element.getSimpleName(), modifiers));
+        TypeName returnType = methodDeclaration.getReturnType();
+        Expression superCall = superCall(exec, methodDeclaration.getArgumentNames());
+        if (element.getConcurrency() == Concurrency.OPTIMISTIC_READ) {
+            superCall = Expressions.callMethod("guarded__" + memoName, methodDeclaration.getArgumentNames());
+            emitGuardedMethodDeclaration(exec, "guarded__" + memoName, Modifier.PRIVATE);
+        }
+        List<String> argumentNames = methodDeclaration.getArgumentNames();
+
+        if (argumentNames.isEmpty()) {
+            writer.beginMethodDefinition(methodDeclaration);
+            writer.beginControlFlow("if (" + memoName + "Memoized)")
+                    .writeStatement(Expressions.callMethodOn(statsField, "recordHit"))
+                    .writeStatement(Expressions.reference(memoField).returnExpr())
+                    .endControlFlow();
+            writer.writeStatement(Expressions.callMethod("miss__" + memoName).returnExpr())
+                    .finishMethodDefinition();
+
+            // The miss path is kept out of line so that the hit path stays small enough to inline
+            writer.beginMethodDefinition(new MethodDeclarationParameters().setMethodName("miss__" + memoName)
+                    .setModifiers(Modifier.PRIVATE).setReturnType(returnType)
+                    .setMethodGenerics(methodDeclaration.getMethodGenerics())
+                    .setThrowsTypes(methodDeclaration.getThrowsTypes()));
+            writer.writeStatement(Expressions.callMethodOn(statsField, "recordMiss"));
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__generation", Expressions.reference(MEMO_GENERATION));
+            writer.writeFieldDeclaration(returnType, "__result", superCall);
+            // Don't publish a result computed before a concurrent invalidation
+            writer.beginControlFlow("synchronized (this)")
+                    .beginControlFlow("if (" + MEMO_GENERATION + " == __generation)")
+                    .writeStatement(Expressions.assign(Expressions.reference(memoField), Expressions.reference("__result")))
+                    .writeStringStatement(memoName + "Memoized = true")
+                    .endControlFlow()
+                    .endControlFlow();
+        } else {
+            writer.writeString("@SuppressWarnings(\"unchecked\")\n");
+            writer.beginMethodDefinition(methodDeclaration);
+            Expression key = argumentNames.size() == 1
+                    ? Expressions.staticMethod(TraitProcessorAptUtils.MEMO_CACHE, "key", argumentNames.get(0))
+                    : Expressions.staticMethod(TraitProcessorAptUtils.MEMO_CACHE, "compositeKey", argumentNames);
+            writer.writeFieldDeclaration(CoreTypes.JAVA_OBJECT, "__memoKey", key);
+            writer.writeFieldDeclaration(CoreTypes.JAVA_OBJECT, "__memoized",
+                    Expressions.callMethodOn(memoField, "get", "__memoKey"));
+            DeclaredTypeName boxed = TraitProcessorAptUtils.getBoxedTypeName(exec.getReturnType().getKind());
+            writer.beginControlFlow("if (__memoized != MemoCache.MISSING)")
+                    .writeStatement(Expressions.cast(boxed != null ? boxed : returnType,
+                            Expressions.reference("__memoized")).returnExpr())
+                    .endControlFlow();
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__generation",
+                    Expressions.callMethodOn(memoField, "generation"));
+            writer.writeFieldDeclaration(returnType, "__result", superCall);
+            writer.writeStatement(Expressions.callMethodOn(memoField, "put", "__memoKey", "__result", "__generation"));
+        }
+        writer.writeStatement(Expressions.reference("__result").returnExpr())
+                .finishMethodDefinition();
+    }
+
+    private void emitInvalidateMemos() throws IOException {
+        if (!element.hasMemoizedMethods()) {
+            return;
+        }
+        MethodDeclarationParameters params = new MethodDeclarationParameters()
+                .setMethodName("default__" + element.getInvalidateMemosMethodName())
+                .setModifiers(Modifier.PUBLIC, Modifier.FINAL);
+        writer.beginMethodDefinition(params);
+        if (hasSimpleMemos()) {
+            writer.beginControlFlow("synchronized (this)")
+                    .writeStringStatement(MEMO_GENERATION + "++");
+            for (ExecutableElement exec : element.getMemoizedMethods()) {
+                if (exec.getParameters().isEmpty()) {
+                    writer.writeStringStatement(memoNames.get(exec) + "Memoized = false");
+                }
+            }
+            writer.endControlFlow();
+        }
+        for (ExecutableElement exec : element.getMemoizedMethods()) {
+            if (!exec.getParameters().isEmpty() && !exec.getAnnotation(Memoize.class).shared()) {
+                writer.writeStatement(Expressions.callMethodOn(memoNames.get(exec) + "Memo", "clear"));
+            }
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private void emitStateFieldHandles() throws IOException {
+        List<VariableElement> fields = element.getStateFields();
+        for (VariableElement field : fields) {
+            Expression traitClass = Expressions.classObject(getFieldOwnerName(field));
+            String fieldName = "\"" + field.getSimpleName() + "\"";
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.METHOD_HANDLE, getFieldGetterName(field),
+                    Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_FIELDS, "getter", traitClass, fieldName),
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+            writer.writeFieldDeclaration(TraitProcessorAptUtils.METHOD_HANDLE, getFieldSetterName(field),
+                    Expressions.staticMethod(TraitProcessorAptUtils.TRAIT_FIELDS, "setter", traitClass, fieldName),
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+        }
+        if (element.isResettable() && !element.getPrototypeResetFields().isEmpty()) {
+            writer.writeFieldDeclaration(getPrototypeType(), TRAIT_PROTOTYPE, null,
+                    Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE);
+        }
+        if (element.isTracked()) {
+            if (element.getConcurrency() == Concurrency.OPTIMISTIC_READ) {
+                // Written under the trait lock, but read without it by dirtyMask()
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, TRAIT_DIRTY, null, Modifier.PRIVATE,
+                        Modifier.VOLATILE);
+            } else {
+                writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, TRAIT_DIRTY, null, Modifier.PRIVATE);
+            }
+        }
+        if (!fields.isEmpty() || element.isTracked()) {
+            writer.writeNewline();
+        }
+    }
+
+    /**
+     * @return the trait declaring the field, which for fields inherited from a trait this one extends is that trait.
+     * The field's handles are looked up on it, so they have to be invoked with a receiver of exactly that type.
+     */
+    private DeclaredTypeName getFieldOwnerName(VariableElement field) {
+        if (field.getEnclosingElement().equals(element.getSourceElement())) {
+            return element.getElementName();
+        }
+        return (DeclaredTypeName) utils.getTypeNameFromTypeMirror(field.getEnclosingElement().asType());
+    }
+
+    private String getFieldOwnerCast(VariableElement field) {
+        return "(" + writer.shortenName(getFieldOwnerName(field), false) + ") ";
+    }
+
+    /**
+     * @return the declared type of the field, with its type arguments
+     */
+    private TypeName getFieldTypeName(VariableElement field) {
+        return utils.getTypeNameFromTypeMirror(field.asType(), element.getSimpleName());
+    }
+
+    /**
+     * @return true if reading the field through its getter handle is an unchecked cast, because its type is a type
+     * variable or has type arguments
+     */
+    private static boolean isGenericType(TypeMirror type) {
+        while (type.getKind() == TypeKind.ARRAY) {
+            type = ((ArrayType) type).getComponentType();
+        }
+        return type.getKind() == TypeKind.TYPEVAR
+                || (type instanceof DeclaredType && !((DeclaredType) type).getTypeArguments().isEmpty());
+    }
+
+    private String getFieldGetterName(VariableElement field) {
+        return TraitProcessorAptUtils.toConstantName(field.getSimpleName().toString()) + "_GETTER";
+    }
+
+    private String getFieldSetterName(VariableElement field) {
+        return TraitProcessorAptUtils.toConstantName(field.getSimpleName().toString()) + "_SETTER";
+    }
+
+    /**
+     * Emits resetTraitState(), which restores the trait's fields to the values a newly constructed instance has by
+     * copying the immutable ones from a lazily created prototype and calling the trait's {@literal @}OnReset methods
+     * for the rest, and copyTraitStateFrom(other). Neither allocates once the prototype exists, unless an
+     * {@literal @}OnReset method does. A trait whose fields can't all be reset or copied doesn't get the method, see
+     * {@link TraitElement#isResettable()} and {@link TraitElement#isCopyable()}. Also emits traitStateEquals(other)
+     * and traitStateHashCode() if a class with value semantics needs them, see
+     * {@link TraitProcessorAptUtils#generatesValueSemantics(TraitElement)}.
+     */
+    private void emitTraitStateMethods() throws IOException {
+        Modifier[] modifiers = element.getConcurrency() == Concurrency.SYNCHRONIZED
+                ? new Modifier[] { Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED }
+                : new Modifier[] { Modifier.PUBLIC, Modifier.FINAL };
+
+        if (element.isResettable()) {
+            MethodDeclarationParameters reset = new MethodDeclarationParameters()
+                    .setMethodName("resetTraitState")
+                    .setModifiers(modifiers);
+            writer.beginMethodDefinition(reset);
+            List<VariableElement> prototypeFields = element.getPrototypeResetFields();
+            if (!prototypeFields.isEmpty()) {
+                Expression prototype = Expressions.reference("__prototype");
+                writer.writeFieldDeclaration(getPrototypeType(), "__prototype",
+                        Expressions.reference(TRAIT_PROTOTYPE));
+                writer.beginControlFlow("if (__prototype == null)")
+                        .writeStatement(Expressions.assign(prototype,
+                                Expressions.callConstructor(traitDelegateClass, "null")))
+                        .writeStatement(Expressions.assign(Expressions.reference(TRAIT_PROTOTYPE), prototype))
+                        .endControlFlow();
+            }
+            emitStateWrite(prototypeFields, copyFrom("__prototype", true), element.getResetHooks(), "0L");
+            writer.finishMethodDefinition();
+        }
+
+        if (element.isCopyable()) {
+            MethodDeclarationParameters copy = new MethodDeclarationParameters()
+                    .setMethodName("copyTraitStateFrom")
+                    .setModifiers(modifiers)
+                    .setArgumentTypes(traitDelegateClass)
+                    .setArgumentNames("other");
+            writer.beginMethodDefinition(copy);
+            emitStateCopy("other", allFieldsMask());
+            writer.finishMethodDefinition();
+        }
+
+        if (!utils.generatesValueSemantics(element)) {
+            return;
+        }
+        StringBuilder equal = new StringBuilder();
+        for (VariableElement field : element.getStateFields()) {
+            String read = READ_PREFIX + field.getSimpleName() + "()";
+            equal.append(equal.length() > 0 ? " && " : "")
+                    .append(TraitProcessorAptUtils.valuesEqual(field.asType(), read, "other." + read));
+        }
+        MethodDeclarationParameters equals = new MethodDeclarationParameters()
+                .setMethodName("traitStateEquals")
+                .setModifiers(modifiers)
+                .setReturnType(CoreTypes.PRIMITIVE_BOOLEAN)
+                .setArgumentTypes(traitDelegateClass)
+                .setArgumentNames("other");
+        // Optimistic reads aren't validated here, so both instances are read while holding their locks
+        boolean locking = element.getConcurrency() == Concurrency.OPTIMISTIC_READ;
+        writer.beginMethodDefinition(equals);
+        if (locking) {
+            String locks = "(" + TRAIT_LOCK + ", other." + TRAIT_LOCK + ")";
+            writer.beginControlFlow("synchronized (" + writer.shortenName(TraitProcessorAptUtils.TRAIT_LOCK, false)
+                    + ".first" + locks + ")")
+                    .beginControlFlow("synchronized (" + writer.shortenName(TraitProcessorAptUtils.TRAIT_LOCK, false)
+                            + ".second" + locks + ")");
+        }
+        writer.writeStringStatement("return " + equal);
+        if (locking) {
+            writer.endControlFlow()
+                    .endControlFlow();
+        }
+        writer.finishMethodDefinition();
+
+        MethodDeclarationParameters hashCode = new MethodDeclarationParameters()
+                .setMethodName("traitStateHashCode")
+                .setModifiers(modifiers)
+                .setReturnType(CoreTypes.PRIMITIVE_INT);
+        writer.beginMethodDefinition(hashCode);
+        if (locking) {
+            writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")");
+        }
+        writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, "__hash", Expressions.fromString("1"));
+        for (VariableElement field : element.getStateFields()) {
+            writer.writeStringStatement("__hash = 31 * __hash + "
+                    + TraitProcessorAptUtils.valueHashCode(field.asType(), READ_PREFIX + field.getSimpleName() + "()"));
+        }
+        writer.writeStatement(Expressions.reference("__hash").returnExpr());
+        if (locking) {
+            writer.endControlFlow();
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private String allFieldsMask() {
+        return element.getStateFields().size() == Long.SIZE ? "-1L"
+                : "(1L << " + element.getStateFields().size() + ") - 1";
+    }
+
+    /**
+     * @param dirtyMask what to set the dirty mask of a {@literal @}Tracked trait to after the copy
+     */
+    private void emitStateCopy(String source, String dirtyMask) throws IOException {
+        emitStateWrite(element.getStateFields(), copyFrom(source, false), Collections.<ExecutableElement>emptyList(),
+                dirtyMask);
+    }
+
+    /**
+     * @return the trait's type with a wildcard for each type parameter, since the prototype is shared by all
+     * parameterizations
+     */
+    private DeclaredTypeName getPrototypeType() {
+        DeclaredTypeName prototypeType = element.getElementName().clone();
+        List<TypeName> wildcards = new ArrayList<TypeName>();
+        for (int i = 0; i < element.getTypeParameters().size(); i++) {
+            wildcards.add(GenericName.DEFAULT_WILDCARD);
+        }
+        prototypeType.setTypeArgs(wildcards.isEmpty() ? null : wildcards);
+        return prototypeType;
+    }
+
+    /**
+     * @param prototype true if source is the prototype, which already has the type the handles of the trait's own
+     * fields take
+     */
+    private Function<VariableElement, String> copyFrom(String source, boolean prototype) {
+        return field -> {
+            boolean ownField = getFieldOwnerName(field).equals(element.getElementName());
+            return "(" + writer.shortenName(utils.getErasedTypeName(field.asType()), false) + ") "
+                    + getFieldGetterName(field) + ".invokeExact("
+                    + (prototype && ownField ? "" : getFieldOwnerCast(field)) + source + ")";
+        };
+    }
+
+    /**
+     * Sets every state field to the value returned by valueOf under the trait's write lock, calls the hooks, then
+     * invalidates memos and sets the dirty mask
+     *
+     * @param hooks the {@literal @}OnReset methods to call once the fields are written
+     */
+    private void emitStateWrite(List<VariableElement> fields, Function<VariableElement, String> valueOf,
+            List<ExecutableElement> hooks, String dirtyMask) throws IOException {
+        boolean guarded = element.getConcurrency() == Concurrency.OPTIMISTIC_READ;
+        if (guarded) {
+            writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")")
+                    .writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, "__stamp",
+                            Expressions.callMethodOn(TRAIT_LOCK, "beginWrite"))
+                    .beginControlFlow("try");
+        }
+        if (!fields.isEmpty()) {
+            writer.beginControlFlow("try");
+            for (VariableElement field : fields) {
+                writer.writeStatement(Expressions.callMethodOn(getFieldSetterName(field), "invokeExact",
+                        getFieldOwnerCast(field) + "this", valueOf.apply(field)));
+            }
+            writer.nextControlFlow("catch (Throwable __t)")
+                    .writeStringStatement("throw " + writer.shortenName(TraitProcessorAptUtils.TRAIT_FIELDS, false)
+                            + ".propagate(__t)")
+                    .endControlFlow();
+        }
+        for (ExecutableElement hook : hooks) {
+            writer.writeStatement(Expressions.callMethodOn("super", hook.getSimpleName().toString()));
+        }
+        if (element.hasMemoizedMethods()) {
+            writer.writeStatement(Expressions.callMethod("default__" + element.getInvalidateMemosMethodName()));
+        }
+        if (element.isTracked()) {
+            writer.writeStringStatement(TRAIT_DIRTY + " = " + dirtyMask);
+        }
+        if (guarded) {
+            writer.nextControlFlow("finally")
+                    .writeStatement(Expressions.callMethodOn(TRAIT_LOCK, "endWrite", Expressions.reference("__stamp")))
+                    .endControlFlow()
+                    .endControlFlow();
+        }
+    }
+
+    /**
+     * Emits writeTraitState and readTraitState for DataOutput/DataInput and ByteBuffer, which encode the state
+     * fields in declaration order for the codec generated with {@literal @}HasTraits(codec = true), if a class needs
+     * them, see {@link TraitProcessorAptUtils#generatesCodec(TraitElement)}
+     */
+    private void emitCodecMethods() throws IOException {
+        List<VariableElement> fields = element.getStateFields();
+        if (!utils.generatesCodec(element)) {
+            return;
+        }
+        Modifier[] modifiers = element.getConcurrency() == Concurrency.SYNCHRONIZED
+                ? new Modifier[] { Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED }
+                : new Modifier[] { Modifier.PUBLIC, Modifier.FINAL };
+        boolean guarded = element.getConcurrency() == Concurrency.OPTIMISTIC_READ;
+        for (boolean buffer : new boolean[] { false, true }) {
+            String target = buffer ? "buffer" : "out";
+            MethodDeclarationParameters write = new MethodDeclarationParameters()
+                    .setMethodName("writeTraitState")
+                    .setModifiers(modifiers)
+                    .setArgumentTypes(buffer ? TraitProcessorAptUtils.BYTE_BUFFER : TraitProcessorAptUtils.DATA_OUTPUT)
+                    .setArgumentNames(target);
+            if (!buffer) {
+                write.setThrowsTypes(Collections.singletonList(TraitProcessorAptUtils.IO_EXCEPTION));
+            }
+            writer.beginMethodDefinition(write);
+            if (guarded) {
+                writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")");
+            }
+            for (VariableElement field : fields) {
+                writer.writeStringStatement(TraitProcessorAptUtils.writeValue(field.asType(), target, buffer,
+                        READ_PREFIX + field.getSimpleName() + "()"));
+            }
+            if (guarded) {
+                writer.endControlFlow();
+            }
+            writer.finishMethodDefinition();
+
+            String source = buffer ? "buffer" : "in";
+            MethodDeclarationParameters read = new MethodDeclarationParameters()
+                    .setMethodName("readTraitState")
+                    .setModifiers(modifiers)
+                    .setArgumentTypes(buffer ? TraitProcessorAptUtils.BYTE_BUFFER : TraitProcessorAptUtils.DATA_INPUT)
+                    .setArgumentNames(source);
+            if (!buffer) {
+                read.setThrowsTypes(Collections.singletonList(TraitProcessorAptUtils.IO_EXCEPTION));
+            }
+            writer.beginMethodDefinition(read);
+            for (int i = 0; i < fields.size(); i++) {
+                VariableElement field = fields.get(i);
+                writer.writeFieldDeclaration(getFieldTypeName(field), getSnapshotNames().get(i),
+                        Expressions.fromString(TraitProcessorAptUtils.readValue(field.asType(), source, buffer)));
+            }
+            emitStateWrite(fields, field -> "__" + field.getSimpleName(), Collections.<ExecutableElement>emptyList(),
+                    allFieldsMask());
+            writer.finishMethodDefinition();
+        }
+    }
+
+    /**
+     * @return the call to the trait's implementation of exec, going through its change tracking wrapper if it has one
+     */
+    private Expression superCall(ExecutableElement exec, List<String> argumentNames) {
+        if (element.isTrackedWrite(exec)) {
+            return Expressions.callMethod(TRACKED_PREFIX + exec.getSimpleName(), argumentNames);
+        }
+        return Expressions.callMethodOn("super", exec.getSimpleName().toString(), argumentNames);
+    }
+
+    private void emitTrackingMethods() throws IOException {
+        if (!element.isTracked()) {
+            return;
+        }
+        Modifier[] modifiers = element.getConcurrency() == Concurrency.SYNCHRONIZED
+                ? new Modifier[] { Modifier.PUBLIC, Modifier.FINAL, Modifier.SYNCHRONIZED }
+                : new Modifier[] { Modifier.PUBLIC, Modifier.FINAL };
+        writer.beginMethodDefinition(new MethodDeclarationParameters()
+                .setMethodName("default__" + TraitProcessorAptUtils.DIRTY_MASK)
+                .setModifiers(modifiers)
+                .setReturnType(CoreTypes.PRIMITIVE_LONG))
+                .writeStatement(Expressions.reference(TRAIT_DIRTY).returnExpr())
+                .finishMethodDefinition();
+        // Tracked writes update the mask under the trait lock, so clearing it has to take the lock as well
+        boolean locking = element.getConcurrency() == Concurrency.OPTIMISTIC_READ;
+        writer.beginMethodDefinition(new MethodDeclarationParameters()
+                .setMethodName("default__" + TraitProcessorAptUtils.CLEAR_DIRTY)
+                .setModifiers(modifiers));
+        if (locking) {
+            writer.beginControlFlow("synchronized (" + TRAIT_LOCK + ")");
+        }
+        writer.writeStringStatement(TRAIT_DIRTY + " = 0L");
+        if (locking) {
+            writer.endControlFlow();
+        }
+        writer.finishMethodDefinition();
+
+        for (ExecutableElement exec : element.getDeclaredMethods()) {
+            if (element.isTrackedWrite(exec)) {
+                emitTrackedMethod(exec);
+            }
+        }
+    }
+
+    /**
+     * Emits a private read__field() accessor for each state field, which the tracking and value semantics methods
+     * use to read fields of this or another delegate
+     */
+    private void emitFieldReaders() throws IOException {
+        for (VariableElement field : element.getStateFields()) {
+            TypeName fieldType = getFieldTypeName(field);
+            if (isGenericType(field.asType())) {
+                writer.writeString("@SuppressWarnings(\"unchecked\")\n");
+            }
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(READ_PREFIX + field.getSimpleName())
+                    .setModifiers(Modifier.PRIVATE)
+                    .setReturnType(fieldType))
+                    .beginControlFlow("try")
+                    .writeStringStatement("return (" + writer.shortenName(fieldType, false) + ") "
+                            + getFieldGetterName(field) + ".invokeExact(" + getFieldOwnerCast(field) + "this)")
+                    .nextControlFlow("catch (Throwable __t)")
+                    .writeStringStatement("throw " + writer.shortenName(TraitProcessorAptUtils.TRAIT_FIELDS, false)
+                            + ".propagate(__t)")
+                    .endControlFlow()
+                    .finishMethodDefinition();
+        }
+    }
+
+    /**
+     * Emits a wrapper around the trait's implementation of exec that snapshots the fields it may assign before the
+     * call and marks the ones that changed afterwards
+     */
+    private void emitTrackedMethod(ExecutableElement exec) throws IOException {
+        MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec,
+                TRACKED_PREFIX + exec.getSimpleName(), element.getSimpleName(), Modifier.PRIVATE);
+        methodDeclaration.setAnnotations(null);
+        writer.beginMethodDefinition(methodDeclaration);
+        List<VariableElement> fields = element.getStateFields();
+        List<Integer> written = element.getWrittenFieldIndices(exec);
+        for (int i : written) {
+            VariableElement field = fields.get(i);
+            writer.writeFieldDeclaration(getFieldTypeName(field), getSnapshotNames().get(i),
+                    Expressions.callMethod(READ_PREFIX + field.getSimpleName()));
+        }
+        Expression call = Expressions.callMethodOn("super", exec.getSimpleName().toString(),
+                methodDeclaration.getArgumentNames());
+        writer.beginControlFlow("try")
+                .writeStatement(exec.getReturnType().getKind() == TypeKind.VOID ? call : call.returnExpr())
+                .nextControlFlow("finally");
+        writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_LONG, "__dirty", Expressions.reference(TRAIT_DIRTY));
+        for (int i : written) {
+            VariableElement field = fields.get(i);
+            String before = getSnapshotNames().get(i);
+            String after = READ_PREFIX + field.getSimpleName() + "()";
+            writer.beginControlFlow("if (" + valuesDiffer(field.asType().getKind(), before, after) + ")")
+                    .writeStringStatement("__dirty |= " + bit(i))
+                    .endControlFlow();
+        }
+        writer.writeStringStatement(TRAIT_DIRTY + " = __dirty")
+                .endControlFlow()
+                .finishMethodDefinition();
+    }
+
+    private List<String> getSnapshotNames() {
+        List<String> names = new ArrayList<String>();
+        for (VariableElement field : element.getStateFields()) {
+            names.add("__" + field.getSimpleName());
+        }
+        return names;
+    }
+
+    private static String valuesDiffer(TypeKind kind, String before, String after) {
+        switch (kind) {
+            case DOUBLE:
+                return "Double.doubleToRawLongBits(" + before + ") != Double.doubleToRawLongBits(" + after + ")";
+            case FLOAT:
+                return "Float.floatToRawIntBits(" + before + ") != Float.floatToRawIntBits(" + after + ")";
+            default:
+                return before + " != " + after;
+        }
+    }
+
+    private static String bit(int index) {
+        return index == 0 ? "1L" : "1L << " + index;
+    }
+
+    private void emitAsyncMethods() throws IOException {
+        for (ExecutableElement exec : element.getAsyncMethods()) {
+            MethodDeclarationParameters params = utils.asyncMethodDeclarationParams(element, exec,
+                    "default__" + element.getAsyncMethodName(exec), Modifier.PUBLIC, Modifier.FINAL);
+            writer.beginMethodDefinition(params);
+
+            StringBuilder call = new StringBuilder("delegate.").append(exec.getSimpleName()).append("(");
+            List<String> argumentNames = params.getArgumentNames();
+            for (int i = 0; i < argumentNames.size(); i++) {
+                call.append(i > 0 ? ", " : "").append(argumentNames.get(i));
+            }
+            call.append(")");
+            String callable = exec.getReturnType().getKind() == TypeKind.VOID
+                    ? "() -> { " + call + "; return null; }"
+                    : "() -> " + call;
+            writer.writeStatement(Expressions.staticMethod(TraitProcessorAptUtils.ASYNC_SUPPORT, "submit",
+                    Expressions.classObject(element.getElementName()), callable).returnExpr());
+            writer.finishMethodDefinition();
         }
     }
 
@@ -134,12 +868,16 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
         String name = isDefault ? "default__" + exec.getSimpleName().toString() : null;
         MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec, name,
                 element.getSimpleName(), modifiers);
-        remapMethodDeclarationGenerics(methodDeclaration, genericNameMap);
+        utils.remapMethodDeclarationGenerics(methodDeclaration, genericNameMap);
+        if (isDefault) {
+            // default__ methods are renamed, so an @Override copied from the trait method doesn't apply to them
+            TraitProcessorAptUtils.removeOverride(methodDeclaration);
+        }
         writer.beginMethodDefinition(methodDeclaration);
 
-        String callTo = isDefault ? "super" : "delegate";
-        Expression methodInvocation = Expressions.callMethodOn(callTo, exec.getSimpleName().toString(),
-                methodDeclaration.getArgumentNames());
+        Expression methodInvocation = isDefault ? superCall(exec, methodDeclaration.getArgumentNames())
+                : Expressions.callMethodOn("delegate", exec.getSimpleName().toString(),
+                        methodDeclaration.getArgumentNames());
 
         if (exec.getReturnType().getKind() != TypeKind.VOID) {
             methodInvocation = methodInvocation.returnExpr();
@@ -156,13 +894,4 @@ public class TraitDelegateWriter extends JavaTraitsWriter<TraitElement> {
         }
     }
 
-    private void remapMethodDeclarationGenerics(MethodDeclarationParameters params,
-            Map<String, TypeName> genericNameMap) {
-        if (!AptUtils.isEmpty(genericNameMap)) {
-            params.setReturnType(utils.remapGenericNames(params.getReturnType(), genericNameMap));
-            params.setArgumentTypes(utils.remapGenericNames(params.getArgumentTypes(), genericNameMap));
-            params.setThrowsTypes(utils.remapGenericNames(params.getThrowsTypes(), genericNameMap));
-        }
-    }
-
 }
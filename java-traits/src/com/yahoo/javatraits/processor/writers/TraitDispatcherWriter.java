@@ -0,0 +1,391 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.writers;
+
+import com.yahoo.aptutils.model.CoreTypes;
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.aptutils.writer.JavaFileWriter.Type;
+import com.yahoo.aptutils.writer.expressions.Expression;
+import com.yahoo.aptutils.writer.expressions.Expressions;
+import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
+import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes a dispatcher class for a trait, which maps method ids or names to direct calls on the trait interface
+ * so that dynamic callers (RPC, scripting) don't need reflection. Calls that take zero to two primitive arguments
+ * of the same type and return int, long, double or boolean also get overloads that don't box.
+ */
+public class TraitDispatcherWriter extends JavaTraitsWriter<TraitElement> {
+
+    private static final String NO_SUCH_METHOD = "NO_SUCH_METHOD";
+    private static final String TARGET = "target";
+    private static final String METHOD_ID = "methodId";
+    private static final String ARGS = "args";
+    private static final int MAX_PRIMITIVE_ARITY = 2;
+
+    private static final Set<TypeKind> PRIMITIVE_RETURN_KINDS = EnumSet.of(TypeKind.INT, TypeKind.LONG, TypeKind.DOUBLE, TypeKind.BOOLEAN);
+    private static final Set<TypeKind> PRIMITIVE_ARG_KINDS = EnumSet.of(TypeKind.INT, TypeKind.LONG, TypeKind.DOUBLE);
+
+    private final DeclaredTypeName dispatcherName;
+    private final DeclaredTypeName interfaceName;
+    private final DeclaredTypeName rawInterfaceName;
+    private final List<DispatchMethod> methods = new ArrayList<DispatchMethod>();
+
+    public TraitDispatcherWriter(TraitElement element, TraitProcessorAptUtils utils) {
+        super(element, utils);
+        this.dispatcherName = element.getDispatcherName();
+        this.interfaceName = element.getGeneratedInterfaceName();
+        this.rawInterfaceName = interfaceName.clone();
+        this.rawInterfaceName.setTypeArgs(null);
+        initializeMethods();
+    }
+
+    private void initializeMethods() {
+        Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+        for (ExecutableElement exec : element.getDeclaredMethods()) {
+            if (utils.isGetThis(element, exec)) {
+                continue;
+            }
+            String name = exec.getSimpleName().toString();
+            Integer count = nameCounts.get(name);
+            nameCounts.put(name, count == null ? 1 : count + 1);
+
+            String constantName = TraitProcessorAptUtils.toConstantName(name);
+            if (count != null) {
+                constantName += "_" + (count + 1);
+            }
+            methods.add(new DispatchMethod(exec, constantName, methods.size()));
+        }
+        for (DispatchMethod method : methods) {
+            method.overloaded = nameCounts.get(method.getName()) > 1;
+        }
+    }
+
+    @Override
+    protected DeclaredTypeName getClassNameToGenerate() {
+        return dispatcherName;
+    }
+
+    @Override
+    protected void gatherImports(Set<DeclaredTypeName> imports) {
+        imports.add(rawInterfaceName);
+        utils.accumulateImportsFromTypeNames(imports, element.getTypeParameters());
+        for (DispatchMethod method : methods) {
+            utils.accumulateImportsFromTypeNames(imports, method.erasedArgumentTypes);
+            utils.accumulateImportsFromTypeNames(imports, method.erasedThrownTypes);
+        }
+    }
+
+    @Override
+    protected void writeClassDefinition() throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(dispatcherName)
+            .setKind(Type.CLASS)
+            .setModifiers(Modifier.PUBLIC, Modifier.FINAL);
+
+        writer.writeString("@SuppressWarnings({\"deprecation\", \"rawtypes\", \"unchecked\"})\n");
+        writer.beginTypeDefinition(params);
+
+        emitMethodIdConstants();
+        emitConstructor();
+        emitMethodIdLookup();
+        emitGenericInvoke();
+        emitPrimitiveInvokes();
+
+        writer.finishTypeDefinition();
+    }
+
+    private void emitMethodIdConstants() throws IOException {
+        writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, NO_SUCH_METHOD, Expressions.fromString("-1"),
+                Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        for (DispatchMethod method : methods) {
+            writer.writeFieldDeclaration(CoreTypes.PRIMITIVE_INT, method.constantName,
+                    Expressions.fromString(Integer.toString(method.id)), Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        }
+        writer.writeNewline();
+    }
+
+    private void emitConstructor() throws IOException {
+        MethodDeclarationParameters params = new MethodDeclarationParameters().setConstructorName(dispatcherName)
+                .setModifiers(Modifier.PRIVATE);
+        writer.beginConstructorDeclaration(params)
+                .writeComment("no instances")
+                .finishMethodDefinition();
+    }
+
+    private void emitMethodIdLookup() throws IOException {
+        MethodDeclarationParameters params = new MethodDeclarationParameters()
+                .setMethodName("methodId")
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setReturnType(CoreTypes.PRIMITIVE_INT)
+                .setArgumentTypes(CoreTypes.JAVA_STRING)
+                .setArgumentNames("name");
+
+        writer.beginMethodDefinition(params);
+        writer.beginControlFlow("switch (name)");
+        for (DispatchMethod method : methods) {
+            if (!method.overloaded) {
+                writer.writeStringStatement("case \"" + method.getName() + "\": return " + method.constantName);
+            }
+        }
+        writer.writeStringStatement("default: return " + NO_SUCH_METHOD);
+        writer.endControlFlow();
+        writer.finishMethodDefinition();
+    }
+
+    private void emitGenericInvoke() throws IOException {
+        TypeName objectArray = CoreTypes.JAVA_OBJECT.clone();
+        objectArray.setArrayDepth(1);
+        objectArray.setIsVarArgs(true);
+
+        MethodDeclarationParameters params = new MethodDeclarationParameters()
+                .setMethodName("invoke")
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setMethodGenerics(element.getTypeParameters())
+                .setReturnType(CoreTypes.JAVA_OBJECT)
+                .setArgumentTypes(interfaceName, CoreTypes.PRIMITIVE_INT, objectArray)
+                .setArgumentNames(TARGET, METHOD_ID, ARGS)
+                .setThrowsTypes(thrownTypes(methods));
+
+        writer.beginMethodDefinition(params);
+        writer.beginControlFlow("switch (" + METHOD_ID + ")");
+        for (DispatchMethod method : methods) {
+            List<Expression> arguments = new ArrayList<Expression>();
+            for (int i = 0; i < method.erasedArgumentTypes.size(); i++) {
+                TypeName castType = method.castTypes.get(i);
+                Expression arg = Expressions.arrayReference(ARGS, i);
+                arguments.add(isObject(castType) ? arg : Expressions.cast(castType, arg));
+            }
+            emitCase(method, arguments, true);
+        }
+        emitDefaultCase("");
+        writer.endControlFlow();
+        writer.finishMethodDefinition();
+    }
+
+    private void emitPrimitiveInvokes() throws IOException {
+        Map<PrimitiveShape, List<DispatchMethod>> shapes = new LinkedHashMap<PrimitiveShape, List<DispatchMethod>>();
+        for (DispatchMethod method : methods) {
+            PrimitiveShape shape = method.getPrimitiveShape();
+            if (shape != null) {
+                List<DispatchMethod> forShape = shapes.get(shape);
+                if (forShape == null) {
+                    forShape = new ArrayList<DispatchMethod>();
+                    shapes.put(shape, forShape);
+                }
+                forShape.add(method);
+            }
+        }
+
+        for (Map.Entry<PrimitiveShape, List<DispatchMethod>> entry : shapes.entrySet()) {
+            emitPrimitiveInvoke(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void emitPrimitiveInvoke(PrimitiveShape shape, List<DispatchMethod> shapeMethods) throws IOException {
+        List<TypeName> argumentTypes = new ArrayList<TypeName>();
+        List<String> argumentNames = new ArrayList<String>();
+        argumentTypes.add(interfaceName);
+        argumentNames.add(TARGET);
+        argumentTypes.add(CoreTypes.PRIMITIVE_INT);
+        argumentNames.add(METHOD_ID);
+        List<String> callArguments = new ArrayList<String>();
+        for (int i = 0; i < shape.arity; i++) {
+            argumentTypes.add(shape.getArgType());
+            argumentNames.add("arg" + i);
+            callArguments.add("arg" + i);
+        }
+
+        MethodDeclarationParameters params = new MethodDeclarationParameters()
+                .setMethodName("invoke" + TraitProcessorAptUtils.capitalize(shape.getReturnType().getSimpleName()))
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setMethodGenerics(element.getTypeParameters())
+                .setReturnType(shape.getReturnType())
+                .setArgumentTypes(argumentTypes)
+                .setArgumentNames(argumentNames)
+                .setThrowsTypes(thrownTypes(shapeMethods));
+
+        writer.beginMethodDefinition(params);
+        writer.beginControlFlow("switch (" + METHOD_ID + ")");
+        for (DispatchMethod method : shapeMethods) {
+            emitCase(method, callArguments, false);
+        }
+        emitDefaultCase(shape.toString() + " ");
+        writer.endControlFlow();
+        writer.finishMethodDefinition();
+    }
+
+    private void emitCase(DispatchMethod method, List<?> arguments, boolean returnsObject) throws IOException {
+        // A method with its own type parameters is called through the raw interface of a generic trait, since its
+        // erased argument casts can't satisfy the bounds javac would otherwise infer
+        boolean raw = !element.getTypeParameters().isEmpty() && !method.exec.getTypeParameters().isEmpty();
+        String target = raw ? "((" + writer.shortenName(rawInterfaceName, false) + ") " + TARGET + ")" : TARGET;
+        Expression call = Expressions.callMethodOn(target, method.getName(), arguments);
+        writer.writeString("case " + method.constantName + ": ");
+        if (method.exec.getReturnType().getKind() == TypeKind.VOID) {
+            writer.appendExpression(call).appendString("; ");
+            writer.appendString(returnsObject ? "return null;\n" : "return;\n");
+        } else {
+            writer.appendExpression(call.returnExpr()).appendString(";\n");
+        }
+    }
+
+    private void emitDefaultCase(String description) throws IOException {
+        writer.writeStringStatement("default: throw new IllegalArgumentException(\"No " + description
+                + "method with id \" + " + METHOD_ID + " + \" in " + rawInterfaceName.getSimpleName() + "\")");
+    }
+
+    private static boolean isObject(TypeName type) {
+        return type.getArrayDepth() == 0 && CoreTypes.JAVA_OBJECT.equals(type);
+    }
+
+    /**
+     * @return true if type is one of the trait's own type variables or an array of one, which the generic invoke
+     * declares and so can cast to directly
+     */
+    private boolean isTraitTypeVariable(TypeMirror type) {
+        while (type.getKind() == TypeKind.ARRAY) {
+            type = ((ArrayType) type).getComponentType();
+        }
+        return type.getKind() == TypeKind.TYPEVAR
+                && element.getSourceElement().equals(((TypeVariable) type).asElement().getEnclosingElement());
+    }
+
+    private List<TypeName> thrownTypes(List<DispatchMethod> forMethods) {
+        Set<String> seen = new HashSet<String>();
+        List<TypeName> result = new ArrayList<TypeName>();
+        for (DispatchMethod method : forMethods) {
+            for (TypeName thrown : method.erasedThrownTypes) {
+                if (seen.add(thrown.toString())) {
+                    result.add(thrown);
+                }
+            }
+        }
+        return result;
+    }
+
+    private class DispatchMethod {
+        private final ExecutableElement exec;
+        private final String constantName;
+        private final int id;
+        private final List<TypeName> erasedArgumentTypes = new ArrayList<TypeName>();
+        private final List<TypeName> castTypes = new ArrayList<TypeName>();
+        private final List<TypeName> erasedThrownTypes = new ArrayList<TypeName>();
+        private boolean overloaded;
+
+        private DispatchMethod(ExecutableElement exec, String constantName, int id) {
+            this.exec = exec;
+            this.constantName = constantName;
+            this.id = id;
+            for (VariableElement param : exec.getParameters()) {
+                TypeMirror type = param.asType();
+                TypeName erased = utils.getErasedTypeName(type);
+                erasedArgumentTypes.add(erased);
+                DeclaredTypeName boxed = TraitProcessorAptUtils.getBoxedTypeName(type.getKind());
+                if (boxed != null) {
+                    castTypes.add(boxed);
+                } else if (isTraitTypeVariable(type)) {
+                    castTypes.add(utils.getTypeNameFromTypeMirror(type, element.getSimpleName()));
+                } else {
+                    castTypes.add(erased);
+                }
+            }
+            for (TypeMirror thrown : exec.getThrownTypes()) {
+                erasedThrownTypes.add(utils.getErasedTypeName(thrown));
+            }
+        }
+
+        private String getName() {
+            return exec.getSimpleName().toString();
+        }
+
+        private PrimitiveShape getPrimitiveShape() {
+            TypeKind returnKind = exec.getReturnType().getKind();
+            if (!PRIMITIVE_RETURN_KINDS.contains(returnKind) || exec.getParameters().size() > MAX_PRIMITIVE_ARITY) {
+                return null;
+            }
+            TypeKind argKind = null;
+            for (VariableElement param : exec.getParameters()) {
+                TypeKind kind = param.asType().getKind();
+                if (!PRIMITIVE_ARG_KINDS.contains(kind) || (argKind != null && argKind != kind)) {
+                    return null;
+                }
+                argKind = kind;
+            }
+            return new PrimitiveShape(returnKind, argKind, exec.getParameters().size());
+        }
+    }
+
+    private static class PrimitiveShape {
+        private final TypeKind returnKind;
+        private final TypeKind argKind;
+        private final int arity;
+
+        private PrimitiveShape(TypeKind returnKind, TypeKind argKind, int arity) {
+            this.returnKind = returnKind;
+            this.argKind = argKind;
+            this.arity = arity;
+        }
+
+        private DeclaredTypeName getReturnType() {
+            return primitiveTypeName(returnKind);
+        }
+
+        private DeclaredTypeName getArgType() {
+            return primitiveTypeName(argKind);
+        }
+
+        private static DeclaredTypeName primitiveTypeName(TypeKind kind) {
+            return new DeclaredTypeName("", kind.name().toLowerCase());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PrimitiveShape)) {
+                return false;
+            }
+            PrimitiveShape other = (PrimitiveShape) o;
+            return returnKind == other.returnKind && argKind == other.argKind && arity == other.arity;
+        }
+
+        @Override
+        public int hashCode() {
+            return (returnKind.hashCode() * 31 + (argKind == null ? 0 : argKind.hashCode())) * 31 + arity;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(getReturnType().getSimpleName()).append("(");
+            for (int i = 0; i < arity; i++) {
+                builder.append(i > 0 ? ", " : "").append(getArgType().getSimpleName());
+            }
+            return builder.append(")").toString();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.writers;
+
+import com.yahoo.aptutils.model.CoreTypes;
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.aptutils.writer.JavaFileWriter.Type;
+import com.yahoo.aptutils.writer.expressions.Expression;
+import com.yahoo.aptutils.writer.expressions.Expressions;
+import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
+import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.type.TypeKind;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the companion class of a trait, e.g. RectangularFactory for Rectangular, whose static "of" method builds an
+ * instance of the trait's interface from one functional implementation per abstract method:
+ * <pre>
+ * IRectangular rectangle = RectangularFactory.of(() -&gt; 3, () -&gt; 4);
+ * </pre>
+ *
+ * Abstract methods that match a java.util.function type (no checked exceptions, at most two arguments) take that
+ * type. Any other abstract method gets a nested functional interface with the same signature, named after the
+ * method. The returned object is a single private final class holding the functions and the trait's delegate
+ * wrapper, so no named class is needed at the use site.
+ */
+public class TraitFactoryWriter extends JavaTraitsWriter<TraitElement> {
+
+    private static final String FUNCTION_PACKAGE = "java.util.function";
+    private static final DeclaredTypeName RUNNABLE = new DeclaredTypeName(Runnable.class.getName());
+    private static final DeclaredTypeName FUNCTIONAL_INTERFACE = new DeclaredTypeName(FunctionalInterface.class.getName());
+    private static final String FACTORY_METHOD = "of";
+    private static final String IMPL = "Impl";
+    private static final String TRAIT_DELEGATE = "traitDelegate";
+
+    private final DeclaredTypeName factoryName;
+    private final DeclaredTypeName implName;
+    private final DeclaredTypeName implementedInterface;
+    private final List<FunctionParameter> functions = new ArrayList<FunctionParameter>();
+
+    public TraitFactoryWriter(TraitElement element, TraitProcessorAptUtils utils) {
+        super(element, utils);
+        this.factoryName = element.getFactoryName();
+        this.implName = new DeclaredTypeName("", IMPL);
+        this.implName.setTypeArgs(element.getTypeParameters());
+        this.implementedInterface = element.getGeneratedInterfaceName();
+        initializeFunctions();
+    }
+
+    private static class FunctionParameter {
+        private final ExecutableElement exec;
+        private final String name;
+        private DeclaredTypeName functionClass;
+        private DeclaredTypeName type;
+        private String functionMethod;
+        private boolean nested;
+
+        FunctionParameter(ExecutableElement exec, String name) {
+            this.exec = exec;
+            this.name = name;
+        }
+
+        boolean assign(DeclaredTypeName functionClass, String functionMethod, TypeName... typeArgs) {
+            this.functionClass = functionClass;
+            this.type = functionClass.clone();
+            this.type.setTypeArgs(Arrays.asList(typeArgs));
+            this.functionMethod = functionMethod;
+            return true;
+        }
+    }
+
+    private void initializeFunctions() {
+        Set<String> usedNames = new HashSet<String>();
+        usedNames.add(TRAIT_DELEGATE);
+        Set<String> usedTypeNames = new HashSet<String>();
+        usedTypeNames.add(factoryName.getSimpleName());
+        usedTypeNames.add(IMPL);
+        for (ExecutableElement exec : element.getDeclaredMethods()) {
+            if (!exec.getModifiers().contains(Modifier.ABSTRACT) || utils.isGetThis(element, exec)) {
+                continue;
+            }
+            FunctionParameter function = new FunctionParameter(exec, unique(parameterName(exec), usedNames));
+            if (!assignStandardFunction(function)) {
+                DeclaredTypeName nestedName = new DeclaredTypeName("",
+                        unique(TraitProcessorAptUtils.capitalize(exec.getSimpleName().toString()), usedTypeNames));
+                nestedName.setTypeArgs(element.getTypeParameters());
+                function.type = nestedName;
+                function.functionMethod = exec.getSimpleName().toString();
+                function.nested = true;
+            }
+            functions.add(function);
+        }
+    }
+
+    /**
+     * @return the property name for getters, e.g. width for getWidth, and the method name otherwise
+     */
+    private static String parameterName(ExecutableElement exec) {
+        String name = exec.getSimpleName().toString();
+        String property = null;
+        if (exec.getParameters().isEmpty()) {
+            if (name.startsWith("get") && name.length() > 3) {
+                property = name.substring(3);
+            } else if (name.startsWith("is") && name.length() > 2
+                    && exec.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                property = name.substring(2);
+            }
+        }
+        if (property != null && Character.isUpperCase(property.charAt(0))) {
+            String decapitalized = Character.toLowerCase(property.charAt(0)) + property.substring(1);
+            if (SourceVersion.isName(decapitalized)) {
+                return decapitalized;
+            }
+        }
+        return name;
+    }
+
+    private static String unique(String name, Set<String> usedNames) {
+        String result = name;
+        for (int i = 2; !usedNames.add(result); i++) {
+            result = name + i;
+        }
+        return result;
+    }
+
+    /**
+     * Picks the java.util.function type matching the signature of the function's method exactly, so that primitive
+     * arguments and results are never boxed
+     *
+     * @return false if no standard functional interface matches
+     */
+    private boolean assignStandardFunction(FunctionParameter function) {
+        ExecutableElement exec = function.exec;
+        if (!exec.getThrownTypes().isEmpty()) {
+            return false;
+        }
+        MethodDeclarationParameters method = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                element.getSimpleName());
+        TypeKind returnKind = exec.getReturnType().getKind();
+        String returnPrefix = primitivePrefix(returnKind);
+        TypeName returnType = method.getReturnType();
+        List<TypeName> args = new ArrayList<TypeName>();
+        for (TypeName argumentType : method.getArgumentTypes()) {
+            TypeName arg = argumentType.clone();
+            arg.setIsVarArgs(false);
+            args.add(arg);
+        }
+
+        switch (args.size()) {
+            case 0:
+                if (returnKind == TypeKind.VOID) {
+                    return function.assign(RUNNABLE, "run");
+                } else if (returnKind == TypeKind.BOOLEAN) {
+                    return function.assign(functionClass("BooleanSupplier"), "getAsBoolean");
+                } else if (returnPrefix != null) {
+                    return function.assign(functionClass(returnPrefix + "Supplier"), "getAs" + returnPrefix);
+                } else if (isReference(returnKind)) {
+                    return function.assign(functionClass("Supplier"), "get", returnType);
+                }
+                return false;
+            case 1:
+                TypeKind argKind = exec.getParameters().get(0).asType().getKind();
+                String argPrefix = primitivePrefix(argKind);
+                if (isReference(argKind)) {
+                    if (returnKind == TypeKind.VOID) {
+                        return function.assign(functionClass("Consumer"), "accept", args.get(0));
+                    } else if (returnKind == TypeKind.BOOLEAN) {
+                        return function.assign(functionClass("Predicate"), "test", args.get(0));
+                    } else if (returnPrefix != null) {
+                        return function.assign(functionClass("To" + returnPrefix + "Function"), "applyAs" + returnPrefix,
+                                args.get(0));
+                    } else if (isReference(returnKind)) {
+                        return function.assign(functionClass("Function"), "apply", args.get(0), returnType);
+                    }
+                } else if (argPrefix != null) {
+                    if (returnKind == TypeKind.VOID) {
+                        return function.assign(functionClass(argPrefix + "Consumer"), "accept");
+                    } else if (returnKind == TypeKind.BOOLEAN) {
+                        return function.assign(functionClass(argPrefix + "Predicate"), "test");
+                    } else if (argPrefix.equals(returnPrefix)) {
+                        return function.assign(functionClass(argPrefix + "UnaryOperator"), "applyAs" + returnPrefix);
+                    } else if (returnPrefix != null) {
+                        return function.assign(functionClass(argPrefix + "To" + returnPrefix + "Function"),
+                                "applyAs" + returnPrefix);
+                    } else if (isReference(returnKind)) {
+                        return function.assign(functionClass(argPrefix + "Function"), "apply", returnType);
+                    }
+                }
+                return false;
+            case 2:
+                TypeKind firstKind = exec.getParameters().get(0).asType().getKind();
+                TypeKind secondKind = exec.getParameters().get(1).asType().getKind();
+                if (isReference(firstKind) && isReference(secondKind)) {
+                    if (returnKind == TypeKind.VOID) {
+                        return function.assign(functionClass("BiConsumer"), "accept", args.get(0), args.get(1));
+                    } else if (returnKind == TypeKind.BOOLEAN) {
+                        return function.assign(functionClass("BiPredicate"), "test", args.get(0), args.get(1));
+                    } else if (returnPrefix != null) {
+                        return function.assign(functionClass("To" + returnPrefix + "BiFunction"),
+                                "applyAs" + returnPrefix, args.get(0), args.get(1));
+                    } else if (isReference(returnKind)) {
+                        return function.assign(functionClass("BiFunction"), "apply", args.get(0), args.get(1),
+                                returnType);
+                    }
+                } else if (returnPrefix != null && firstKind == returnKind && secondKind == returnKind) {
+                    return function.assign(functionClass(returnPrefix + "BinaryOperator"), "applyAs" + returnPrefix);
+                } else if (isReference(firstKind) && primitivePrefix(secondKind) != null
+                        && returnKind == TypeKind.VOID) {
+                    return function.assign(functionClass("Obj" + primitivePrefix(secondKind) + "Consumer"), "accept",
+                            args.get(0));
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static DeclaredTypeName functionClass(String simpleName) {
+        return new DeclaredTypeName(FUNCTION_PACKAGE, simpleName);
+    }
+
+    /**
+     * @return the prefix java.util.function uses for the primitive specializations of a type kind, or null if
+     * there are none
+     */
+    private static String primitivePrefix(TypeKind kind) {
+        switch (kind) {
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case DOUBLE:
+                return "Double";
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isReference(TypeKind kind) {
+        return kind == TypeKind.DECLARED || kind == TypeKind.ARRAY || kind == TypeKind.TYPEVAR;
+    }
+
+    @Override
+    protected DeclaredTypeName getClassNameToGenerate() {
+        return factoryName;
+    }
+
+    @Override
+    protected void gatherImports(Set<DeclaredTypeName> imports) {
+        imports.add(implementedInterface);
+        imports.add(element.getDelegateName());
+        imports.add(TraitProcessorAptUtils.OBJECTS);
+        utils.accumulateImportsFromTypeNames(imports, element.getTypeParameters());
+        utils.accumulateImportsFromElements(imports, element.getDeclaredMethods());
+        for (FunctionParameter function : functions) {
+            if (!function.nested) {
+                imports.add(function.functionClass);
+            }
+        }
+        if (!element.getAsyncMethods().isEmpty()) {
+            imports.add(TraitProcessorAptUtils.COMPLETABLE_FUTURE);
+        }
+    }
+
+    @Override
+    protected void writeClassDefinition() throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(factoryName)
+            .setKind(Type.CLASS)
+            .setModifiers(Modifier.PUBLIC, Modifier.FINAL);
+
+        writer.beginTypeDefinition(params);
+
+        MethodDeclarationParameters constructor = new MethodDeclarationParameters().setConstructorName(factoryName)
+                .setModifiers(Modifier.PRIVATE);
+        writer.beginConstructorDeclaration(constructor)
+                .writeComment("no instances")
+                .finishMethodDefinition();
+
+        for (FunctionParameter function : functions) {
+            if (function.nested) {
+                emitFunctionalInterface(function);
+            }
+        }
+        emitImpl();
+        emitFactoryMethod();
+
+        writer.finishTypeDefinition();
+    }
+
+    private void emitFunctionalInterface(FunctionParameter function) throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(function.type)
+            .setKind(Type.INTERFACE)
+            .setModifiers(Modifier.PUBLIC);
+
+        writer.writeAnnotation(FUNCTIONAL_INTERFACE);
+        writer.beginTypeDefinition(params);
+        writer.beginMethodDefinition(utils.methodDeclarationParamsFromExecutableElement(function.exec, null,
+                element.getSimpleName()).setAnnotations(null));
+        writer.finishTypeDefinition();
+        writer.writeNewline();
+    }
+
+    private void emitImpl() throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(implName)
+            .setKind(Type.CLASS)
+            .setModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+            .setInterfaces(Arrays.asList(implementedInterface));
+
+        writer.beginTypeDefinition(params);
+
+        for (FunctionParameter function : functions) {
+            writer.writeFieldDeclaration(function.type, function.name, null, Modifier.PRIVATE, Modifier.FINAL);
+        }
+        writer.writeFieldDeclaration(element.getDelegateName(), TRAIT_DELEGATE,
+                Expressions.callConstructor(element.getDelegateName(), "this"), Modifier.PRIVATE, Modifier.FINAL);
+        writer.writeNewline();
+
+        MethodDeclarationParameters constructor = new MethodDeclarationParameters().setConstructorName(implName)
+                .setArgumentTypes(functionTypes())
+                .setArgumentNames(functionNames());
+        writer.beginConstructorDeclaration(constructor);
+        for (FunctionParameter function : functions) {
+            writer.writeStatement(Expressions.assign(Expressions.reference("this", function.name),
+                    Expressions.staticMethod(TraitProcessorAptUtils.OBJECTS, "requireNonNull", function.name,
+                            "\"" + function.name + "\"")));
+        }
+        writer.finishMethodDefinition();
+
+        for (ExecutableElement exec : element.getDeclaredMethods()) {
+            FunctionParameter function = functionFor(exec);
+            if (function != null) {
+                emitForwarder(exec, "this." + function.name, function.functionMethod);
+            } else if (!utils.isGetThis(element, exec)) {
+                emitForwarder(exec, TRAIT_DELEGATE, "default__" + exec.getSimpleName());
+            }
+        }
+        for (ExecutableElement exec : element.getAsyncMethods()) {
+            MethodDeclarationParameters method = utils.asyncMethodDeclarationParams(element, exec, null,
+                    Modifier.PUBLIC);
+            writer.beginMethodDefinition(method)
+                    .writeStatement(Expressions.callMethodOn(TRAIT_DELEGATE,
+                            "default__" + element.getAsyncMethodName(exec), method.getArgumentNames()).returnExpr())
+                    .finishMethodDefinition();
+        }
+        if (element.hasMemoizedMethods()) {
+            MethodDeclarationParameters invalidate = new MethodDeclarationParameters()
+                    .setMethodName(element.getInvalidateMemosMethodName())
+                    .setModifiers(Modifier.PUBLIC);
+            writer.beginMethodDefinition(invalidate)
+                    .writeStatement(Expressions.callMethodOn(TRAIT_DELEGATE,
+                            "default__" + element.getInvalidateMemosMethodName()))
+                    .finishMethodDefinition();
+        }
+        if (element.isTracked()) {
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(TraitProcessorAptUtils.DIRTY_MASK)
+                    .setModifiers(Modifier.PUBLIC)
+                    .setReturnType(CoreTypes.PRIMITIVE_LONG))
+                    .writeStatement(Expressions.callMethodOn(TRAIT_DELEGATE,
+                            "default__" + TraitProcessorAptUtils.DIRTY_MASK).returnExpr())
+                    .finishMethodDefinition();
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(TraitProcessorAptUtils.CLEAR_DIRTY)
+                    .setModifiers(Modifier.PUBLIC))
+                    .writeStatement(Expressions.callMethodOn(TRAIT_DELEGATE,
+                            "default__" + TraitProcessorAptUtils.CLEAR_DIRTY))
+                    .finishMethodDefinition();
+        }
+
+        writer.finishTypeDefinition();
+        writer.writeNewline();
+    }
+
+    private void emitForwarder(ExecutableElement exec, String target, String methodName) throws IOException {
+        MethodDeclarationParameters method = utils.methodDeclarationParamsFromExecutableElement(exec, null,
+                element.getSimpleName(), Modifier.PUBLIC);
+        Expression call = Expressions.callMethodOn(target, methodName, method.getArgumentNames());
+        writer.beginMethodDefinition(method)
+                .writeStatement(exec.getReturnType().getKind() == TypeKind.VOID ? call : call.returnExpr())
+                .finishMethodDefinition();
+    }
+
+    private void emitFactoryMethod() throws IOException {
+        MethodDeclarationParameters method = new MethodDeclarationParameters()
+                .setMethodName(FACTORY_METHOD)
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setMethodGenerics(element.getTypeParameters())
+                .setReturnType(implementedInterface)
+                .setArgumentTypes(functionTypes())
+                .setArgumentNames(functionNames());
+        writer.beginMethodDefinition(method)
+                .writeStatement(Expressions.callConstructor(implName, functionNames()).returnExpr())
+                .finishMethodDefinition();
+    }
+
+    private FunctionParameter functionFor(ExecutableElement exec) {
+        for (FunctionParameter function : functions) {
+            if (function.exec.equals(exec)) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    private List<TypeName> functionTypes() {
+        List<TypeName> types = new ArrayList<TypeName>();
+        for (FunctionParameter function : functions) {
+            types.add(function.type);
+        }
+        return types;
+    }
+
+    private List<String> functionNames() {
+        List<String> names = new ArrayList<String>();
+        for (FunctionParameter function : functions) {
+            names.add(function.name);
+        }
+        return names;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.yahoo.javatraits.processor.writers;
 
+import com.yahoo.aptutils.model.CoreTypes;
 import com.yahoo.aptutils.model.DeclaredTypeName;
 import com.yahoo.aptutils.writer.JavaFileWriter.Type;
 import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
@@ -43,6 +44,9 @@ public class TraitInterfaceWriter extends JavaTraitsWriter<TraitElement> {
         utils.accumulateImportsFromTypeNames(imports, element.getTypeParameters());
         utils.accumulateImportsFromTypeNames(imports, element.getInterfaceNames());
         utils.accumulateImportsFromElements(imports, element.getDeclaredMethods());
+        if (!element.getAsyncMethods().isEmpty()) {
+            imports.add(TraitProcessorAptUtils.COMPLETABLE_FUTURE);
+        }
     }
 
     protected void writeClassDefinition() throws IOException {
@@ -63,10 +67,31 @@ public class TraitInterfaceWriter extends JavaTraitsWriter<TraitElement> {
                 emitMethodDeclarationForExecutableElement(exec);
             }
         }
+        for (ExecutableElement exec : element.getAsyncMethods()) {
+            writer.beginMethodDefinition(utils.asyncMethodDeclarationParams(element, exec, null, Modifier.PUBLIC));
+        }
+        if (element.hasMemoizedMethods()) {
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(element.getInvalidateMemosMethodName())
+                    .setModifiers(Modifier.PUBLIC));
+        }
+        if (element.isTracked()) {
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(TraitProcessorAptUtils.DIRTY_MASK)
+                    .setModifiers(Modifier.PUBLIC)
+                    .setReturnType(CoreTypes.PRIMITIVE_LONG));
+            writer.beginMethodDefinition(new MethodDeclarationParameters()
+                    .setMethodName(TraitProcessorAptUtils.CLEAR_DIRTY)
+                    .setModifiers(Modifier.PUBLIC));
+        }
     }
 
     private void emitMethodDeclarationForExecutableElement(ExecutableElement exec) throws IOException {
         MethodDeclarationParameters methodDeclaration = utils.methodDeclarationParamsFromExecutableElement(exec, null, element.getSimpleName(), Modifier.PUBLIC);
+        if (element.overridesSuperTraitMethod(exec)) {
+            // the interface doesn't extend the interfaces of the traits this one extends
+            methodDeclaration.setAnnotations(null);
+        }
         writer.beginMethodDefinition(methodDeclaration);
     }
 
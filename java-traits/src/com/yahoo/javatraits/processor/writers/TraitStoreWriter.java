@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.processor.writers;
+
+import com.yahoo.aptutils.model.CoreTypes;
+import com.yahoo.aptutils.model.DeclaredTypeName;
+import com.yahoo.aptutils.model.TypeName;
+import com.yahoo.aptutils.writer.JavaFileWriter.Type;
+import com.yahoo.aptutils.writer.expressions.Expressions;
+import com.yahoo.aptutils.writer.parameters.MethodDeclarationParameters;
+import com.yahoo.aptutils.writer.parameters.TypeDeclarationParameters;
+import com.yahoo.javatraits.processor.data.ColumnarProperty;
+import com.yahoo.javatraits.processor.data.TraitElement;
+import com.yahoo.javatraits.processor.utils.TraitProcessorAptUtils;
+
+import javax.lang.model.element.Modifier;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Writes the columnar store for a trait declared with {@code @Trait(storage = COLUMNAR)}: one paged primitive
+ * column per property, with accessors by slot and access to whole pages for scans.
+ */
+public class TraitStoreWriter extends JavaTraitsWriter<TraitElement> {
+
+    private static final String INSTANCE = "INSTANCE";
+    private static final String SLOT = "slot";
+    private static final String FROM_SLOT = "fromSlot";
+    private static final String VALUE = "value";
+    private static final String PAGE_INDEX = "pageIndex";
+    private static final String PAGE_SHIFT = "PAGE_SHIFT";
+    private static final String PAGE_MASK = "PAGE_MASK";
+    private static final String PAGE_SIZE = "PAGE_SIZE";
+
+    private final DeclaredTypeName storeName;
+
+    public TraitStoreWriter(TraitElement element, TraitProcessorAptUtils utils) {
+        super(element, utils);
+        this.storeName = element.getStoreName();
+    }
+
+    @Override
+    protected DeclaredTypeName getClassNameToGenerate() {
+        return storeName;
+    }
+
+    @Override
+    protected void gatherImports(Set<DeclaredTypeName> imports) {
+        imports.add(TraitProcessorAptUtils.COLUMN_STORE);
+        imports.add(TraitProcessorAptUtils.ARRAYS);
+    }
+
+    @Override
+    protected void writeClassDefinition() throws IOException {
+        TypeDeclarationParameters params = new TypeDeclarationParameters()
+            .setName(storeName)
+            .setKind(Type.CLASS)
+            .setModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .setSuperclass(TraitProcessorAptUtils.COLUMN_STORE);
+
+        writer.beginTypeDefinition(params);
+
+        emitFields();
+        emitConstructorAndInstance();
+        for (ColumnarProperty property : element.getColumnarProperties()) {
+            emitAccessors(property);
+        }
+        emitAddPage();
+        emitClearSlot();
+        emitResetAndCopySlot();
+
+        writer.finishTypeDefinition();
+    }
+
+    private void emitFields() throws IOException {
+        writer.writeFieldDeclaration(storeName, INSTANCE, Expressions.callConstructor(storeName),
+                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+        writer.writeNewline();
+        for (ColumnarProperty property : element.getColumnarProperties()) {
+            writer.writeFieldDeclaration(pagesType(property), property.getFieldName(),
+                    Expressions.fromString("new " + property.getType().getSimpleName() + "[0][]"),
+                    Modifier.PRIVATE, Modifier.VOLATILE);
+        }
+        writer.writeNewline();
+    }
+
+    private void emitConstructorAndInstance() throws IOException {
+        MethodDeclarationParameters constructor = new MethodDeclarationParameters().setConstructorName(storeName)
+                .setModifiers(Modifier.PRIVATE);
+        writer.beginConstructorDeclaration(constructor)
+                .writeComment("use getInstance()")
+                .finishMethodDefinition();
+
+        MethodDeclarationParameters getInstance = new MethodDeclarationParameters()
+                .setMethodName("getInstance")
+                .setModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .setReturnType(storeName);
+        writer.beginMethodDefinition(getInstance)
+                .writeStatement(Expressions.reference(INSTANCE).returnExpr())
+                .finishMethodDefinition();
+    }
+
+    private void emitAccessors(ColumnarProperty property) throws IOException {
+        String cell = property.getFieldName() + "[" + SLOT + " >>> " + PAGE_SHIFT + "][" + SLOT + " & " + PAGE_MASK + "]";
+
+        MethodDeclarationParameters getter = new MethodDeclarationParameters()
+                .setMethodName(property.getGetter().getSimpleName().toString())
+                .setModifiers(Modifier.PUBLIC)
+                .setReturnType(property.getType())
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(SLOT);
+        writer.beginMethodDefinition(getter)
+                .writeStringStatement("return " + cell)
+                .finishMethodDefinition();
+
+        MethodDeclarationParameters setter = new MethodDeclarationParameters()
+                .setMethodName("set" + property.getName())
+                .setModifiers(Modifier.PUBLIC)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT, property.getType())
+                .setArgumentNames(SLOT, VALUE);
+        writer.beginMethodDefinition(setter)
+                .writeStringStatement(cell + " = " + VALUE)
+                .finishMethodDefinition();
+
+        TypeName pageType = property.getType().clone();
+        pageType.setArrayDepth(1);
+        MethodDeclarationParameters page = new MethodDeclarationParameters()
+                .setMethodName("get" + property.getName() + "Page")
+                .setModifiers(Modifier.PUBLIC)
+                .setReturnType(pageType)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(PAGE_INDEX);
+        writer.beginMethodDefinition(page)
+                .writeStringStatement("return " + property.getFieldName() + "[" + PAGE_INDEX + "]")
+                .finishMethodDefinition();
+    }
+
+    private void emitAddPage() throws IOException {
+        MethodDeclarationParameters addPage = new MethodDeclarationParameters()
+                .setMethodName("addPage")
+                .setModifiers(Modifier.PROTECTED)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(PAGE_INDEX);
+        writer.writeAnnotation(CoreTypes.OVERRIDE);
+        writer.beginMethodDefinition(addPage);
+        for (ColumnarProperty property : element.getColumnarProperties()) {
+            String pagesName = property.getFieldName() + "Pages";
+            writer.writeFieldDeclaration(pagesType(property), pagesName, Expressions.staticMethod(
+                    TraitProcessorAptUtils.ARRAYS, "copyOf", property.getFieldName(), PAGE_INDEX + " + 1"));
+            writer.writeStringStatement(pagesName + "[" + PAGE_INDEX + "] = new " + property.getType().getSimpleName()
+                    + "[" + PAGE_SIZE + "]");
+            writer.writeStringStatement(property.getFieldName() + " = " + pagesName);
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private void emitClearSlot() throws IOException {
+        MethodDeclarationParameters clearSlot = new MethodDeclarationParameters()
+                .setMethodName("clearSlot")
+                .setModifiers(Modifier.PROTECTED)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(SLOT);
+        writer.writeAnnotation(CoreTypes.OVERRIDE);
+        writer.beginMethodDefinition(clearSlot);
+        for (ColumnarProperty property : element.getColumnarProperties()) {
+            String zero = "boolean".equals(property.getType().getSimpleName()) ? "false"
+                    : "(" + property.getType().getSimpleName() + ") 0";
+            writer.writeStatement(Expressions.callMethod("set" + property.getName(), SLOT, zero));
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private void emitResetAndCopySlot() throws IOException {
+        MethodDeclarationParameters resetSlot = new MethodDeclarationParameters()
+                .setMethodName("resetSlot")
+                .setModifiers(Modifier.PUBLIC)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(SLOT);
+        writer.beginMethodDefinition(resetSlot)
+                .writeStatement(Expressions.callMethod("clearSlot", SLOT))
+                .finishMethodDefinition();
+
+        MethodDeclarationParameters copySlot = new MethodDeclarationParameters()
+                .setMethodName("copySlot")
+                .setModifiers(Modifier.PUBLIC)
+                .setArgumentTypes(CoreTypes.PRIMITIVE_INT, CoreTypes.PRIMITIVE_INT)
+                .setArgumentNames(FROM_SLOT, SLOT);
+        writer.beginMethodDefinition(copySlot);
+        for (ColumnarProperty property : element.getColumnarProperties()) {
+            writer.writeStatement(Expressions.callMethod("set" + property.getName(), SLOT,
+                    Expressions.callMethod(property.getGetter().getSimpleName().toString(), FROM_SLOT)));
+        }
+        writer.finishMethodDefinition();
+    }
+
+    private TypeName pagesType(ColumnarProperty property) {
+        TypeName pagesType = property.getType().clone();
+        pagesType.setArrayDepth(2);
+        return pagesType;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the asynchronous variants of {@literal @}Async trait methods, and configures the executors they run on.
+ * An executor set for a trait takes precedence over the default executor.
+ */
+public final class AsyncSupport {
+
+    private static final Executor PLATFORM_DEFAULT = createPlatformDefault();
+    private static final ConcurrentMap<Class<?>, Executor> TRAIT_EXECUTORS = new ConcurrentHashMap<Class<?>, Executor>();
+
+    private static volatile Executor defaultExecutor = PLATFORM_DEFAULT;
+
+    private AsyncSupport() {
+        // no instances
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task if the runtime supports them, or the common
+     * fork/join pool otherwise
+     */
+    private static Executor createPlatformDefault() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invokeExact();
+        } catch (Throwable t) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /**
+     * @return the executor used for traits without an executor of their own
+     */
+    public static Executor getDefaultExecutor() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Sets the executor used for traits without an executor of their own, or restores the built-in default if
+     * executor is null
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor != null ? executor : PLATFORM_DEFAULT;
+    }
+
+    /**
+     * @return the executor the asynchronous methods of the given trait run on
+     */
+    public static Executor getExecutor(Class<?> trait) {
+        Executor executor = TRAIT_EXECUTORS.get(trait);
+        return executor != null ? executor : defaultExecutor;
+    }
+
+    /**
+     * Sets the executor the asynchronous methods of the given trait run on, or makes the trait use the default
+     * executor again if executor is null
+     */
+    public static void setExecutor(Class<?> trait, Executor executor) {
+        if (executor != null) {
+            TRAIT_EXECUTORS.put(trait, executor);
+        } else {
+            TRAIT_EXECUTORS.remove(trait);
+        }
+    }
+
+    /**
+     * @return a future completed with the result of call, run on the executor for the given trait
+     */
+    public static <T> CompletableFuture<T> submit(Class<?> trait, final Callable<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        getExecutor(trait).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        return future;
+    }
+}
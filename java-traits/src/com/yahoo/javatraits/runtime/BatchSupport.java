@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Support code for the generated "{TraitName}Batch" classes of traits with {@literal @}Batch methods.
+ */
+public final class BatchSupport {
+
+    /**
+     * The part of a batch operation that processes the elements in [fromIndex, toIndex)
+     */
+    public interface RangeBody {
+        void apply(int fromIndex, int toIndex);
+    }
+
+    // Each worker gets several leaves so that uneven elements don't leave workers idle
+    private static final int LEAVES_PER_WORKER = 4;
+
+    private BatchSupport() {
+        // no instances
+    }
+
+    /**
+     * @throws ArrayIndexOutOfBoundsException unless 0 <= fromIndex <= toIndex <= length
+     */
+    public static void checkRange(int length, int fromIndex, int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > length) {
+            throw new ArrayIndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex
+                    + ") out of bounds for length " + length);
+        }
+    }
+
+    /**
+     * Applies body to [fromIndex, toIndex), split into subranges processed in the common fork/join pool if the
+     * range has at least parallelThreshold elements, or in a single call on the calling thread otherwise
+     */
+    public static void forEachRange(int fromIndex, int toIndex, int parallelThreshold, RangeBody body) {
+        int size = toIndex - fromIndex;
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (size < parallelThreshold || parallelism < 2) {
+            body.apply(fromIndex, toIndex);
+            return;
+        }
+        int leafSize = Math.max(size / (parallelism * LEAVES_PER_WORKER), 1);
+        ForkJoinPool.commonPool().invoke(new RangeAction(body, fromIndex, toIndex, leafSize));
+    }
+
+    private static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeBody body;
+        private final int fromIndex;
+        private final int toIndex;
+        private final int leafSize;
+
+        RangeAction(RangeBody body, int fromIndex, int toIndex, int leafSize) {
+            this.body = body;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (toIndex - fromIndex <= leafSize) {
+                body.apply(fromIndex, toIndex);
+            } else {
+                int middle = (fromIndex + toIndex) >>> 1;
+                invokeAll(new RangeAction(body, fromIndex, middle, leafSize),
+                        new RangeAction(body, middle, toIndex, leafSize));
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Base class of the stores generated for traits declared with {@code @Trait(storage = COLUMNAR)}.
+ *
+ * <br/><br/>
+ *
+ * A store keeps one column per trait property, and each object using the trait owns one slot (row) in every column.
+ * Columns are split into fixed-size pages of primitive arrays that are never moved once allocated, so growing the
+ * store never copies existing values and never loses a concurrent write. Subclasses expose per-property accessors
+ * by slot, and the pages themselves for scans over all objects. Freed slots are zeroed and reused.
+ */
+public abstract class ColumnStore {
+
+    public static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    public static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private int slotCount; // guarded by this
+    private int pageCount; // guarded by this
+    private int[] freeSlots = new int[16]; // guarded by this
+    private int freeCount; // guarded by this
+    private long[] freeBits = new long[1]; // guarded by this, one bit per slot that's in freeSlots
+
+    /**
+     * @return a slot for a new object, with every property set to zero/false
+     */
+    public final synchronized int allocate() {
+        if (freeCount > 0) {
+            int slot = freeSlots[--freeCount];
+            freeBits[slot >>> 6] &= ~(1L << slot);
+            return slot;
+        }
+        int slot = slotCount++;
+        if ((slot >>> PAGE_SHIFT) >= pageCount) {
+            addPage(pageCount++);
+        }
+        return slot;
+    }
+
+    /**
+     * Zeroes the given slot and makes it available for reuse. The object that owned it must not be used afterwards.
+     *
+     * @throws IllegalArgumentException if the slot was never allocated
+     * @throws IllegalStateException if the slot has already been released
+     */
+    public final synchronized void release(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            throw new IllegalArgumentException("Slot " + slot + " was never allocated");
+        }
+        int word = slot >>> 6;
+        if (word >= freeBits.length) {
+            freeBits = Arrays.copyOf(freeBits, Math.max(word + 1, freeBits.length * 2));
+        }
+        if ((freeBits[word] & (1L << slot)) != 0) {
+            throw new IllegalStateException("Slot " + slot + " has already been released");
+        }
+        freeBits[word] |= 1L << slot;
+        clearSlot(slot);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * @return one more than the highest slot ever allocated, i.e. the number of rows a full scan has to visit
+     */
+    public final synchronized int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @return the number of slots currently owned by objects
+     */
+    public final synchronized int getLiveSlotCount() {
+        return slotCount - freeCount;
+    }
+
+    /**
+     * @return the number of pages in each column
+     */
+    public final synchronized int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Called with this store locked when a new page has to be added to every column
+     */
+    protected abstract void addPage(int pageIndex);
+
+    /**
+     * Called with this store locked to reset every property of a released slot
+     */
+    protected abstract void clearSlot(int slot);
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the class file for a class composed at runtime by {@link TraitComposer}. The class extends the base class,
+ * implements the generated trait interfaces, holds one delegate wrapper per trait, and forwards each concrete trait
+ * method straight to the delegate's default__ method -- the same shape as a generated "WithTraits" superclass.
+ *
+ * Only straight-line code is emitted (no branches), so the class file needs no stack map frames.
+ */
+class ComposedClassWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_8_MAJOR_VERSION = 52;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_VARARGS = 0x0080;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int FLOAD = 0x17;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int IRETURN = 0xac;
+    private static final int LRETURN = 0xad;
+    private static final int FRETURN = 0xae;
+    private static final int DRETURN = 0xaf;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int NEW = 0xbb;
+    private static final int DUP = 0x59;
+    private static final int CHECKCAST = 0xc0;
+
+    /**
+     * A trait method implemented in the composed class by calling a method on one of the delegate wrappers
+     */
+    static class Forwarder {
+        final Method interfaceMethod;
+        final Method delegateMethod;
+        final int traitIndex;
+
+        Forwarder(Method interfaceMethod, Method delegateMethod, int traitIndex) {
+            this.interfaceMethod = interfaceMethod;
+            this.delegateMethod = delegateMethod;
+            this.traitIndex = traitIndex;
+        }
+    }
+
+    private final String className;
+    private final Class<?> base;
+    private final List<Class<?>> interfaces;
+    private final List<Class<?>> delegates;
+    private final List<Forwarder> forwarders;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+    private int nextPoolIndex = 1;
+
+    ComposedClassWriter(String className, Class<?> base, List<Class<?>> interfaces, List<Class<?>> delegates,
+            List<Forwarder> forwarders) {
+        this.className = className;
+        this.base = base;
+        this.interfaces = interfaces;
+        this.delegates = delegates;
+        this.forwarders = forwarders;
+    }
+
+    static String delegateFieldName(int traitIndex) {
+        return "traitDelegate" + traitIndex;
+    }
+
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        body.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        body.writeShort(classConstant(internalName(className)));
+        body.writeShort(classConstant(internalName(base)));
+        body.writeShort(interfaces.size());
+        for (Class<?> iface : interfaces) {
+            body.writeShort(classConstant(internalName(iface)));
+        }
+
+        body.writeShort(delegates.size());
+        for (int i = 0; i < delegates.size(); i++) {
+            body.writeShort(ACC_PRIVATE | ACC_FINAL);
+            body.writeShort(utf8Constant(delegateFieldName(i)));
+            body.writeShort(utf8Constant(descriptor(delegates.get(i))));
+            body.writeShort(0);
+        }
+
+        List<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
+        for (Constructor<?> constructor : base.getDeclaredConstructors()) {
+            if (Modifier.isPublic(constructor.getModifiers()) || Modifier.isProtected(constructor.getModifiers())) {
+                constructors.add(constructor);
+            }
+        }
+        body.writeShort(constructors.size() + forwarders.size());
+        for (Constructor<?> constructor : constructors) {
+            writeConstructor(body, constructor);
+        }
+        for (Forwarder forwarder : forwarders) {
+            writeForwarder(body, forwarder);
+        }
+        body.writeShort(0); // class attributes
+        body.flush();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(result);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(JAVA_8_MAJOR_VERSION);
+        pool.flush();
+        out.writeShort(nextPoolIndex);
+        poolBytes.writeTo(out);
+        bodyBytes.writeTo(out);
+        out.flush();
+        return result.toByteArray();
+    }
+
+    private void writeConstructor(DataOutputStream out, Constructor<?> constructor) throws IOException {
+        Class<?>[] parameterTypes = constructor.getParameterTypes();
+        String superDescriptor = methodDescriptor(parameterTypes, void.class);
+
+        Code code = new Code();
+        code.op(ALOAD_0);
+        int slots = code.loadArguments(parameterTypes, parameterTypes);
+        code.op(INVOKESPECIAL).u2(methodConstant(internalName(base), "<init>", superDescriptor));
+        for (int i = 0; i < delegates.size(); i++) {
+            Class<?> delegate = delegates.get(i);
+            String delegateConstructor = methodDescriptor(delegate.getConstructors()[0].getParameterTypes(), void.class);
+            code.op(ALOAD_0);
+            code.op(NEW).u2(classConstant(internalName(delegate)));
+            code.op(DUP);
+            code.op(ALOAD_0);
+            code.op(INVOKESPECIAL).u2(methodConstant(internalName(delegate), "<init>", delegateConstructor));
+            code.op(PUTFIELD).u2(fieldConstant(internalName(className), delegateFieldName(i), descriptor(delegate)));
+        }
+        code.op(RETURN);
+
+        int access = Modifier.isPublic(constructor.getModifiers()) ? ACC_PUBLIC : 0;
+        if (constructor.isVarArgs()) {
+            access |= ACC_VARARGS;
+        }
+        writeMethod(out, access, "<init>", superDescriptor, code, Math.max(1 + slots, 4), 1 + slots);
+    }
+
+    private void writeForwarder(DataOutputStream out, Forwarder forwarder) throws IOException {
+        Method interfaceMethod = forwarder.interfaceMethod;
+        Method delegateMethod = forwarder.delegateMethod;
+        Class<?> delegate = delegates.get(forwarder.traitIndex);
+        Class<?> returnType = interfaceMethod.getReturnType();
+
+        Code code = new Code();
+        code.op(ALOAD_0);
+        code.op(GETFIELD).u2(fieldConstant(internalName(className), delegateFieldName(forwarder.traitIndex),
+                descriptor(delegate)));
+        int slots = code.loadArguments(interfaceMethod.getParameterTypes(), delegateMethod.getParameterTypes());
+        code.op(INVOKEVIRTUAL).u2(methodConstant(internalName(delegate), delegateMethod.getName(),
+                methodDescriptor(delegateMethod.getParameterTypes(), delegateMethod.getReturnType())));
+        if (!returnType.isPrimitive() && !returnType.isAssignableFrom(delegateMethod.getReturnType())) {
+            code.op(CHECKCAST).u2(classConstant(internalName(returnType)));
+        }
+        code.op(returnOpcode(returnType));
+
+        int access = ACC_PUBLIC | (interfaceMethod.isVarArgs() ? ACC_VARARGS : 0);
+        writeMethod(out, access, interfaceMethod.getName(),
+                methodDescriptor(interfaceMethod.getParameterTypes(), returnType), code,
+                Math.max(1 + slots, slotSize(returnType)), 1 + slots);
+    }
+
+    private void writeMethod(DataOutputStream out, int access, String name, String descriptor, Code code,
+            int maxStack, int maxLocals) throws IOException {
+        byte[] bytecode = code.toByteArray();
+        out.writeShort(access);
+        out.writeShort(utf8Constant(name));
+        out.writeShort(utf8Constant(descriptor));
+        out.writeShort(1);
+        out.writeShort(utf8Constant("Code"));
+        out.writeInt(2 + 2 + 4 + bytecode.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    private class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        /**
+         * Loads the method arguments (starting at local 1), casting any whose declared type is wider than the
+         * type expected by the callee
+         *
+         * @return the number of local variable slots taken by the arguments
+         */
+        int loadArguments(Class<?>[] declaredTypes, Class<?>[] expectedTypes) {
+            int slot = 1;
+            for (int i = 0; i < declaredTypes.length; i++) {
+                Class<?> type = declaredTypes[i];
+                op(loadOpcode(type)).op(slot);
+                if (!type.isPrimitive() && !expectedTypes[i].isAssignableFrom(type)) {
+                    op(CHECKCAST).u2(classConstant(internalName(expectedTypes[i])));
+                }
+                slot += slotSize(type);
+            }
+            return slot - 1;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static int loadOpcode(Class<?> type) {
+        if (type == long.class) {
+            return LLOAD;
+        } else if (type == float.class) {
+            return FLOAD;
+        } else if (type == double.class) {
+            return DLOAD;
+        } else if (type.isPrimitive()) {
+            return ILOAD;
+        }
+        return ALOAD;
+    }
+
+    private static int returnOpcode(Class<?> type) {
+        if (type == void.class) {
+            return RETURN;
+        } else if (type == long.class) {
+            return LRETURN;
+        } else if (type == float.class) {
+            return FRETURN;
+        } else if (type == double.class) {
+            return DRETURN;
+        } else if (type.isPrimitive()) {
+            return IRETURN;
+        }
+        return ARETURN;
+    }
+
+    private static int slotSize(Class<?> type) {
+        if (type == void.class) {
+            return 0;
+        }
+        return type == long.class || type == double.class ? 2 : 1;
+    }
+
+    // --- constant pool
+
+    private int utf8Constant(String value) {
+        String key = "U" + value;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            try {
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = addPoolEntry(key);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) {
+        String key = "C" + internalName;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            index = writeRefConstant(key, CONSTANT_CLASS, utf8Constant(internalName), -1);
+        }
+        return index;
+    }
+
+    private int nameAndTypeConstant(String name, String descriptor) {
+        String key = "N" + name + ":" + descriptor;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            index = writeRefConstant(key, CONSTANT_NAME_AND_TYPE, utf8Constant(name), utf8Constant(descriptor));
+        }
+        return index;
+    }
+
+    private int methodConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int fieldConstant(String owner, String name, String descriptor) {
+        return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            index = writeRefConstant(key, tag, classConstant(owner), nameAndTypeConstant(name, descriptor));
+        }
+        return index;
+    }
+
+    private int writeRefConstant(String key, int tag, int first, int second) {
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0) {
+                pool.writeShort(second);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addPoolEntry(key);
+    }
+
+    private int addPoolEntry(String key) {
+        int index = nextPoolIndex++;
+        poolIndexes.put(key, index);
+        return index;
+    }
+
+    // --- names and descriptors
+
+    private static String internalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.isArray() ? descriptor(type) : internalName(type.getName());
+    }
+
+    static String methodDescriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+        StringBuilder builder = new StringBuilder("(");
+        for (Class<?> type : parameterTypes) {
+            builder.append(descriptor(type));
+        }
+        return builder.append(')').append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return internalName(type.getName());
+        } else if (!type.isPrimitive()) {
+            return "L" + internalName(type.getName()) + ";";
+        } else if (type == void.class) {
+            return "V";
+        } else if (type == boolean.class) {
+            return "Z";
+        } else if (type == long.class) {
+            return "J";
+        }
+        return String.valueOf(Character.toUpperCase(type.getName().charAt(0)));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Bounded least-recently-used cache backing {@literal @}Memoize methods that take arguments.
+ * Used by generated code; not intended to be used directly.
+ *
+ * <br/><br/>
+ *
+ * The cache is split into independently locked segments so that a cache shared between threads
+ * doesn't serialize all lookups on one lock. Eviction is least-recently-used within each segment.
+ * Null results are cached like any other value, so lookups return {@link #MISSING} when there is
+ * no entry for a key.
+ *
+ * <br/><br/>
+ *
+ * {@link #clear()} starts a new generation. A value computed before a clear is dropped by
+ * {@link #put(Object, Object, int)} rather than cached as if it were current.
+ */
+public final class MemoCache {
+
+    public static final Object MISSING = new Object();
+
+    private static final AtomicIntegerFieldUpdater<MemoCache> GENERATION =
+            AtomicIntegerFieldUpdater.newUpdater(MemoCache.class, "generation");
+
+    private final Segment[] segments;
+    private final MemoStats stats;
+    private volatile int generation;
+
+    /**
+     * @param maxSize the maximum number of entries to keep
+     * @param concurrent true if the cache will be shared between threads, in which case it is split into
+     *                   one segment per available processor
+     * @param stats the counters to record hits and misses in
+     */
+    public MemoCache(int maxSize, boolean concurrent, MemoStats stats) {
+        int segmentCount = concurrent ? Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1),
+                Math.max(1, Integer.highestOneBit(maxSize))) : 1;
+        this.segments = new Segment[segmentCount];
+        int segmentSize = Math.max(1, (maxSize + segmentCount - 1) / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        this.stats = stats;
+    }
+
+    /**
+     * @return the cache key for a single argument
+     */
+    public static Object key(Object arg) {
+        return arg != null && arg.getClass().isArray() ? new CompositeKey(new Object[] { arg }) : arg;
+    }
+
+    /**
+     * @return the cache key for several arguments
+     */
+    public static Object compositeKey(Object... args) {
+        return new CompositeKey(args);
+    }
+
+    /**
+     * @return the cached value, or {@link #MISSING}
+     */
+    public Object get(Object key) {
+        Segment segment = segmentFor(key);
+        Object result;
+        synchronized (segment) {
+            result = segment.containsKey(key) ? segment.get(key) : MISSING;
+        }
+        if (result == MISSING) {
+            stats.recordMiss();
+        } else {
+            stats.recordHit();
+        }
+        return result;
+    }
+
+    /**
+     * @return the current generation, to be read before computing a value and passed to
+     * {@link #put(Object, Object, int)}
+     */
+    public int generation() {
+        return generation;
+    }
+
+    /**
+     * Caches the value unless the cache has been cleared since the given generation was read
+     */
+    public void put(Object key, Object value, int generation) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            // clear() bumps the generation before taking any segment lock, so a stale value can't slip in behind it
+            if (this.generation == generation) {
+                segment.put(key, value);
+            }
+        }
+    }
+
+    public void clear() {
+        GENERATION.incrementAndGet(this);
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Object key) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static class Segment extends LinkedHashMap<Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private static final class CompositeKey {
+        private final Object[] args;
+        private final int hash;
+
+        CompositeKey(Object[] args) {
+            this.args = args;
+            this.hash = Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompositeKey && Arrays.deepEquals(args, ((CompositeKey) o).args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
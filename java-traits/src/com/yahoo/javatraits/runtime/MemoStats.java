@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit and miss counters for a method annotated with {@literal @}Memoize, aggregated over all instances
+ * of the classes using its trait. Overloads of a method share the same counters.
+ */
+public final class MemoStats {
+
+    private static final ConcurrentMap<String, MemoStats> ALL_STATS = new ConcurrentHashMap<String, MemoStats>();
+
+    private final String name;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private MemoStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the counters for the given memoized trait method
+     */
+    public static MemoStats forMethod(Class<?> trait, String methodName) {
+        String name = trait.getName() + "." + methodName;
+        MemoStats stats = ALL_STATS.get(name);
+        if (stats == null) {
+            MemoStats newStats = new MemoStats(name);
+            stats = ALL_STATS.putIfAbsent(name, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the counters for every memoized method used so far, keyed by "{trait class name}.{method name}"
+     */
+    public static Map<String, MemoStats> all() {
+        return Collections.unmodifiableMap(new TreeMap<String, MemoStats>(ALL_STATS));
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, or 0 if there haven't been any lookups
+     */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + " [hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+}
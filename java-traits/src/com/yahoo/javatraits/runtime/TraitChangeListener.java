@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+/**
+ * Receives coalesced change notifications from objects using traits annotated with
+ * {@literal @}{@link com.yahoo.javatraits.annotations.Tracked}(listeners = true)
+ */
+public interface TraitChangeListener {
+
+    /**
+     * Called after a trait method call on source dirtied fields that hadn't been reported since the last
+     * clearDirty()
+     *
+     * @param changedMask the newly dirtied bits, using the DIRTY_ constants of the source's generated superclass
+     */
+    void traitStateChanged(Object source, long changedMask);
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the change listeners of one object using tracked traits, and which dirty bits they've already been told
+ * about. Used by generated code; not intended to be used directly.
+ */
+public final class TraitChangeSupport {
+
+    private static final TraitChangeListener[] NO_LISTENERS = new TraitChangeListener[0];
+
+    private final Object source;
+    private volatile TraitChangeListener[] listeners = NO_LISTENERS;
+    private final AtomicLong reportedMask = new AtomicLong();
+
+    public TraitChangeSupport(Object source) {
+        this.source = source;
+    }
+
+    public synchronized void addListener(TraitChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        TraitChangeListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(TraitChangeListener listener) {
+        TraitChangeListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                TraitChangeListener[] updated = new TraitChangeListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners of the bits of dirtyMask that haven't been reported yet, if there are any
+     */
+    public void fire(long dirtyMask) {
+        long reported;
+        long changed;
+        do {
+            reported = reportedMask.get();
+            changed = dirtyMask & ~reported;
+            if (changed == 0) {
+                return;
+            }
+        } while (!reportedMask.compareAndSet(reported, reported | changed));
+        for (TraitChangeListener listener : listeners) {
+            listener.traitStateChanged(source, changed);
+        }
+    }
+
+    /**
+     * Called when the source's dirty mask is cleared, so that later changes are reported again
+     */
+    public void clear() {
+        reportedMask.set(0);
+    }
+}
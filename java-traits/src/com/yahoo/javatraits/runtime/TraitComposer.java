@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Composes traits onto a base class at runtime, for code that only knows which traits it needs once it's running:
+ * <pre>
+ * Class&lt;? extends Plugin&gt; type = TraitComposer.compose(Plugin.class, Rectangular.class, Resizeable.class);
+ * Supplier&lt;? extends Plugin&gt; factory = TraitComposer.factory(Plugin.class, Rectangular.class, Resizeable.class);
+ * </pre>
+ *
+ * The composed class is a real subclass of the base class that implements each trait's generated interface and
+ * forwards to the trait's generated delegate wrapper, exactly like a generated "WithTraits" superclass does. Calls
+ * through the composed class are therefore plain virtual calls rather than {@link java.lang.reflect.Proxy}
+ * invocation handler round trips. Composed classes are cached per base class and trait combination.
+ *
+ * <br/><br/>
+ *
+ * The rules mirror {@literal @}HasTraits: the base class plays the role of the class using the traits, so it must
+ * implement every abstract trait method, and any concrete method it declares takes precedence over the trait's.
+ * If several traits declare the same method, the first one in the argument list wins. Because the composed class
+ * is defined in its own class loader, the base class must be public and non-final with a public or protected
+ * constructor; every accessible constructor of the base class is mirrored in the composed class.
+ */
+public final class TraitComposer {
+
+    private static final String COMPOSED_PACKAGE = "com.yahoo.javatraits.runtime.composed";
+    private static final String INTERFACE_PREFIX = "I";
+    private static final String DELEGATE_SUFFIX = "DelegateWrapper";
+    private static final String DEFAULT_METHOD_PREFIX = "default__";
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private static final ClassValue<ConcurrentMap<List<Class<?>>, Class<?>>> COMPOSED =
+            new ClassValue<ConcurrentMap<List<Class<?>>, Class<?>>>() {
+        @Override
+        protected ConcurrentMap<List<Class<?>>, Class<?>> computeValue(Class<?> base) {
+            return new ConcurrentHashMap<List<Class<?>>, Class<?>>();
+        }
+    };
+
+    private TraitComposer() {
+        // no instances
+    }
+
+    /**
+     * @return a subclass of base that implements the interfaces of all the given traits. The same class is returned
+     * for repeated calls with the same arguments.
+     * @throws IllegalArgumentException if the base class can't be extended, a class isn't a processed trait, or an
+     * abstract trait method isn't implemented by the base class
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Class<? extends T> compose(final Class<T> base, Class<?>... traits) {
+        List<Class<?>> key = Arrays.<Class<?>>asList(traits.clone());
+        ConcurrentMap<List<Class<?>>, Class<?>> cache = COMPOSED.get(base);
+        Class<?> result = cache.get(key);
+        if (result == null) {
+            Class<?> composed = defineComposedClass(base, key);
+            result = cache.putIfAbsent(key, composed);
+            if (result == null) {
+                result = composed;
+                Traits.register(composed, traits);
+            }
+        }
+        return (Class<? extends T>) result;
+    }
+
+    /**
+     * @return a supplier that creates new instances of the composed class using its no-argument constructor
+     * @see #compose(Class, Class[])
+     */
+    public static <T> Supplier<T> factory(Class<T> base, Class<?>... traits) {
+        Class<? extends T> composed = compose(base, traits);
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(composed, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(base + " has no public no-argument constructor", e);
+        }
+        return new Supplier<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get() {
+                try {
+                    return (T) constructor.invokeExact();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            }
+        };
+    }
+
+    private static Class<?> defineComposedClass(Class<?> base, List<Class<?>> traits) {
+        int modifiers = base.getModifiers();
+        if (base.isInterface() || base.isArray() || base.isPrimitive() || !Modifier.isPublic(modifiers)
+                || Modifier.isFinal(modifiers)) {
+            throw new IllegalArgumentException("Base class " + base.getName() + " must be a public, non-final class");
+        }
+        if (new LinkedHashSet<Class<?>>(traits).size() != traits.size()) {
+            throw new IllegalArgumentException("Duplicate traits in " + traits);
+        }
+
+        List<Class<?>> interfaces = new ArrayList<Class<?>>();
+        List<Class<?>> delegates = new ArrayList<Class<?>>();
+        for (Class<?> trait : traits) {
+            interfaces.add(generatedClass(trait, INTERFACE_PREFIX + trait.getSimpleName()));
+            delegates.add(generatedClass(trait, trait.getSimpleName() + DELEGATE_SUFFIX));
+        }
+
+        List<ComposedClassWriter.Forwarder> forwarders = collectForwarders(base, interfaces, delegates);
+        String className = COMPOSED_PACKAGE + "." + base.getSimpleName() + "$Composed$" + NEXT_ID.getAndIncrement();
+        ComposedClassLoader loader = new ComposedClassLoader(chooseParentLoader(base, interfaces, delegates));
+        try {
+            byte[] bytes = new ComposedClassWriter(className, base, interfaces, delegates, forwarders).toByteArray();
+            return loader.define(className, bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Class<?> generatedClass(Class<?> trait, String simpleName) {
+        Package pkg = trait.getPackage();
+        String name = (pkg == null || pkg.getName().isEmpty() ? "" : pkg.getName() + ".") + simpleName;
+        try {
+            return Class.forName(name, false, trait.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(trait.getName() + " is not a processed @Trait class (" + name
+                    + " not found)", e);
+        }
+    }
+
+    private static List<ComposedClassWriter.Forwarder> collectForwarders(Class<?> base, List<Class<?>> interfaces,
+            List<Class<?>> delegates) {
+        Map<String, ComposedClassWriter.Forwarder> forwarders = new LinkedHashMap<String, ComposedClassWriter.Forwarder>();
+        Set<String> missing = new LinkedHashSet<String>();
+        for (int i = 0; i < interfaces.size(); i++) {
+            for (Method method : interfaces.get(i).getMethods()) {
+                String signature = method.getName()
+                        + ComposedClassWriter.methodDescriptor(method.getParameterTypes(), method.getReturnType());
+                if (Modifier.isStatic(method.getModifiers()) || method.isDefault() || forwarders.containsKey(signature)
+                        || isImplementedByBase(base, method)) {
+                    continue;
+                }
+                Method delegateMethod = findDelegateMethod(delegates.get(i), method);
+                if (delegateMethod != null) {
+                    forwarders.put(signature, new ComposedClassWriter.Forwarder(method, delegateMethod, i));
+                } else {
+                    missing.add(signature);
+                }
+            }
+        }
+        for (String signature : forwarders.keySet()) {
+            missing.remove(signature);
+        }
+        for (Method method : base.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                String signature = method.getName()
+                        + ComposedClassWriter.methodDescriptor(method.getParameterTypes(), method.getReturnType());
+                if (!forwarders.containsKey(signature)) {
+                    missing.add(signature);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException(base.getName() + " does not implement abstract methods " + missing);
+        }
+        return new ArrayList<ComposedClassWriter.Forwarder>(forwarders.values());
+    }
+
+    private static boolean isImplementedByBase(Class<?> base, Method method) {
+        try {
+            Method baseMethod = base.getMethod(method.getName(), method.getParameterTypes());
+            return !Modifier.isAbstract(baseMethod.getModifiers()) && baseMethod.getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Method findDelegateMethod(Class<?> delegate, Method method) {
+        String name = DEFAULT_METHOD_PREFIX + method.getName();
+        try {
+            return delegate.getMethod(name, method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            // Erasures can differ when the interface method is generic, so fall back to a compatible signature
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (Method candidate : delegate.getMethods()) {
+            if (candidate.getName().equals(name) && isCompatible(parameterTypes, candidate.getParameterTypes())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCompatible(Class<?>[] declared, Class<?>[] expected) {
+        if (declared.length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < declared.length; i++) {
+            if (declared[i].isPrimitive() || expected[i].isPrimitive() ? declared[i] != expected[i]
+                    : !declared[i].isAssignableFrom(expected[i]) && !expected[i].isAssignableFrom(declared[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ClassLoader chooseParentLoader(Class<?> base, List<Class<?>> interfaces, List<Class<?>> delegates) {
+        List<Class<?>> required = new ArrayList<Class<?>>();
+        required.add(base);
+        required.addAll(interfaces);
+        required.addAll(delegates);
+        required.add(TraitComposer.class);
+        for (Class<?> candidate : required) {
+            ClassLoader loader = candidate.getClassLoader();
+            if (loader != null && canSeeAll(loader, required)) {
+                return loader;
+            }
+        }
+        throw new IllegalArgumentException("No class loader can see " + base.getName() + " and all of " + interfaces);
+    }
+
+    private static boolean canSeeAll(ClassLoader loader, List<Class<?>> classes) {
+        for (Class<?> type : classes) {
+            try {
+                if (Class.forName(type.getName(), false, loader) != type) {
+                    return false;
+                }
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class ComposedClassLoader extends ClassLoader {
+
+        ComposedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+/**
+ * Records the JFR events of calls to instrumented trait methods. The implementation lives in src-jfr, which is
+ * compiled against jdk.jfr and only on JDK 11 or later, so that the rest of the runtime still builds with
+ * "--release 8". It is loaded reflectively when the runtime has JFR.
+ */
+abstract class TraitEvents {
+
+    private static final String IMPLEMENTATION = "com.yahoo.javatraits.runtime.JfrTraitEvents";
+
+    /**
+     * @return the event for a call that is starting, to pass to {@link #commit(Object)}, or null if JFR isn't
+     * recording it
+     */
+    abstract Object begin(String trait, String method);
+
+    abstract void commit(Object event);
+
+    /**
+     * @return the JFR implementation, or null if the runtime doesn't have JFR or the jar was built without it
+     */
+    static TraitEvents load() {
+        try {
+            return (TraitEvents) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
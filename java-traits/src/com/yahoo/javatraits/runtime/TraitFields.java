@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+
+/**
+ * Access to the private fields of traits for the generated resetTraitState() and copyTraitStateFrom() methods,
+ * and to the private fields of classes with traits for the equals() and hashCode() generated with
+ * {@literal @}HasTraits(valueSemantics = true). Used by generated code; not intended to be used directly.
+ *
+ * <br/><br/>
+ *
+ * Trait state lives in private fields of the trait class, which the generated delegate wrapper inherits but can't
+ * access. The wrapper looks up a getter and a setter handle for each field once, stores them in static final
+ * fields and calls them with invokeExact, which the JIT compiles down to plain field accesses:
+ * <pre>
+ * COUNT_SETTER.invokeExact((Counter) this, (long) COUNT_GETTER.invokeExact((Counter) source));
+ * </pre>
+ */
+public final class TraitFields {
+
+    private TraitFields() {
+        // no instances
+    }
+
+    /**
+     * @return a handle reading the given instance field of the trait, of type (trait)fieldType
+     * @throws IllegalStateException if the field doesn't exist or can't be made accessible
+     */
+    public static MethodHandle getter(Class<?> trait, String name) {
+        try {
+            return MethodHandles.lookup().unreflectGetter(accessibleField(trait, name));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't access field " + name + " of " + trait.getName(), e);
+        }
+    }
+
+    /**
+     * @return a handle writing the given instance field of the trait, of type (trait, fieldType)void
+     * @throws IllegalStateException if the field doesn't exist or can't be made accessible
+     */
+    public static MethodHandle setter(Class<?> trait, String name) {
+        try {
+            return MethodHandles.lookup().unreflectSetter(accessibleField(trait, name));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't access field " + name + " of " + trait.getName(), e);
+        }
+    }
+
+    private static Field accessibleField(Class<?> trait, String name) {
+        try {
+            Field field = trait.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(trait.getName() + " has no field " + name
+                    + "; was it compiled with a different version of the trait?", e);
+        }
+    }
+
+    /**
+     * Rethrows unchecked exceptions and errors thrown by a field handle, and wraps anything else
+     *
+     * @return never returns normally; declared so generated code can write "throw TraitFields.propagate(t)"
+     */
+    public static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Caches the part of the hash code of an object with value semantics that comes from thread-safe traits. Every
+ * write bumps a stamp, and a hash is only returned for the stamp it was computed under, so a hash computed
+ * while a write was in progress is never returned after the write finished. Used by generated code; not intended
+ * to be used directly. The generated hashCode() looks like:
+ * <pre>
+ * int stamp = cache.stamp();
+ * int hash = cache.get(stamp);
+ * if (hash == 0) {
+ *     hash = ...;
+ *     cache.set(stamp, hash);
+ * }
+ * </pre>
+ */
+public final class TraitHashCache {
+
+    private static final AtomicIntegerFieldUpdater<TraitHashCache> STAMP =
+            AtomicIntegerFieldUpdater.newUpdater(TraitHashCache.class, "stamp");
+
+    private volatile int stamp;
+    private volatile long cached; // the stamp in the high half, the hash in the low half
+
+    /**
+     * Must be read before the state the hash is computed from
+     */
+    public int stamp() {
+        return stamp;
+    }
+
+    /**
+     * @return the hash cached for the given stamp, or 0 if there's none or the state was written since
+     */
+    public int get(int stamp) {
+        long cached = this.cached;
+        return (int) (cached >>> 32) == stamp ? (int) cached : 0;
+    }
+
+    public void set(int stamp, int hash) {
+        cached = ((long) stamp << 32) | (hash & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Must be called after every write of the state the hash is computed from
+     */
+    public void invalidate() {
+        STAMP.incrementAndGet(this);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the probes used by classes compiled with "-Ajavatraits.instrument=jfr,jmx". With "jmx", each
+ * probe counts calls and their total time, published through {@link TraitCallsMXBean}. With "jfr", calls are
+ * recorded as "javatraits.TraitCall" events when JFR is available. The events have a threshold of 10 ms, which
+ * recordings can change like that of any other JFR event.
+ */
+public final class TraitInstrumentation {
+
+    public static final String OBJECT_NAME = "com.yahoo.javatraits:type=TraitCalls";
+
+    private static final ConcurrentMap<String, TraitMethodProbe> PROBES = new ConcurrentHashMap<String, TraitMethodProbe>();
+    static final TraitEvents EVENTS = TraitEvents.load();
+
+    private static volatile boolean mxBeanRegistered;
+
+    private TraitInstrumentation() {
+        // no instances
+    }
+
+    /**
+     * @return the probe for the given trait method, enabling call counting and/or JFR events for it
+     */
+    public static TraitMethodProbe probe(Class<?> trait, String method, boolean countCalls, boolean emitEvents) {
+        String name = trait.getName() + "." + method;
+        TraitMethodProbe probe = PROBES.get(name);
+        if (probe == null) {
+            TraitMethodProbe newProbe = new TraitMethodProbe(trait.getName(), method);
+            probe = PROBES.putIfAbsent(name, newProbe);
+            if (probe == null) {
+                probe = newProbe;
+            }
+        }
+        probe.enable(countCalls, emitEvents && EVENTS != null);
+        if (countCalls && !mxBeanRegistered) {
+            registerMXBean();
+        }
+        return probe;
+    }
+
+    /**
+     * @return every probe created so far, keyed by "{trait class name}.{method name}"
+     */
+    public static Map<String, TraitMethodProbe> getProbes() {
+        return Collections.unmodifiableMap(new TreeMap<String, TraitMethodProbe>(PROBES));
+    }
+
+    private static synchronized void registerMXBean() {
+        if (mxBeanRegistered) {
+            return;
+        }
+        mxBeanRegistered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new TraitCalls(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // Another class loader registered it first, or JMX isn't available; the counters still work
+        }
+    }
+
+    private static class TraitCalls implements TraitCallsMXBean {
+
+        @Override
+        public Map<String, Long> getCallCounts() {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<String, TraitMethodProbe> entry : PROBES.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getCalls());
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Long> getTotalNanos() {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<String, TraitMethodProbe> entry : PROBES.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().getTotalNanos());
+            }
+            return result;
+        }
+
+        @Override
+        public void reset() {
+            for (TraitMethodProbe probe : PROBES.values()) {
+                probe.reset();
+            }
+        }
+    }
+}
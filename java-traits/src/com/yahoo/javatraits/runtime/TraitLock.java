@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The lock guarding the state of a trait declared with {@code @Trait(concurrency = OPTIMISTIC_READ)}.
+ * Used by generated code; not intended to be used directly.
+ *
+ * <br/><br/>
+ *
+ * Writes hold this object's monitor, which makes them reentrant (trait methods routinely call each other
+ * through the class using the trait), and hold the write lock of a {@link StampedLock} for the duration of
+ * the outermost write. Reads first run under an optimistic stamp and are validated afterwards; if a write
+ * happened in the meantime the read is repeated while holding the monitor. A read inside a write on the same
+ * thread can't get a valid stamp, so it goes straight to the (reentrant) monitor. The generated code looks like:
+ * <pre>
+ * long stamp = lock.tryOptimisticRead();
+ * if (stamp != 0L) {
+ *     int result = super.read();
+ *     if (lock.validate(stamp)) {
+ *         return result;
+ *     }
+ * }
+ * synchronized (lock) {
+ *     return super.read();
+ * }
+ * </pre>
+ */
+public final class TraitLock {
+
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    private final StampedLock stampedLock = new StampedLock();
+    private final long order = NEXT_ORDER.getAndIncrement();
+    private int writeDepth; // guarded by this
+
+    /**
+     * @return the one of the two locks whose monitor is taken first when a thread needs both, e.g. to compare the
+     * state of two instances of a trait. Every thread takes them in the same order, so they can't deadlock.
+     */
+    public static TraitLock first(TraitLock a, TraitLock b) {
+        return a.order <= b.order ? a : b;
+    }
+
+    /**
+     * @return the one of the two locks whose monitor is taken second, see {@link #first(TraitLock, TraitLock)}
+     */
+    public static TraitLock second(TraitLock a, TraitLock b) {
+        return a.order <= b.order ? b : a;
+    }
+
+    /**
+     * @return a stamp to validate after reading, or 0 if a write is in progress
+     */
+    public long tryOptimisticRead() {
+        return stampedLock.tryOptimisticRead();
+    }
+
+    /**
+     * @return true if no write has started since the stamp was obtained
+     */
+    public boolean validate(long stamp) {
+        return stampedLock.validate(stamp);
+    }
+
+    /**
+     * Must be called while holding this object's monitor
+     *
+     * @return the stamp to pass to {@link #endWrite(long)}
+     */
+    public long beginWrite() {
+        return writeDepth++ == 0 ? stampedLock.writeLock() : 0L;
+    }
+
+    /**
+     * Must be called while holding this object's monitor, with the stamp returned by the matching
+     * {@link #beginWrite()}
+     */
+    public void endWrite(long stamp) {
+        writeDepth--;
+        if (stamp != 0L) {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times the calls to one trait method made through the forwarders of classes compiled with
+ * "-Ajavatraits.instrument". With "jmx", generated code calls {@link #begin()} before the trait method and
+ * {@link #end(long)} after it, whether it returns or throws. With "jfr", it calls {@link #beginEvent()} and
+ * {@link #endEvent(Object)} the same way.
+ */
+public final class TraitMethodProbe {
+
+    private final String trait;
+    private final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private volatile boolean countCalls;
+    private volatile boolean emitEvents;
+
+    TraitMethodProbe(String trait, String method) {
+        this.trait = trait;
+        this.method = method;
+    }
+
+    void enable(boolean countCalls, boolean emitEvents) {
+        this.countCalls |= countCalls;
+        this.emitEvents |= emitEvents;
+    }
+
+    /**
+     * @return the start time to pass to {@link #end(long)}
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(long startNanos) {
+        if (countCalls) {
+            calls.increment();
+            totalNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * @return the JFR event to pass to {@link #endEvent(Object)}, or null if the call isn't recorded
+     */
+    public Object beginEvent() {
+        return emitEvents ? TraitInstrumentation.EVENTS.begin(trait, method) : null;
+    }
+
+    public void endEvent(Object event) {
+        if (event != null) {
+            TraitInstrumentation.EVENTS.commit(event);
+        }
+    }
+
+    public String getTrait() {
+        return trait;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public void reset() {
+        calls.reset();
+        totalNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return trait + "." + method + ": " + getCalls() + " calls, " + getTotalNanos() + " ns";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable set of trait classes, stored as a bitset of the trait ids assigned by {@link Traits}.
+ * Membership checks are a single array read and a bit test.
+ */
+public final class TraitSet {
+
+    static final TraitSet EMPTY = new TraitSet(new long[0], Collections.<Class<?>>emptyList());
+
+    private final long[] words;
+    private final List<Class<?>> traits;
+
+    private TraitSet(long[] words, List<Class<?>> traits) {
+        this.words = words;
+        this.traits = traits;
+    }
+
+    static TraitSet of(Class<?>... traitClasses) {
+        TraitSet result = EMPTY;
+        for (Class<?> trait : traitClasses) {
+            result = result.with(trait);
+        }
+        return result;
+    }
+
+    TraitSet with(Class<?> trait) {
+        int id = Traits.idOf(trait);
+        if (containsId(id)) {
+            return this;
+        }
+        long[] newWords = Arrays.copyOf(words, Math.max(words.length, (id >>> 6) + 1));
+        newWords[id >>> 6] |= 1L << id;
+        List<Class<?>> newTraits = new ArrayList<Class<?>>(traits);
+        newTraits.add(trait);
+        return new TraitSet(newWords, Collections.unmodifiableList(newTraits));
+    }
+
+    TraitSet union(TraitSet other) {
+        TraitSet result = this;
+        for (Class<?> trait : other.traits) {
+            result = result.with(trait);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if this set contains the given trait class
+     */
+    public boolean contains(Class<?> trait) {
+        return containsId(Traits.idOf(trait));
+    }
+
+    /**
+     * @return true if this set contains the trait with the given id
+     * @see Traits#idOf(Class)
+     */
+    public boolean containsId(int id) {
+        int word = id >>> 6;
+        return word < words.length && (words[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * @return the trait classes in this set, in registration order
+     */
+    public List<Class<?>> getTraits() {
+        return traits;
+    }
+
+    public boolean isEmpty() {
+        return traits.isEmpty();
+    }
+
+    public int size() {
+        return traits.size();
+    }
+
+    @Override
+    public String toString() {
+        return traits.toString();
+    }
+}
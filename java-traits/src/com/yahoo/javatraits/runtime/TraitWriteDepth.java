@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which objects each thread is inside a trait method of that writes tracked state, so change listeners are
+ * notified once when the outermost call on an object returns. Generated superclasses use it instead of a plain
+ * counter field when a tracked trait is thread-safe, since concurrent calls would otherwise lose updates of the
+ * counter. A single thread local stack is shared by all objects, rather than one thread local per object, and
+ * objects are compared by identity. Used by generated code; not intended to be used directly.
+ */
+public final class TraitWriteDepth {
+
+    private static final ThreadLocal<Entered> ENTERED = new ThreadLocal<Entered>() {
+        @Override
+        protected Entered initialValue() {
+            return new Entered();
+        }
+    };
+
+    private TraitWriteDepth() {
+    }
+
+    public static void enter(Object host) {
+        ENTERED.get().push(host);
+    }
+
+    /**
+     * Must be called in a finally block matching each {@link #enter(Object)}
+     * @return true if the calling thread left its outermost call on host
+     */
+    public static boolean exit(Object host) {
+        return ENTERED.get().pop(host);
+    }
+
+    private static final class Entered {
+
+        private Object[] hosts = new Object[8];
+        private int size;
+
+        void push(Object host) {
+            if (size == hosts.length) {
+                hosts = Arrays.copyOf(hosts, size * 2);
+            }
+            hosts[size++] = host;
+        }
+
+        boolean pop(Object host) {
+            hosts[--size] = null;
+            // Calls nest shallowly, so scanning the stack is cheaper than keeping a count per object
+            for (int i = size - 1; i >= 0; i--) {
+                if (hosts[i] == host) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runtime registry of the traits used by classes annotated with {@literal @}HasTraits.
+ *
+ * <br/><br/>
+ *
+ * Every generated "WithTraits" superclass registers its trait classes from a static initializer,
+ * so the registry is populated as soon as a class with traits is initialized. Lookups go through
+ * {@link ClassValue} caches and never walk the interfaces of a class reflectively, which makes
+ * {@link #has(Object, Class)} cheap enough to call on hot paths:
+ * <pre>
+ * if (Traits.has(obj, Rectangular.class)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class Traits {
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final ConcurrentMap<Class<?>, TraitSet> REGISTERED = new ConcurrentHashMap<Class<?>, TraitSet>();
+
+    private static final ClassValue<Integer> TRAIT_IDS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> trait) {
+            return NEXT_ID.getAndIncrement();
+        }
+    };
+
+    private static final ClassValue<TraitSet> TRAIT_SETS = new ClassValue<TraitSet>() {
+        @Override
+        protected TraitSet computeValue(Class<?> type) {
+            ensureInitialized(type);
+            TraitSet result = REGISTERED.get(type);
+            if (result == null) {
+                result = TraitSet.EMPTY;
+            }
+            Class<?> superclass = type.getSuperclass();
+            if (superclass != null) {
+                result = result.union(TRAIT_SETS.get(superclass));
+            }
+            return result;
+        }
+    };
+
+    private Traits() {
+        // no instances
+    }
+
+    /**
+     * Called from the static initializer of each generated "WithTraits" class. Not intended
+     * to be called directly.
+     */
+    public static void register(Class<?> generatedSuperclass, Class<?>... traits) {
+        REGISTERED.put(generatedSuperclass, TraitSet.of(traits));
+    }
+
+    /**
+     * @return true if the object's class (or one of its superclasses) declares the given trait
+     * in a {@literal @}HasTraits annotation. Returns false for null objects.
+     */
+    public static boolean has(Object obj, Class<?> trait) {
+        return obj != null && TRAIT_SETS.get(obj.getClass()).contains(trait);
+    }
+
+    /**
+     * @return the set of traits used by the given class and its superclasses
+     */
+    public static TraitSet of(Class<?> type) {
+        return TRAIT_SETS.get(type);
+    }
+
+    /**
+     * @return a small, dense integer id for the given trait class. Ids are assigned on first use and
+     * are stable for the lifetime of the class loader that loaded this class.
+     */
+    public static int idOf(Class<?> trait) {
+        return TRAIT_IDS.get(trait);
+    }
+
+    // Registration happens in the generated superclass' static initializer, so a generated superclass
+    // that has never been initialized (e.g. when calling of(SomeClass.class) before any instance exists)
+    // must be initialized before its trait set can be computed. Other classes are left alone, since
+    // initializing them would run arbitrary code.
+    private static void ensureInitialized(Class<?> type) {
+        if (!declaresRegistration(type)) {
+            return;
+        }
+        try {
+            Class.forName(type.getName(), true, type.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            // Not addressable by name (e.g. a lambda or hidden class), so it can't have registered traits
+        } catch (LinkageError e) {
+            // Same as above
+        }
+    }
+
+    private static boolean declaresRegistration(Class<?> type) {
+        for (Class<?> implemented : type.getInterfaces()) {
+            if (implemented == RegistersTraits.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
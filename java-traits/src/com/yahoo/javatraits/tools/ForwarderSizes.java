@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.tools;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads a class file and measures the bytecode size of the methods in it that take part in trait forwarding: the
+ * default__ methods of a delegate wrapper, and any method that calls a default__ method, like the forwarders of a
+ * generated "WithTraits" superclass. Only the parts of the class file needed for that are parsed.
+ */
+final class ForwarderSizes {
+
+    static final String DEFAULT_METHOD_PREFIX = "default__";
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_NATIVE = 0x0100;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int WIDE = 0xc4;
+    private static final int IINC = 0x84;
+
+    private static final int[] INSTRUCTION_LENGTHS = new int[256];
+
+    static {
+        for (int i = 0; i < INSTRUCTION_LENGTHS.length; i++) {
+            INSTRUCTION_LENGTHS[i] = 1;
+        }
+        setLength(2, 0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a, 0xa9, 0xbc);
+        setLength(3, 0x11, 0x13, 0x14, IINC, 0xb2, 0xb3, 0xb4, 0xb5, INVOKEVIRTUAL, INVOKESPECIAL, 0xb8, 0xbb, 0xbd,
+                0xc0, 0xc1, 0xc6, 0xc7);
+        for (int branch = 0x99; branch <= 0xa8; branch++) {
+            INSTRUCTION_LENGTHS[branch] = 3;
+        }
+        setLength(4, 0xc5);
+        setLength(5, 0xb9, 0xba, 0xc8, 0xc9);
+    }
+
+    private static void setLength(int length, int... opcodes) {
+        for (int opcode : opcodes) {
+            INSTRUCTION_LENGTHS[opcode] = length;
+        }
+    }
+
+    private String className;
+    private Object[] pool;
+    private int[] poolTags;
+    private final Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+
+    private ForwarderSizes() {
+        // use read()
+    }
+
+    /**
+     * @return the binary name of the class and the bytecode sizes of its forwarding methods, keyed by
+     * className#methodName(descriptor)
+     */
+    static Map<String, Integer> read(InputStream classFile) throws IOException {
+        ForwarderSizes reader = new ForwarderSizes();
+        reader.parse(new DataInputStream(classFile));
+        return reader.sizes;
+    }
+
+    private void parse(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        readConstantPool(in);
+        in.readUnsignedShort(); // access flags
+        className = utf8((Integer) pool[in.readUnsignedShort()]).replace('/', '.');
+        in.readUnsignedShort(); // superclass
+        skip(in, 2 * in.readUnsignedShort()); // interfaces
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            skip(in, 6);
+            skipAttributes(in);
+        }
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            readMethod(in);
+        }
+    }
+
+    private void readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        pool = new Object[count];
+        poolTags = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            poolTags[i] = tag;
+            switch (tag) {
+            case CONSTANT_UTF8:
+                pool[i] = in.readUTF();
+                break;
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                pool[i] = in.readUnsignedShort();
+                break;
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+                pool[i] = new int[] { in.readUnsignedShort(), in.readUnsignedShort() };
+                break;
+            case CONSTANT_INTEGER:
+            case CONSTANT_FLOAT:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                skip(in, 4);
+                break;
+            case CONSTANT_LONG:
+            case CONSTANT_DOUBLE:
+                skip(in, 8);
+                i++;
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                skip(in, 3);
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag + " in " + className);
+            }
+        }
+    }
+
+    private void readMethod(DataInputStream in) throws IOException {
+        int access = in.readUnsignedShort();
+        String name = utf8(in.readUnsignedShort());
+        String descriptor = utf8(in.readUnsignedShort());
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String attribute = utf8(in.readUnsignedShort());
+            int length = in.readInt();
+            if (!"Code".equals(attribute) || (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0) {
+                skip(in, length);
+                continue;
+            }
+            skip(in, 4); // max stack, max locals
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            skip(in, length - 8 - code.length);
+            if (name.startsWith(DEFAULT_METHOD_PREFIX) || callsDefaultMethod(code)) {
+                sizes.put(className + "#" + name + descriptor, code.length);
+            }
+        }
+    }
+
+    private boolean callsDefaultMethod(byte[] code) throws IOException {
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc] & 0xff;
+            if ((opcode == INVOKEVIRTUAL || opcode == INVOKESPECIAL) && isDefaultMethodRef(u2(code, pc + 1))) {
+                return true;
+            }
+            pc += instructionLength(code, pc, opcode);
+        }
+        return false;
+    }
+
+    private boolean isDefaultMethodRef(int index) {
+        if (poolTags[index] != CONSTANT_METHODREF) {
+            return false;
+        }
+        int[] nameAndType = (int[]) pool[((int[]) pool[index])[1]];
+        return utf8(nameAndType[0]).startsWith(DEFAULT_METHOD_PREFIX);
+    }
+
+    private static int instructionLength(byte[] code, int pc, int opcode) {
+        if (opcode == WIDE) {
+            return (code[pc + 1] & 0xff) == IINC ? 6 : 4;
+        } else if (opcode == TABLESWITCH || opcode == LOOKUPSWITCH) {
+            int operands = (pc + 4) & ~3; // operands are 4-byte aligned relative to the start of the code
+            if (opcode == TABLESWITCH) {
+                int low = s4(code, operands + 4);
+                int high = s4(code, operands + 8);
+                return operands + 12 + 4 * (high - low + 1) - pc;
+            }
+            return operands + 8 + 8 * s4(code, operands + 4) - pc;
+        }
+        return INSTRUCTION_LENGTHS[opcode];
+    }
+
+    private String utf8(int index) {
+        return (String) pool[index];
+    }
+
+    private static int u2(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private static int s4(byte[] code, int offset) {
+        return (u2(code, offset) << 16) | u2(code, offset + 2);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            skip(in, 2);
+            skip(in, in.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        in.readFully(new byte[bytes]);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Yahoo Inc.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+
+ *   http://www.apache.org/licenses/LICENSE-2.0
+
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yahoo.javatraits.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the generated forwarding chain (XWithTraits.m -&gt; FooDelegateWrapper.default__m -&gt; super.m) stays
+ * small enough for HotSpot to inline. Run it on the compiled classes of a module that uses traits:
+ * <pre>
+ * java com.yahoo.javatraits.tools.InliningVerifier [--max-inline-size 35] [--freq-inline-size 325]
+ *     [--baseline inlining-baseline.properties [--write-baseline]] [--harness com.example.Harness] classesDir...
+ * </pre>
+ *
+ * The verifier measures the bytecode size of every forwarder in the generated classes. Forwarders larger than
+ * MaxInlineSize are only inlined at hot call sites and are reported as warnings; forwarders larger than
+ * FreqInlineSize are never inlined and fail the check. With a baseline, a forwarder over MaxInlineSize also fails
+ * the check if it's new or has grown since the baseline was written. With --harness, the given main class is run in
+ * a separate JVM with -XX:+PrintInlining, and every call into a generated class that C2 declined to inline for a
+ * reason other than missing profile data fails the check. The process exits with status 1 if the check fails.
+ */
+public final class InliningVerifier {
+
+    public static final int DEFAULT_MAX_INLINE_SIZE = 35;
+    public static final int DEFAULT_FREQ_INLINE_SIZE = 325;
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String C1_TOO_LARGE = "callee is too large";
+    private static final String MEMO_MISS_PREFIX = "miss__";
+    private static final Pattern INLINING_LINE =
+            Pattern.compile("@\\s*\\d+\\s+(\\S+)::(\\S+)\\s+\\((\\d+) bytes\\)\\s+(.*)$");
+
+    private final List<File> classDirectories = new ArrayList<File>();
+    private int maxInlineSize = DEFAULT_MAX_INLINE_SIZE;
+    private int freqInlineSize = DEFAULT_FREQ_INLINE_SIZE;
+    private File baseline;
+    private boolean writeBaseline;
+    private String harness;
+    private final List<String> harnessArguments = new ArrayList<String>();
+
+    private final List<String> warnings = new ArrayList<String>();
+    private final List<String> failures = new ArrayList<String>();
+
+    private InliningVerifier() {
+        // use main()
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        InliningVerifier verifier = new InliningVerifier();
+        verifier.parseArguments(args);
+        if (!verifier.run()) {
+            System.exit(1);
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--max-inline-size".equals(arg)) {
+                maxInlineSize = Integer.parseInt(args[++i]);
+            } else if ("--freq-inline-size".equals(arg)) {
+                freqInlineSize = Integer.parseInt(args[++i]);
+            } else if ("--baseline".equals(arg)) {
+                baseline = new File(args[++i]);
+            } else if ("--write-baseline".equals(arg)) {
+                writeBaseline = true;
+            } else if ("--harness".equals(arg)) {
+                harness = args[++i];
+            } else if ("--".equals(arg)) {
+                harnessArguments.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            } else {
+                classDirectories.add(new File(arg));
+            }
+        }
+        if (classDirectories.isEmpty()) {
+            throw new IllegalArgumentException("Usage: InliningVerifier [--max-inline-size n] [--freq-inline-size n] "
+                    + "[--baseline file [--write-baseline]] [--harness mainClass] classesDir... [-- harness args]");
+        }
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        Map<String, Integer> sizes = new TreeMap<String, Integer>();
+        for (File directory : classDirectories) {
+            collectSizes(directory, sizes);
+        }
+        System.out.println("Measured " + sizes.size() + " trait forwarders");
+        checkSizes(sizes);
+        if (harness != null) {
+            runHarness();
+        }
+        for (String warning : warnings) {
+            System.out.println("WARNING: " + warning);
+        }
+        for (String failure : failures) {
+            System.out.println("FAILURE: " + failure);
+        }
+        if (writeBaseline && baseline != null) {
+            writeBaseline(sizes);
+            System.out.println("Wrote " + baseline);
+        }
+        return failures.isEmpty();
+    }
+
+    /**
+     * @return the bytecode sizes of the trait forwarders in the generated classes of the given class file, keyed by
+     * className#methodName(descriptor). Classes that aren't generated trait classes give an empty map.
+     */
+    public static Map<String, Integer> measure(String className, InputStream classFile) throws IOException {
+        if (!isGeneratedClass(className)) {
+            return new TreeMap<String, Integer>();
+        }
+        return ForwarderSizes.read(classFile);
+    }
+
+    private static boolean isGeneratedClass(String className) {
+        String outer = className.substring(className.lastIndexOf('.') + 1);
+        int nested = outer.indexOf('$');
+        if (nested >= 0) {
+            outer = outer.substring(0, nested);
+        }
+        return outer.endsWith("WithTraits") || outer.endsWith("DelegateWrapper");
+    }
+
+    private void collectSizes(File file, Map<String, Integer> sizes) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                collectSizes(child, sizes);
+            }
+        } else if (file.getName().endsWith(CLASS_SUFFIX)) {
+            String name = file.getName().substring(0, file.getName().length() - CLASS_SUFFIX.length());
+            InputStream in = new FileInputStream(file);
+            try {
+                sizes.putAll(measure(name, in));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private void checkSizes(Map<String, Integer> sizes) throws IOException {
+        Properties previous = new Properties();
+        if (baseline != null && baseline.exists() && !writeBaseline) {
+            InputStream in = new FileInputStream(baseline);
+            try {
+                previous.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            String method = entry.getKey();
+            int size = entry.getValue();
+            if (size > freqInlineSize) {
+                failures.add(method + " is " + size + " bytes, over FreqInlineSize (" + freqInlineSize
+                        + "), so it's never inlined");
+            } else if (size > maxInlineSize) {
+                String previousSize = previous.getProperty(method);
+                if (!previous.isEmpty() && (previousSize == null || size > Integer.parseInt(previousSize))) {
+                    failures.add(method + " grew to " + size + " bytes"
+                            + (previousSize == null ? "" : " from " + previousSize) + ", over MaxInlineSize ("
+                            + maxInlineSize + ")");
+                } else {
+                    warnings.add(method + " is " + size + " bytes, over MaxInlineSize (" + maxInlineSize
+                            + "), so it's only inlined where it's hot");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the sizes sorted and without a timestamp, so that changes to the baseline are easy to review
+     */
+    private void writeBaseline(Map<String, Integer> sizes) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(baseline), StandardCharsets.ISO_8859_1);
+        try {
+            out.write("# Bytecode sizes of generated trait forwarders, written by InliningVerifier --write-baseline\n");
+            for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void runHarness() throws IOException, InterruptedException {
+        StringBuilder classPath = new StringBuilder(System.getProperty("java.class.path"));
+        for (File directory : classDirectories) {
+            classPath.append(File.pathSeparatorChar).append(directory.getPath());
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-XX:+UnlockDiagnosticVMOptions");
+        command.add("-XX:+PrintCompilation");
+        command.add("-XX:+PrintInlining");
+        command.add("-cp");
+        command.add(classPath.toString());
+        command.add(harness);
+        command.addAll(harnessArguments);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Set<String> notInlined = new TreeSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String failure = parseInliningFailure(line);
+                if (failure != null) {
+                    notInlined.add(failure);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        int status = process.waitFor();
+        if (status != 0) {
+            failures.add("Harness " + harness + " exited with status " + status);
+        }
+        for (String failure : notInlined) {
+            failures.add(failure);
+        }
+    }
+
+    /**
+     * @return a description of the failure if the line is -XX:+PrintInlining output for a call into a generated
+     * class that wasn't inlined because of its size or the depth of the call chain, or null otherwise
+     */
+    static String parseInliningFailure(String line) {
+        Matcher matcher = INLINING_LINE.matcher(line);
+        if (!matcher.find() || !isGeneratedClass(matcher.group(1))) {
+            return null;
+        }
+        String reason = matcher.group(4).trim();
+        if (reason.startsWith("inline") || reason.startsWith("intrinsic") || reason.startsWith("force inline")
+                || reason.contains("never executed") || reason.contains("not reached")
+                || reason.contains("unloaded")) {
+            return null; // inlined, or not inlined for lack of profile data rather than because of its size
+        }
+        if (reason.contains(C1_TOO_LARGE)) {
+            return null; // C1 only inlines up to MaxInlineSize, which the size check already reports
+        }
+        if (matcher.group(2).startsWith(MEMO_MISS_PREFIX)) {
+            return null; // a memoized method's miss path is kept out of line on purpose
+        }
+        return matcher.group(1) + "::" + matcher.group(2) + " (" + matcher.group(3) + " bytes) was not inlined: "
+                + reason;
+    }
+}